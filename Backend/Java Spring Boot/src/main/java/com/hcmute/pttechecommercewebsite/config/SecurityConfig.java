@@ -1,5 +1,6 @@
 package com.hcmute.pttechecommercewebsite.config;
 
+import jakarta.servlet.DispatcherType;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
@@ -36,16 +37,27 @@ public class SecurityConfig {
         http
                 .csrf(csrf -> csrf.disable())
                 .authorizeHttpRequests(authorize -> authorize
+                        // Lượt dispatch ASYNC kết thúc các response streaming (xuất Excel) của request đã được phân quyền
+                        .dispatcherTypeMatchers(DispatcherType.ASYNC).permitAll()
                         // Các API public không cần xác thực
                         .requestMatchers("/swagger-ui/**", "/v3/api-docs/**", "/swagger-resources/**", "/webjars/**").permitAll()
+                        // Các API phân trang dành cho quản trị, khai báo trước để không bị khớp nhầm với /{id}
+                        .requestMatchers(HttpMethod.GET, "/api/products/inactive/page", "/api/orders/page", "/api/users/page")
+                        .hasAnyRole("ADMIN", "MANAGER", "MARKETING", "INVENTORY_MANAGER", "CUSTOMER_SUPPORT")
+                        // Mã giảm giá theo người dùng / giỏ hàng của người đăng nhập, khai báo trước để không bị khớp với /{id} công khai
+                        .requestMatchers("/api/discount-codes/best", "/api/discount-codes/usable")
+                        .authenticated()
+                        // Tính lại thống kê cho các ngày trong quá khứ, khai báo trước để không bị khớp nhầm với /{id}
+                        .requestMatchers("/api/statistics/backfill", "/api/statistics/backfill/**")
+                        .hasRole("ADMIN")
                         .requestMatchers(HttpMethod.GET, "/api/ad-images", "/api/ad-images/no-delete", "/api/ad-images/{id}", "/api/ad-images/search",
                                 "/api/brands", "/api/brands/no-delete", "/api/brands/{id}", "/api/brands/search",
-                                "/api/categories", "/api/categories/no-delete", "/api/categories/{id}", "/api/categories/search", "/api/categories/parent/{parentCategoryId}",
+                                "/api/categories", "/api/categories/no-delete", "/api/categories/{id}", "/api/categories/search", "/api/categories/parent/{parentCategoryId}", "/api/categories/tree",
                                 "/api/contacts", "/api/contacts/no-delete", "/api/contacts/{id}",
-                                "/api/discount-codes", "/api/discount-codes/no-delete", "/api/discount-codes/{id}", "/api/discount-codes/usable", "/api/discount-codes/search",
+                                "/api/discount-codes", "/api/discount-codes/no-delete", "/api/discount-codes/{id}", "/api/discount-codes/search",
                                 "/api/policies", "/api/policies/no-delete", "/api/policies/{id}", "/api/policies/search",
-                                "/api/products", "/api/products/active", "/api/products/search", "/api/products/search-filter", "/api/products/{id}", "/api/products/by-product-id/{productId}", "/api/users/verify",
-                                "/api/reviews", "/api/reviews/{id}", "/api/reviews/product/{productId}", "/videos/**", "/images/**",
+                                "/api/products", "/api/products/page", "/api/products/active", "/api/products/active/page", "/api/products/search", "/api/products/search-filter", "/api/products/suggest", "/api/products/{id}", "/api/products/by-product-id/{productId}", "/api/users/verify",
+                                "/api/reviews", "/api/reviews/page", "/api/reviews/{id}", "/api/reviews/product/{productId}", "/api/reviews/product/{productId}/page", "/videos/**", "/images/**",
                                 "/api/qas/product/{productId}", "/api/qas/user/{userId}", "/api/qas", "/api/qas/{id}", "/api/users/{id}", "/api/products/compare")
                         .permitAll()
                         .requestMatchers(HttpMethod.POST, "/api/users/register", "/api/users/login", "/api/users/forgot-password",
@@ -53,11 +65,11 @@ public class SecurityConfig {
                                 "/api/orders/vnpay/ipn", "/api/bug-reports", "/api/bug-reports/{id}/upload-image", "/api/bug-reports/{id}/upload-video")
                         .permitAll()
 
-                        .requestMatchers(HttpMethod.GET, "/api/users/{id}", "/api/orders/{id}", "/api/carts/user/{userId}", "/api/orders/user/{userId}")
+                        .requestMatchers(HttpMethod.GET, "/api/users/{id}", "/api/orders/{id}", "/api/carts/user/{userId}", "/api/orders/user/{userId}", "/api/orders/user/{userId}/page")
                         .hasAnyRole("ADMIN", "MANAGER", "MARKETING", "INVENTORY_MANAGER", "CUSTOMER_SUPPORT", "CUSTOMER")
 
                         .requestMatchers(HttpMethod.GET, "/api/ad-images/export-excel", "/api/discount-codes/export-excel", "/api/statistics",
-                                "/api/statistics/{id}", "/api/statistics/export-excel", "/api/inventories", "/api/inventories/filter", "/api/inventories/sorted",
+                                "/api/statistics/{id}", "/api/statistics/range", "/api/statistics/export-excel", "/api/inventories", "/api/inventories/filter", "/api/inventories/sorted",
                                 "/api/inventories/sorted-by-quantity", "/api/inventories/{id}", "/api/inventories/export-excel",
                                 "/api/brands/export-excel", "/api/categories/export-excel", "/api/contacts/export-excel", "/api/policies/export-excel",
                                 "/api/reviews/user/{userId}", "/api/reviews/product/{productId}", "/api/reviews/order/{orderId}", "/api/carts",
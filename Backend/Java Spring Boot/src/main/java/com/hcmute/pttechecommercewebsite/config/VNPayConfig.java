@@ -22,4 +22,8 @@ public class VNPayConfig {
 
     @Value("${vnpay.ipnUrl}")
     private String vnpIpnUrl;
+
+    // Thời hạn thanh toán (vnp_ExpireDate), cũng là thời gian giữ hàng của đơn VNPay
+    @Value("${vnpay.payment-timeout-minutes:15}")
+    private int vnpPaymentTimeoutMinutes;
 }
@@ -4,13 +4,14 @@ import com.hcmute.pttechecommercewebsite.dto.AdImageDTO;
 import com.hcmute.pttechecommercewebsite.exception.MessageResponse;
 import com.hcmute.pttechecommercewebsite.exception.ResourceNotFoundException;
 import com.hcmute.pttechecommercewebsite.service.AdImageService;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -18,7 +19,6 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.List;
 
@@ -164,18 +164,8 @@ public class AdImageController {
 
     @Operation(summary = "Xuất danh sách quảng cáo ra file Excel")
     @GetMapping("/export-excel")
-    public ResponseEntity<byte[]> exportAdImagesToExcel() {
-        try {
-            ByteArrayOutputStream outputStream = adImageService.exportAdImagesToExcel();
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=adImages.xlsx");
-            headers.add(HttpHeaders.CONTENT_TYPE, "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-
-            return new ResponseEntity<>(outputStream.toByteArray(), headers, HttpStatus.OK);
-        } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Lỗi khi xuất file Excel: " + e.getMessage()).getBytes());
-        }
+    public ResponseEntity<StreamingResponseBody> exportAdImagesToExcel() {
+        return ExcelExportUtil.attachment("adImages.xlsx", outputStream ->
+                adImageService.exportAdImagesToExcel(outputStream));
     }
 }
\ No newline at end of file
@@ -1,20 +1,21 @@
 package com.hcmute.pttechecommercewebsite.controller;
 
 import com.hcmute.pttechecommercewebsite.dto.BrandDTO;
+import com.hcmute.pttechecommercewebsite.dto.ImportResultDTO;
 import com.hcmute.pttechecommercewebsite.exception.MessageResponse;
 import com.hcmute.pttechecommercewebsite.exception.ResourceNotFoundException;
 import com.hcmute.pttechecommercewebsite.service.BrandService;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.List;
 
@@ -160,10 +161,14 @@ public class BrandController {
 
     @Operation(summary = "Import thương hiệu từ file Excel")
     @PostMapping("/import-excel")
-    public ResponseEntity<String> importBrandsFromExcel(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<?> importBrandsFromExcel(@RequestParam("file") MultipartFile file) {
         try {
-            brandService.importBrandsFromExcel(file);
-            return ResponseEntity.ok("Import dữ liệu thành công.");
+            // Trả về báo cáo số dòng đã nhập và lỗi của từng dòng
+            ImportResultDTO result = brandService.importBrandsFromExcel(file);
+            return ResponseEntity.ok(result);
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Lỗi khi import dữ liệu từ file Excel: " + e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Lỗi khi import dữ liệu từ file Excel: " + e.getMessage());
@@ -172,18 +177,8 @@ public class BrandController {
 
     @Operation(summary = "Xuất danh sách thương hiệu ra file Excel")
     @GetMapping("/export-excel")
-    public ResponseEntity<byte[]> exportBrandsToExcel() {
-        try {
-            ByteArrayOutputStream outputStream = brandService.exportBrandsToExcel();
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=brands.xlsx");
-            headers.add(HttpHeaders.CONTENT_TYPE, "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-
-            return new ResponseEntity<>(outputStream.toByteArray(), headers, HttpStatus.OK);
-        } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Lỗi khi xuất file Excel: " + e.getMessage()).getBytes());
-        }
+    public ResponseEntity<StreamingResponseBody> exportBrandsToExcel() {
+        return ExcelExportUtil.attachment("brands.xlsx", outputStream ->
+                brandService.exportBrandsToExcel(outputStream));
     }
 }
\ No newline at end of file
@@ -1,19 +1,21 @@
 package com.hcmute.pttechecommercewebsite.controller;
 
 import com.hcmute.pttechecommercewebsite.dto.CategoryDTO;
+import com.hcmute.pttechecommercewebsite.dto.CategoryTreeDTO;
+import com.hcmute.pttechecommercewebsite.dto.ImportResultDTO;
 import com.hcmute.pttechecommercewebsite.exception.MessageResponse;
 import com.hcmute.pttechecommercewebsite.exception.ResourceNotFoundException;
 import com.hcmute.pttechecommercewebsite.service.CategoryService;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.List;
 
@@ -55,6 +57,16 @@ public class CategoryController {
         return new ResponseEntity<>(categories, HttpStatus.OK);
     }
 
+    @Operation(summary = "Lấy toàn bộ cây danh mục đang hiển thị")
+    @GetMapping("/tree")
+    public ResponseEntity<List<CategoryTreeDTO>> getCategoryTree() {
+        List<CategoryTreeDTO> tree = categoryService.getCategoryTree();
+        if (tree.isEmpty()) {
+            return new ResponseEntity<>(HttpStatus.NO_CONTENT);
+        }
+        return new ResponseEntity<>(tree, HttpStatus.OK);
+    }
+
     @Operation(summary = "Lấy danh mục theo ID")
     @GetMapping("/{id}")
     public ResponseEntity<CategoryDTO> getCategoryById(@PathVariable String id) {
@@ -159,10 +171,14 @@ public class CategoryController {
 
     @Operation(summary = "Import danh mục từ file Excel")
     @PostMapping("/import-excel")
-    public ResponseEntity<String> importCategoriesFromExcel(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<?> importCategoriesFromExcel(@RequestParam("file") MultipartFile file) {
         try {
-            categoryService.importCategoriesFromExcel(file);
-            return ResponseEntity.ok("Import dữ liệu danh mục thành công.");
+            // Trả về báo cáo số dòng đã nhập và lỗi của từng dòng
+            ImportResultDTO result = categoryService.importCategoriesFromExcel(file);
+            return ResponseEntity.ok(result);
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Lỗi khi import dữ liệu từ file Excel: " + e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Lỗi khi import dữ liệu từ file Excel: " + e.getMessage());
@@ -171,21 +187,10 @@ public class CategoryController {
 
     @Operation(summary = "Export danh mục ra file Excel")
     @GetMapping("/export-excel")
-    public ResponseEntity<byte[]> exportCategoriesToExcel(
+    public ResponseEntity<StreamingResponseBody> exportCategoriesToExcel(
             @RequestParam(value = "sortBy", defaultValue = "name") String sortBy,
             @RequestParam(value = "sortOrder", defaultValue = "desc") String sortOrder) {
-
-        try {
-            ByteArrayOutputStream outputStream = categoryService.exportCategoriesToExcel(sortBy, sortOrder);
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=categories.xlsx");
-            headers.add(HttpHeaders.CONTENT_TYPE, "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-
-            return new ResponseEntity<>(outputStream.toByteArray(), headers, HttpStatus.OK);
-        } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Lỗi khi xuất file Excel: " + e.getMessage()).getBytes());
-        }
+        return ExcelExportUtil.attachment("categories.xlsx", outputStream ->
+                categoryService.exportCategoriesToExcel(sortBy, sortOrder, outputStream));
     }
 }
\ No newline at end of file
@@ -1,19 +1,22 @@
 package com.hcmute.pttechecommercewebsite.controller;
 
 import com.hcmute.pttechecommercewebsite.dto.DiscountCodeDTO;
+import com.hcmute.pttechecommercewebsite.dto.DiscountEvaluationDTO;
+import com.hcmute.pttechecommercewebsite.dto.OrderDTO;
 import com.hcmute.pttechecommercewebsite.exception.MessageResponse;
 import com.hcmute.pttechecommercewebsite.exception.ResourceNotFoundException;
 import com.hcmute.pttechecommercewebsite.service.DiscountCodeService;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.security.Principal;
 import java.util.List;
 
 @RestController
@@ -64,14 +67,51 @@ public class DiscountCodeController {
 
     @Operation(summary = "Lấy tất cả mã giảm giá có thể sử dụng")
     @GetMapping("/usable")
-    public ResponseEntity<List<DiscountCodeDTO>> getUsableDiscountCodes() {
-        List<DiscountCodeDTO> discountCodes = discountCodeService.getUsableDiscountCodes();
+    public ResponseEntity<List<DiscountCodeDTO>> getUsableDiscountCodes(Principal principal) {
+        List<DiscountCodeDTO> discountCodes = discountCodeService.getUsableDiscountCodes(
+                principal != null ? principal.getName() : null);
         if (discountCodes.isEmpty()) {
             return new ResponseEntity<>(HttpStatus.NO_CONTENT);
         }
         return new ResponseEntity<>(discountCodes, HttpStatus.OK);
     }
 
+    @Operation(summary = "Xếp hạng các mã giảm giá có thể áp dụng cho giỏ hàng theo số tiền giảm")
+    @GetMapping("/best")
+    public ResponseEntity<?> getBestDiscountCodesForCart(
+            @RequestParam String cartId,
+            @RequestParam(value = "shippingPrice", defaultValue = "0") double shippingPrice,
+            Principal principal) {
+        try {
+            List<DiscountEvaluationDTO> evaluations = discountCodeService.getBestDiscountCodesForCart(cartId, shippingPrice,
+                    principal != null ? principal.getName() : null);
+            if (evaluations.isEmpty()) {
+                return ResponseEntity.noContent().build();
+            }
+            return ResponseEntity.ok(evaluations);
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).body(new MessageResponse(e.getMessage(), cartId));
+        } catch (RuntimeException e) {
+            // Giỏ hàng không tồn tại hoặc đã bị xóa
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new MessageResponse(e.getMessage(), cartId));
+        }
+    }
+
+    @Operation(summary = "Xếp hạng các mã giảm giá có thể áp dụng cho đơn hàng theo số tiền giảm")
+    @PostMapping("/best")
+    public ResponseEntity<?> getBestDiscountCodesForOrder(@RequestBody OrderDTO orderDTO, Principal principal) {
+        try {
+            List<DiscountEvaluationDTO> evaluations = discountCodeService.getBestDiscountCodesForOrder(orderDTO,
+                    principal != null ? principal.getName() : null);
+            if (evaluations.isEmpty()) {
+                return ResponseEntity.noContent().build();
+            }
+            return ResponseEntity.ok(evaluations);
+        } catch (RuntimeException e) {
+            return ResponseEntity.badRequest().body(new MessageResponse(e.getMessage(), null));
+        }
+    }
+
     @Operation(summary = "Tìm kiếm mã giảm giá theo từ khoá")
     @GetMapping("/search")
     public ResponseEntity<List<DiscountCodeDTO>> searchDiscountCodes(@RequestParam String keyword) {
@@ -126,21 +166,10 @@ public class DiscountCodeController {
 
     @Operation(summary = "Xuất mã giảm giá ra file Excel")
     @GetMapping("/export-excel")
-    public ResponseEntity<byte[]> exportDiscountCodeToExcel(
+    public ResponseEntity<StreamingResponseBody> exportDiscountCodeToExcel(
             @RequestParam(value = "sortBy", defaultValue = "companyName") String sortBy,
             @RequestParam(value = "sortOrder", defaultValue = "desc") String sortOrder) {
-
-        try {
-            ByteArrayOutputStream outputStream = discountCodeService.exportDiscountCodesToExcel(sortBy, sortOrder);
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=discountCodes.xlsx");
-            headers.add(HttpHeaders.CONTENT_TYPE, "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-
-            return new ResponseEntity<>(outputStream.toByteArray(), headers, HttpStatus.OK);
-        } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Lỗi khi xuất file Excel: " + e.getMessage()).getBytes());
-        }
+        return ExcelExportUtil.attachment("discountCodes.xlsx", outputStream ->
+                discountCodeService.exportDiscountCodesToExcel(sortBy, sortOrder, outputStream));
     }
 }
\ No newline at end of file
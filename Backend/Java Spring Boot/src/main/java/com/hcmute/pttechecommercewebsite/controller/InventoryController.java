@@ -1,18 +1,19 @@
 package com.hcmute.pttechecommercewebsite.controller;
 
+import com.hcmute.pttechecommercewebsite.dto.ImportResultDTO;
 import com.hcmute.pttechecommercewebsite.dto.InventoryDTO;
 import com.hcmute.pttechecommercewebsite.model.Inventory;
 import com.hcmute.pttechecommercewebsite.service.InventoryService;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
@@ -79,10 +80,14 @@ public class InventoryController {
 
     @Operation(summary = "Import danh sách nhập kho từ file Excel")
     @PostMapping("/import-excel")
-    public ResponseEntity<String> importInventoriesFromExcel(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<?> importInventoriesFromExcel(@RequestParam("file") MultipartFile file) {
         try {
-            inventoryService.importInventoriesFromExcel(file);
-            return ResponseEntity.ok("Import thành công!");
+            // Trả về báo cáo số dòng đã nhập và lỗi của từng dòng
+            ImportResultDTO result = inventoryService.importInventoriesFromExcel(file);
+            return ResponseEntity.ok(result);
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Lỗi khi import: " + e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Lỗi khi import: " + e.getMessage());
@@ -91,22 +96,8 @@ public class InventoryController {
 
     @Operation(summary = "Xuất danh sách nhập kho ra file Excel")
     @GetMapping("/export-excel")
-    public ResponseEntity<byte[]> exportInventoriesToExcel(@RequestParam(required = false, defaultValue = "desc") String sort) {
-        try {
-            // Gọi service để xuất danh sách nhập kho
-            ByteArrayOutputStream outputStream = inventoryService.exportInventoriesToExcel(sort);
-
-            // Thiết lập các header cho response (để trình duyệt tải file Excel)
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=inventories.xlsx");
-            headers.add(HttpHeaders.CONTENT_TYPE, "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-
-            // Trả về file Excel dưới dạng byte array
-            return new ResponseEntity<>(outputStream.toByteArray(), headers, HttpStatus.OK);
-        } catch (IOException e) {
-            // Nếu có lỗi xảy ra trong quá trình xuất file Excel
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Lỗi khi xuất file Excel: " + e.getMessage()).getBytes());
-        }
+    public ResponseEntity<StreamingResponseBody> exportInventoriesToExcel(@RequestParam(required = false, defaultValue = "desc") String sort) {
+        return ExcelExportUtil.attachment("inventories.xlsx", outputStream ->
+                inventoryService.exportInventoriesToExcel(sort, outputStream));
     }
 }
\ No newline at end of file
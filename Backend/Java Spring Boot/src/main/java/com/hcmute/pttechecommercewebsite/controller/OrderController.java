@@ -2,21 +2,23 @@ package com.hcmute.pttechecommercewebsite.controller;
 
 import com.hcmute.pttechecommercewebsite.config.VNPayConfig;
 import com.hcmute.pttechecommercewebsite.util.VNPayUtil;
+import com.hcmute.pttechecommercewebsite.dto.CursorPageDTO;
 import com.hcmute.pttechecommercewebsite.dto.OrderDTO;
+import com.hcmute.pttechecommercewebsite.dto.OrderFilterDTO;
 import com.hcmute.pttechecommercewebsite.service.OrderService;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.servlet.http.HttpServletRequest;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -32,14 +34,26 @@ public class OrderController {
     @Autowired
     private VNPayConfig vnPayConfig;
 
-    @Operation(summary = "Lấy danh sách đơn hàng", description = "Có thể lọc theo phương thức thanh toán, trạng thái đơn hàng, trạng thái thanh toán và phương thức giao hàng")
+    @Operation(summary = "Lấy danh sách đơn hàng", description = "Kết hợp các bộ lọc: phương thức thanh toán, trạng thái thanh toán, trạng thái đơn hàng, phương thức giao hàng, khoảng ngày tạo (fromDate/toDate, yyyy-MM-dd), mã đơn, số điện thoại và tên người nhận; sortBy là latest hoặc oldest")
     @GetMapping
-    public List<OrderDTO> getAllOrders(@RequestParam(required = false) String paymentMethod,
-                                       @RequestParam(required = false) String paymentStatus,
-                                       @RequestParam(required = false) String orderStatus,
-                                       @RequestParam(required = false) String shippingMethod,
+    public List<OrderDTO> getAllOrders(@ModelAttribute OrderFilterDTO filter,
                                        @RequestParam(required = false, defaultValue = "latest") String sortBy) {
-        return orderService.getAllOrders(paymentMethod, paymentStatus, orderStatus, shippingMethod, sortBy);
+        return orderService.getAllOrders(filter, sortBy);
+    }
+
+    @Operation(summary = "Lấy danh sách đơn hàng theo trang", description = "Phân trang theo cursor, kết hợp các bộ lọc như danh sách đơn hàng; sortBy là latest hoặc oldest")
+    @GetMapping("/page")
+    public ResponseEntity<?> getOrdersPage(@ModelAttribute OrderFilterDTO filter,
+                                           @RequestParam(required = false, defaultValue = "latest") String sortBy,
+                                           @RequestParam(required = false) String cursor,
+                                           @RequestParam(required = false) Integer limit,
+                                           @RequestParam(defaultValue = "false") boolean includeTotal) {
+        try {
+            CursorPageDTO<OrderDTO> page = orderService.getOrdersPage(filter, sortBy, cursor, limit, includeTotal);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
     }
 
     @Operation(summary = "Lấy đơn hàng theo ID")
@@ -72,6 +86,20 @@ public class OrderController {
         return orderService.getOrdersByUserId(new ObjectId(userId));
     }
 
+    @Operation(summary = "Lấy đơn hàng của người dùng theo trang", description = "Phân trang theo cursor, mới nhất trước")
+    @GetMapping("/user/{userId}/page")
+    public ResponseEntity<?> getOrdersByUserIdPage(@PathVariable String userId,
+                                                   @RequestParam(required = false) String cursor,
+                                                   @RequestParam(required = false) Integer limit,
+                                                   @RequestParam(defaultValue = "false") boolean includeTotal) {
+        try {
+            CursorPageDTO<OrderDTO> page = orderService.getOrdersByUserIdPage(new ObjectId(userId), cursor, limit, includeTotal);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     @Operation(summary = "Lấy tất cả đơn hàng chứa sản phẩm theo ID")
     @GetMapping("/product/{productId}")
     public List<OrderDTO> getOrdersByProductId(@PathVariable String productId) {
@@ -221,9 +249,14 @@ public class OrderController {
                 return ResponseEntity.badRequest().body("Đơn hàng không tồn tại");
             }
 
+            // Gia hạn (hoặc giữ lại) hàng cho đến khi URL thanh toán hết hạn
+            orderService.renewStockHold(orderId);
+
             double amount = orderDTO.getFinalPrice();
             String paymentUrl = VNPayUtil.getPaymentUrl(orderId, amount, vnPayConfig);
             return ResponseEntity.ok(paymentUrl);
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.status(500).body("Lỗi tạo URL VNPay: " + e.getMessage());
         }
@@ -296,25 +329,9 @@ public class OrderController {
 
     @Operation(summary = "Xuất đơn hàng ra file Excel")
     @GetMapping("/export-excel")
-    public ResponseEntity<byte[]> exportOrdersToExcel(@RequestParam(required = false) String paymentMethod,
-                                                      @RequestParam(required = false) String paymentStatus,
-                                                      @RequestParam(required = false) String orderStatus,
-                                                      @RequestParam(required = false) String shippingMethod,
-                                                      @RequestParam(required = false, defaultValue = "latest") String sortBy) {
-        try {
-            // Gọi service để lấy danh sách đơn hàng và xuất ra file Excel
-            ByteArrayOutputStream outputStream = orderService.exportOrdersToExcel(paymentMethod, paymentStatus, orderStatus, shippingMethod, sortBy);
-
-            // Thiết lập các header HTTP cho response
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=orders.xlsx");
-            headers.add(HttpHeaders.CONTENT_TYPE, "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-
-            // Trả về response chứa dữ liệu file Excel
-            return new ResponseEntity<>(outputStream.toByteArray(), headers, HttpStatus.OK);
-        } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Lỗi khi xuất file Excel: " + e.getMessage()).getBytes());
-        }
+    public ResponseEntity<StreamingResponseBody> exportOrdersToExcel(@ModelAttribute OrderFilterDTO filter,
+                                                                     @RequestParam(required = false, defaultValue = "latest") String sortBy) {
+        return ExcelExportUtil.attachment("orders.xlsx", outputStream ->
+                orderService.exportOrdersToExcel(filter, sortBy, outputStream));
     }
 }
\ No newline at end of file
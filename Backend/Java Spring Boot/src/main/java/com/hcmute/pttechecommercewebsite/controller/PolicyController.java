@@ -4,17 +4,16 @@ import com.hcmute.pttechecommercewebsite.dto.PolicyDTO;
 import com.hcmute.pttechecommercewebsite.exception.MessageResponse;
 import com.hcmute.pttechecommercewebsite.exception.ResourceNotFoundException;
 import com.hcmute.pttechecommercewebsite.service.PolicyService;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.util.List;
 
 @RestController
@@ -117,21 +116,10 @@ public class PolicyController {
 
     @Operation(summary = "Xuất danh sách chính sách ra file Excel", description = "Tải xuống file Excel chứa danh sách chính sách theo tiêu chí lọc và sắp xếp")
     @GetMapping("/export-excel")
-    public ResponseEntity<byte[]> exportPoliciesToExcel(
+    public ResponseEntity<StreamingResponseBody> exportPoliciesToExcel(
             @RequestParam(value = "sortBy", defaultValue = "title") String sortBy,
             @RequestParam(value = "sortOrder", defaultValue = "desc") String sortOrder) {
-
-        try {
-            ByteArrayOutputStream outputStream = policyService.exportPoliciesToExcel(sortBy, sortOrder);
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=policies.xlsx");
-            headers.add(HttpHeaders.CONTENT_TYPE, "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-
-            return new ResponseEntity<>(outputStream.toByteArray(), headers, HttpStatus.OK);
-        } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Lỗi khi xuất file Excel: " + e.getMessage()).getBytes());
-        }
+        return ExcelExportUtil.attachment("policies.xlsx", outputStream ->
+                policyService.exportPoliciesToExcel(sortBy, sortOrder, outputStream));
     }
 }
\ No newline at end of file
@@ -1,18 +1,22 @@
 package com.hcmute.pttechecommercewebsite.controller;
 
 import com.hcmute.pttechecommercewebsite.dto.ComparisonResultDTO;
+import com.hcmute.pttechecommercewebsite.dto.CursorPageDTO;
+import com.hcmute.pttechecommercewebsite.dto.ImportResultDTO;
 import com.hcmute.pttechecommercewebsite.dto.ProductDTO;
+import com.hcmute.pttechecommercewebsite.dto.ProductSearchResultDTO;
+import com.hcmute.pttechecommercewebsite.dto.SuggestionDTO;
 import com.hcmute.pttechecommercewebsite.exception.ResourceNotFoundException;
 import com.hcmute.pttechecommercewebsite.service.ProductService;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
@@ -54,6 +58,64 @@ public class ProductController {
         return ResponseEntity.ok(result);
     }
 
+    @Operation(summary = "Lấy sản phẩm theo trang", description = "Phân trang theo cursor: truyền nextCursor của trang trước để lấy trang kế tiếp")
+    @GetMapping("/page")
+    public ResponseEntity<?> getProductsPage(
+            @RequestParam(required = false) String sortBy,
+            @RequestParam(required = false) String sortOrder,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(defaultValue = "false") boolean includeTotal) {
+        try {
+            CursorPageDTO<ProductDTO> page = productService.getProductsPage(sortBy, sortOrder, cursor, limit, includeTotal);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @Operation(summary = "Lấy sản phẩm đang hoạt động theo trang", description = "Giống /active nhưng phân trang theo cursor")
+    @GetMapping("/active/page")
+    public ResponseEntity<?> getActiveProductsPage(
+            @RequestParam(required = false) String sortBy,
+            @RequestParam(required = false) String sortOrder,
+            @RequestParam(required = false) List<String> brandName,
+            @RequestParam(required = false) List<String> categoryName,
+            @RequestParam(required = false) List<String> visibilityType,
+            @RequestParam(required = false) List<String> condition,
+            @RequestParam(required = false) Double minPrice,
+            @RequestParam(required = false) Double maxPrice,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(defaultValue = "false") boolean includeTotal
+    ) {
+        try {
+            CursorPageDTO<ProductDTO> page = productService.getActiveProductsPage(
+                    sortBy, sortOrder, brandName, categoryName, visibilityType, condition, minPrice, maxPrice,
+                    cursor, limit, includeTotal
+            );
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @Operation(summary = "Lấy sản phẩm không hoạt động theo trang", description = "Giống /inactive nhưng phân trang theo cursor")
+    @GetMapping("/inactive/page")
+    public ResponseEntity<?> getInactiveProductsPage(
+            @RequestParam(required = false) String sortBy,
+            @RequestParam(required = false) String sortOrder,
+            @RequestParam(required = false) String cursor,
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(defaultValue = "false") boolean includeTotal) {
+        try {
+            CursorPageDTO<ProductDTO> page = productService.getInactiveProductsPage(sortBy, sortOrder, cursor, limit, includeTotal);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     @Operation(summary = "Lấy tất cả sản phẩm không hoạt động", description = "Trả về danh sách sản phẩm đã bị vô hiệu hóa")
     @GetMapping("/inactive")
     public ResponseEntity<List<ProductDTO>> getAllInactiveProducts(
@@ -62,17 +124,21 @@ public class ProductController {
         return ResponseEntity.ok(products);
     }
 
-    @Operation(summary = "Lấy 10 sản phẩm bán chạy nhất", description = "Trả về danh sách 10 sản phẩm có doanh số bán cao nhất")
+    @Operation(summary = "Lấy các sản phẩm bán chạy nhất", description = "Trả về danh sách sản phẩm có doanh số bán cao nhất (mặc định 10, có thể lọc theo danh mục)")
     @GetMapping("/top-selling")
-    public ResponseEntity<List<ProductDTO>> getTopSellingProducts() {
-        List<ProductDTO> products = productService.getTopSellingProducts();
+    public ResponseEntity<List<ProductDTO>> getTopSellingProducts(
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String categoryId) {
+        List<ProductDTO> products = productService.getTopSellingProducts(limit, categoryId);
         return ResponseEntity.ok(products);
     }
 
-    @Operation(summary = "Lấy 10 sản phẩm được đánh giá cao nhất", description = "Trả về 10 sản phẩm có số lượng đánh giá và sao cao nhất")
+    @Operation(summary = "Lấy các sản phẩm được đánh giá cao nhất", description = "Trả về các sản phẩm có số sao và số lượng đánh giá cao nhất (mặc định 10, có thể lọc theo danh mục)")
     @GetMapping("/top-rated")
-    public ResponseEntity<List<ProductDTO>> getTopRatedProducts() {
-        List<ProductDTO> products = productService.getTopRatedProducts();
+    public ResponseEntity<List<ProductDTO>> getTopRatedProducts(
+            @RequestParam(required = false) Integer limit,
+            @RequestParam(required = false) String categoryId) {
+        List<ProductDTO> products = productService.getTopRatedProducts(limit, categoryId);
         return ResponseEntity.ok(products);
     }
 
@@ -90,9 +156,17 @@ public class ProductController {
         return ResponseEntity.ok(products);
     }
 
-    @Operation(summary = "Tìm kiếm sản phẩm với bộ lọc", description = "Tìm kiếm theo từ khóa kết hợp bộ lọc nâng cao")
+    @Operation(summary = "Gợi ý tìm kiếm", description = "Gợi ý tên sản phẩm, thương hiệu, danh mục theo tiền tố (không phân biệt dấu)")
+    @GetMapping("/suggest")
+    public ResponseEntity<List<SuggestionDTO>> getSuggestions(
+            @RequestParam String prefix,
+            @RequestParam(required = false) Integer limit) {
+        return ResponseEntity.ok(productService.getSuggestions(prefix, limit));
+    }
+
+    @Operation(summary = "Tìm kiếm sản phẩm với bộ lọc", description = "Tìm kiếm theo từ khóa kết hợp bộ lọc nâng cao, includeFacets=true để trả kèm số lượng theo từng nhóm lọc")
     @GetMapping("/search-filter")
-    public ResponseEntity<List<ProductDTO>> searchProductsWithFilters(
+    public ResponseEntity<?> searchProductsWithFilters(
             @RequestParam String keyword,
             @RequestParam(required = false) String sortBy,
             @RequestParam(required = false) String sortOrder,
@@ -101,12 +175,13 @@ public class ProductController {
             @RequestParam(required = false) List<String> visibilityType,
             @RequestParam(required = false) List<String> condition,
             @RequestParam(required = false) Double minPrice,
-            @RequestParam(required = false) Double maxPrice
+            @RequestParam(required = false) Double maxPrice,
+            @RequestParam(defaultValue = "false") boolean includeFacets
     ) {
-        List<ProductDTO> result = productService.searchWithFilters(
-                keyword, sortBy, sortOrder, brandName, categoryName, visibilityType, condition, minPrice, maxPrice
+        ProductSearchResultDTO result = productService.searchWithFilters(
+                keyword, sortBy, sortOrder, brandName, categoryName, visibilityType, condition, minPrice, maxPrice, includeFacets
         );
-        return ResponseEntity.ok(result);
+        return includeFacets ? ResponseEntity.ok(result) : ResponseEntity.ok(result.getProducts());
     }
 
     @Operation(summary = "Lấy sản phẩm theo ID", description = "Trả về chi tiết sản phẩm theo ID")
@@ -235,10 +310,14 @@ public class ProductController {
 
     @Operation(summary = "Import sản phẩm từ file Excel", description = "Nhập dữ liệu sản phẩm từ file Excel upload lên")
     @PostMapping("/import-excel")
-    public ResponseEntity<String> importProductsFromExcel(@RequestParam("file") MultipartFile file) {
+    public ResponseEntity<?> importProductsFromExcel(@RequestParam("file") MultipartFile file) {
         try {
-            productService.importProductsFromExcel(file);
-            return ResponseEntity.ok("Import dữ liệu sản phẩm thành công.");
+            // Trả về báo cáo số dòng đã nhập và lỗi của từng dòng
+            ImportResultDTO result = productService.importProductsFromExcel(file);
+            return ResponseEntity.ok(result);
+        } catch (IOException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body("Lỗi khi import sản phẩm từ file Excel: " + e.getMessage());
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
                     .body("Lỗi khi import sản phẩm từ file Excel: " + e.getMessage());
@@ -247,21 +326,10 @@ public class ProductController {
 
     @Operation(summary = "Xuất danh sách sản phẩm ra file Excel", description = "Xuất toàn bộ danh sách sản phẩm theo thứ tự sắp xếp ra file Excel")
     @GetMapping("/export-excel")
-    public ResponseEntity<byte[]> exportProductsToExcel(
+    public ResponseEntity<StreamingResponseBody> exportProductsToExcel(
             @RequestParam(value = "sortBy", defaultValue = "createdAt") String sortBy,
             @RequestParam(value = "sortOrder", defaultValue = "desc") String sortOrder) {
-
-        try {
-            ByteArrayOutputStream outputStream = productService.exportProductsToExcel(sortBy, sortOrder);
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=products.xlsx");
-            headers.add(HttpHeaders.CONTENT_TYPE, "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-
-            return new ResponseEntity<>(outputStream.toByteArray(), headers, HttpStatus.OK);
-        } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Lỗi khi xuất file Excel: " + e.getMessage()).getBytes());
-        }
+        return ExcelExportUtil.attachment("products.xlsx", outputStream ->
+                productService.exportProductsToExcel(sortBy, sortOrder, outputStream));
     }
 }
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.hcmute.pttechecommercewebsite.controller;
 
+import com.hcmute.pttechecommercewebsite.dto.CursorPageDTO;
 import com.hcmute.pttechecommercewebsite.dto.ReviewDTO;
 import com.hcmute.pttechecommercewebsite.model.Review;
 import com.hcmute.pttechecommercewebsite.service.ReviewService;
@@ -31,6 +32,33 @@ public class ReviewController {
         return ResponseEntity.ok(reviews);
     }
 
+    @Operation(summary = "Lấy đánh giá theo trang", description = "Phân trang theo cursor, mới nhất trước")
+    @GetMapping("/page")
+    public ResponseEntity<?> getReviewsPage(@RequestParam(required = false) String cursor,
+                                            @RequestParam(required = false) Integer limit,
+                                            @RequestParam(defaultValue = "false") boolean includeTotal) {
+        try {
+            CursorPageDTO<ReviewDTO> page = reviewService.getReviewsPage(cursor, limit, includeTotal);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    @Operation(summary = "Lấy đánh giá của sản phẩm theo trang", description = "Phân trang theo cursor, mới nhất trước")
+    @GetMapping("/product/{productId}/page")
+    public ResponseEntity<?> getReviewsByProductIdPage(@PathVariable String productId,
+                                                       @RequestParam(required = false) String cursor,
+                                                       @RequestParam(required = false) Integer limit,
+                                                       @RequestParam(defaultValue = "false") boolean includeTotal) {
+        try {
+            CursorPageDTO<ReviewDTO> page = reviewService.getReviewsByProductIdPage(new ObjectId(productId), cursor, limit, includeTotal);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     @Operation(summary = "Lấy đánh giá theo ID")
     @GetMapping("/{id}")
     public ResponseEntity<ReviewDTO> getReviewById(@PathVariable String id) {
@@ -1,17 +1,20 @@
 package com.hcmute.pttechecommercewebsite.controller;
 
+import com.hcmute.pttechecommercewebsite.dto.StatisticsBackfillJobDTO;
 import com.hcmute.pttechecommercewebsite.dto.StatisticsDTO;
+import com.hcmute.pttechecommercewebsite.exception.MessageResponse;
+import com.hcmute.pttechecommercewebsite.service.StatisticsBackfillService;
 import com.hcmute.pttechecommercewebsite.service.StatisticsService;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpHeaders;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.util.Date;
 import java.util.List;
 
@@ -23,6 +26,9 @@ public class StatisticsController {
     @Autowired
     private StatisticsService statisticsService;
 
+    @Autowired
+    private StatisticsBackfillService statisticsBackfillService;
+
     @Operation(summary = "Lấy tất cả thống kê",
             description = "Trả về danh sách các thống kê, có thể sắp xếp và lọc theo khoảng thời gian")
     @GetMapping
@@ -33,6 +39,24 @@ public class StatisticsController {
         return statisticsService.getAllStatistics(sortBy, period);
     }
 
+    @Operation(summary = "Lấy thống kê theo khoảng thời gian",
+            description = "Trả về thống kê trong khoảng [from, to] theo độ phân giải hour / day / week / month; " +
+                    "không truyền resolution thì chọn theo period (day / week / month / year) hoặc theo độ dài khoảng")
+    @GetMapping("/range")
+    public ResponseEntity<?> getStatisticsRange(
+            @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date from,
+            @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date to,
+            @RequestParam(name = "resolution", required = false) String resolution,
+            @RequestParam(name = "period", required = false) String period) {
+        try {
+            // Ngày kết thúc được tính trọn ngày
+            Date end = to != null ? new Date(to.getTime() + 24L * 60 * 60 * 1000 - 1) : null;
+            return ResponseEntity.ok(statisticsService.getStatisticsRange(from, end, resolution, period));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new MessageResponse(e.getMessage(), null));
+        }
+    }
+
     @Operation(summary = "Lấy chi tiết thống kê theo ID",
             description = "Trả về thông tin chi tiết của thống kê theo ID")
     @GetMapping("/{id}")
@@ -43,21 +67,70 @@ public class StatisticsController {
     @Operation(summary = "Xuất thống kê ra file Excel",
             description = "Xuất các dữ liệu thống kê thành file Excel để tải về")
     @GetMapping("/export-excel")
-    public ResponseEntity<byte[]> exportStatisticsToExcel(
+    public ResponseEntity<StreamingResponseBody> exportStatisticsToExcel(
             @RequestParam(name = "sortBy", defaultValue = "latest") String sortBy,
             @RequestParam(name = "period", required = false) String period) {
+        return ExcelExportUtil.attachment("statistics.xlsx", outputStream ->
+                statisticsService.exportStatisticsToExcel(sortBy, period, outputStream));
+    }
+
+    @Operation(summary = "Tính lại thống kê cho một khoảng ngày",
+            description = "Tạo tiến trình tính lại thống kê cho các ngày trong khoảng [from, to], chạy song song theo ngày; " +
+                    "không truyền from thì bắt đầu từ đơn hàng đầu tiên, không truyền to thì đến hôm nay")
+    @PostMapping("/backfill")
+    public ResponseEntity<?> startBackfill(
+            @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date from,
+            @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE) Date to) {
+        try {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(statisticsBackfillService.start(from, to));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(new MessageResponse(e.getMessage(), null));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new MessageResponse(e.getMessage(), null));
+        }
+    }
 
+    @Operation(summary = "Lấy danh sách tiến trình tính lại thống kê",
+            description = "Trả về các tiến trình tính lại thống kê cùng tiến độ, mới nhất trước")
+    @GetMapping("/backfill")
+    public List<StatisticsBackfillJobDTO> getBackfillJobs() {
+        return statisticsBackfillService.getJobs();
+    }
+
+    @Operation(summary = "Lấy tiến độ tiến trình tính lại thống kê",
+            description = "Trả về số ngày đã tính xong, số ngày bị lỗi và trạng thái của tiến trình")
+    @GetMapping("/backfill/{id}")
+    public ResponseEntity<?> getBackfillJob(@PathVariable String id) {
         try {
-            ByteArrayOutputStream outputStream = statisticsService.exportStatisticsToExcel(sortBy, period);
+            return ResponseEntity.ok(statisticsBackfillService.getJob(id));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new MessageResponse(e.getMessage(), id));
+        }
+    }
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=statistics.xlsx");
-            headers.add(HttpHeaders.CONTENT_TYPE, "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+    @Operation(summary = "Chạy tiếp tiến trình tính lại thống kê",
+            description = "Chạy tiếp tiến trình bị hủy, gián đoạn hoặc có ngày lỗi; chỉ tính lại các ngày chưa xong")
+    @PostMapping("/backfill/{id}/resume")
+    public ResponseEntity<?> resumeBackfill(@PathVariable String id) {
+        try {
+            return ResponseEntity.status(HttpStatus.ACCEPTED).body(statisticsBackfillService.resume(id));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new MessageResponse(e.getMessage(), id));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new MessageResponse(e.getMessage(), id));
+        }
+    }
 
-            return new ResponseEntity<>(outputStream.toByteArray(), headers, HttpStatus.OK);
-        } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Lỗi khi xuất file Excel: " + e.getMessage()).getBytes());
+    @Operation(summary = "Dừng tiến trình tính lại thống kê",
+            description = "Dừng tiến trình đang chạy; có thể chạy tiếp sau đó")
+    @PostMapping("/backfill/{id}/cancel")
+    public ResponseEntity<?> cancelBackfill(@PathVariable String id) {
+        try {
+            return ResponseEntity.ok(statisticsBackfillService.cancel(id));
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(new MessageResponse(e.getMessage(), id));
+        } catch (RuntimeException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(new MessageResponse(e.getMessage(), id));
         }
     }
 }
@@ -1,23 +1,24 @@
 package com.hcmute.pttechecommercewebsite.controller;
 
+import com.hcmute.pttechecommercewebsite.dto.CursorPageDTO;
 import com.hcmute.pttechecommercewebsite.dto.UserDTO;
 import com.hcmute.pttechecommercewebsite.exception.MessageResponse;
 import com.hcmute.pttechecommercewebsite.model.User;
 import com.hcmute.pttechecommercewebsite.service.EmailTemplateService;
 import com.hcmute.pttechecommercewebsite.service.UserService;
 import com.hcmute.pttechecommercewebsite.util.JwtUtil;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -44,6 +45,21 @@ public class UserController {
         return ResponseEntity.ok(users);
     }
 
+    @Operation(summary = "Lấy người dùng theo trang", description = "Phân trang theo cursor: truyền nextCursor của trang trước để lấy trang kế tiếp")
+    @GetMapping("/page")
+    public ResponseEntity<?> getUsersPage(@RequestParam(required = false) String sortBy,
+                                          @RequestParam(required = false) String sortOrder,
+                                          @RequestParam(required = false) String cursor,
+                                          @RequestParam(required = false) Integer limit,
+                                          @RequestParam(defaultValue = "false") boolean includeTotal) {
+        try {
+            CursorPageDTO<UserDTO> page = userService.getUsersPage(sortBy, sortOrder, cursor, limit, includeTotal);
+            return ResponseEntity.ok(page);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
     @Operation(summary = "Lấy người dùng theo ID",
             responses = {
                     @ApiResponse(responseCode = "200", description = "Người dùng được tìm thấy"),
@@ -238,20 +254,9 @@ public class UserController {
 
     @Operation(summary = "Xuất danh sách người dùng ra file Excel")
     @GetMapping("/export-excel")
-    public ResponseEntity<byte[]> exportUsersToExcel(@RequestParam(value = "sortBy", defaultValue = "createdAt") String sortBy,
+    public ResponseEntity<StreamingResponseBody> exportUsersToExcel(@RequestParam(value = "sortBy", defaultValue = "createdAt") String sortBy,
                                                      @RequestParam(value = "sortOrder", defaultValue = "desc") String sortOrder) {
-
-        try {
-            ByteArrayOutputStream outputStream = userService.exportUsersToExcel(sortBy, sortOrder);
-
-            HttpHeaders headers = new HttpHeaders();
-            headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=users.xlsx");
-            headers.add(HttpHeaders.CONTENT_TYPE, "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
-
-            return new ResponseEntity<>(outputStream.toByteArray(), headers, HttpStatus.OK);
-        } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                    .body(("Lỗi khi xuất file Excel: " + e.getMessage()).getBytes());
-        }
+        return ExcelExportUtil.attachment("users.xlsx", outputStream ->
+                userService.exportUsersToExcel(sortBy, sortOrder, outputStream));
     }
 }
\ No newline at end of file
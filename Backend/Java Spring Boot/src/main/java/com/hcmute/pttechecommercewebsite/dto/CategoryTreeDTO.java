@@ -0,0 +1,25 @@
+package com.hcmute.pttechecommercewebsite.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CategoryTreeDTO {
+
+    private String id;                       // ID duy nhất của danh mục
+    private String name;                     // Tên danh mục
+    private String description;              // Mô tả danh mục
+    private String parentCategoryId;         // ID danh mục cha
+    private String image;                    // Hình ảnh minh họa cho danh mục
+    private List<String> tags;               // Các tag liên quan đến danh mục
+    private String path;                     // Đường dẫn từ danh mục gốc, dạng "/idGốc/.../id"
+    private int depth;                       // Độ sâu trong cây (danh mục gốc = 0)
+    private List<CategoryTreeDTO> children;  // Các danh mục con đang hiển thị
+}
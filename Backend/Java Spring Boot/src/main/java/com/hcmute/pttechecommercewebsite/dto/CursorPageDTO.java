@@ -0,0 +1,34 @@
+package com.hcmute.pttechecommercewebsite.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class CursorPageDTO<T> {
+
+    private List<T> items;                   // Các phần tử của trang hiện tại.
+    private String nextCursor;               // Cursor để lấy trang kế tiếp (null nếu đã hết dữ liệu).
+    private boolean hasMore;                 // Còn trang kế tiếp hay không.
+    private int pageSize;                    // Kích thước trang đã áp dụng.
+    private Long totalCount;                 // Tổng số phần tử (chỉ trả về khi được yêu cầu).
+
+    // Chuyển đổi các phần tử của trang (ví dụ: Entity -> DTO), giữ nguyên thông tin phân trang
+    public <R> CursorPageDTO<R> map(Function<? super T, ? extends R> mapper) {
+        return CursorPageDTO.<R>builder()
+                .items(items.stream().map(mapper).collect(Collectors.toList()))
+                .nextCursor(nextCursor)
+                .hasMore(hasMore)
+                .pageSize(pageSize)
+                .totalCount(totalCount)
+                .build();
+    }
+}
@@ -0,0 +1,22 @@
+package com.hcmute.pttechecommercewebsite.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class DiscountEvaluationDTO {
+
+    private String id;                       // ID mã giảm giá
+    private String code;                     // Mã giảm giá
+    private String description;              // Mô tả về mã giảm giá
+    private String discountType;             // Loại giảm giá: "percentage" hoặc "fixed"
+    private Double discountValue;            // Giá trị giảm giá (phần trăm hoặc số tiền)
+    private String appliesTo;                // Loại áp dụng: "products", "shipping", hoặc "both"
+    private double eligibleAmount;           // Phần giá trị đơn được áp dụng mã (sản phẩm phù hợp và/hoặc phí vận chuyển)
+    private double discountAmount;           // Số tiền được giảm
+}
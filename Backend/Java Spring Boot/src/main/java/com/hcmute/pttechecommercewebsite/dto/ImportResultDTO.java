@@ -0,0 +1,31 @@
+package com.hcmute.pttechecommercewebsite.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ImportResultDTO {
+
+    private int totalRows;                   // Số dòng dữ liệu đã đọc (không tính dòng tiêu đề và dòng trống)
+    private int importedRows;                // Số dòng đã được ghi vào cơ sở dữ liệu
+    private int failedRows;                  // Số dòng bị lỗi
+    @Builder.Default
+    private List<RowErrorDTO> errors = new ArrayList<>(); // Chi tiết lỗi theo dòng (giới hạn số lượng trả về)
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class RowErrorDTO {
+        private int row;                     // Số thứ tự dòng trong file Excel (bắt đầu từ 1)
+        private String message;              // Mô tả lỗi
+    }
+}
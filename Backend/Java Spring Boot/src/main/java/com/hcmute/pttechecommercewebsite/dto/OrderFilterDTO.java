@@ -0,0 +1,32 @@
+package com.hcmute.pttechecommercewebsite.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
+
+import java.time.LocalDate;
+
+// Bộ lọc danh sách đơn hàng cho trang quản trị; các điều kiện được kết hợp với nhau (AND)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class OrderFilterDTO {
+
+    private String paymentMethod;            // Phương thức thanh toán
+    private String paymentStatus;            // Trạng thái thanh toán
+    private String orderStatus;              // Trạng thái đơn hàng
+    private String shippingMethod;           // Phương thức giao hàng
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate fromDate;              // Ngày tạo từ (yyyy-MM-dd, tính cả ngày này)
+
+    @DateTimeFormat(iso = DateTimeFormat.ISO.DATE)
+    private LocalDate toDate;                // Ngày tạo đến (yyyy-MM-dd, tính cả ngày này)
+
+    private String orderId;                  // Mã đơn hàng (khớp phần đầu)
+    private String phoneNumber;              // Số điện thoại người nhận (khớp phần đầu)
+    private String receiverName;             // Tên người nhận (chứa chuỗi, không phân biệt hoa thường)
+}
@@ -0,0 +1,34 @@
+package com.hcmute.pttechecommercewebsite.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductFacetsDTO {
+
+    // Mỗi nhóm được đếm với mọi bộ lọc khác trừ bộ lọc của chính nhóm đó,
+    // để sidebar vẫn hiển thị số lượng của các lựa chọn chưa được chọn.
+    private Map<String, Integer> brands;            // Tên thương hiệu -> số sản phẩm.
+    private Map<String, Integer> categories;        // Tên danh mục -> số sản phẩm.
+    private Map<String, Integer> conditions;        // Tình trạng -> số sản phẩm.
+    private Map<String, Integer> visibilityTypes;   // Loại hiển thị -> số sản phẩm.
+    private List<PriceRangeDTO> priceRanges;        // Khoảng giá -> số sản phẩm.
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class PriceRangeDTO {
+        private Double min;                  // Giá thấp nhất (bao gồm), null nếu không giới hạn.
+        private Double max;                  // Giá cao nhất (không bao gồm), null nếu không giới hạn.
+        private int count;                   // Số sản phẩm trong khoảng giá.
+    }
+}
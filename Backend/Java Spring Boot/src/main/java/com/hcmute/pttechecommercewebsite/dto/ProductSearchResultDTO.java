@@ -0,0 +1,18 @@
+package com.hcmute.pttechecommercewebsite.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ProductSearchResultDTO {
+
+    private List<ProductDTO> products;       // Danh sách sản phẩm thỏa bộ lọc.
+    private ProductFacetsDTO facets;         // Số lượng theo từng nhóm lọc (null nếu không yêu cầu).
+}
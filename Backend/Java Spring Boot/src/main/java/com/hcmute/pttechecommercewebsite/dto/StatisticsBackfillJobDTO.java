@@ -0,0 +1,31 @@
+package com.hcmute.pttechecommercewebsite.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Date;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class StatisticsBackfillJobDTO {
+
+    private String id;                       // ID tiến trình
+    private Date fromDate;                   // Ngày đầu tiên cần tính lại
+    private Date toDate;                     // Ngày cuối cùng cần tính lại
+    private String status;                   // RUNNING, COMPLETED, FAILED, CANCELLED hoặc INTERRUPTED
+    private int totalDays;                   // Tổng số ngày trong khoảng
+    private int completedDays;               // Số ngày đã tính xong
+    private int failedDays;                  // Số ngày bị lỗi
+    private double progress;                 // Tiến độ (%)
+    private List<Date> failedDates;          // Các ngày bị lỗi
+    private String lastError;                // Lỗi gần nhất
+    private Date startedAt;                  // Thời gian bắt đầu lần chạy gần nhất
+    private Date finishedAt;                 // Thời gian kết thúc lần chạy gần nhất
+    private Date createdAt;                  // Thời gian tạo tiến trình
+    private Date updatedAt;                  // Thời gian cập nhật tiến trình
+}
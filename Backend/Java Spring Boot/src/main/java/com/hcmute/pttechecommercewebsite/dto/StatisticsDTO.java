@@ -17,7 +17,9 @@ public class StatisticsDTO {
 
     private String id;                            // ID duy nhất của thống kê
 
-    private Date date;                              // Ngày thống kê
+    private Date date;                              // Ngày thống kê (đầu giờ / tuần / tháng với bản tổng hợp)
+
+    private String resolution;                      // Độ phân giải: hour / day / week / month
 
     private int totalOrders;                        // Tổng số đơn hàng trong ngày
     private int totalItemsSold;                     // Tổng số sản phẩm đã bán
@@ -0,0 +1,18 @@
+package com.hcmute.pttechecommercewebsite.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SuggestionDTO {
+
+    private String text;                     // Nội dung gợi ý (tên sản phẩm / thương hiệu / danh mục)
+    private String type;                     // Loại gợi ý: "product", "brand" hoặc "category"
+    private String id;                       // ID của đối tượng được gợi ý
+    private long popularity;                 // Độ phổ biến dùng để xếp hạng (tổng số lượng đã bán)
+}
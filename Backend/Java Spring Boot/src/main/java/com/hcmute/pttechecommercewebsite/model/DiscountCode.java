@@ -53,9 +53,7 @@ public class DiscountCode {
 
     private Integer usageLimit;              // Số lần mã giảm giá có thể được sử dụng
 
-    private Integer usageCount;              // Số lần mã giảm giá đã được sử dụng
-
-    private List<ObjectId> usedByUsers;      // Danh sách ID người dùng (userId) đã sử dụng mã giảm giá
+    private Integer usageCount;              // Số lần mã giảm giá đã được sử dụng (người dùng đã sử dụng được ghi trong DiscountRedemptions)
 
     private boolean isActive;                // Trạng thái của mã giảm giá
 
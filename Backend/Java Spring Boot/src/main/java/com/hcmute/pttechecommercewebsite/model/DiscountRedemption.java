@@ -0,0 +1,27 @@
+package com.hcmute.pttechecommercewebsite.model;
+
+import lombok.*;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+@Document(collection = "DiscountRedemptions")
+@CompoundIndex(name = "codeId_userId", def = "{'codeId': 1, 'userId': 1}", unique = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class DiscountRedemption {
+
+    @Id
+    private String id;                       // ID duy nhất của lượt sử dụng.
+
+    private ObjectId codeId;                 // ID mã giảm giá (DiscountCode.id).
+
+    private ObjectId userId;                 // ID người dùng đã sử dụng mã.
+
+    private Date redeemedAt;                 // Thời điểm sử dụng mã.
+}
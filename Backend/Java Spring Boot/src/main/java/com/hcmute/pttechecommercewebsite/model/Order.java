@@ -5,12 +5,26 @@ import org.bson.types.ObjectId;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.Date;
 import java.util.List;
 
 @Document(collection = "Orders")
+// Chỉ mục cho danh sách đơn hàng (lọc theo các trạng thái / phương thức, sắp xếp theo createdAt), thống kê theo ngày và tra cứu nhanh
+@CompoundIndexes({
+        @CompoundIndex(name = "deleted_createdAt", def = "{'isDeleted': 1, 'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "deleted_orderStatus_createdAt", def = "{'isDeleted': 1, 'orderStatus': 1, 'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "deleted_paymentStatus_createdAt", def = "{'isDeleted': 1, 'paymentStatus': 1, 'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "deleted_paymentMethod_paymentStatus_createdAt", def = "{'isDeleted': 1, 'paymentMethod': 1, 'paymentStatus': 1, 'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "deleted_shippingMethod_createdAt", def = "{'isDeleted': 1, 'shippingMethod': 1, 'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "userId_deleted_createdAt", def = "{'userId': 1, 'isDeleted': 1, 'createdAt': -1, '_id': -1}"),
+        @CompoundIndex(name = "createdAt", def = "{'createdAt': 1}"),
+        @CompoundIndex(name = "orderId", def = "{'orderId': 1}"),
+        @CompoundIndex(name = "phoneNumber", def = "{'phoneNumber': 1}")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -60,6 +74,12 @@ public class Order {
 
     private boolean isDeleted;                    // Trạng thái xóa mềm.
 
+    private boolean stockReleased;                // Tồn kho đã được trả lại do hết thời gian giữ hàng (đơn VNPay chưa thanh toán).
+
+    private boolean spendingRecorded;             // Đơn hàng đã được cộng vào bảng tổng hợp chi tiêu theo tháng của người dùng.
+
+    private String transitionId;                  // Mã lượt chuyển trạng thái hàng loạt gần nhất (OrderTransitionService).
+
     private String orderNotes;                    // Các ghi chú về đơn hàng.
 
     private String cancellationReason;            // lý do hủy
@@ -0,0 +1,42 @@
+package com.hcmute.pttechecommercewebsite.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.Map;
+
+@Document(collection = "OutboxMessages")
+@CompoundIndex(name = "status_nextAttemptAt", def = "{'status': 1, 'nextAttemptAt': 1}")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class OutboxMessage {
+
+    public static final String PENDING = "PENDING";         // Chờ xử lý (hoặc chờ thử lại)
+    public static final String PROCESSING = "PROCESSING";   // Đang được một worker xử lý
+    public static final String SENT = "SENT";               // Đã xử lý xong
+    public static final String DEAD = "DEAD";               // Thất bại quá số lần thử, cần xem xét thủ công
+
+    @Id
+    private String id;                            // ID duy nhất của thông điệp.
+
+    private String type;                          // Loại tác vụ (ví dụ: email.order-thank-you).
+
+    private Map<String, String> payload;          // Tham số của tác vụ (ID đơn hàng, người dùng, ...).
+
+    private String status;                        // Trạng thái xử lý.
+
+    private int attempts;                         // Số lần đã thử xử lý.
+
+    private Date nextAttemptAt;                   // Thời điểm được phát lại cho worker (thử lại / hết hạn xử lý).
+
+    private String lastError;                     // Lỗi của lần thử gần nhất.
+
+    private Date createdAt;                       // Thời gian tạo.
+
+    private Date processedAt;                     // Thời gian xử lý xong (SENT) hoặc bị chuyển sang DEAD.
+}
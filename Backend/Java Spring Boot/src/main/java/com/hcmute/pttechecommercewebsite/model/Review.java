@@ -5,6 +5,7 @@ import org.bson.types.ObjectId;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.Date;
@@ -37,7 +38,8 @@ public class Review {
     private boolean isDeleted;                   // Đánh dấu đánh giá đã bị xóa (true: đã xóa, false: chưa xóa).
 
     @CreatedDate
-    private Date createdAt;                      // Ngày người dùng để lại đánh giá.
+    @Indexed
+    private Date createdAt;                      // Ngày người dùng để lại đánh giá (có chỉ mục cho thống kê theo ngày).
 
     @LastModifiedDate
     private Date updatedAt;                      // Ngày cập nhật đánh giá (nếu có thay đổi).
@@ -5,6 +5,7 @@ import org.bson.types.ObjectId;
 import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.Date;
@@ -21,7 +22,10 @@ public class Statistics {
     @Id
     private ObjectId id;                            // ID duy nhất của thống kê
 
-    private Date date;                              // Ngày thống kê
+    @Indexed
+    private Date date;                              // Ngày thống kê (đầu giờ / tuần / tháng với bản tổng hợp)
+
+    private String resolution;                      // hour / week / month trong StatisticsRollups; null: thống kê theo ngày
 
     private int totalOrders;                        // Tổng số đơn hàng trong ngày
     private int totalItemsSold;                     // Tổng số sản phẩm đã bán
@@ -77,5 +81,6 @@ public class Statistics {
         private int totalReviews;        // Tổng số đánh giá
         private int positiveReviews;     // Số đánh giá tích cực
         private int negativeReviews;     // Số đánh giá tiêu cực
+        private double totalRating;      // Tổng điểm đánh giá (để cộng dồn và tính lại đánh giá trung bình)
     }
 }
\ No newline at end of file
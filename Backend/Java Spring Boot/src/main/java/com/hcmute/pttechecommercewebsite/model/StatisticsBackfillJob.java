@@ -0,0 +1,34 @@
+package com.hcmute.pttechecommercewebsite.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.List;
+
+@Document(collection = "StatisticsBackfillJobs")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class StatisticsBackfillJob {
+
+    @Id
+    private String id;                                // ID duy nhất của tiến trình.
+
+    private Date fromDate;                            // Ngày đầu tiên cần tính lại thống kê.
+    private Date toDate;                              // Ngày cuối cùng cần tính lại thống kê.
+
+    private String status;                            // Trạng thái: RUNNING, COMPLETED, FAILED, CANCELLED, INTERRUPTED.
+
+    private int totalDays;                            // Tổng số ngày trong khoảng.
+    private List<Date> completedDates;                // Các ngày đã tính xong (đầu ngày), bỏ qua khi chạy tiếp.
+    private List<Date> failedDates;                   // Các ngày bị lỗi, được tính lại khi chạy tiếp.
+    private String lastError;                         // Lỗi gần nhất.
+
+    private Date startedAt;                           // Thời gian bắt đầu lần chạy gần nhất.
+    private Date finishedAt;                          // Thời gian kết thúc lần chạy gần nhất.
+    private Date createdAt;                           // Thời gian tạo tiến trình.
+    private Date updatedAt;                           // Thời gian cập nhật tiến trình.
+}
@@ -0,0 +1,41 @@
+package com.hcmute.pttechecommercewebsite.model;
+
+import lombok.*;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.List;
+
+@Document(collection = "StockHolds")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class StockHold {
+
+    @Id
+    private String id;                            // ID duy nhất của lượt giữ hàng.
+
+    @Indexed(unique = true)
+    private String orderId;                       // Mã đơn hàng (Order.orderId) đang giữ hàng.
+
+    private List<Item> items;                     // Các biến thể và số lượng đang được giữ.
+
+    @Indexed
+    private Date expiresAt;                       // Thời điểm hết hạn giữ hàng, quá hạn thì tồn kho được trả lại.
+
+    private Date createdAt;                       // Thời gian tạo lượt giữ hàng.
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Builder
+    public static class Item {
+        private ObjectId productId;                // ID tham chiếu đến sản phẩm.
+        private ObjectId variantId;                // ID tham chiếu đến biến thể sản phẩm.
+        private int quantity;                      // Số lượng đang giữ.
+    }
+}
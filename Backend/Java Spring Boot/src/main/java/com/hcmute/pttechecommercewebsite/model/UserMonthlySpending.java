@@ -0,0 +1,42 @@
+package com.hcmute.pttechecommercewebsite.model;
+
+import lombok.*;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.Map;
+
+@Document(collection = "UserMonthlySpendings")
+@CompoundIndex(name = "userId_month", def = "{'userId': 1, 'month': 1}", unique = true)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UserMonthlySpending {
+
+    @Id
+    private String id;                                // ID duy nhất của bản tổng hợp.
+
+    private ObjectId userId;                          // ID người dùng.
+
+    private String month;                             // Tháng tổng hợp (yyyy-MM, theo ngày tạo đơn hàng).
+
+    private double totalSpending;                     // Tổng finalPrice của các đơn đã thanh toán trong tháng.
+
+    private int orderCount;                           // Số đơn đã thanh toán trong tháng.
+
+    private double totalPrice;                        // Tổng giá trị hàng (trước giảm giá, chưa gồm phí vận chuyển).
+
+    private double totalDiscount;                     // Tổng số tiền được giảm bởi mã giảm giá.
+
+    private double totalShipping;                     // Tổng phí vận chuyển.
+
+    private Map<String, Double> spendingByCategory;   // Chi tiêu theo ID danh mục (giá giảm x số lượng).
+
+    private Date firstOrderAt;                        // Thời gian tạo đơn đã thanh toán sớm nhất trong tháng.
+
+    private Date lastOrderAt;                         // Thời gian tạo đơn đã thanh toán muộn nhất trong tháng.
+}
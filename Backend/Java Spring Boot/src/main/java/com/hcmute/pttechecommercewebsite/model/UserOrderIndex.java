@@ -0,0 +1,29 @@
+package com.hcmute.pttechecommercewebsite.model;
+
+import lombok.*;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+@Document(collection = "UserOrderIndexes")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class UserOrderIndex {
+
+    @Id
+    private String id;                                // ID duy nhất của bản ghi.
+
+    @Indexed(unique = true)
+    private ObjectId userId;                          // ID người dùng.
+
+    private Date firstOrderAt;                        // Thời gian tạo đơn hàng (chưa xóa) sớm nhất của người dùng.
+
+    private int orderCount;                           // Số đơn hàng chưa xóa của người dùng.
+
+    private Date updatedAt;                           // Thời gian cập nhật bản ghi.
+}
@@ -8,6 +8,7 @@ import org.springframework.stereotype.Repository;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface AdImageRepository extends MongoRepository<AdImage, String> {
@@ -21,6 +22,9 @@ public interface AdImageRepository extends MongoRepository<AdImage, String> {
     // Tìm tất cả quảng cáo không bị xóa
     List<AdImage> findByIsDeletedFalse(Sort sort);
 
+    // Duyệt theo cursor (dùng khi xuất Excel)
+    Stream<AdImage> streamByIsDeletedFalse(Sort sort);
+
     Optional<AdImage> findByIdAndIsDeletedFalse(String id);
 
     // Tìm quảng cáo theo tiêu đề (không phân biệt chữ hoa/thường)
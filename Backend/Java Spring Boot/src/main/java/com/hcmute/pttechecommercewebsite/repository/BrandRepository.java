@@ -9,6 +9,7 @@ import org.springframework.stereotype.Repository;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface BrandRepository extends MongoRepository<Brand, String> {
@@ -22,6 +23,9 @@ public interface BrandRepository extends MongoRepository<Brand, String> {
     // Tìm tất cả thương hiệu mà không bị xóa (isDeleted == false)
     List<Brand> findByIsDeletedFalse(Sort sort);
 
+    // Duyệt theo cursor (dùng khi xuất Excel)
+    Stream<Brand> streamByIsDeletedFalse(Sort sort);
+
     Optional<Brand> findByIdAndIsDeletedFalse(String id);
 
     @Query("{ 'name': { $regex: ?0, $options: 'i' }, 'isDeleted': false, 'isVisible': true }")
@@ -9,6 +9,7 @@ import org.springframework.stereotype.Repository;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 import org.bson.types.ObjectId;
 
 @Repository
@@ -23,6 +24,9 @@ public interface CategoryRepository extends MongoRepository<Category, String> {
     // Tìm tất cả danh mục mà không bị xóa (isDeleted == false)
     List<Category> findByIsDeletedFalse(Sort sort);
 
+    // Duyệt theo cursor (dùng khi xuất Excel)
+    Stream<Category> streamByIsDeletedFalse(Sort sort);
+
     Optional<Category> findByIdAndIsDeletedFalse(String id);
 
     // Tìm tất cả danh mục con thuộc danh mục cha mà không bị xóa (isDeleted == false) và hiển thị (isVisible == true)
@@ -9,6 +9,7 @@ import org.springframework.stereotype.Repository;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface ContactRepository extends MongoRepository<Contact, String> {
@@ -19,6 +20,9 @@ public interface ContactRepository extends MongoRepository<Contact, String> {
 
     List<Contact> findByIsDeletedFalse(Sort sort);
 
+    // Duyệt theo cursor (dùng khi xuất Excel)
+    Stream<Contact> streamByIsDeletedFalse(Sort sort);
+
     // Tìm tất cả liên hệ có thời gian lên lịch nhỏ hơn hoặc bằng thời gian hiện tại và chưa kích hoạt
     List<Contact> findByScheduledDateBeforeAndIsDeletedFalseAndIsActiveFalse(Date now);
 }
\ No newline at end of file
@@ -9,6 +9,7 @@ import org.springframework.stereotype.Repository;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface DiscountCodeRepository extends MongoRepository<DiscountCode, String> {
@@ -22,6 +23,9 @@ public interface DiscountCodeRepository extends MongoRepository<DiscountCode, St
     // Tìm tất cả mã giảm giá không bị xóa
     List<DiscountCode> findByIsDeletedFalse(Sort sort);
 
+    // Duyệt theo cursor (dùng khi xuất Excel)
+    Stream<DiscountCode> streamByIsDeletedFalse(Sort sort);
+
     List<DiscountCode> findByIsActiveTrueAndIsDeletedFalse();
 
     // Tìm mã giảm giá theo code (không phân biệt chữ hoa/thường)
@@ -30,8 +34,4 @@ public interface DiscountCodeRepository extends MongoRepository<DiscountCode, St
 
     // Tìm tất cả mã giảm giá có thời gian lên lịch nhỏ hơn hoặc bằng thời gian hiện tại và chưa kích hoạt
     List<DiscountCode> findByScheduledDateBeforeAndIsDeletedFalseAndIsActiveFalse(Date now);
-
-    // Tìm mã giảm giá theo code và trạng thái hoạt động, chưa xóa, và còn trong thời gian hiệu lực
-    @Query("{ 'code': ?0, 'isDeleted': false, 'isActive': true, 'startDate': { $lte: ?1 }, 'endDate': { $gte: ?1 } }")
-    Optional<DiscountCode> findByCodeAndIsActiveTrueAndIsDeletedFalseAndValidDateRange(String discountCode, Date currentDate);
 }
\ No newline at end of file
@@ -13,9 +13,6 @@ import java.util.Optional;
 @Repository
 public interface OrderRepository extends MongoRepository<Order, String> {
 
-    // Tìm tất cả đơn hàng không bị xóa
-    List<Order> findByIsDeletedFalse();
-
     // Tìm đơn hàng theo ID và chỉ lấy đơn hàng chưa bị xóa
     Optional<Order> findByIdAndIsDeletedFalse(String id);
 
@@ -34,18 +31,7 @@ public interface OrderRepository extends MongoRepository<Order, String> {
     // Tìm top 10 đơn hàng có finalPrice cao nhất và chỉ lấy đơn hàng chưa bị xóa
     List<Order> findTop10ByIsDeletedFalseOrderByFinalPriceDesc();
 
-    // Tìm đơn hàng có trạng thái "Chờ xác nhận" và thời gian tạo trước một thời điểm nhất định
-    List<Order> findByOrderStatusAndCreatedAtBefore(String orderStatus, Date createdAt);
-
     // Tìm đơn hàng trong một khoảng thời gian
     List<Order> findByCreatedAtBetween(Date startDate, Date endDate);
 
-    // Tìm đơn hàng theo các tiêu chí lọc và chỉ lấy đơn hàng chưa bị xóa
-    List<Order> findByPaymentMethodAndIsDeletedFalse(String paymentMethod);
-    List<Order> findByPaymentStatusAndIsDeletedFalse(String paymentStatus);
-    List<Order> findByOrderStatusAndIsDeletedFalse(String orderStatus);
-    List<Order> findByShippingMethodAndIsDeletedFalse(String shippingMethod);
-
-    List<Order> findAllByPaymentMethodAndPaymentStatusInAndIsDeletedFalse(String paymentMethod, List<String> paymentStatuses);
-
 }
\ No newline at end of file
@@ -9,6 +9,7 @@ import org.springframework.stereotype.Repository;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface PolicyRepository extends MongoRepository<Policy, String> {
@@ -19,6 +20,9 @@ public interface PolicyRepository extends MongoRepository<Policy, String> {
 
     List<Policy> findByIsDeletedFalse(Sort sort);
 
+    // Duyệt theo cursor (dùng khi xuất Excel)
+    Stream<Policy> streamByIsDeletedFalse(Sort sort);
+
     @Query("{ 'title': { $regex: ?0, $options: 'i' }, 'isDeleted': false }")
     List<Policy> findByTitleContaining(String keyword);
 
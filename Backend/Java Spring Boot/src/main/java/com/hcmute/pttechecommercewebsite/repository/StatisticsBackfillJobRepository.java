@@ -0,0 +1,13 @@
+package com.hcmute.pttechecommercewebsite.repository;
+
+import com.hcmute.pttechecommercewebsite.model.StatisticsBackfillJob;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface StatisticsBackfillJobRepository extends MongoRepository<StatisticsBackfillJob, String> {
+    // Các tiến trình, mới nhất trước
+    List<StatisticsBackfillJob> findAllByOrderByCreatedAtDesc();
+}
@@ -1,14 +1,25 @@
 package com.hcmute.pttechecommercewebsite.repository;
 
 import com.hcmute.pttechecommercewebsite.model.Statistics;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
 import java.util.Date;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface StatisticsRepository extends MongoRepository<Statistics, String> {
     // Tìm thống kê theo ngày (bỏ qua giờ, phút, giây)
     Optional<Statistics> findByDateBetween(Date startOfDay, Date endOfDay);
+
+    // Thống kê sau ngày startDate, sắp xếp trên MongoDB (dùng chỉ mục trên date)
+    List<Statistics> findByDateAfter(Date startDate, Sort sort);
+
+    // Duyệt thống kê theo cursor (dùng khi xuất Excel)
+    Stream<Statistics> streamAllBy(Sort sort);
+
+    Stream<Statistics> streamByDateAfter(Date startDate, Sort sort);
 }
@@ -0,0 +1,12 @@
+package com.hcmute.pttechecommercewebsite.repository;
+
+import com.hcmute.pttechecommercewebsite.model.StockHold;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface StockHoldRepository extends MongoRepository<StockHold, String> {
+    Optional<StockHold> findByOrderId(String orderId);
+}
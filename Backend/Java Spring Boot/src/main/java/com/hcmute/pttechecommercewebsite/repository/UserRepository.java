@@ -1,11 +1,13 @@
 package com.hcmute.pttechecommercewebsite.repository;
 
 import com.hcmute.pttechecommercewebsite.model.User;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.stereotype.Repository;
 
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
 @Repository
 public interface UserRepository extends MongoRepository<User, String> {
@@ -13,6 +15,9 @@ public interface UserRepository extends MongoRepository<User, String> {
     // Tìm kiếm tất cả user không bị xóa
     List<User> findAllByIsDeletedFalse();
 
+    // Duyệt user không bị xóa theo cursor (dùng khi xuất Excel)
+    Stream<User> streamAllByIsDeletedFalse(Sort sort);
+
     // Tìm kiếm user theo tên (username)
     Optional<User> findByUsername(String username);
 
@@ -0,0 +1,243 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.model.*;
+import jakarta.annotation.PreDestroy;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Bộ lập lịch kích hoạt dùng chung cho sản phẩm, thương hiệu, danh mục, quảng cáo, liên hệ, chính sách và mã giảm giá.
+// Thay cho việc mỗi service truy vấn MongoDB mỗi phút: các scheduledDate sắp tới được giữ trong một hàng đợi ưu tiên
+// theo thời gian (DelayQueue), một luồng duy nhất chờ đúng đến thời điểm đến hạn rồi kích hoạt cả lô bằng updateMulti.
+@Component
+public class ActivationScheduler extends AbstractMongoEventListener<Object> {
+
+    private final MongoTemplate mongoTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+
+    // Cách kích hoạt của từng loại dữ liệu
+    private final Map<Class<?>, Target> targets = new LinkedHashMap<>();
+
+    private final DelayQueue<Activation> queue = new DelayQueue<>();
+
+    // Lịch đang chờ của từng bản ghi (loại + id): mỗi bản ghi chỉ có một lịch trong hàng đợi, với dueAt mới nhất
+    private final Map<String, Activation> scheduled = new HashMap<>();
+    private volatile Thread worker;
+
+    public ActivationScheduler(MongoTemplate mongoTemplate, ApplicationEventPublisher eventPublisher) {
+        this.mongoTemplate = mongoTemplate;
+        this.eventPublisher = eventPublisher;
+
+        // Sản phẩm: chuyển sang trạng thái "active"
+        register(Product.class, () -> Criteria.where("isDeleted").is(false),
+                () -> new Update().set("status", "active"));
+
+        // Các loại còn lại: bật isActive cho bản ghi chưa xóa và đang ẩn
+        for (Class<?> type : List.of(Brand.class, Category.class, AdImage.class, Contact.class, Policy.class, DiscountCode.class)) {
+            register(type, () -> Criteria.where("isDeleted").is(false).and("isActive").is(false),
+                    () -> new Update().set("isActive", true));
+        }
+    }
+
+    private void register(Class<?> type, Supplier<Criteria> guard, Supplier<Update> activation) {
+        targets.put(type, new Target(type, guard, activation));
+    }
+
+    // Nạp các lịch kích hoạt đang chờ khi ứng dụng khởi động rồi bắt đầu luồng xử lý
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        reseed();
+
+        Thread thread = new Thread(this::runLoop, "activation-scheduler");
+        thread.setDaemon(true);
+        worker = thread;
+        thread.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        Thread thread = worker;
+        worker = null;
+        if (thread != null) thread.interrupt();
+    }
+
+    // Nạp lại lịch từ MongoDB; chạy định kỳ (thưa) để nhận các lịch được ghi không qua repository.save
+    // hoặc từ một instance khác. Lịch đã có trong hàng đợi với cùng thời điểm được giữ nguyên, không thêm bản sao.
+    @Scheduled(fixedDelayString = "${activation.reseed-interval-ms:3600000}",
+            initialDelayString = "${activation.reseed-interval-ms:3600000}")
+    public void reseed() {
+        for (Target target : targets.values()) {
+            Query query = new Query(target.guard.get().and("scheduledDate").ne(null));
+            query.fields().include("_id", "scheduledDate");
+
+            for (Document document : mongoTemplate.find(query, Document.class, target.collection)) {
+                Date scheduledDate = document.getDate("scheduledDate");
+                if (scheduledDate != null) {
+                    schedule(target.type, document.get("_id").toString(), scheduledDate.getTime());
+                }
+            }
+        }
+    }
+
+    // Nhận lịch mới khi một bản ghi có scheduledDate được lưu (tạo theo lịch, đổi lịch); bỏ lịch cũ nếu không còn scheduledDate
+    @Override
+    public void onAfterSave(AfterSaveEvent<Object> event) {
+        Object source = event.getSource();
+        Target target = targets.get(source.getClass());
+        if (target == null) return;
+
+        Document document = event.getDocument();
+        Date scheduledDate = document != null ? document.getDate("scheduledDate") : null;
+        Object id = document != null ? document.get("_id") : null;
+        if (id == null) return;
+        if (scheduledDate != null) {
+            schedule(target.type, id.toString(), scheduledDate.getTime());
+        } else {
+            unschedule(target.type, id.toString());
+        }
+    }
+
+    // Đặt lịch cho bản ghi; thay thế lịch cũ (nếu có) của cùng bản ghi
+    private synchronized void schedule(Class<?> type, String id, long dueAt) {
+        String key = key(type, id);
+        Activation current = scheduled.get(key);
+        if (current != null) {
+            if (current.dueAt == dueAt) return;
+            queue.remove(current);
+        }
+        Activation activation = new Activation(type, id, dueAt);
+        scheduled.put(key, activation);
+        queue.add(activation);
+    }
+
+    private synchronized void unschedule(Class<?> type, String id) {
+        Activation current = scheduled.remove(key(type, id));
+        if (current != null) {
+            queue.remove(current);
+        }
+    }
+
+    // Số lịch đang chờ trong hàng đợi
+    public synchronized int pendingCount() {
+        return queue.size();
+    }
+
+    // Bỏ các lịch vừa lấy khỏi hàng đợi; giữ lại lịch mới hơn được đặt trong lúc đó
+    private synchronized void release(List<Activation> due) {
+        for (Activation activation : due) {
+            scheduled.remove(key(activation.type, activation.id), activation);
+        }
+    }
+
+    private static String key(Class<?> type, String id) {
+        return type.getName() + ":" + id;
+    }
+
+    private void runLoop() {
+        while (worker == Thread.currentThread()) {
+            try {
+                // Chờ tới lịch sớm nhất rồi gom tất cả các lịch đã đến hạn
+                List<Activation> due = new ArrayList<>();
+                due.add(queue.take());
+                queue.drainTo(due);
+                release(due);
+                activate(due);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    // Kích hoạt một lô theo từng loại dữ liệu bằng một lệnh updateMulti
+    private void activate(List<Activation> due) {
+        Map<Class<?>, Set<String>> idsByType = new LinkedHashMap<>();
+        for (Activation activation : due) {
+            idsByType.computeIfAbsent(activation.type, k -> new LinkedHashSet<>()).add(activation.id);
+        }
+
+        Date now = new Date();
+        for (Map.Entry<Class<?>, Set<String>> entry : idsByType.entrySet()) {
+            Target target = targets.get(entry.getKey());
+            List<Object> ids = new ArrayList<>();
+            for (String id : entry.getValue()) {
+                ids.add(ObjectId.isValid(id) ? new ObjectId(id) : id);
+            }
+
+            // Kiểm tra lại điều kiện: lịch có thể đã bị đổi sang thời điểm khác, bản ghi có thể đã bị xóa
+            Query query = new Query(target.guard.get().and("_id").in(ids).and("scheduledDate").lte(now));
+            query.fields().include("_id");
+            List<Object> activatedIds = new ArrayList<>();
+            for (Document document : mongoTemplate.find(query, Document.class, target.collection)) {
+                activatedIds.add(document.get("_id"));
+            }
+            if (activatedIds.isEmpty()) continue;
+
+            Update update = target.activation.get().unset("scheduledDate").set("updatedAt", now);
+            mongoTemplate.updateMulti(new Query(Criteria.where("_id").in(activatedIds)), update, target.collection);
+            System.out.println("Đã kích hoạt " + activatedIds.size() + " bản ghi trong " + target.collection);
+
+            // updateMulti không phát sinh sự kiện lưu: đọc lại các bản ghi vừa kích hoạt và phát sự kiện
+            // để catalog, cây danh mục, chỉ mục tìm kiếm, ... được cập nhật như khi gọi repository.save
+            Query reload = new Query(Criteria.where("_id").in(activatedIds));
+            for (Object entity : mongoTemplate.find(reload, target.type, target.collection)) {
+                eventPublisher.publishEvent(new AfterSaveEvent<>(entity, new Document(), target.collection));
+            }
+        }
+    }
+
+    private final class Target {
+        final Class<?> type;
+        final String collection;
+        final Supplier<Criteria> guard;
+        final Supplier<Update> activation;
+
+        Target(Class<?> type, Supplier<Criteria> guard, Supplier<Update> activation) {
+            this.type = type;
+            this.collection = mongoTemplate.getCollectionName(type);
+            this.guard = guard;
+            this.activation = activation;
+        }
+    }
+
+    // Một lịch kích hoạt trong hàng đợi, đến hạn tại dueAt (epoch millis)
+    private static final class Activation implements Delayed {
+        final Class<?> type;
+        final String id;
+        final long dueAt;
+
+        Activation(Class<?> type, String id, long dueAt) {
+            this.type = type;
+            this.id = id;
+            this.dueAt = dueAt;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueAt - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(dueAt, ((Activation) other).dueAt);
+        }
+    }
+}
@@ -4,19 +4,16 @@ import com.hcmute.pttechecommercewebsite.dto.AdImageDTO;
 import com.hcmute.pttechecommercewebsite.exception.ResourceNotFoundException;
 import com.hcmute.pttechecommercewebsite.model.AdImage;
 import com.hcmute.pttechecommercewebsite.repository.AdImageRepository;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.*;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -25,6 +22,7 @@ import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @Validated
@@ -157,22 +155,6 @@ public class AdImageService {
         return convertToDTO(newAdImage);
     }
 
-    // Kiểm tra và kích hoạt quảng cáo khi đến thời gian lên lịch
-    @Scheduled(fixedRate = 60000)
-    @Transactional
-    public void checkAndActivateScheduledAdImages() {
-        Date now = new Date();
-
-        List<AdImage> scheduledAdImages = adImageRepository.findByScheduledDateBeforeAndIsDeletedFalseAndIsActiveFalse(now);
-
-        for (AdImage adImage : scheduledAdImages) {
-            adImage.setActive(true);
-            adImage.setScheduledDate(null);
-            adImage.setUpdatedAt(now);
-            adImageRepository.save(adImage);
-        }
-    }
-
     // Tạo một tên tệp duy nhất cho ảnh và lưu vào thư mục
     public String uploadAdImage(MultipartFile file) throws IOException {
         String fileName = UUID.randomUUID().toString() + "-" + file.getOriginalFilename();
@@ -273,97 +255,24 @@ public class AdImageService {
         }
     }
 
-    // Phương thức xuất tất cả quảng cáo ra file Excel
-    public ByteArrayOutputStream exportAdImagesToExcel() throws IOException {
-        // Lấy tất cả quảng cáo không bị xóa
-        List<AdImage> adImages = adImageRepository.findByIsDeletedFalse(Sort.by(Sort.Order.asc("createdAt")));
-
-        // Tạo workbook Excel
-        XSSFWorkbook workbook = new XSSFWorkbook();
-        XSSFSheet sheet = workbook.createSheet("Ad Images");
-
-        // Định dạng chung cho workbook
-        CellStyle headerStyle = workbook.createCellStyle();
-        XSSFFont headerFont = workbook.createFont();
-        headerFont.setBold(true);
-        headerFont.setFontHeightInPoints((short) 12);
-        headerFont.setColor(IndexedColors.WHITE.getIndex());
-        headerStyle.setFont(headerFont);
-        headerStyle.setAlignment(HorizontalAlignment.CENTER);
-        headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-        headerStyle.setFillForegroundColor(IndexedColors.GREY_50_PERCENT.getIndex());
-        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
-        // Tạo dòng tiêu đề
-        XSSFRow headerRow = sheet.createRow(0);
-        String[] columns = {"ID", "Tiêu đề", "Hình ảnh", "Liên kết", "Mô tả", "Ngày bắt đầu", "Ngày kết thúc", "Trạng thái hiển thị", "Trạng thái xóa", "Thời gian lên lịch"};
-        for (int i = 0; i < columns.length; i++) {
-            XSSFCell cell = headerRow.createCell(i);
-            cell.setCellValue(columns[i]);
-            cell.setCellStyle(headerStyle);
-        }
-
-        // Định dạng cho dữ liệu
-        CellStyle dataStyle = workbook.createCellStyle();
-        dataStyle.setAlignment(HorizontalAlignment.CENTER);
-        dataStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-
-        // Thêm dữ liệu quảng cáo vào file Excel
-        int rowNum = 1;
-        for (AdImage adImage : adImages) {
-            XSSFRow row = sheet.createRow(rowNum++);
-
-            // Cột ID
-            row.createCell(0).setCellValue(adImage.getId());
-            row.getCell(0).setCellStyle(dataStyle);
-
-            // Cột Tiêu đề
-            row.createCell(1).setCellValue(adImage.getTitle());
-            row.getCell(1).setCellStyle(dataStyle);
-
-            // Cột Hình ảnh (URL hoặc đường dẫn)
-            row.createCell(2).setCellValue(adImage.getImage());
-            row.getCell(2).setCellStyle(dataStyle);
-
-            // Cột Liên kết
-            row.createCell(3).setCellValue(adImage.getLink());
-            row.getCell(3).setCellStyle(dataStyle);
-
-            // Cột Mô tả
-            row.createCell(4).setCellValue(adImage.getDescription());
-            row.getCell(4).setCellStyle(dataStyle);
-
-            // Cột Ngày bắt đầu
-            row.createCell(5).setCellValue(adImage.getStartDate() != null ? adImage.getStartDate().toString() : "");
-            row.getCell(5).setCellStyle(dataStyle);
-
-            // Cột Ngày kết thúc
-            row.createCell(6).setCellValue(adImage.getEndDate() != null ? adImage.getEndDate().toString() : "");
-            row.getCell(6).setCellStyle(dataStyle);
-
-            // Cột Trạng thái hiển thị
-            row.createCell(7).setCellValue(adImage.isActive() ? "Đang hiển thị" : "Ẩn");
-            row.getCell(7).setCellStyle(dataStyle);
-
-            // Cột Trạng thái xóa
-            row.createCell(8).setCellValue(adImage.isDeleted() ? "Đã xóa" : "Đang hiển thị");
-            row.getCell(8).setCellStyle(dataStyle);
-
-            // Cột Thời gian lên lịch
-            row.createCell(9).setCellValue(adImage.getScheduledDate() != null ? adImage.getScheduledDate().toString() : "");
-            row.getCell(9).setCellStyle(dataStyle);
-        }
-
-        // Tự động điều chỉnh độ rộng cột theo nội dung
-        for (int i = 0; i < columns.length; i++) {
-            sheet.autoSizeColumn(i);
+    // Các cột của file Excel quảng cáo
+    private static final List<ExcelExportUtil.Column<AdImage>> AD_IMAGE_EXPORT_COLUMNS = List.of(
+            ExcelExportUtil.Column.of("ID", AdImage::getId),
+            ExcelExportUtil.Column.of("Tiêu đề", AdImage::getTitle),
+            ExcelExportUtil.Column.of("Hình ảnh", AdImage::getImage),
+            ExcelExportUtil.Column.of("Liên kết", AdImage::getLink),
+            ExcelExportUtil.Column.of("Mô tả", AdImage::getDescription),
+            ExcelExportUtil.Column.of("Ngày bắt đầu", a -> a.getStartDate() != null ? a.getStartDate().toString() : ""),
+            ExcelExportUtil.Column.of("Ngày kết thúc", a -> a.getEndDate() != null ? a.getEndDate().toString() : ""),
+            ExcelExportUtil.Column.of("Trạng thái hiển thị", a -> a.isActive() ? "Đang hiển thị" : "Ẩn"),
+            ExcelExportUtil.Column.of("Trạng thái xóa", a -> a.isDeleted() ? "Đã xóa" : "Đang hiển thị"),
+            ExcelExportUtil.Column.of("Thời gian lên lịch", a -> a.getScheduledDate() != null ? a.getScheduledDate().toString() : "")
+    );
+
+    // Xuất quảng cáo chưa xóa ra file Excel, đọc MongoDB theo cursor và ghi thẳng vào outputStream
+    public void exportAdImagesToExcel(OutputStream outputStream) throws IOException {
+        try (Stream<AdImage> adImages = adImageRepository.streamByIsDeletedFalse(Sort.by(Sort.Order.asc("createdAt")))) {
+            ExcelExportUtil.write(outputStream, "Ad Images", AD_IMAGE_EXPORT_COLUMNS, adImages);
         }
-
-        // Tạo OutputStream và ghi workbook vào đó
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        workbook.write(outputStream);
-        workbook.close();
-
-        return outputStream;
     }
 }
\ No newline at end of file
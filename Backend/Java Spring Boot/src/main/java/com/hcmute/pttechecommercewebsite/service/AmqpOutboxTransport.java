@@ -0,0 +1,55 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import org.springframework.amqp.rabbit.annotation.Queue;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.function.Consumer;
+
+// Kênh chuyển outbox qua RabbitMQ (outbox.transport=amqp): ID thông điệp được gửi vào một queue bền,
+// các instance cùng tiêu thụ queue. Số worker cấu hình qua spring.rabbitmq.listener.simple.concurrency.
+// Thử lại và DEAD vẫn do OutboxService quản lý trên MongoDB nên listener luôn ack.
+@Component
+@ConditionalOnProperty(name = "outbox.transport", havingValue = "amqp")
+public class AmqpOutboxTransport implements OutboxTransport {
+
+    private final RabbitTemplate rabbitTemplate;
+
+    @Value("${outbox.amqp.queue:pttech.outbox}")
+    private String queueName;
+
+    private volatile Consumer<String> processor;
+
+    public AmqpOutboxTransport(RabbitTemplate rabbitTemplate) {
+        this.rabbitTemplate = rabbitTemplate;
+    }
+
+    @Override
+    public void bind(Consumer<String> processor) {
+        this.processor = processor;
+    }
+
+    @Override
+    public void publish(String messageId) {
+        try {
+            rabbitTemplate.convertAndSend("", queueName, messageId);
+        } catch (RuntimeException e) {
+            // Broker không khả dụng: thông điệp vẫn nằm trong MongoDB và được phát lại sau
+            e.printStackTrace();
+        }
+    }
+
+    @RabbitListener(queuesToDeclare = @Queue("${outbox.amqp.queue:pttech.outbox}"))
+    public void receive(String messageId) {
+        Consumer<String> current = processor;
+        if (current == null) return;
+        try {
+            current.accept(messageId);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,33 +1,37 @@
 package com.hcmute.pttechecommercewebsite.service;
 
 import com.hcmute.pttechecommercewebsite.dto.BrandDTO;
+import com.hcmute.pttechecommercewebsite.dto.ImportResultDTO;
 import com.hcmute.pttechecommercewebsite.exception.ResourceNotFoundException;
 import com.hcmute.pttechecommercewebsite.model.Brand;
 import com.hcmute.pttechecommercewebsite.repository.BrandRepository;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.*;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
+import com.hcmute.pttechecommercewebsite.util.ExcelImportUtil;
+import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @Validated
 public class BrandService {
 
     private final BrandRepository brandRepository;
+    private final MongoTemplate mongoTemplate;
 
     // Thư mục lưu trữ hình ảnh
     private String uploadDir = "upload-images/brands";
@@ -36,8 +40,9 @@ public class BrandService {
     private String uploadUrl = "http://localhost:8081/images/brands";
 
     @Autowired
-    public BrandService(BrandRepository brandRepository) {
+    public BrandService(BrandRepository brandRepository, MongoTemplate mongoTemplate) {
         this.brandRepository = brandRepository;
+        this.mongoTemplate = mongoTemplate;
     }
 
     // Chuyển Entity thành DTO
@@ -138,22 +143,6 @@ public class BrandService {
         return convertToDTO(newBrand);
     }
 
-    // Kiểm tra và kích hoạt thương hiệu khi đến thời gian lên lịch
-    @Scheduled(fixedRate = 60000) // Kiểm tra mỗi phút
-    @Transactional
-    public void checkAndCreateScheduledBrands() {
-        Date now = new Date();
-
-        List<Brand> scheduledBrands = brandRepository.findByScheduledDateBeforeAndIsDeletedFalseAndIsActiveFalse(now);
-
-        for (Brand brand : scheduledBrands) {
-            brand.setActive(true);
-            brand.setScheduledDate(null);
-            brand.setUpdatedAt(now);
-            brandRepository.save(brand);
-        }
-    }
-
     // Tạo một tên tệp duy nhất cho ảnh và lưu vào thư mục
     public String uploadImage(MultipartFile file) throws IOException {
         String fileName = UUID.randomUUID().toString() + "-" + file.getOriginalFilename();
@@ -259,142 +248,59 @@ public class BrandService {
         brandRepository.save(brand);
     }
 
-    public void importBrandsFromExcel(MultipartFile file) throws IOException {
-        List<Brand> brandList = new ArrayList<>();
-        XSSFWorkbook workbook = new XSSFWorkbook(file.getInputStream());
-        XSSFSheet sheet = workbook.getSheetAt(0);
-
-        for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-            Row row = sheet.getRow(i);
-            if (row == null) continue;
-
-            String name = getCellString(row.getCell(1));
-            if (name == null || name.isBlank()) continue;
-
-            String description = getCellString(row.getCell(2));
-            String country = getCellString(row.getCell(4));
-            String website = getCellString(row.getCell(5));
-            String statusActive = getCellString(row.getCell(6));
-            String statusDeleted = getCellString(row.getCell(7));
-
-            boolean isActive = statusActive == null || statusActive.isBlank()
-                    || "Hiển thị".equalsIgnoreCase(statusActive)
-                    || "Đang hiển thị".equalsIgnoreCase(statusActive);
-
-            boolean isDeleted = "Đã xóa".equalsIgnoreCase(statusDeleted);
-
-            Brand brand = Brand.builder()
-                    .name(name)
-                    .description(description)
-                    .logo(null) // Ảnh sẽ được cập nhật sau
-                    .country(country)
-                    .website(website)
-                    .isActive(isActive)
-                    .isDeleted(isDeleted)
-                    .createdAt(new Date())
-                    .updatedAt(new Date())
-                    .build();
-
-            brandList.add(brand);
-        }
-
-        brandRepository.saveAll(brandList);
-        workbook.close();
+    // Import thương hiệu từ file Excel: đọc streaming, kiểm tra song song và ghi theo lô bằng insert không thứ tự
+    public ImportResultDTO importBrandsFromExcel(MultipartFile file) throws IOException {
+        return ExcelImportUtil.importSheet(file.getInputStream(), this::parseBrandRow, batch ->
+                mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Brand.class).insert(batch).execute());
     }
 
-    private String getCellString(Cell cell) {
-        if (cell == null) return null;
-
-        return switch (cell.getCellType()) {
-            case STRING -> cell.getStringCellValue().trim();
-            case NUMERIC -> String.valueOf(cell.getNumericCellValue());
-            case BOOLEAN -> String.valueOf(cell.getBooleanCellValue());
-            default -> null;
-        };
+    private Brand parseBrandRow(ExcelImportUtil.SheetRow row) {
+        String name = row.getString(1);
+        if (name == null) return null;
+
+        String description = row.getString(2);
+        String country = row.getString(4);
+        String website = row.getString(5);
+        String statusActive = row.getString(6);
+        String statusDeleted = row.getString(7);
+
+        boolean isActive = statusActive == null
+                || "Hiển thị".equalsIgnoreCase(statusActive)
+                || "Đang hiển thị".equalsIgnoreCase(statusActive);
+
+        boolean isDeleted = "Đã xóa".equalsIgnoreCase(statusDeleted);
+
+        // Gán sẵn ID để sự kiện lưu của bulk insert mang đúng ID cho các chỉ mục trong bộ nhớ
+        return Brand.builder()
+                .id(new ObjectId().toHexString())
+                .name(name)
+                .description(description)
+                .logo(null) // Ảnh sẽ được cập nhật sau
+                .country(country)
+                .website(website)
+                .isActive(isActive)
+                .isDeleted(isDeleted)
+                .createdAt(new Date())
+                .updatedAt(new Date())
+                .build();
     }
 
-    // Phương thức xuất tất cả thương hiệu ra file Excel
-    public ByteArrayOutputStream exportBrandsToExcel() throws IOException {
-        List<BrandDTO> brands = getAllBrandsWithDeletedFalse(Sort.by("name"));
-
-        // Tạo workbook Excel
-        XSSFWorkbook workbook = new XSSFWorkbook();
-        XSSFSheet sheet = workbook.createSheet("Brands");
-
-        // Định dạng chung cho workbook
-        CellStyle headerStyle = workbook.createCellStyle();
-        XSSFFont headerFont = workbook.createFont();
-        headerFont.setBold(true);
-        headerFont.setFontHeightInPoints((short) 12);
-        headerFont.setColor(IndexedColors.WHITE.getIndex());
-        headerStyle.setFont(headerFont);
-        headerStyle.setAlignment(HorizontalAlignment.CENTER);
-        headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-        headerStyle.setFillForegroundColor(IndexedColors.GREY_50_PERCENT.getIndex());
-        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
-        // Tạo dòng tiêu đề
-        XSSFRow headerRow = sheet.createRow(0);
-        String[] columns = {"ID", "Tên", "Mô tả", "Logo", "Quốc gia", "Website", "Trạng thái hiển thị", "Trạng thái xóa"};
-        for (int i = 0; i < columns.length; i++) {
-            XSSFCell cell = headerRow.createCell(i);
-            cell.setCellValue(columns[i]);
-            cell.setCellStyle(headerStyle);
-        }
-
-        // Định dạng cho dữ liệu
-        CellStyle dataStyle = workbook.createCellStyle();
-        dataStyle.setAlignment(HorizontalAlignment.CENTER);
-        dataStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-
-        // Thêm dữ liệu thương hiệu vào file Excel
-        int rowNum = 1;
-        for (BrandDTO brand : brands) {
-            XSSFRow row = sheet.createRow(rowNum++);
-
-            // Cột ID
-            row.createCell(0).setCellValue(brand.getId());
-            row.getCell(0).setCellStyle(dataStyle);
-
-            // Cột Tên
-            row.createCell(1).setCellValue(brand.getName());
-            row.getCell(1).setCellStyle(dataStyle);
-
-            // Cột Mô tả
-            row.createCell(2).setCellValue(brand.getDescription());
-            row.getCell(2).setCellStyle(dataStyle);
-
-            // Cột Logo
-            row.createCell(3).setCellValue(brand.getLogo());
-            row.getCell(3).setCellStyle(dataStyle);
-
-            // Cột Quốc gia
-            row.createCell(4).setCellValue(brand.getCountry());
-            row.getCell(4).setCellStyle(dataStyle);
-
-            // Cột Website
-            row.createCell(5).setCellValue(brand.getWebsite());
-            row.getCell(5).setCellStyle(dataStyle);
-
-            // Cột Trạng thái hiển thị
-            row.createCell(6).setCellValue(brand.isActive() ? "Đang hiển thị" : "Ẩn");
-            row.getCell(6).setCellStyle(dataStyle);
-
-            // Cột Trạng thái xóa
-            row.createCell(7).setCellValue(brand.isDeleted() ? "Đã xóa" : "Đang hiển thị");
-            row.getCell(7).setCellStyle(dataStyle);
-        }
-
-        // Tự động điều chỉnh độ rộng cột theo nội dung
-        for (int i = 0; i < columns.length; i++) {
-            sheet.autoSizeColumn(i);
+    // Các cột của file Excel thương hiệu
+    private static final List<ExcelExportUtil.Column<BrandDTO>> BRAND_EXPORT_COLUMNS = List.of(
+            ExcelExportUtil.Column.of("ID", BrandDTO::getId),
+            ExcelExportUtil.Column.of("Tên", BrandDTO::getName),
+            ExcelExportUtil.Column.of("Mô tả", BrandDTO::getDescription),
+            ExcelExportUtil.Column.of("Logo", BrandDTO::getLogo),
+            ExcelExportUtil.Column.of("Quốc gia", BrandDTO::getCountry),
+            ExcelExportUtil.Column.of("Website", BrandDTO::getWebsite),
+            ExcelExportUtil.Column.of("Trạng thái hiển thị", b -> b.isActive() ? "Đang hiển thị" : "Ẩn"),
+            ExcelExportUtil.Column.of("Trạng thái xóa", b -> b.isDeleted() ? "Đã xóa" : "Đang hiển thị")
+    );
+
+    // Xuất thương hiệu ra file Excel, đọc MongoDB theo cursor và ghi thẳng vào outputStream
+    public void exportBrandsToExcel(OutputStream outputStream) throws IOException {
+        try (Stream<Brand> brands = brandRepository.streamByIsDeletedFalse(Sort.by("name"))) {
+            ExcelExportUtil.write(outputStream, "Brands", BRAND_EXPORT_COLUMNS, brands.map(this::convertToDTO));
         }
-
-        // Tạo OutputStream và ghi workbook vào đó
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        workbook.write(outputStream);
-        workbook.close();
-
-        return outputStream;
     }
 }
\ No newline at end of file
@@ -0,0 +1,71 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.model.Brand;
+import com.hcmute.pttechecommercewebsite.model.Category;
+import com.hcmute.pttechecommercewebsite.model.Product;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+// Lắng nghe các thao tác ghi của MongoDB để cập nhật dần các cấu trúc dữ liệu trong bộ nhớ
+// (catalog sản phẩm, từ điển thương hiệu, cây danh mục, chỉ mục tìm kiếm, trie gợi ý, bảng xếp hạng) mà không cần sửa từng chỗ gọi repository.save
+@Component
+public class CatalogEventListener extends AbstractMongoEventListener<Object> {
+
+    private final ProductService productService;
+    private final ProductCatalog productCatalog;
+    private final CategoryTree categoryTree;
+    private final ProductSearchIndex productSearchIndex;
+    private final SuggestionTrie suggestionTrie;
+    private final ProductLeaderboard productLeaderboard;
+
+    public CatalogEventListener(@Lazy ProductService productService, ProductCatalog productCatalog,
+                                CategoryTree categoryTree, ProductSearchIndex productSearchIndex,
+                                SuggestionTrie suggestionTrie, ProductLeaderboard productLeaderboard) {
+        this.productService = productService;
+        this.productCatalog = productCatalog;
+        this.categoryTree = categoryTree;
+        this.productSearchIndex = productSearchIndex;
+        this.suggestionTrie = suggestionTrie;
+        this.productLeaderboard = productLeaderboard;
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<Object> event) {
+        Object source = event.getSource();
+
+        if (source instanceof Product product) {
+            productService.syncCatalogEntry(product);
+            productSearchIndex.upsert(product);
+            suggestionTrie.upsertProduct(product);
+            productLeaderboard.upsert(product);
+        } else if (source instanceof Brand brand) {
+            productCatalog.upsertBrand(brand);
+            productSearchIndex.updateBrand(brand);
+            suggestionTrie.upsertBrand(brand);
+        } else if (source instanceof Category category) {
+            categoryTree.upsert(category);
+            productSearchIndex.updateCategory(category);
+            suggestionTrie.upsertCategory(category);
+        }
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<Object> event) {
+        // Xóa cứng hiếm khi xảy ra (dữ liệu dùng xóa mềm), nạp lại toàn bộ để đảm bảo nhất quán
+        String collection = event.getCollectionName();
+        if ("Products".equals(collection) || "Brands".equals(collection)) {
+            productService.refreshCatalog();
+            if ("Products".equals(collection) && productLeaderboard.isLoaded()) productLeaderboard.rebuild();
+        } else if ("Categories".equals(collection)) {
+            categoryTree.reload();
+        }
+
+        if ("Products".equals(collection) || "Brands".equals(collection) || "Categories".equals(collection)) {
+            if (productSearchIndex.isLoaded()) productSearchIndex.rebuild();
+            if (suggestionTrie.isLoaded()) suggestionTrie.rebuild();
+        }
+    }
+}
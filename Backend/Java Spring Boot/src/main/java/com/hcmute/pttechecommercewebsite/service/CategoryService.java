@@ -1,26 +1,29 @@
 package com.hcmute.pttechecommercewebsite.service;
 
 import com.hcmute.pttechecommercewebsite.dto.CategoryDTO;
+import com.hcmute.pttechecommercewebsite.dto.CategoryTreeDTO;
+import com.hcmute.pttechecommercewebsite.dto.ImportResultDTO;
 import com.hcmute.pttechecommercewebsite.exception.ResourceNotFoundException;
 import com.hcmute.pttechecommercewebsite.model.Category;
 import com.hcmute.pttechecommercewebsite.repository.CategoryRepository;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.*;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
+import com.hcmute.pttechecommercewebsite.util.ExcelImportUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.validation.annotation.Validated;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.bson.types.ObjectId;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -29,6 +32,8 @@ import org.springframework.web.multipart.MultipartFile;
 public class CategoryService {
 
     private final CategoryRepository categoryRepository;
+    private final CategoryTree categoryTree;
+    private final MongoTemplate mongoTemplate;
 
     // Thư mục lưu trữ hình ảnh
     private String uploadDir = "upload-images/categories";
@@ -37,8 +42,10 @@ public class CategoryService {
     private String uploadUrl = "http://localhost:8081/images/categories";
 
     @Autowired
-    public CategoryService(CategoryRepository categoryRepository) {
+    public CategoryService(CategoryRepository categoryRepository, CategoryTree categoryTree, MongoTemplate mongoTemplate) {
         this.categoryRepository = categoryRepository;
+        this.categoryTree = categoryTree;
+        this.mongoTemplate = mongoTemplate;
     }
 
     // Chuyển Entity thành DTO
@@ -103,6 +110,31 @@ public class CategoryService {
                 .collect(Collectors.toList());
     }
 
+    // Lấy toàn bộ cây danh mục đang hiển thị (danh mục con của danh mục bị ẩn/xóa cũng không được trả về)
+    public List<CategoryTreeDTO> getCategoryTree() {
+        return buildTreeNodes(null);
+    }
+
+    private List<CategoryTreeDTO> buildTreeNodes(String parentId) {
+        List<CategoryTreeDTO> nodes = new ArrayList<>();
+        for (Category category : categoryTree.getChildren(parentId)) {
+            if (category.isDeleted() || !category.isActive()) continue;
+
+            nodes.add(CategoryTreeDTO.builder()
+                    .id(category.getId())
+                    .name(category.getName())
+                    .description(category.getDescription())
+                    .parentCategoryId(category.getParentCategoryId() != null ? category.getParentCategoryId().toString() : null)
+                    .image(category.getImage())
+                    .tags(category.getTags())
+                    .path(categoryTree.getPath(category.getId()))
+                    .depth(categoryTree.getDepth(category.getId()))
+                    .children(buildTreeNodes(category.getId()))
+                    .build());
+        }
+        return nodes;
+    }
+
     // Tìm kiếm theo tên danh mục
     public List<CategoryDTO> searchCategoriesByName(String keyword) {
         List<Category> categories = categoryRepository.findByNameContaining(keyword);
@@ -160,22 +192,6 @@ public class CategoryService {
         return convertToDTO(newCategory);
     }
 
-    // Kiểm tra và kích hoạt danh mục khi đến thời gian lên lịch
-    @Scheduled(fixedRate = 60000)
-    @Transactional
-    public void checkAndActivateScheduledCategories() {
-        Date now = new Date();
-
-        List<Category> scheduledCategories = categoryRepository.findByScheduledDateBeforeAndIsDeletedFalseAndIsActiveFalse(now);
-
-        for (Category category : scheduledCategories) {
-            category.setActive(true);
-            category.setScheduledDate(null);
-            category.setUpdatedAt(now);
-            categoryRepository.save(category);
-        }
-    }
-
     // Tạo một tên tệp duy nhất cho ảnh và lưu vào thư mục
     public String uploadImage(MultipartFile file) throws IOException {
         String fileName = UUID.randomUUID().toString() + "-" + file.getOriginalFilename();
@@ -276,155 +292,81 @@ public class CategoryService {
         }
     }
 
-    public void importCategoriesFromExcel(MultipartFile file) throws IOException {
-        List<Category> categoryList = new ArrayList<>();
-        XSSFWorkbook workbook = new XSSFWorkbook(file.getInputStream());
-        XSSFSheet sheet = workbook.getSheetAt(0);
-
-        for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-            Row row = sheet.getRow(i);
-            if (row == null) continue;
-
-            String name = getCellString(row.getCell(1));
-            if (name == null || name.isBlank()) continue; // Bỏ qua nếu không có tên danh mục
-
-            String description = getCellString(row.getCell(2));
-            String parentIdStr = getCellString(row.getCell(3));
-            String image = getCellString(row.getCell(4));
-            String tagsStr = getCellString(row.getCell(5));
-            String statusActive = getCellString(row.getCell(6));
-            String statusDeleted = getCellString(row.getCell(7));
-
-            ObjectId parentId = (parentIdStr != null && !parentIdStr.isBlank() && ObjectId.isValid(parentIdStr))
-                    ? new ObjectId(parentIdStr)
-                    : null;
-
-            List<String> tags = (tagsStr != null && !tagsStr.isBlank())
-                    ? Arrays.stream(tagsStr.split(","))
-                    .map(String::trim)
-                    .filter(s -> !s.isBlank())
-                    .collect(Collectors.toList())
-                    : null;
-
-            boolean isActive = statusActive == null || statusActive.isBlank()
-                    || "Hiển thị".equalsIgnoreCase(statusActive)
-                    || "Đang hiển thị".equalsIgnoreCase(statusActive);
-
-            boolean isDeleted = "Đã xóa".equalsIgnoreCase(statusDeleted);
-
-            Category category = Category.builder()
-                    .name(name)
-                    .description(description)
-                    .parentCategoryId(parentId)
-                    .image(image)
-                    .tags(tags)
-                    .isActive(isActive)
-                    .isDeleted(isDeleted)
-                    .createdAt(new Date())
-                    .updatedAt(new Date())
-                    .build();
-
-            categoryList.add(category);
-        }
-
-        categoryRepository.saveAll(categoryList);
-        workbook.close();
-    }
-
-    private String getCellString(Cell cell) {
-        if (cell == null) return null;
-
-        return switch (cell.getCellType()) {
-            case STRING -> cell.getStringCellValue().trim();
-            case NUMERIC -> String.valueOf(cell.getNumericCellValue());
-            case BOOLEAN -> String.valueOf(cell.getBooleanCellValue());
-            default -> null;
-        };
+    // Import danh mục từ file Excel: đọc streaming, kiểm tra song song và ghi theo lô bằng insert không thứ tự
+    public ImportResultDTO importCategoriesFromExcel(MultipartFile file) throws IOException {
+        return ExcelImportUtil.importSheet(file.getInputStream(), this::parseCategoryRow, batch ->
+                mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Category.class).insert(batch).execute());
     }
 
-    // Phương thức xuất tất cả danh mục ra file Excel
-    public ByteArrayOutputStream exportCategoriesToExcel(String sortBy, String sortOrder) throws IOException {
-        // Lấy danh mục từ service với sắp xếp
-        List<CategoryDTO> categories = getAllCategoriesWithDeletedFalse(sortBy, sortOrder);
-
-        // Tạo workbook Excel
-        XSSFWorkbook workbook = new XSSFWorkbook();
-        XSSFSheet sheet = workbook.createSheet("Categories");
-
-        // Định dạng chung cho workbook
-        CellStyle headerStyle = workbook.createCellStyle();
-        XSSFFont headerFont = workbook.createFont();
-        headerFont.setBold(true);
-        headerFont.setFontHeightInPoints((short) 12);
-        headerFont.setColor(IndexedColors.WHITE.getIndex());
-        headerStyle.setFont(headerFont);
-        headerStyle.setAlignment(HorizontalAlignment.CENTER);
-        headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-        headerStyle.setFillForegroundColor(IndexedColors.GREY_50_PERCENT.getIndex());
-        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
-        // Tạo dòng tiêu đề
-        XSSFRow headerRow = sheet.createRow(0);
-        String[] columns = {"ID", "Tên danh mục", "Mô tả", "ID Danh mục cha", "Ảnh", "Tags", "Trạng thái hiển thị", "Trạng thái xóa"};
-        for (int i = 0; i < columns.length; i++) {
-            XSSFCell cell = headerRow.createCell(i);
-            cell.setCellValue(columns[i]);
-            cell.setCellStyle(headerStyle);
+    private Category parseCategoryRow(ExcelImportUtil.SheetRow row) {
+        String name = row.getString(1);
+        if (name == null) return null; // Bỏ qua nếu không có tên danh mục
+
+        String description = row.getString(2);
+        String parentIdStr = row.getString(3);
+        String image = row.getString(4);
+        String tagsStr = row.getString(5);
+        String statusActive = row.getString(6);
+        String statusDeleted = row.getString(7);
+
+        // File xuất ghi "Không có" khi danh mục không có danh mục cha
+        ObjectId parentId = null;
+        if (parentIdStr != null && !"Không có".equalsIgnoreCase(parentIdStr)) {
+            if (!ObjectId.isValid(parentIdStr)) {
+                throw new IllegalArgumentException("ID danh mục cha không hợp lệ: " + parentIdStr);
+            }
+            parentId = new ObjectId(parentIdStr);
         }
 
-        // Định dạng cho dữ liệu
-        CellStyle dataStyle = workbook.createCellStyle();
-        dataStyle.setAlignment(HorizontalAlignment.CENTER);
-        dataStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-
-        // Thêm dữ liệu danh mục vào file Excel
-        int rowNum = 1;
-        for (CategoryDTO category : categories) {
-            XSSFRow row = sheet.createRow(rowNum++);
-
-            // Cột ID
-            row.createCell(0).setCellValue(category.getId());
-            row.getCell(0).setCellStyle(dataStyle);
-
-            // Cột Tên danh mục
-            row.createCell(1).setCellValue(category.getName());
-            row.getCell(1).setCellStyle(dataStyle);
-
-            // Cột Mô tả
-            row.createCell(2).setCellValue(category.getDescription());
-            row.getCell(2).setCellStyle(dataStyle);
-
-            // Cột ID Danh mục cha
-            row.createCell(3).setCellValue(category.getParentCategoryId() != null ? category.getParentCategoryId() : "Không có");
-            row.getCell(3).setCellStyle(dataStyle);
-
-            // Cột Ảnh
-            row.createCell(4).setCellValue(category.getImage() != null ? category.getImage() : "Không có ảnh");
-            row.getCell(4).setCellStyle(dataStyle);
-
-            // Cột Tags
-            row.createCell(5).setCellValue(category.getTags() != null ? String.join(", ", category.getTags()) : "Không có");
-            row.getCell(5).setCellStyle(dataStyle);
-
-            // Cột Trạng thái hiển thị
-            row.createCell(6).setCellValue(category.isActive() ? "Đang hiển thị" : "Ẩn");
-            row.getCell(6).setCellStyle(dataStyle);
+        List<String> tags = tagsStr != null
+                ? Arrays.stream(tagsStr.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isBlank())
+                .collect(Collectors.toList())
+                : null;
+
+        boolean isActive = statusActive == null
+                || "Hiển thị".equalsIgnoreCase(statusActive)
+                || "Đang hiển thị".equalsIgnoreCase(statusActive);
+
+        boolean isDeleted = "Đã xóa".equalsIgnoreCase(statusDeleted);
+
+        // Gán sẵn ID để sự kiện lưu của bulk insert mang đúng ID cho cây danh mục trong bộ nhớ
+        return Category.builder()
+                .id(new ObjectId().toHexString())
+                .name(name)
+                .description(description)
+                .parentCategoryId(parentId)
+                .image(image)
+                .tags(tags)
+                .isActive(isActive)
+                .isDeleted(isDeleted)
+                .createdAt(new Date())
+                .updatedAt(new Date())
+                .build();
+    }
 
-            // Cột Trạng thái xóa
-            row.createCell(7).setCellValue(category.isDeleted() ? "Đã xóa" : "Đang hiển thị");
-            row.getCell(7).setCellStyle(dataStyle);
+    // Các cột của file Excel danh mục
+    private static final List<ExcelExportUtil.Column<CategoryDTO>> CATEGORY_EXPORT_COLUMNS = List.of(
+            ExcelExportUtil.Column.of("ID", CategoryDTO::getId),
+            ExcelExportUtil.Column.of("Tên danh mục", CategoryDTO::getName),
+            ExcelExportUtil.Column.of("Mô tả", CategoryDTO::getDescription),
+            ExcelExportUtil.Column.of("ID Danh mục cha", c -> c.getParentCategoryId() != null ? c.getParentCategoryId() : "Không có"),
+            ExcelExportUtil.Column.of("Ảnh", c -> c.getImage() != null ? c.getImage() : "Không có ảnh"),
+            ExcelExportUtil.Column.of("Tags", c -> c.getTags() != null ? String.join(", ", c.getTags()) : "Không có"),
+            ExcelExportUtil.Column.of("Trạng thái hiển thị", c -> c.isActive() ? "Đang hiển thị" : "Ẩn"),
+            ExcelExportUtil.Column.of("Trạng thái xóa", c -> c.isDeleted() ? "Đã xóa" : "Đang hiển thị")
+    );
+
+    // Xuất danh mục ra file Excel, đọc MongoDB theo cursor và ghi thẳng vào outputStream
+    public void exportCategoriesToExcel(String sortBy, String sortOrder, OutputStream outputStream) throws IOException {
+        Sort sort = Sort.by(Sort.Order.by(sortBy));
+        if ("desc".equalsIgnoreCase(sortOrder)) {
+            sort = sort.descending();
         }
 
-        // Tự động điều chỉnh độ rộng cột theo nội dung
-        for (int i = 0; i < columns.length; i++) {
-            sheet.autoSizeColumn(i);
+        try (Stream<Category> categories = categoryRepository.streamByIsDeletedFalse(sort)) {
+            ExcelExportUtil.write(outputStream, "Categories", CATEGORY_EXPORT_COLUMNS, categories.map(this::convertToDTO));
         }
-
-        // Tạo OutputStream và ghi workbook vào đó
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        workbook.write(outputStream);
-        workbook.close();
-
-        return outputStream;
     }
 }
\ No newline at end of file
@@ -0,0 +1,213 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.model.Category;
+import com.hcmute.pttechecommercewebsite.repository.CategoryRepository;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Cây danh mục trong bộ nhớ: lưu sẵn bảng bao đóng (tổ tiên / hậu duệ) và đường dẫn vật lý (materialized path)
+// của từng danh mục, thay cho việc đệ quy truy vấn MongoDB theo parentCategoryId mỗi lần lọc sản phẩm.
+// Dữ liệu được nạp một lần rồi cập nhật qua CatalogEventListener khi danh mục được lưu.
+@Component
+public class CategoryTree {
+
+    private static final String ROOT_KEY = "";
+    private static final String PATH_SEPARATOR = "/";
+
+    private final CategoryRepository categoryRepository;
+
+    // Toàn bộ danh mục theo ID (kể cả đã ẩn / đã xóa mềm, giống cách lọc sản phẩm trước đây)
+    private final Map<String, Category> categories = new ConcurrentHashMap<>();
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private volatile boolean dirty = false;
+    private volatile boolean loaded = false;
+
+    public CategoryTree(CategoryRepository categoryRepository) {
+        this.categoryRepository = categoryRepository;
+    }
+
+    // Nạp lại toàn bộ danh mục từ MongoDB
+    public synchronized void reload() {
+        List<Category> all = categoryRepository.findAll();
+        categories.clear();
+        for (Category category : all) {
+            if (category.getId() != null) {
+                categories.put(category.getId(), category);
+            }
+        }
+        dirty = true;
+        loaded = true;
+    }
+
+    // Cập nhật một danh mục vừa được lưu (tạo mới, sửa, ẩn, hiện, xóa mềm, hẹn giờ)
+    public void upsert(Category category) {
+        if (!loaded || category == null || category.getId() == null) return;
+        categories.put(category.getId(), category);
+        dirty = true;
+    }
+
+    public Optional<Category> get(String categoryId) {
+        return Optional.ofNullable(current().nodes.get(categoryId));
+    }
+
+    // ID các danh mục có tên trùng (không phân biệt hoa thường)
+    public Set<String> findIdsByNames(Collection<String> names) {
+        Snapshot snap = current();
+        Set<String> ids = new HashSet<>();
+        for (String name : names) {
+            if (name == null) continue;
+            ids.addAll(snap.idsByName.getOrDefault(normalizeName(name), Set.of()));
+        }
+        return ids;
+    }
+
+    // ID các danh mục có tên trùng cùng toàn bộ danh mục con cháu của chúng
+    public Set<String> findIdsWithDescendantsByNames(Collection<String> names) {
+        Snapshot snap = current();
+        Set<String> ids = new HashSet<>();
+        for (String name : names) {
+            if (name == null) continue;
+            for (String id : snap.idsByName.getOrDefault(normalizeName(name), Set.of())) {
+                ids.addAll(snap.descendants.getOrDefault(id, Set.of(id)));
+            }
+        }
+        return ids;
+    }
+
+    // Danh mục và toàn bộ con cháu (bao gồm chính nó)
+    public Set<String> getDescendantIds(String categoryId) {
+        return current().descendants.getOrDefault(categoryId, Set.of());
+    }
+
+    // Các danh mục tổ tiên, theo thứ tự từ gốc đến cha trực tiếp
+    public List<String> getAncestorIds(String categoryId) {
+        return current().ancestors.getOrDefault(categoryId, List.of());
+    }
+
+    // Đường dẫn dạng "/idGốc/.../idDanhMục"
+    public String getPath(String categoryId) {
+        return current().paths.get(categoryId);
+    }
+
+    // Độ sâu trong cây (danh mục gốc = 0)
+    public int getDepth(String categoryId) {
+        return getAncestorIds(categoryId).size();
+    }
+
+    // Danh mục con trực tiếp; parentId null để lấy các danh mục gốc
+    public List<Category> getChildren(String parentId) {
+        Snapshot snap = current();
+        List<String> childIds = snap.children.getOrDefault(parentId != null ? parentId : ROOT_KEY, List.of());
+        List<Category> result = new ArrayList<>(childIds.size());
+        for (String childId : childIds) {
+            result.add(snap.nodes.get(childId));
+        }
+        return result;
+    }
+
+    private Snapshot current() {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) reload();
+            }
+        }
+        if (!dirty) return snapshot;
+
+        synchronized (this) {
+            if (dirty) {
+                // Xóa cờ trước khi đọc categories để thay đổi đồng thời sẽ kích hoạt lần dựng tiếp theo
+                dirty = false;
+                snapshot = Snapshot.build(new ArrayList<>(categories.values()));
+            }
+            return snapshot;
+        }
+    }
+
+    private static String normalizeName(String name) {
+        return name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // Bản chụp chỉ đọc của cây danh mục
+    private static final class Snapshot {
+
+        static final Snapshot EMPTY = new Snapshot(Map.of(), Map.of(), Map.of(), Map.of(), Map.of(), Map.of());
+
+        final Map<String, Category> nodes;
+        final Map<String, List<String>> children;        // ID cha (ROOT_KEY cho gốc) -> ID con, sắp theo tên
+        final Map<String, List<String>> ancestors;       // ID -> tổ tiên từ gốc đến cha
+        final Map<String, Set<String>> descendants;      // ID -> chính nó và toàn bộ con cháu
+        final Map<String, String> paths;                 // ID -> materialized path
+        final Map<String, Set<String>> idsByName;        // tên (chữ thường) -> ID
+
+        private Snapshot(Map<String, Category> nodes, Map<String, List<String>> children,
+                         Map<String, List<String>> ancestors, Map<String, Set<String>> descendants,
+                         Map<String, String> paths, Map<String, Set<String>> idsByName) {
+            this.nodes = nodes;
+            this.children = children;
+            this.ancestors = ancestors;
+            this.descendants = descendants;
+            this.paths = paths;
+            this.idsByName = idsByName;
+        }
+
+        static Snapshot build(List<Category> all) {
+            Map<String, Category> nodes = new HashMap<>();
+            for (Category category : all) {
+                nodes.put(category.getId(), category);
+            }
+
+            Map<String, List<String>> ancestors = new HashMap<>();
+            Map<String, Set<String>> descendants = new HashMap<>();
+            Map<String, String> paths = new HashMap<>();
+            Map<String, List<String>> children = new HashMap<>();
+            Map<String, Set<String>> idsByName = new HashMap<>();
+
+            for (Category category : all) {
+                String id = category.getId();
+
+                // Đi ngược theo parentCategoryId; cha không tồn tại hoặc vòng lặp thì dừng tại đó
+                LinkedList<String> chain = new LinkedList<>();
+                Set<String> visited = new HashSet<>();
+                visited.add(id);
+                Category cursor = category;
+                while (cursor.getParentCategoryId() != null) {
+                    String parentId = cursor.getParentCategoryId().toString();
+                    Category parent = nodes.get(parentId);
+                    if (parent == null || !visited.add(parentId)) break;
+                    chain.addFirst(parentId);
+                    cursor = parent;
+                }
+
+                ancestors.put(id, Collections.unmodifiableList(new ArrayList<>(chain)));
+                paths.put(id, PATH_SEPARATOR + String.join(PATH_SEPARATOR, chain)
+                        + (chain.isEmpty() ? "" : PATH_SEPARATOR) + id);
+
+                descendants.computeIfAbsent(id, k -> new HashSet<>()).add(id);
+                for (String ancestorId : chain) {
+                    descendants.computeIfAbsent(ancestorId, k -> new HashSet<>()).add(id);
+                }
+
+                String parentKey = chain.isEmpty() ? ROOT_KEY : chain.getLast();
+                children.computeIfAbsent(parentKey, k -> new ArrayList<>()).add(id);
+
+                if (category.getName() != null) {
+                    idsByName.computeIfAbsent(normalizeName(category.getName()), k -> new HashSet<>()).add(id);
+                }
+            }
+
+            Comparator<String> byName = Comparator.comparing(
+                    (String childId) -> nodes.get(childId).getName(), Comparator.nullsLast(String.CASE_INSENSITIVE_ORDER))
+                    .thenComparing(Comparator.naturalOrder());
+            children.replaceAll((key, ids) -> {
+                ids.sort(byName);
+                return Collections.unmodifiableList(ids);
+            });
+            descendants.replaceAll((key, ids) -> Collections.unmodifiableSet(ids));
+
+            return new Snapshot(nodes, children, ancestors, descendants, paths, idsByName);
+        }
+    }
+}
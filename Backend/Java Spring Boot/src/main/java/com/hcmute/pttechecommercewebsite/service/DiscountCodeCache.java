@@ -0,0 +1,165 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.model.DiscountCode;
+import com.hcmute.pttechecommercewebsite.repository.DiscountCodeRepository;
+import org.springframework.data.mongodb.core.mapping.event.AbstractMongoEventListener;
+import org.springframework.data.mongodb.core.mapping.event.AfterDeleteEvent;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+// Bộ nhớ đệm các mã giảm giá đang hoạt động, tra cứu theo code, dùng khi tính giảm giá cho đơn hàng
+// và khi lấy danh sách mã có thể sử dụng, thay cho một truy vấn MongoDB ở mỗi lần xem trước / thanh toán.
+// Mã được cập nhật khi lưu (tạo, sửa, ẩn, hiện, xóa mềm, kích hoạt theo lịch) qua sự kiện lưu của MongoDB,
+// và bị loại đúng tại endDate: các mã hết hạn được dọn theo hàng đợi ưu tiên endDate trước mỗi lần đọc.
+@Component
+public class DiscountCodeCache extends AbstractMongoEventListener<DiscountCode> {
+
+    private final DiscountCodeRepository discountCodeRepository;
+
+    // Mã đang hoạt động, chưa xóa và chưa hết hạn (kể cả mã chưa đến startDate)
+    private final Map<String, DiscountCode> byId = new HashMap<>();
+    private final Map<String, DiscountCode> byCode = new HashMap<>();
+    private final PriorityQueue<DiscountCode> byEndDate = new PriorityQueue<>(Comparator.comparing(DiscountCode::getEndDate));
+
+    private boolean loaded = false;
+
+    // Tăng mỗi khi tập mã thay đổi, để các chỉ mục dựng từ bộ nhớ đệm biết cần dựng lại
+    private long version = 0;
+
+    public DiscountCodeCache(DiscountCodeRepository discountCodeRepository) {
+        this.discountCodeRepository = discountCodeRepository;
+    }
+
+    // Mã có thể áp dụng tại thời điểm now (đang hoạt động, trong khoảng startDate - endDate)
+    public synchronized Optional<DiscountCode> findValid(String code, Date now) {
+        ensureFresh(now);
+        DiscountCode discount = byCode.get(code);
+        if (discount == null || !isStarted(discount, now)) return Optional.empty();
+        return Optional.of(discount);
+    }
+
+    // Các mã có thể sử dụng tại thời điểm now (còn hiệu lực và còn lượt sử dụng)
+    public synchronized List<DiscountCode> getUsable(Date now) {
+        ensureFresh(now);
+        List<DiscountCode> usable = new ArrayList<>();
+        for (DiscountCode discount : byId.values()) {
+            if (isStarted(discount, now)
+                    && (discount.getUsageLimit() == null || discount.getUsageCount() == null
+                    || discount.getUsageCount() < discount.getUsageLimit())) {
+                usable.add(discount);
+            }
+        }
+        return usable;
+    }
+
+    // Tất cả các mã chưa hết hạn (kể cả mã chưa đến startDate hoặc đã hết lượt) cùng phiên bản của tập mã
+    public synchronized Snapshot snapshot(Date now) {
+        ensureFresh(now);
+        return new Snapshot(version, new ArrayList<>(byId.values()));
+    }
+
+    public static class Snapshot {
+        private final long version;
+        private final List<DiscountCode> codes;
+
+        Snapshot(long version, List<DiscountCode> codes) {
+            this.version = version;
+            this.codes = codes;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public List<DiscountCode> getCodes() {
+            return codes;
+        }
+    }
+
+    // Cập nhật usageCount sau lệnh $inc trên MongoDB (lệnh update không phát sinh sự kiện lưu)
+    public synchronized void adjustUsage(String id, int delta) {
+        DiscountCode discount = byId.get(id);
+        if (discount != null) {
+            discount.setUsageCount((discount.getUsageCount() != null ? discount.getUsageCount() : 0) + delta);
+        }
+    }
+
+    @Override
+    public void onAfterSave(AfterSaveEvent<DiscountCode> event) {
+        upsert(event.getSource());
+    }
+
+    @Override
+    public void onAfterDelete(AfterDeleteEvent<DiscountCode> event) {
+        // Xóa cứng hiếm khi xảy ra (dữ liệu dùng xóa mềm): nạp lại ở lần đọc tiếp theo
+        invalidate();
+    }
+
+    public synchronized void invalidate() {
+        loaded = false;
+        version++;
+    }
+
+    private synchronized void upsert(DiscountCode discount) {
+        if (!loaded || discount == null || discount.getId() == null) return;
+        remove(discount.getId());
+        if (discount.isActive() && !discount.isDeleted()
+                && (discount.getEndDate() == null || !discount.getEndDate().before(new Date()))) {
+            add(discount);
+        }
+    }
+
+    private void ensureFresh(Date now) {
+        if (!loaded) {
+            byId.clear();
+            byCode.clear();
+            byEndDate.clear();
+            for (DiscountCode discount : discountCodeRepository.findByIsActiveTrueAndIsDeletedFalse()) {
+                if (discount.getEndDate() == null || !discount.getEndDate().before(now)) {
+                    add(discount);
+                }
+            }
+            loaded = true;
+        }
+
+        // Loại các mã đã qua endDate
+        while (!byEndDate.isEmpty() && byEndDate.peek().getEndDate().before(now)) {
+            unindex(byEndDate.poll());
+        }
+    }
+
+    private void add(DiscountCode discount) {
+        version++;
+        byId.put(discount.getId(), discount);
+        if (discount.getCode() != null) {
+            byCode.put(discount.getCode(), discount);
+        }
+        if (discount.getEndDate() != null) {
+            byEndDate.add(discount);
+        }
+    }
+
+    private void remove(String id) {
+        DiscountCode previous = byId.get(id);
+        if (previous == null) return;
+        unindex(previous);
+        // So sánh theo tham chiếu: equals của DiscountCode so sánh theo giá trị
+        byEndDate.removeIf(discount -> discount == previous);
+    }
+
+    private void unindex(DiscountCode discount) {
+        version++;
+        if (byId.get(discount.getId()) == discount) {
+            byId.remove(discount.getId());
+        }
+        if (discount.getCode() != null && byCode.get(discount.getCode()) == discount) {
+            byCode.remove(discount.getCode());
+        }
+    }
+
+    private static boolean isStarted(DiscountCode discount, Date now) {
+        return discount.getStartDate() == null || !discount.getStartDate().after(now);
+    }
+}
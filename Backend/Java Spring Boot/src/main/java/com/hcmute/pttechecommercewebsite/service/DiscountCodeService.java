@@ -1,39 +1,58 @@
 package com.hcmute.pttechecommercewebsite.service;
 
+import com.hcmute.pttechecommercewebsite.dto.CartDTO;
 import com.hcmute.pttechecommercewebsite.dto.DiscountCodeDTO;
+import com.hcmute.pttechecommercewebsite.dto.DiscountEvaluationDTO;
+import com.hcmute.pttechecommercewebsite.dto.OrderDTO;
 import com.hcmute.pttechecommercewebsite.exception.ResourceNotFoundException;
 import com.hcmute.pttechecommercewebsite.model.DiscountCode;
 import com.hcmute.pttechecommercewebsite.repository.DiscountCodeRepository;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.*;
+import com.hcmute.pttechecommercewebsite.repository.UserRepository;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.validation.annotation.Validated;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.util.Date;
-import java.util.List;
-import java.util.Optional;
+import java.io.OutputStream;
+import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @Validated
 public class DiscountCodeService {
 
     private final DiscountCodeRepository discountCodeRepository;
+    private final DiscountRedemptionService discountRedemptionService;
+    private final DiscountCodeCache discountCodeCache;
+    private final DiscountEvaluator discountEvaluator;
+    private final CartService cartService;
+    private final UserRepository userRepository;
 
     @Autowired
-    public DiscountCodeService(DiscountCodeRepository discountCodeRepository) {
+    public DiscountCodeService(DiscountCodeRepository discountCodeRepository, DiscountRedemptionService discountRedemptionService,
+                               DiscountCodeCache discountCodeCache, DiscountEvaluator discountEvaluator, CartService cartService,
+                               UserRepository userRepository) {
         this.discountCodeRepository = discountCodeRepository;
+        this.discountRedemptionService = discountRedemptionService;
+        this.discountCodeCache = discountCodeCache;
+        this.discountEvaluator = discountEvaluator;
+        this.cartService = cartService;
+        this.userRepository = userRepository;
     }
 
-    // Chuyển Entity thành DTO
+    // Chuyển Entity thành DTO (danh sách người dùng đã sử dụng để trống, chỉ nạp khi cần)
     private DiscountCodeDTO convertToDTO(DiscountCode discountCode) {
+        return convertToDTO(discountCode, new ArrayList<>());
+    }
+
+    private DiscountCodeDTO convertToDTO(DiscountCode discountCode, List<String> usedByUsers) {
         return DiscountCodeDTO.builder()
                 .id(discountCode.getId())
                 .code(discountCode.getCode())
@@ -55,9 +74,7 @@ public class DiscountCodeService {
                 .usageCount(discountCode.getUsageCount())
                 .isActive(discountCode.isActive())
                 .isDeleted(discountCode.isDeleted())
-                .usedByUsers(discountCode.getUsedByUsers().stream()
-                        .map(ObjectId::toString)
-                        .collect(Collectors.toList()))
+                .usedByUsers(usedByUsers)
                 .build();
     }
 
@@ -93,27 +110,57 @@ public class DiscountCodeService {
                 .collect(Collectors.toList());
     }
 
-    // Xem mã giảm giá theo ID
+    // Xem mã giảm giá theo ID, kèm danh sách người dùng đã sử dụng
     public Optional<DiscountCodeDTO> getDiscountCodeById(String id) {
         Optional<DiscountCode> discountCode = discountCodeRepository.findById(id);
-        return discountCode.map(this::convertToDTO);
+        return discountCode.map(dc -> convertToDTO(dc, discountRedemptionService.findUserIds(dc.getId())));
     }
 
-    public List<DiscountCodeDTO> getUsableDiscountCodes() {
-        Date now = new Date();
-        List<DiscountCode> usableCodes = discountCodeRepository
-                .findByIsActiveTrueAndIsDeletedFalse()
-                .stream()
-                .filter(dc -> (dc.getStartDate() == null || !dc.getStartDate().after(now)) &&
-                        (dc.getEndDate() == null || !dc.getEndDate().before(now)) &&
-                        (dc.getUsageLimit() == null || dc.getUsageCount() < dc.getUsageLimit()))
-                .collect(Collectors.toList());
+    // Mã giảm giá còn dùng được; nếu có userId thì usedByUsers của mỗi mã chứa userId khi người dùng đã dùng mã đó
+    // username: người dùng đăng nhập (từ token), dùng để đánh dấu các mã người dùng đã sử dụng
+    public List<DiscountCodeDTO> getUsableDiscountCodes(String username) {
+        // Lấy từ bộ nhớ đệm mã giảm giá, không truy vấn MongoDB
+        List<DiscountCode> usableCodes = discountCodeCache.getUsable(new Date());
+
+        String userId = findUserId(username);
+        if (userId == null) {
+            return usableCodes.stream()
+                    .map(this::convertToDTO)
+                    .collect(Collectors.toList());
+        }
 
+        Set<String> redeemed = discountRedemptionService.findRedeemedCodeIds(new ObjectId(userId),
+                usableCodes.stream().map(DiscountCode::getId).toList());
         return usableCodes.stream()
-                .map(this::convertToDTO)
+                .map(dc -> convertToDTO(dc, redeemed.contains(dc.getId()) ? new ArrayList<>(List.of(userId)) : new ArrayList<>()))
                 .collect(Collectors.toList());
     }
 
+    // Xếp hạng các mã có thể áp dụng cho giỏ hàng theo số tiền giảm (cao nhất trước); chỉ chủ giỏ hàng được xem
+    public List<DiscountEvaluationDTO> getBestDiscountCodesForCart(String cartId, double shippingPrice, String username) {
+        if (!ObjectId.isValid(cartId)) {
+            throw new ResourceNotFoundException("Giỏ hàng với ID " + cartId + " không tồn tại");
+        }
+        CartDTO cart = cartService.getCartById(cartId);
+        String userId = findUserId(username);
+        if (userId == null || !userId.equals(cart.getUserId())) {
+            throw new AccessDeniedException("Bạn không có quyền xem giỏ hàng này");
+        }
+        return discountEvaluator.rank(DiscountEvaluator.Line.fromCartItems(cart.getItems()), shippingPrice, userId);
+    }
+
+    // Xếp hạng các mã có thể áp dụng cho đơn hàng (chưa tạo) của người đăng nhập theo số tiền giảm (cao nhất trước)
+    public List<DiscountEvaluationDTO> getBestDiscountCodesForOrder(OrderDTO orderDTO, String username) {
+        return discountEvaluator.rank(DiscountEvaluator.Line.fromOrderItems(orderDTO.getItems()),
+                orderDTO.getShippingPrice(), findUserId(username));
+    }
+
+    // ID của người dùng đăng nhập; null nếu không có
+    private String findUserId(String username) {
+        if (username == null) return null;
+        return userRepository.findByUsername(username).map(user -> user.getId()).orElse(null);
+    }
+
     // Tìm kiếm mã giảm giá theo code
     public List<DiscountCodeDTO> searchDiscountCodesByCode(String keyword) {
         List<DiscountCode> discountCodes = discountCodeRepository.findByCodeContaining(keyword);
@@ -124,10 +171,6 @@ public class DiscountCodeService {
 
     // Thêm mới mã giảm giá
     public DiscountCodeDTO createDiscountCode(DiscountCodeDTO discountCodeDTO) {
-        List<ObjectId> usedByUsers = discountCodeDTO.getUsedByUsers().stream()
-                .map(ObjectId::new)
-                .collect(Collectors.toList());
-
         List<ObjectId> applicableCategories = discountCodeDTO.getApplicableCategories().stream()
                 .map(ObjectId::new)
                 .collect(Collectors.toList());
@@ -150,7 +193,6 @@ public class DiscountCodeService {
                 .endDate(discountCodeDTO.getEndDate())
                 .usageLimit(discountCodeDTO.getUsageLimit())
                 .usageCount(0) // Khởi tạo số lần sử dụng ban đầu
-                .usedByUsers(usedByUsers)
                 .isActive(true)
                 .isDeleted(false)
                 .createdAt(new Date())
@@ -167,11 +209,6 @@ public class DiscountCodeService {
             throw new IllegalArgumentException("Thời gian phải trong tương lai.");
         }
 
-        // Chuyển danh sách người dùng đã sử dụng mã giảm giá từ String về ObjectId
-        List<ObjectId> usedByUsers = discountCodeDTO.getUsedByUsers().stream()
-                .map(ObjectId::new)
-                .collect(Collectors.toList());
-
         List<ObjectId> applicableCategories = discountCodeDTO.getApplicableCategories().stream()
                 .map(ObjectId::new)
                 .collect(Collectors.toList());
@@ -195,7 +232,6 @@ public class DiscountCodeService {
                 .endDate(discountCodeDTO.getEndDate())
                 .usageLimit(discountCodeDTO.getUsageLimit())
                 .usageCount(0)
-                .usedByUsers(usedByUsers)
                 .isActive(false)
                 .isDeleted(false)
                 .scheduledDate(discountCodeDTO.getScheduledDate())
@@ -207,21 +243,6 @@ public class DiscountCodeService {
         return convertToDTO(savedDiscountCode);
     }
 
-    @Scheduled(fixedRate = 60000)
-    @Transactional
-    public void checkAndActivateScheduledDiscountCodes() {
-        Date now = new Date();
-
-        List<DiscountCode> scheduledDiscountCodes = discountCodeRepository.findByScheduledDateBeforeAndIsDeletedFalseAndIsActiveFalse(now);
-
-        for (DiscountCode discountCode : scheduledDiscountCodes) {
-            discountCode.setActive(true);
-            discountCode.setScheduledDate(null);
-            discountCode.setUpdatedAt(now);
-            discountCodeRepository.save(discountCode);
-        }
-    }
-
     @Scheduled(fixedRate = 3600000) // Mỗi giờ chạy một lần
     @Transactional
     public void deactivateExpiredDiscountCodes() {
@@ -256,13 +277,6 @@ public class DiscountCodeService {
             discountCode.setUsageLimit(discountCodeDTO.getUsageLimit());
             discountCode.setUsageCount(discountCodeDTO.getUsageCount());
 
-            if (discountCodeDTO.getUsedByUsers() != null) {
-                List<ObjectId> usedByUsers = discountCodeDTO.getUsedByUsers().stream()
-                        .map(ObjectId::new)
-                        .collect(Collectors.toList());
-                discountCode.setUsedByUsers(usedByUsers);
-            }
-
             if (discountCodeDTO.getApplicableCategories() != null) {
                 List<ObjectId> applicableCategories = discountCodeDTO.getApplicableCategories().stream()
                         .map(ObjectId::new)
@@ -326,124 +340,36 @@ public class DiscountCodeService {
         }
     }
 
-    // Phương thức xuất tất cả mã giảm giá ra file Excel
-    public ByteArrayOutputStream exportDiscountCodesToExcel(String sortBy, String sortOrder) throws IOException {
-        // Lấy danh sách các mã giảm giá
-        List<DiscountCodeDTO> discountCodes = getAllActiveDiscountCodesWithDeletedFalse(sortBy, sortOrder);
-
-        // Tạo workbook Excel
-        XSSFWorkbook workbook = new XSSFWorkbook();
-        Sheet sheet = workbook.createSheet("DiscountCodes");
-
-        // Định dạng chung cho workbook
-        CellStyle headerStyle = workbook.createCellStyle();
-        Font headerFont = workbook.createFont();
-        headerFont.setBold(true);
-        headerFont.setFontHeightInPoints((short) 12);
-        headerFont.setColor(IndexedColors.WHITE.getIndex());
-        headerStyle.setFont(headerFont);
-        headerStyle.setAlignment(HorizontalAlignment.CENTER);
-        headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-        headerStyle.setFillForegroundColor(IndexedColors.GREY_50_PERCENT.getIndex());
-        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
-        // Tạo dòng tiêu đề
-        Row headerRow = sheet.createRow(0);
-        String[] columns = {"ID", "Mã giảm giá", "Mô tả", "Loại giảm giá", "Giá trị giảm", "Số tiền mua tối thiểu", "Số tiền giảm tối đa", "Ngày bắt đầu", "Ngày kết thúc", "Số lượt sử dụng", "Số lượt đã dùng", "Danh mục áp dụng", "Sản phẩm áp dụng", "Người dùng đã sử dụng", "Trạng thái hoạt động", "Trạng thái xóa"};
-        for (int i = 0; i < columns.length; i++) {
-            Cell cell = headerRow.createCell(i);
-            cell.setCellValue(columns[i]);
-            cell.setCellStyle(headerStyle);
-        }
-
-        // Định dạng cho dữ liệu
-        CellStyle dataStyle = workbook.createCellStyle();
-        dataStyle.setAlignment(HorizontalAlignment.CENTER);
-        dataStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-
-        // Thêm dữ liệu mã giảm giá vào file Excel
-        int rowNum = 1;
-        for (DiscountCodeDTO discountCode : discountCodes) {
-            Row row = sheet.createRow(rowNum++);
-
-            // Cột ID
-            row.createCell(0).setCellValue(discountCode.getId());
-            row.getCell(0).setCellStyle(dataStyle);
-
-            // Cột Mã giảm giá
-            row.createCell(1).setCellValue(discountCode.getCode());
-            row.getCell(1).setCellStyle(dataStyle);
-
-            // Cột Mô tả
-            row.createCell(2).setCellValue(discountCode.getDescription() != null ? discountCode.getDescription() : "Không có");
-            row.getCell(2).setCellStyle(dataStyle);
-
-            // Cột Loại giảm giá
-            row.createCell(3).setCellValue(discountCode.getDiscountType() != null ? discountCode.getDiscountType() : "Không có");
-            row.getCell(3).setCellStyle(dataStyle);
-
-            // Cột Giá trị giảm
-            row.createCell(4).setCellValue(discountCode.getDiscountValue());
-            row.getCell(4).setCellStyle(dataStyle);
-
-            // Cột Số tiền mua tối thiểu
-            row.createCell(5).setCellValue(discountCode.getMinimumPurchaseAmount() != null ? discountCode.getMinimumPurchaseAmount() : 0);
-            row.getCell(5).setCellStyle(dataStyle);
-
-            // Cột Số tiền mua tối thiểu
-            row.createCell(6).setCellValue(discountCode.getMaxDiscountAmount() != null ? discountCode.getMaxDiscountAmount() : 0);
-            row.getCell(6).setCellStyle(dataStyle);
-
-            // Cột Ngày bắt đầu
-            row.createCell(7).setCellValue(discountCode.getStartDate() != null ? discountCode.getStartDate().toString() : "Không có");
-            row.getCell(7).setCellStyle(dataStyle);
-
-            // Cột Ngày kết thúc
-            row.createCell(8).setCellValue(discountCode.getEndDate() != null ? discountCode.getEndDate().toString() : "Không có");
-            row.getCell(8).setCellStyle(dataStyle);
-
-            // Cột Số lượt sử dụng
-            row.createCell(9).setCellValue(discountCode.getUsageLimit());
-            row.getCell(9).setCellStyle(dataStyle);
-
-            // Cột Số lượt đã dùng
-            row.createCell(10).setCellValue(discountCode.getUsageCount());
-            row.getCell(10).setCellStyle(dataStyle);
-
-            // Cột Danh mục áp dụng (Applicable Categories)
-            String applicableCategories = discountCode.getApplicableCategories() != null ? String.join(", ", discountCode.getApplicableCategories()) : "Không có";
-            row.createCell(11).setCellValue(applicableCategories);
-            row.getCell(11).setCellStyle(dataStyle);
-
-            // Cột Sản phẩm áp dụng (Applicable Products)
-            String applicableProducts = discountCode.getApplicableProducts() != null ? String.join(", ", discountCode.getApplicableProducts()) : "Không có";
-            row.createCell(12).setCellValue(applicableProducts);
-            row.getCell(12).setCellStyle(dataStyle);
-
-            // Cột Người dùng đã sử dụng (Used By Users)
-            String usedByUsers = discountCode.getUsedByUsers() != null ? String.join(", ", discountCode.getUsedByUsers()) : "Không có";
-            row.createCell(13).setCellValue(usedByUsers);
-            row.getCell(13).setCellStyle(dataStyle);
-
-            // Cột Trạng thái hoạt động
-            row.createCell(14).setCellValue(discountCode.isActive() ? "Đang hoạt động" : "Không hoạt động");
-            row.getCell(14).setCellStyle(dataStyle);
-
-            // Cột Trạng thái xóa
-            row.createCell(15).setCellValue(discountCode.isDeleted() ? "Đã xóa" : "Đang hiển thị");
-            row.getCell(15).setCellStyle(dataStyle);
+    // Các cột của file Excel mã giảm giá
+    private static final List<ExcelExportUtil.Column<DiscountCodeDTO>> DISCOUNT_CODE_EXPORT_COLUMNS = List.of(
+            ExcelExportUtil.Column.of("ID", DiscountCodeDTO::getId),
+            ExcelExportUtil.Column.of("Mã giảm giá", DiscountCodeDTO::getCode),
+            ExcelExportUtil.Column.of("Mô tả", d -> d.getDescription() != null ? d.getDescription() : "Không có"),
+            ExcelExportUtil.Column.of("Loại giảm giá", d -> d.getDiscountType() != null ? d.getDiscountType() : "Không có"),
+            ExcelExportUtil.Column.of("Giá trị giảm", DiscountCodeDTO::getDiscountValue),
+            ExcelExportUtil.Column.of("Số tiền mua tối thiểu", d -> d.getMinimumPurchaseAmount() != null ? d.getMinimumPurchaseAmount() : 0),
+            ExcelExportUtil.Column.of("Số tiền giảm tối đa", d -> d.getMaxDiscountAmount() != null ? d.getMaxDiscountAmount() : 0),
+            ExcelExportUtil.Column.of("Ngày bắt đầu", d -> d.getStartDate() != null ? d.getStartDate().toString() : "Không có"),
+            ExcelExportUtil.Column.of("Ngày kết thúc", d -> d.getEndDate() != null ? d.getEndDate().toString() : "Không có"),
+            ExcelExportUtil.Column.of("Số lượt sử dụng", DiscountCodeDTO::getUsageLimit),
+            ExcelExportUtil.Column.of("Số lượt đã dùng", DiscountCodeDTO::getUsageCount),
+            ExcelExportUtil.Column.of("Danh mục áp dụng", d -> d.getApplicableCategories() != null ? String.join(", ", d.getApplicableCategories()) : "Không có"),
+            ExcelExportUtil.Column.of("Sản phẩm áp dụng", d -> d.getApplicableProducts() != null ? String.join(", ", d.getApplicableProducts()) : "Không có"),
+            ExcelExportUtil.Column.of("Trạng thái hoạt động", d -> d.isActive() ? "Đang hoạt động" : "Không hoạt động"),
+            ExcelExportUtil.Column.of("Trạng thái xóa", d -> d.isDeleted() ? "Đã xóa" : "Đang hiển thị")
+    );
+
+    // Xuất mã giảm giá ra file Excel, đọc MongoDB theo cursor và ghi thẳng vào outputStream
+    public void exportDiscountCodesToExcel(String sortBy, String sortOrder, OutputStream outputStream) throws IOException {
+        Sort sort = Sort.by(Sort.Order.by(sortBy));
+        if ("desc".equalsIgnoreCase(sortOrder)) {
+            sort = sort.descending();
+        } else {
+            sort = sort.ascending();
         }
 
-        // Tự động điều chỉnh độ rộng cột theo nội dung
-        for (int i = 0; i < columns.length; i++) {
-            sheet.autoSizeColumn(i);
+        try (Stream<DiscountCode> discountCodes = discountCodeRepository.streamByIsDeletedFalse(sort)) {
+            ExcelExportUtil.write(outputStream, "DiscountCodes", DISCOUNT_CODE_EXPORT_COLUMNS, discountCodes.map(this::convertToDTO));
         }
-
-        // Tạo OutputStream và ghi workbook vào đó
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        workbook.write(outputStream);
-        workbook.close();
-
-        return outputStream;
     }
 }
\ No newline at end of file
@@ -0,0 +1,246 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.dto.CartDTO;
+import com.hcmute.pttechecommercewebsite.dto.DiscountEvaluationDTO;
+import com.hcmute.pttechecommercewebsite.dto.OrderDTO;
+import com.hcmute.pttechecommercewebsite.model.DiscountCode;
+import org.bson.types.ObjectId;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+// Tính số tiền giảm của mã giảm giá cho một giỏ hàng / đơn hàng, theo applicableProducts, applicableCategories
+// (kể cả danh mục con), appliesTo, minimumPurchaseAmount và maxDiscountAmount.
+// Các mã đang hoạt động được biên dịch sẵn thành chỉ mục theo sản phẩm / danh mục (dựng lại khi tập mã thay đổi),
+// nên việc đánh giá tất cả các mã cho một giỏ hàng chỉ duyệt các dòng sản phẩm một lần.
+@Service
+public class DiscountEvaluator {
+
+    private final DiscountCodeCache discountCodeCache;
+    private final CategoryTree categoryTree;
+    private final DiscountRedemptionService discountRedemptionService;
+
+    private volatile RuleIndex index = new RuleIndex(-1, List.of());
+
+    public DiscountEvaluator(DiscountCodeCache discountCodeCache, CategoryTree categoryTree,
+                             DiscountRedemptionService discountRedemptionService) {
+        this.discountCodeCache = discountCodeCache;
+        this.categoryTree = categoryTree;
+        this.discountRedemptionService = discountRedemptionService;
+    }
+
+    // Một dòng sản phẩm cần tính giảm giá
+    public static class Line {
+        private final String productId;
+        private final String categoryId;
+        private final double amount;
+
+        public Line(String productId, String categoryId, double amount) {
+            this.productId = productId;
+            this.categoryId = categoryId;
+            this.amount = amount;
+        }
+
+        public static List<Line> fromOrderItems(List<OrderDTO.ItemDTO> items) {
+            List<Line> lines = new ArrayList<>();
+            if (items == null) return lines;
+            for (OrderDTO.ItemDTO item : items) {
+                lines.add(new Line(item.getProductId(), item.getCategoryId(), item.getDiscountPrice() * item.getQuantity()));
+            }
+            return lines;
+        }
+
+        public static List<Line> fromCartItems(List<CartDTO.ItemDTO> items) {
+            List<Line> lines = new ArrayList<>();
+            if (items == null) return lines;
+            for (CartDTO.ItemDTO item : items) {
+                lines.add(new Line(item.getProductId(), item.getCategoryId(), item.getDiscountPrice() * item.getQuantity()));
+            }
+            return lines;
+        }
+    }
+
+    // Số tiền giảm của một mã cho các dòng sản phẩm và phí vận chuyển (0 nếu không đạt điều kiện)
+    public double calculate(DiscountCode discount, List<Line> lines, double shippingPrice) {
+        Rule rule = new Rule(discount);
+        double subtotal = 0, eligible = 0;
+        boolean matched = false;
+        for (Line line : lines) {
+            subtotal += line.amount;
+            if (!rule.restricted || rule.matches(line.productId, categoryChain(line.categoryId))) {
+                eligible += line.amount;
+                matched = true;
+            }
+        }
+        return rule.discount(subtotal, eligible, matched, shippingPrice);
+    }
+
+    // Đánh giá tất cả các mã có thể sử dụng cho giỏ hàng, sắp xếp theo số tiền giảm giảm dần.
+    // Bỏ qua các mã người dùng đã sử dụng nếu có userId.
+    public List<DiscountEvaluationDTO> rank(List<Line> lines, double shippingPrice, String userId) {
+        Date now = new Date();
+        RuleIndex rules = current(now);
+
+        // Một lượt qua các dòng: cộng giá trị dòng vào mọi mã áp dụng được cho dòng đó
+        Map<Rule, Double> eligible = new IdentityHashMap<>();
+        double subtotal = 0;
+        for (Line line : lines) {
+            subtotal += line.amount;
+            Set<Rule> matched = Collections.newSetFromMap(new IdentityHashMap<>());
+            matched.addAll(rules.unrestricted);
+            matched.addAll(rules.byProduct.getOrDefault(line.productId, List.of()));
+            for (String categoryId : categoryChain(line.categoryId)) {
+                matched.addAll(rules.byCategory.getOrDefault(categoryId, List.of()));
+            }
+            for (Rule rule : matched) {
+                eligible.merge(rule, line.amount, Double::sum);
+            }
+        }
+
+        List<DiscountEvaluationDTO> results = new ArrayList<>();
+        for (Rule rule : rules.all) {
+            if (!rule.isUsable(now)) continue;
+
+            double eligibleAmount = eligible.getOrDefault(rule, 0.0);
+            double discountAmount = rule.discount(subtotal, eligibleAmount, eligible.containsKey(rule), shippingPrice);
+            if (discountAmount <= 0) continue;
+
+            DiscountCode code = rule.code;
+            results.add(DiscountEvaluationDTO.builder()
+                    .id(code.getId())
+                    .code(code.getCode())
+                    .description(code.getDescription())
+                    .discountType(code.getDiscountType())
+                    .discountValue(code.getDiscountValue())
+                    .appliesTo(code.getAppliesTo())
+                    .eligibleAmount(rule.base(eligibleAmount, eligible.containsKey(rule), shippingPrice))
+                    .discountAmount(discountAmount)
+                    .build());
+        }
+
+        if (userId != null && ObjectId.isValid(userId) && !results.isEmpty()) {
+            Set<String> redeemed = discountRedemptionService.findRedeemedCodeIds(new ObjectId(userId),
+                    results.stream().map(DiscountEvaluationDTO::getId).toList());
+            results.removeIf(result -> redeemed.contains(result.getId()));
+        }
+
+        results.sort(Comparator.comparingDouble(DiscountEvaluationDTO::getDiscountAmount).reversed());
+        return results;
+    }
+
+    // Danh mục của dòng và các danh mục tổ tiên (mã áp dụng cho danh mục cha áp dụng cho cả danh mục con)
+    private List<String> categoryChain(String categoryId) {
+        if (categoryId == null) return List.of();
+        List<String> chain = new ArrayList<>(categoryTree.getAncestorIds(categoryId));
+        chain.add(categoryId);
+        return chain;
+    }
+
+    private RuleIndex current(Date now) {
+        DiscountCodeCache.Snapshot snapshot = discountCodeCache.snapshot(now);
+        RuleIndex rules = index;
+        if (rules.version != snapshot.getVersion()) {
+            rules = new RuleIndex(snapshot.getVersion(), snapshot.getCodes());
+            index = rules;
+        }
+        return rules;
+    }
+
+    // Chỉ mục các mã theo sản phẩm / danh mục áp dụng
+    private static class RuleIndex {
+        final long version;
+        final List<Rule> all = new ArrayList<>();
+        final List<Rule> unrestricted = new ArrayList<>();
+        final Map<String, List<Rule>> byProduct = new HashMap<>();
+        final Map<String, List<Rule>> byCategory = new HashMap<>();
+
+        RuleIndex(long version, List<DiscountCode> codes) {
+            this.version = version;
+            for (DiscountCode code : codes) {
+                Rule rule = new Rule(code);
+                all.add(rule);
+                if (!rule.restricted) {
+                    unrestricted.add(rule);
+                    continue;
+                }
+                for (String productId : rule.products) {
+                    byProduct.computeIfAbsent(productId, k -> new ArrayList<>()).add(rule);
+                }
+                for (String categoryId : rule.categories) {
+                    byCategory.computeIfAbsent(categoryId, k -> new ArrayList<>()).add(rule);
+                }
+            }
+        }
+    }
+
+    // Điều kiện của một mã đã được chuẩn hóa để tính nhanh
+    private static class Rule {
+        final DiscountCode code;
+        final Set<String> products = new HashSet<>();
+        final Set<String> categories = new HashSet<>();
+        final boolean restricted;
+        final boolean onProducts;
+        final boolean onShipping;
+
+        Rule(DiscountCode code) {
+            this.code = code;
+            if (code.getApplicableProducts() != null) {
+                code.getApplicableProducts().forEach(id -> products.add(id.toHexString()));
+            }
+            if (code.getApplicableCategories() != null) {
+                code.getApplicableCategories().forEach(id -> categories.add(id.toHexString()));
+            }
+            this.restricted = !products.isEmpty() || !categories.isEmpty();
+
+            String appliesTo = code.getAppliesTo();
+            this.onShipping = "shipping".equals(appliesTo) || "both".equals(appliesTo);
+            this.onProducts = !"shipping".equals(appliesTo);
+        }
+
+        boolean matches(String productId, List<String> categoryChain) {
+            if (productId != null && products.contains(productId)) return true;
+            for (String categoryId : categoryChain) {
+                if (categories.contains(categoryId)) return true;
+            }
+            return false;
+        }
+
+        boolean isUsable(Date now) {
+            return (code.getStartDate() == null || !code.getStartDate().after(now))
+                    && (code.getEndDate() == null || !code.getEndDate().before(now))
+                    && (code.getUsageLimit() == null || code.getUsageCount() == null
+                    || code.getUsageCount() < code.getUsageLimit());
+        }
+
+        // Phần giá trị được áp dụng mã: sản phẩm phù hợp và/hoặc phí vận chuyển.
+        // Mã giới hạn theo sản phẩm / danh mục chỉ giảm phí vận chuyển khi đơn có sản phẩm phù hợp.
+        double base(double eligible, boolean matched, double shippingPrice) {
+            double base = onProducts ? eligible : 0;
+            if (onShipping && (!restricted || matched)) {
+                base += shippingPrice;
+            }
+            return base;
+        }
+
+        double discount(double subtotal, double eligible, boolean matched, double shippingPrice) {
+            // Số tiền mua tối thiểu tính trên tổng giá trị sản phẩm của đơn
+            if (code.getMinimumPurchaseAmount() != null && subtotal < code.getMinimumPurchaseAmount()) {
+                return 0;
+            }
+
+            double base = base(eligible, matched, shippingPrice);
+            if (base <= 0 || code.getDiscountValue() == null) return 0;
+
+            double amount = 0;
+            if ("percentage".equals(code.getDiscountType())) {
+                amount = base * (code.getDiscountValue() / 100);
+            } else if ("fixed".equals(code.getDiscountType())) {
+                amount = code.getDiscountValue();
+            }
+            if (code.getMaxDiscountAmount() != null) {
+                amount = Math.min(amount, code.getMaxDiscountAmount());
+            }
+            return Math.max(0, Math.min(amount, base));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.model.DiscountCode;
+import com.hcmute.pttechecommercewebsite.model.DiscountRedemption;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+// Sổ ghi các lượt sử dụng mã giảm giá (collection DiscountRedemptions), thay cho mảng usedByUsers trong DiscountCode.
+// Mỗi người dùng chỉ dùng một mã một lần nhờ chỉ mục duy nhất (codeId, userId); usageCount được tăng bằng một lệnh $inc
+// có điều kiện usageCount < usageLimit nên các đơn đồng thời không làm mất lượt đếm hay vượt giới hạn sử dụng.
+@Service
+public class DiscountRedemptionService {
+
+    private static final String LEGACY_USERS_FIELD = "usedByUsers";
+
+    private final MongoTemplate mongoTemplate;
+    private final DiscountCodeCache discountCodeCache;
+
+    public DiscountRedemptionService(MongoTemplate mongoTemplate, DiscountCodeCache discountCodeCache) {
+        this.mongoTemplate = mongoTemplate;
+        this.discountCodeCache = discountCodeCache;
+    }
+
+    // Ghi nhận người dùng sử dụng mã; ném RuntimeException nếu người dùng đã dùng mã hoặc mã đã hết lượt
+    public void redeem(DiscountCode discount, ObjectId userId) {
+        ObjectId codeId = new ObjectId(discount.getId());
+        try {
+            mongoTemplate.insert(DiscountRedemption.builder()
+                    .codeId(codeId)
+                    .userId(userId)
+                    .redeemedAt(new Date())
+                    .build());
+        } catch (DuplicateKeyException e) {
+            throw new RuntimeException("Mã giảm giá này đã được sử dụng bởi bạn trước đó.");
+        }
+
+        Criteria withinLimit = new Criteria().orOperator(
+                Criteria.where("usageLimit").is(null),
+                Criteria.expr(ComparisonOperators.valueOf("usageCount").lessThan("usageLimit")));
+        Query query = new Query(new Criteria().andOperator(Criteria.where("_id").is(codeId), withinLimit));
+        if (mongoTemplate.updateFirst(query, new Update().inc("usageCount", 1), DiscountCode.class).getModifiedCount() == 0) {
+            removeRedemption(codeId, userId);
+            throw new RuntimeException("Mã giảm giá đã hết lượt sử dụng.");
+        }
+        discountCodeCache.adjustUsage(discount.getId(), 1);
+    }
+
+    // Hoàn lại lượt sử dụng (đơn hàng không được tạo sau khi đã ghi nhận mã)
+    public void cancel(String code, ObjectId userId) {
+        Query query = new Query(Criteria.where("code").is(code));
+        query.fields().include("_id");
+        for (DiscountCode discount : mongoTemplate.find(query, DiscountCode.class)) {
+            ObjectId codeId = new ObjectId(discount.getId());
+            if (removeRedemption(codeId, userId)) {
+                mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(codeId).and("usageCount").gt(0)),
+                        new Update().inc("usageCount", -1), DiscountCode.class);
+                discountCodeCache.adjustUsage(discount.getId(), -1);
+            }
+        }
+    }
+
+    // ID các mã trong codeIds mà người dùng đã sử dụng (một truy vấn theo chỉ mục)
+    public Set<String> findRedeemedCodeIds(ObjectId userId, Collection<String> codeIds) {
+        Set<String> redeemed = new HashSet<>();
+        if (codeIds.isEmpty()) return redeemed;
+
+        List<ObjectId> ids = codeIds.stream().map(ObjectId::new).toList();
+        Query query = new Query(Criteria.where("codeId").in(ids).and("userId").is(userId));
+        query.fields().include("codeId");
+        for (DiscountRedemption redemption : mongoTemplate.find(query, DiscountRedemption.class)) {
+            redeemed.add(redemption.getCodeId().toHexString());
+        }
+        return redeemed;
+    }
+
+    // ID các người dùng đã sử dụng một mã
+    public List<String> findUserIds(String codeId) {
+        Query query = new Query(Criteria.where("codeId").is(new ObjectId(codeId)));
+        query.fields().include("userId");
+        return mongoTemplate.find(query, DiscountRedemption.class).stream()
+                .map(redemption -> redemption.getUserId().toHexString())
+                .toList();
+    }
+
+    // Chuyển dữ liệu usedByUsers cũ sang sổ ghi lượt sử dụng rồi xóa mảng khỏi mã giảm giá.
+    // usageCount giữ nguyên vì đã được đếm khi các lượt đó được ghi nhận.
+    @EventListener(ApplicationReadyEvent.class)
+    public void migrateUsedByUsers() {
+        String collection = mongoTemplate.getCollectionName(DiscountCode.class);
+        Query legacy = new Query(Criteria.where(LEGACY_USERS_FIELD).exists(true));
+        legacy.fields().include("_id", LEGACY_USERS_FIELD);
+
+        int migrated = 0;
+        for (Document document : mongoTemplate.find(legacy, Document.class, collection)) {
+            Object codeId = document.get("_id");
+            List<Object> userIds = document.getList(LEGACY_USERS_FIELD, Object.class, List.of());
+
+            if (codeId instanceof ObjectId && !userIds.isEmpty()) {
+                Date now = new Date();
+                Set<ObjectId> unique = new LinkedHashSet<>();
+                for (Object userId : userIds) {
+                    if (userId instanceof ObjectId) {
+                        unique.add((ObjectId) userId);
+                    } else if (userId != null && ObjectId.isValid(userId.toString())) {
+                        unique.add(new ObjectId(userId.toString()));
+                    }
+                }
+
+                BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, DiscountRedemption.class);
+                for (ObjectId userId : unique) {
+                    bulk.insert(DiscountRedemption.builder().codeId((ObjectId) codeId).userId(userId).redeemedAt(now).build());
+                }
+                try {
+                    bulk.execute();
+                } catch (BulkOperationException e) {
+                    // Lượt đã có trong sổ ghi (lần chuyển trước bị dừng giữa chừng): bỏ qua lỗi trùng khóa
+                    if (e.getErrors().stream().anyMatch(error -> error.getCode() != 11000)) throw e;
+                }
+                migrated += unique.size();
+            }
+
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(codeId)),
+                    new Update().unset(LEGACY_USERS_FIELD), collection);
+        }
+
+        if (migrated > 0) {
+            System.out.println("Đã chuyển " + migrated + " lượt sử dụng mã giảm giá sang DiscountRedemptions");
+        }
+    }
+
+    private boolean removeRedemption(ObjectId codeId, ObjectId userId) {
+        Query query = new Query(Criteria.where("codeId").is(codeId).and("userId").is(userId));
+        return mongoTemplate.remove(query, DiscountRedemption.class).getDeletedCount() > 0;
+    }
+}
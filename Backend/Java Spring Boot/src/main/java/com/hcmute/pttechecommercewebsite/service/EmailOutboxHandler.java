@@ -0,0 +1,73 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.model.OutboxMessage;
+import com.hcmute.pttechecommercewebsite.repository.OrderRepository;
+import com.hcmute.pttechecommercewebsite.repository.ReviewRepository;
+import com.hcmute.pttechecommercewebsite.repository.UserRepository;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Set;
+
+// Gửi các email được xếp vào outbox. Payload chỉ chứa ID; dữ liệu được đọc lại khi gửi,
+// bản ghi không còn tồn tại thì bỏ qua email.
+@Component
+public class EmailOutboxHandler implements OutboxHandler {
+
+    public static final String ORDER_THANK_YOU = "email.order-thank-you";
+    public static final String RETURN_COMPLETED = "email.return-completed";
+    public static final String RETURN_REJECTED = "email.return-rejected";
+    public static final String REVIEW_THANK_YOU = "email.review-thank-you";
+    public static final String USER_VERIFICATION = "email.user-verification";
+
+    private final EmailService emailService;
+    private final OrderRepository orderRepository;
+    private final ReviewRepository reviewRepository;
+    private final UserRepository userRepository;
+
+    public EmailOutboxHandler(EmailService emailService, OrderRepository orderRepository,
+                              ReviewRepository reviewRepository, UserRepository userRepository) {
+        this.emailService = emailService;
+        this.orderRepository = orderRepository;
+        this.reviewRepository = reviewRepository;
+        this.userRepository = userRepository;
+    }
+
+    // Payload của các email theo đơn hàng
+    public static Map<String, String> order(String orderId) {
+        return Map.of("orderId", orderId);
+    }
+
+    public static Map<String, String> review(String reviewId) {
+        return Map.of("reviewId", reviewId);
+    }
+
+    public static Map<String, String> user(String userId) {
+        return Map.of("userId", userId);
+    }
+
+    @Override
+    public Set<String> getTypes() {
+        return Set.of(ORDER_THANK_YOU, RETURN_COMPLETED, RETURN_REJECTED, REVIEW_THANK_YOU, USER_VERIFICATION);
+    }
+
+    @Override
+    public void handle(OutboxMessage message) {
+        Map<String, String> payload = message.getPayload();
+        switch (message.getType()) {
+            case ORDER_THANK_YOU -> orderRepository.findById(payload.get("orderId"))
+                    .ifPresent(emailService::sendThankYouOrderEmail);
+            case RETURN_COMPLETED -> orderRepository.findById(payload.get("orderId"))
+                    .ifPresent(emailService::sendReturnCompletionEmail);
+            case RETURN_REJECTED -> orderRepository.findById(payload.get("orderId"))
+                    .ifPresent(emailService::sendReturnRejectionEmail);
+            case REVIEW_THANK_YOU -> reviewRepository.findById(payload.get("reviewId"))
+                    .ifPresent(emailService::sendThankYouEmail);
+            // Không gửi lại khi tài khoản đã được xác thực
+            case USER_VERIFICATION -> userRepository.findById(payload.get("userId"))
+                    .filter(user -> !user.isVerified())
+                    .ifPresent(emailService::sendVerificationEmail);
+            default -> throw new IllegalArgumentException("Loại email không hỗ trợ: " + message.getType());
+        }
+    }
+}
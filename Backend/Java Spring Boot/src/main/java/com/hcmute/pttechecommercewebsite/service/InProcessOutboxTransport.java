@@ -0,0 +1,65 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Kênh chuyển outbox mặc định: nhóm worker cố định với hàng đợi giới hạn trong cùng tiến trình.
+// Khi hàng đợi đầy, ID bị bỏ qua và thông điệp được OutboxService phát lại sau.
+@Component
+@ConditionalOnProperty(name = "outbox.transport", havingValue = "in-process", matchIfMissing = true)
+public class InProcessOutboxTransport implements OutboxTransport {
+
+    private final ThreadPoolExecutor executor;
+
+    // Các ID đang nằm trong hàng đợi, tránh xếp cùng một thông điệp nhiều lần
+    private final Set<String> queued = ConcurrentHashMap.newKeySet();
+
+    private volatile Consumer<String> processor;
+
+    public InProcessOutboxTransport(@Value("${outbox.workers:4}") int workers,
+                                    @Value("${outbox.queue-capacity:1000}") int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "outbox-worker-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Override
+    public void bind(Consumer<String> processor) {
+        this.processor = processor;
+    }
+
+    @Override
+    public void publish(String messageId) {
+        if (processor == null || !queued.add(messageId)) return;
+        try {
+            executor.execute(() -> {
+                queued.remove(messageId);
+                try {
+                    processor.accept(messageId);
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.remove(messageId);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -1,24 +1,34 @@
 package com.hcmute.pttechecommercewebsite.service;
 
+import com.hcmute.pttechecommercewebsite.dto.ImportResultDTO;
 import com.hcmute.pttechecommercewebsite.dto.InventoryDTO;
 import com.hcmute.pttechecommercewebsite.model.Inventory;
 import com.hcmute.pttechecommercewebsite.model.Product;
 import com.hcmute.pttechecommercewebsite.repository.InventoryRepository;
 import com.hcmute.pttechecommercewebsite.repository.ProductRepository;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
+import com.hcmute.pttechecommercewebsite.util.ExcelImportUtil;
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.Timestamp;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class InventoryService {
@@ -29,6 +39,12 @@ public class InventoryService {
     @Autowired
     private ProductRepository productRepository;
 
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ApplicationEventPublisher eventPublisher;
+
     // Trong InventoryService, sửa phương thức getAllInventories
     public List<InventoryDTO> getAllInventories(String sortOrder) {
         Sort sort = Sort.by(Sort.Order.desc("receivedDate"));
@@ -79,6 +95,7 @@ public class InventoryService {
     public InventoryDTO createInventory(InventoryDTO inventoryDTO) {
         double totalAmount = 0;
         int totalQuantity = 0;
+        Map<String, Product> updatedProducts = new LinkedHashMap<>();
 
         for (InventoryDTO.ProductEntryDTO productEntryDTO : inventoryDTO.getProducts()) {
             // Truy vấn sản phẩm dựa trên productId
@@ -97,12 +114,15 @@ public class InventoryService {
                                 variantEntryDTO.setSize(variant.getSize());
                                 variantEntryDTO.setRam(variant.getRam());
                                 variantEntryDTO.setStorage(variant.getStorage());
-                                variantEntryDTO.setStockBeforeUpdate(variant.getStock());
-                                variantEntryDTO.setStockAfterUpdate(variant.getStock() + variantEntryDTO.getQuantity());
 
-                                // Cập nhật số lượng tồn kho cho biến thể trong sản phẩm
-                                variant.setStock(variant.getStock() + variantEntryDTO.getQuantity());
-                                productRepository.save(product);
+                                // Cộng tồn kho bằng $inc (không ghi đè lên các lệnh giữ hàng chạy đồng thời);
+                                // tồn kho trước / sau lấy từ kết quả của chính lệnh cập nhật
+                                int quantity = variantEntryDTO.getQuantity();
+                                Product updated = incrementStock(product.getId(), variant.getVariantId(), quantity);
+                                int stockAfter = updated != null ? stockOf(updated, variant.getVariantId()) : variant.getStock();
+                                variantEntryDTO.setStockBeforeUpdate(updated != null ? stockAfter - quantity : stockAfter);
+                                variantEntryDTO.setStockAfterUpdate(stockAfter);
+                                if (updated != null) updatedProducts.put(updated.getId(), updated);
                             });
                 }
             }
@@ -114,6 +134,8 @@ public class InventoryService {
             }
         }
 
+        publishSaved(updatedProducts.values());
+
         Date receivedDate = new Date();
 
         Inventory inventory = convertToModel(inventoryDTO, totalAmount, totalQuantity, receivedDate);
@@ -136,28 +158,17 @@ public class InventoryService {
             // Đánh dấu nhập kho là đã xóa (xóa mềm)
             inventory.setDeleted(true);
 
-            // Duyệt qua các sản phẩm và biến thể để khôi phục lại số lượng tồn kho
+            // Trừ lại số lượng đã nhập của từng biến thể bằng $inc có điều kiện (không ghi đè lên các lệnh giữ hàng
+            // chạy đồng thời); phần đã bán không thu hồi được nên tồn kho không xuống dưới 0
+            Map<String, Product> updatedProducts = new LinkedHashMap<>();
             for (Inventory.ProductEntry productEntry : inventory.getProducts()) {
-                // Chuyển ObjectId sang String nếu phương thức yêu cầu String
-                String productId = productEntry.getProductId().toString();
-
-                Optional<Product> productOptional = productRepository.findByIdAndIsDeletedFalse(productId);
-                if (productOptional.isPresent()) {
-                    Product product = productOptional.get();
-
-                    // Duyệt qua từng biến thể và khôi phục lại số lượng tồn kho
-                    for (Inventory.ProductEntry.ProductVariantEntry variantEntry : productEntry.getProductVariants()) {
-                        product.getVariants().stream()
-                                .filter(variant -> variant.getVariantId().toString().equals(variantEntry.getProductVariantId().toString()))
-                                .findFirst()
-                                .ifPresent(variant -> {
-                                    int stockChange = variant.getStock() - variantEntry.getStockBeforeUpdate();
-                                    variant.setStock(variant.getStock() - stockChange);
-                                    productRepository.save(product);
-                                });
-                    }
+                for (Inventory.ProductEntry.ProductVariantEntry variantEntry : productEntry.getProductVariants()) {
+                    Product updated = decrementStock(productEntry.getProductId(), variantEntry.getProductVariantId(),
+                            variantEntry.getQuantity());
+                    if (updated != null) updatedProducts.put(updated.getId(), updated);
                 }
             }
+            publishSaved(updatedProducts.values());
 
             // Cập nhật lại nhập kho đã bị đánh dấu là xóa
             inventoryRepository.save(inventory);
@@ -166,62 +177,114 @@ public class InventoryService {
         return false;
     }
 
-    public void importInventoriesFromExcel(MultipartFile file) throws IOException {
-        XSSFWorkbook workbook = new XSSFWorkbook(file.getInputStream());
-        XSSFSheet sheet = workbook.getSheetAt(0);
+    // Cộng quantity vào tồn kho của biến thể; trả về sản phẩm sau khi cập nhật, null nếu không tìm thấy sản phẩm / biến thể
+    private Product incrementStock(String productId, ObjectId variantId, int quantity) {
+        return mongoTemplate.findAndModify(
+                new Query(Criteria.where("_id").is(new ObjectId(productId))
+                        .and("isDeleted").is(false)
+                        .and("variants.variantId").is(variantId)),
+                new Update().inc("variants.$[v].stock", quantity)
+                        .filterArray(Criteria.where("v.variantId").is(variantId)),
+                FindAndModifyOptions.options().returnNew(true),
+                Product.class);
+    }
+
+    // Trừ quantity khỏi tồn kho của biến thể; nếu tồn kho hiện tại ít hơn quantity thì đưa về 0
+    private Product decrementStock(ObjectId productId, ObjectId variantId, int quantity) {
+        Product updated = mongoTemplate.findAndModify(
+                new Query(Criteria.where("_id").is(productId).and("isDeleted").is(false)
+                        .and("variants").elemMatch(Criteria.where("variantId").is(variantId).and("stock").gte(quantity))),
+                new Update().inc("variants.$[v].stock", -quantity)
+                        .filterArray(Criteria.where("v.variantId").is(variantId)),
+                FindAndModifyOptions.options().returnNew(true),
+                Product.class);
+        if (updated != null) return updated;
+        return mongoTemplate.findAndModify(
+                new Query(Criteria.where("_id").is(productId).and("isDeleted").is(false)
+                        .and("variants").elemMatch(Criteria.where("variantId").is(variantId).and("stock").lt(quantity))),
+                new Update().set("variants.$[v].stock", 0)
+                        .filterArray(Criteria.where("v.variantId").is(variantId)),
+                FindAndModifyOptions.options().returnNew(true),
+                Product.class);
+    }
+
+    private static int stockOf(Product product, ObjectId variantId) {
+        return product.getVariants().stream()
+                .filter(variant -> variant.getVariantId().equals(variantId))
+                .findFirst()
+                .map(Product.Variant::getStock)
+                .orElse(0);
+    }
 
-        Map<String, InventoryDTO> groupedInventories = new HashMap<>();
+    // Lệnh update không phát sinh sự kiện lưu: phát lại để catalog và chỉ mục tìm kiếm thấy tồn kho mới
+    private void publishSaved(Collection<Product> products) {
+        String collection = mongoTemplate.getCollectionName(Product.class);
+        for (Product product : products) {
+            eventPublisher.publishEvent(new AfterSaveEvent<>(product, new Document(), collection));
+        }
+    }
+
+    // Import nhập kho từ file Excel: đọc streaming và kiểm tra các dòng song song, sau đó gom theo phiếu nhập
+    // (nhà cung cấp | ngày nhận | ghi chú), cộng tồn kho bằng một lệnh bulk $inc và ghi các phiếu bằng một lệnh bulk insert
+    public ImportResultDTO importInventoriesFromExcel(MultipartFile file) throws IOException {
+        List<InventoryImportRow> rows = new ArrayList<>();
+        ImportResultDTO result = ExcelImportUtil.importSheet(file.getInputStream(), this::parseInventoryRow, rows::addAll);
+        if (rows.isEmpty()) return result;
+
+        // Nạp một lần tất cả sản phẩm được tham chiếu
+        Set<String> productIds = rows.stream().map(r -> r.productId).collect(Collectors.toSet());
+        Map<String, Product> products = new HashMap<>();
+        for (Product product : productRepository.findAllById(productIds)) {
+            if (!product.isDeleted()) products.put(product.getId(), product);
+        }
 
-        for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-            Row row = sheet.getRow(i);
-            if (row == null || row.getCell(0) == null || getCellString(row.getCell(0)) == null) {
+        // Tồn kho hiện tại của từng biến thể, cộng dồn khi nhiều dòng cùng nhập một biến thể
+        Map<String, Integer> stocks = new HashMap<>();
+        Map<String, Integer> increments = new LinkedHashMap<>();
+        Map<String, InventoryDTO> groupedInventories = new LinkedHashMap<>();
+
+        for (InventoryImportRow row : rows) {
+            Product product = products.get(row.productId);
+            Product.Variant variant = product == null ? null : product.getVariants().stream()
+                    .filter(v -> v.getVariantId().toString().equals(row.variantId))
+                    .findFirst()
+                    .orElse(null);
+            if (variant == null) {
+                ExcelImportUtil.addError(result, row.rowNumber, product == null
+                        ? "Không tìm thấy sản phẩm: " + row.productId
+                        : "Không tìm thấy biến thể: " + row.variantId);
+                result.setImportedRows(result.getImportedRows() - 1);
                 continue;
             }
 
-            String supplierName = getCellString(row.getCell(0));
-            String supplierContact = getCellString(row.getCell(1));
-            String supplierAddress = getCellString(row.getCell(2));
-            String productId = getCellString(row.getCell(3));
-            String productName = getCellString(row.getCell(4));
-            String variantId = getCellString(row.getCell(5));
-            String color = getCellString(row.getCell(6));
-            String size = getCellString(row.getCell(7));
-            String ram = getCellString(row.getCell(8));
-            String storage = getCellString(row.getCell(9));
-            int quantity = (int) parseDoubleSafe(row.getCell(10));
-            double unitPrice = parseDoubleSafe(row.getCell(11));
-            String notes = getCellString(row.getCell(12));
-            Date receivedDate = parseDate(getCellString(row.getCell(13)));
-
-            double totalValue = quantity * unitPrice;
-
-            if (productId == null || productId.trim().isEmpty()) {
-                throw new IllegalArgumentException("Thiếu Product ID tại dòng " + (i + 1));
-            }
-            if (variantId == null || variantId.trim().isEmpty()) {
-                throw new IllegalArgumentException("Thiếu Variant ID tại dòng " + (i + 1));
-            }
+            String stockKey = row.productId + "|" + row.variantId;
+            int stockBefore = stocks.getOrDefault(stockKey, variant.getStock());
+            stocks.put(stockKey, stockBefore + row.quantity);
+            increments.merge(stockKey, row.quantity, Integer::sum);
 
+            double totalValue = row.quantity * row.unitPrice;
             InventoryDTO.ProductEntryDTO.ProductVariantEntryDTO variantEntryDTO = InventoryDTO.ProductEntryDTO.ProductVariantEntryDTO.builder()
-                    .productVariantId(variantId)
-                    .color(color)
-                    .size(size)
-                    .ram(ram)
-                    .storage(storage)
-                    .quantity(quantity)
-                    .unitPrice(unitPrice)
+                    .productVariantId(row.variantId)
+                    .color(variant.getColor())
+                    .size(variant.getSize())
+                    .ram(variant.getRam())
+                    .storage(variant.getStorage())
+                    .quantity(row.quantity)
+                    .unitPrice(row.unitPrice)
                     .totalValue(totalValue)
+                    .stockBeforeUpdate(stockBefore)
+                    .stockAfterUpdate(stockBefore + row.quantity)
                     .build();
 
-            String inventoryKey = supplierName + "|" + receivedDate + "|" + notes;
-            InventoryDTO inventoryDTO = groupedInventories.getOrDefault(inventoryKey, InventoryDTO.builder()
+            String inventoryKey = row.supplierName + "|" + row.receivedDate + "|" + row.notes;
+            InventoryDTO inventoryDTO = groupedInventories.computeIfAbsent(inventoryKey, k -> InventoryDTO.builder()
                     .supplier(InventoryDTO.SupplierDTO.builder()
-                            .name(supplierName)
-                            .contact(supplierContact)
-                            .address(supplierAddress)
+                            .name(row.supplierName)
+                            .contact(row.supplierContact)
+                            .address(row.supplierAddress)
                             .build())
-                    .receivedDate(receivedDate)
-                    .notes(notes)
+                    .receivedDate(row.receivedDate)
+                    .notes(row.notes)
                     .products(new ArrayList<>())
                     .totalAmount(0)
                     .totalQuantity(0)
@@ -230,53 +293,92 @@ public class InventoryService {
 
             // Tìm product entry
             Optional<InventoryDTO.ProductEntryDTO> existingProduct = inventoryDTO.getProducts().stream()
-                    .filter(p -> p.getProductId().equals(productId))
+                    .filter(p -> p.getProductId().equals(row.productId))
                     .findFirst();
 
             if (existingProduct.isPresent()) {
                 existingProduct.get().getProductVariants().add(variantEntryDTO);
             } else {
-                InventoryDTO.ProductEntryDTO productEntryDTO = InventoryDTO.ProductEntryDTO.builder()
-                        .productId(productId)
-                        .productName(productName)
+                inventoryDTO.getProducts().add(InventoryDTO.ProductEntryDTO.builder()
+                        .productId(row.productId)
+                        .productName(product.getName())
                         .productVariants(new ArrayList<>(List.of(variantEntryDTO)))
-                        .build();
-                inventoryDTO.getProducts().add(productEntryDTO);
+                        .build());
             }
 
             inventoryDTO.setTotalAmount(inventoryDTO.getTotalAmount() + totalValue);
-            inventoryDTO.setTotalQuantity(inventoryDTO.getTotalQuantity() + quantity);
-
-            groupedInventories.put(inventoryKey, inventoryDTO);
+            inventoryDTO.setTotalQuantity(inventoryDTO.getTotalQuantity() + row.quantity);
         }
-
-        for (InventoryDTO dto : groupedInventories.values()) {
-            createInventory(dto);
+        if (groupedInventories.isEmpty()) return result;
+
+        // Cộng tồn kho cho tất cả biến thể trong một lệnh bulk
+        BulkOperations stockUpdates = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+        Set<String> updatedProductIds = new LinkedHashSet<>();
+        for (Map.Entry<String, Integer> entry : increments.entrySet()) {
+            String[] key = entry.getKey().split("\\|");
+            stockUpdates.updateOne(new Query(Criteria.where("_id").is(new ObjectId(key[0]))),
+                    new Update().inc("variants.$[v].stock", entry.getValue())
+                            .filterArray(Criteria.where("v.variantId").is(new ObjectId(key[1]))));
+            updatedProductIds.add(key[0]);
         }
+        stockUpdates.execute();
 
-        workbook.close();
+        // Ghi các phiếu nhập kho
+        List<Inventory> inventories = groupedInventories.values().stream()
+                .map(dto -> convertToModel(dto, dto.getTotalAmount(), dto.getTotalQuantity(), new Date()))
+                .collect(Collectors.toList());
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Inventory.class).insert(inventories).execute();
+
+        publishSaved(productRepository.findAllById(updatedProductIds));
+        return result;
     }
 
-    private String getCellString(Cell cell) {
-        if (cell == null) return null;
-        String result;
-        switch (cell.getCellType()) {
-            case STRING -> result = cell.getStringCellValue().trim();
-            case NUMERIC -> result = String.valueOf(cell.getNumericCellValue());
-            case BOOLEAN -> result = String.valueOf(cell.getBooleanCellValue());
-            default -> result = null;
+    private InventoryImportRow parseInventoryRow(ExcelImportUtil.SheetRow row) {
+        // Dòng không có tên nhà cung cấp được bỏ qua
+        if (row.getString(0) == null) return null;
+
+        InventoryImportRow item = new InventoryImportRow();
+        item.rowNumber = row.getRowNumber();
+        item.supplierName = row.getString(0);
+        item.supplierContact = row.getString(1);
+        item.supplierAddress = row.getString(2);
+        item.productId = row.getString(3);
+        item.variantId = row.getString(5);
+        item.quantity = row.getInt(10);
+        item.unitPrice = row.getDouble(11);
+        item.notes = row.getString(12);
+        item.receivedDate = parseDate(row.getString(13));
+
+        if (item.productId == null) {
+            throw new IllegalArgumentException("Thiếu Product ID");
+        }
+        if (item.variantId == null) {
+            throw new IllegalArgumentException("Thiếu Variant ID");
+        }
+        if (!ObjectId.isValid(item.productId)) {
+            throw new IllegalArgumentException("Product ID không hợp lệ: " + item.productId);
+        }
+        if (!ObjectId.isValid(item.variantId)) {
+            throw new IllegalArgumentException("Variant ID không hợp lệ: " + item.variantId);
         }
-        return (result != null && !result.trim().isEmpty()) ? result : null;
+        if (item.quantity <= 0) {
+            throw new IllegalArgumentException("Số lượng nhập phải lớn hơn 0");
+        }
+        return item;
     }
 
-    private double parseDoubleSafe(Cell cell) {
-        try {
-            return cell != null && cell.getCellType() == CellType.NUMERIC
-                    ? cell.getNumericCellValue()
-                    : Double.parseDouble(getCellString(cell));
-        } catch (Exception e) {
-            return 0.0;
-        }
+    // Một dòng nhập kho đã đọc từ file Excel
+    private static class InventoryImportRow {
+        int rowNumber;
+        String supplierName;
+        String supplierContact;
+        String supplierAddress;
+        String productId;
+        String variantId;
+        int quantity;
+        double unitPrice;
+        String notes;
+        Date receivedDate;
     }
 
     private Date parseDate(String dateStr) {
@@ -287,139 +389,57 @@ public class InventoryService {
         }
     }
 
-    public ByteArrayOutputStream exportInventoriesToExcel(String sort) throws IOException {
-        List<InventoryDTO> inventories = getAllInventories(sort);
-
-        // Tạo workbook Excel
-        XSSFWorkbook workbook = new XSSFWorkbook();
-        Sheet sheet = workbook.createSheet("Inventories");
-
-        // Định dạng chung cho workbook
-        CellStyle headerStyle = workbook.createCellStyle();
-        Font headerFont = workbook.createFont();
-        headerFont.setBold(true);
-        headerFont.setFontHeightInPoints((short) 12);
-        headerFont.setColor(IndexedColors.WHITE.getIndex());
-        headerStyle.setFont(headerFont);
-        headerStyle.setAlignment(HorizontalAlignment.CENTER);
-        headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-        headerStyle.setFillForegroundColor(IndexedColors.GREY_50_PERCENT.getIndex());
-        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
-        // Tạo dòng tiêu đề
-        Row headerRow = sheet.createRow(0);
-        String[] columns = {
-                "ID", "Tên nhà cung cấp", "Tổng giá trị", "Tổng số lượng", "Ngày nhập kho", "Ghi chú", "Trạng thái xóa",
-                "ID Sản phẩm", "Tên sản phẩm", "Màu sắc", "Kích thước", "RAM", "Storage", "Số lượng", "Đơn giá", "Giá trị tổng",
-                "Tồn kho trước", "Tồn kho sau"
-        };
-
-        // Thêm các cột tiêu đề
-        for (int i = 0; i < columns.length; i++) {
-            Cell cell = headerRow.createCell(i);
-            cell.setCellValue(columns[i]);
-            cell.setCellStyle(headerStyle);
+    // Mỗi dòng Excel là một biến thể của một sản phẩm trong phiếu nhập kho
+    private static class InventoryExportRow {
+        private final InventoryDTO inventory;
+        private final InventoryDTO.ProductEntryDTO product;
+        private final InventoryDTO.ProductEntryDTO.ProductVariantEntryDTO variant;
+
+        private InventoryExportRow(InventoryDTO inventory, InventoryDTO.ProductEntryDTO product,
+                                   InventoryDTO.ProductEntryDTO.ProductVariantEntryDTO variant) {
+            this.inventory = inventory;
+            this.product = product;
+            this.variant = variant;
         }
+    }
 
-        // Định dạng cho dữ liệu
-        CellStyle dataStyle = workbook.createCellStyle();
-        dataStyle.setAlignment(HorizontalAlignment.CENTER);
-        dataStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-
-        // Thêm dữ liệu vào Excel
-        int rowNum = 1;
-        for (InventoryDTO inventory : inventories) {
-            // Đối với mỗi inventory, tạo một dòng dữ liệu chính
-            for (InventoryDTO.ProductEntryDTO productEntry : inventory.getProducts()) {
-                for (InventoryDTO.ProductEntryDTO.ProductVariantEntryDTO variant : productEntry.getProductVariants()) {
-                    Row row = sheet.createRow(rowNum++);
-
-                    // Cột ID
-                    row.createCell(0).setCellValue(inventory.getId());
-                    row.getCell(0).setCellStyle(dataStyle);
-
-                    // Cột Tên nhà cung cấp
-                    row.createCell(1).setCellValue(inventory.getSupplier() != null ? inventory.getSupplier().getName() : "N/A");
-                    row.getCell(1).setCellStyle(dataStyle);
-
-                    // Cột Tổng giá trị
-                    row.createCell(2).setCellValue(inventory.getTotalAmount());
-                    row.getCell(2).setCellStyle(dataStyle);
-
-                    // Cột Tổng số lượng
-                    row.createCell(3).setCellValue(inventory.getTotalQuantity());
-                    row.getCell(3).setCellStyle(dataStyle);
-
-                    // Cột Ngày nhập kho
-                    row.createCell(4).setCellValue(inventory.getReceivedDate() != null ? inventory.getReceivedDate().toString() : "N/A");
-                    row.getCell(4).setCellStyle(dataStyle);
-
-                    // Cột Ghi chú
-                    row.createCell(5).setCellValue(inventory.getNotes() != null ? inventory.getNotes() : "N/A");
-                    row.getCell(5).setCellStyle(dataStyle);
-
-                    // Cột Trạng thái xóa
-                    row.createCell(6).setCellValue(inventory.isDeleted() ? "Đã xóa" : "Chưa xóa");
-                    row.getCell(6).setCellStyle(dataStyle);
-
-                    // Cột ID sản phẩm
-                    row.createCell(7).setCellValue(productEntry.getProductId());
-                    row.getCell(7).setCellStyle(dataStyle);
-
-                    // Cột Tên sản phẩm
-                    row.createCell(8).setCellValue(productEntry.getProductName());
-                    row.getCell(8).setCellStyle(dataStyle);
-
-                    // Cột Màu sắc
-                    row.createCell(9).setCellValue(variant.getColor() != null ? variant.getColor() : "N/A");
-                    row.getCell(9).setCellStyle(dataStyle);
-
-                    // Cột Kích thước
-                    row.createCell(10).setCellValue(variant.getSize() != null ? variant.getSize() : "N/A");
-                    row.getCell(10).setCellStyle(dataStyle);
-
-                    // Cột RAM
-                    row.createCell(11).setCellValue(variant.getRam() != null ? variant.getRam() : "N/A");
-                    row.getCell(11).setCellStyle(dataStyle);
-
-                    // Cột Storage
-                    row.createCell(12).setCellValue(variant.getStorage() != null ? variant.getStorage() : "N/A");
-                    row.getCell(12).setCellStyle(dataStyle);
-
-                    // Cột Số lượng
-                    row.createCell(13).setCellValue(variant.getQuantity());
-                    row.getCell(13).setCellStyle(dataStyle);
-
-                    // Cột Đơn giá
-                    row.createCell(14).setCellValue(variant.getUnitPrice());
-                    row.getCell(14).setCellStyle(dataStyle);
-
-                    // Cột Giá trị tổng
-                    row.createCell(15).setCellValue(variant.getTotalValue());
-                    row.getCell(15).setCellStyle(dataStyle);
-
-                    // Cột Tồn kho trước
-                    row.createCell(16).setCellValue(variant.getStockBeforeUpdate());
-                    row.getCell(16).setCellStyle(dataStyle);
-
-                    // Cột Tồn kho sau
-                    row.createCell(17).setCellValue(variant.getStockAfterUpdate());
-                    row.getCell(17).setCellStyle(dataStyle);
-                }
-            }
+    // Các cột của file Excel nhập kho
+    private static final List<ExcelExportUtil.Column<InventoryExportRow>> INVENTORY_EXPORT_COLUMNS = List.of(
+            ExcelExportUtil.Column.of("ID", r -> r.inventory.getId()),
+            ExcelExportUtil.Column.of("Tên nhà cung cấp", r -> r.inventory.getSupplier() != null ? r.inventory.getSupplier().getName() : "N/A"),
+            ExcelExportUtil.Column.of("Tổng giá trị", r -> r.inventory.getTotalAmount()),
+            ExcelExportUtil.Column.of("Tổng số lượng", r -> r.inventory.getTotalQuantity()),
+            ExcelExportUtil.Column.of("Ngày nhập kho", r -> r.inventory.getReceivedDate() != null ? r.inventory.getReceivedDate().toString() : "N/A"),
+            ExcelExportUtil.Column.of("Ghi chú", r -> r.inventory.getNotes() != null ? r.inventory.getNotes() : "N/A"),
+            ExcelExportUtil.Column.of("Trạng thái xóa", r -> r.inventory.isDeleted() ? "Đã xóa" : "Chưa xóa"),
+            ExcelExportUtil.Column.of("ID Sản phẩm", r -> r.product.getProductId()),
+            ExcelExportUtil.Column.of("Tên sản phẩm", r -> r.product.getProductName()),
+            ExcelExportUtil.Column.of("Màu sắc", r -> r.variant.getColor() != null ? r.variant.getColor() : "N/A"),
+            ExcelExportUtil.Column.of("Kích thước", r -> r.variant.getSize() != null ? r.variant.getSize() : "N/A"),
+            ExcelExportUtil.Column.of("RAM", r -> r.variant.getRam() != null ? r.variant.getRam() : "N/A"),
+            ExcelExportUtil.Column.of("Storage", r -> r.variant.getStorage() != null ? r.variant.getStorage() : "N/A"),
+            ExcelExportUtil.Column.of("Số lượng", r -> r.variant.getQuantity()),
+            ExcelExportUtil.Column.of("Đơn giá", r -> r.variant.getUnitPrice()),
+            ExcelExportUtil.Column.of("Giá trị tổng", r -> r.variant.getTotalValue()),
+            ExcelExportUtil.Column.of("Tồn kho trước", r -> r.variant.getStockBeforeUpdate()),
+            ExcelExportUtil.Column.of("Tồn kho sau", r -> r.variant.getStockAfterUpdate())
+    );
+
+    // Xuất nhập kho ra file Excel, đọc MongoDB theo cursor và ghi thẳng vào outputStream
+    public void exportInventoriesToExcel(String sortOrder, OutputStream outputStream) throws IOException {
+        Sort sort = Sort.by(Sort.Order.desc("receivedDate"));
+        if ("asc".equals(sortOrder)) {
+            sort = Sort.by(Sort.Order.asc("receivedDate"));
         }
 
-        // Tự động điều chỉnh độ rộng cột theo nội dung
-        for (int i = 0; i < columns.length; i++) {
-            sheet.autoSizeColumn(i);
+        try (Stream<Inventory> inventories = inventoryRepository.streamByIsDeletedFalse(sort)) {
+            Stream<InventoryExportRow> rows = inventories
+                    .map(this::convertToDTO)
+                    .flatMap(inventory -> inventory.getProducts().stream()
+                            .flatMap(product -> product.getProductVariants().stream()
+                                    .map(variant -> new InventoryExportRow(inventory, product, variant))));
+            ExcelExportUtil.write(outputStream, "Inventories", INVENTORY_EXPORT_COLUMNS, rows);
         }
-
-        // Tạo OutputStream và ghi workbook vào đó
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        workbook.write(outputStream);
-        workbook.close();
-
-        return outputStream;
     }
 
     // Chuyển đổi từ Inventory model sang DTO
@@ -1,24 +1,34 @@
 package com.hcmute.pttechecommercewebsite.service;
 
+import com.hcmute.pttechecommercewebsite.dto.CursorPageDTO;
 import com.hcmute.pttechecommercewebsite.dto.OrderDTO;
+import com.hcmute.pttechecommercewebsite.dto.OrderFilterDTO;
+import com.hcmute.pttechecommercewebsite.model.Category;
 import com.hcmute.pttechecommercewebsite.model.DiscountCode;
 import com.hcmute.pttechecommercewebsite.model.Order;
 import com.hcmute.pttechecommercewebsite.model.Product;
-import com.hcmute.pttechecommercewebsite.repository.CategoryRepository;
-import com.hcmute.pttechecommercewebsite.repository.DiscountCodeRepository;
+import com.hcmute.pttechecommercewebsite.model.UserMonthlySpending;
 import com.hcmute.pttechecommercewebsite.repository.OrderRepository;
 import com.hcmute.pttechecommercewebsite.repository.ProductRepository;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import com.hcmute.pttechecommercewebsite.util.CursorPaginationUtil;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -28,7 +38,9 @@ import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class OrderService {
@@ -37,16 +49,49 @@ public class OrderService {
     private OrderRepository orderRepository;
 
     @Autowired
-    private DiscountCodeRepository discountCodeRepository;
+    private DiscountCodeCache discountCodeCache;
 
     @Autowired
     private ProductRepository productRepository;
 
     @Autowired
-    private CategoryRepository categoryRepository;
+    private CategoryTree categoryTree;
 
     @Autowired
-    private EmailService emailService;
+    private OutboxService outboxService;
+
+    @Autowired
+    private CursorPaginationUtil cursorPaginationUtil;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private StockReservationService stockReservationService;
+
+    @Autowired
+    private StockHoldService stockHoldService;
+
+    @Autowired
+    private UserSpendingService userSpendingService;
+
+    @Autowired
+    private OrderTransitionService orderTransitionService;
+
+    @Autowired
+    private DiscountRedemptionService discountRedemptionService;
+
+    @Autowired
+    private DiscountEvaluator discountEvaluator;
+
+    @Autowired
+    private StatisticsAggregator statisticsAggregator;
+
+    @Autowired
+    private UserOrderIndexService userOrderIndexService;
+
+    // Các cờ của đơn hàng chỉ được ghi bằng lệnh $set / có điều kiện riêng, không qua saveOrder
+    private static final Set<String> SEPARATELY_UPDATED_FIELDS = Set.of("stockReleased", "spendingRecorded", "transitionId");
 
     private final String returnImageDir = "upload-images/returns";
     private final String returnImageUrl = "http://localhost:8081/images/returns";
@@ -54,32 +99,77 @@ public class OrderService {
     private final String returnVideoDir = "upload-videos/returns";
     private final String returnVideoUrl = "http://localhost:8081/videos/returns";
 
-    // Lấy tất cả đơn hàng (có thể lọc theo các điều kiện)
-    public List<OrderDTO> getAllOrders(String paymentMethod, String paymentStatus, String orderStatus, String shippingMethod, String sortBy) {
-        List<Order> orders;
+    // Lấy tất cả đơn hàng, kết hợp tất cả bộ lọc; lọc và sắp xếp trên MongoDB
+    public List<OrderDTO> getAllOrders(OrderFilterDTO filter, String sortBy) {
+        Query query = orderFilterQuery(filter);
+        query.with(Sort.by(orderSortDirection(sortBy), "createdAt"));
+
+        return mongoTemplate.find(query, Order.class).stream()
+                .map(this::convertToDTO)
+                .collect(Collectors.toList());
+    }
+
+    // Lấy một trang đơn hàng (phân trang theo cursor), kết hợp tất cả bộ lọc được truyền vào
+    public CursorPageDTO<OrderDTO> getOrdersPage(OrderFilterDTO filter, String sortBy, String cursor, Integer limit,
+                                                 boolean includeTotal) {
+        Query query = orderFilterQuery(filter);
+        return cursorPaginationUtil.find(query, Order.class, "createdAt", orderSortDirection(sortBy), cursor, limit, includeTotal)
+                .map(this::convertToDTO);
+    }
+
+    // latest (mặc định): mới nhất trước; oldest: cũ nhất trước
+    private Sort.Direction orderSortDirection(String sortBy) {
+        return "oldest".equals(sortBy) ? Sort.Direction.ASC : Sort.Direction.DESC;
+    }
 
-        // Xử lý lọc theo các tiêu chí
-        if (paymentMethod != null) {
-            orders = orderRepository.findByPaymentMethodAndIsDeletedFalse(paymentMethod);
-        } else if (paymentStatus != null) {
-            orders = orderRepository.findByPaymentStatusAndIsDeletedFalse(paymentStatus);
-        } else if (orderStatus != null) {
-            orders = orderRepository.findByOrderStatusAndIsDeletedFalse(orderStatus);
-        } else if (shippingMethod != null) {
-            orders = orderRepository.findByShippingMethodAndIsDeletedFalse(shippingMethod);
-        } else {
-            orders = orderRepository.findByIsDeletedFalse();
+    // Điều kiện lọc đơn hàng chưa xóa, kết hợp tất cả bộ lọc được truyền vào.
+    // Các trường bằng nhau đứng trước createdAt để dùng được các chỉ mục ghép khai báo trên Order
+    private Query orderFilterQuery(OrderFilterDTO filter) {
+        Query query = new Query();
+        query.addCriteria(Criteria.where("isDeleted").is(false));
+        if (filter == null) return query;
+
+        if (hasText(filter.getPaymentMethod())) query.addCriteria(Criteria.where("paymentMethod").is(filter.getPaymentMethod()));
+        if (hasText(filter.getPaymentStatus())) query.addCriteria(Criteria.where("paymentStatus").is(filter.getPaymentStatus()));
+        if (hasText(filter.getOrderStatus())) query.addCriteria(Criteria.where("orderStatus").is(filter.getOrderStatus()));
+        if (hasText(filter.getShippingMethod())) query.addCriteria(Criteria.where("shippingMethod").is(filter.getShippingMethod()));
+
+        // Khoảng ngày tạo, tính trọn ngày đầu và ngày cuối
+        if (filter.getFromDate() != null || filter.getToDate() != null) {
+            Criteria createdAt = Criteria.where("createdAt");
+            if (filter.getFromDate() != null) {
+                createdAt.gte(Date.from(filter.getFromDate().atStartOfDay(ZoneId.systemDefault()).toInstant()));
+            }
+            if (filter.getToDate() != null) {
+                createdAt.lt(Date.from(filter.getToDate().plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant()));
+            }
+            query.addCriteria(createdAt);
         }
 
-        // Sort by (nếu có)
-        if ("latest".equals(sortBy)) {
-            orders.sort((o1, o2) -> o2.getCreatedAt().compareTo(o1.getCreatedAt()));
-        } else if ("oldest".equals(sortBy)) {
-            orders.sort((o1, o2) -> o1.getCreatedAt().compareTo(o2.getCreatedAt()));
+        // Mã đơn và số điện thoại khớp phần đầu (regex có neo ^ dùng được chỉ mục), tên người nhận khớp một phần
+        if (hasText(filter.getOrderId())) {
+            query.addCriteria(Criteria.where("orderId").regex("^" + Pattern.quote(filter.getOrderId().trim())));
+        }
+        if (hasText(filter.getPhoneNumber())) {
+            query.addCriteria(Criteria.where("phoneNumber").regex("^" + Pattern.quote(filter.getPhoneNumber().trim())));
+        }
+        if (hasText(filter.getReceiverName())) {
+            query.addCriteria(Criteria.where("receiverName").regex(Pattern.quote(filter.getReceiverName().trim()), "i"));
         }
+        return query;
+    }
 
-        // Chuyển từ model sang DTO
-        return orders.stream().map(this::convertToDTO).collect(Collectors.toList());
+    private static boolean hasText(String value) {
+        return value != null && !value.isBlank();
+    }
+
+    // Lấy một trang đơn hàng của người dùng, mới nhất trước
+    public CursorPageDTO<OrderDTO> getOrdersByUserIdPage(ObjectId userId, String cursor, Integer limit, boolean includeTotal) {
+        Query query = new Query();
+        query.addCriteria(Criteria.where("userId").is(userId).and("isDeleted").is(false));
+
+        return cursorPaginationUtil.find(query, Order.class, "createdAt", Sort.Direction.DESC, cursor, limit, includeTotal)
+                .map(this::convertToDTO);
     }
 
     // Lấy đơn hàng theo ID
@@ -121,17 +211,25 @@ public class OrderService {
     }
 
     public OrderDTO createOrder(OrderDTO orderDTO, boolean continueWithAvailableItems) {
-        // Kiểm tra tồn kho trước
-        Map<String, String> outOfStockItems = checkOutOfStockItems(orderDTO.getItems());
+        // Giữ hàng trước: trừ tồn kho có điều kiện cho tất cả các dòng trong một lệnh bulk
+        List<StockReservationService.Line> lines = toStockLines(orderDTO.getItems());
+        List<StockReservationService.Line> outOfStockLines = stockReservationService.reserve(lines, continueWithAvailableItems);
 
-        if (!outOfStockItems.isEmpty()) {
+        if (!outOfStockLines.isEmpty()) {
             if (!continueWithAvailableItems) {
-                throw new IllegalStateException("Một số sản phẩm đã hết hàng: " + outOfStockItems.values());
+                throw new IllegalStateException("Một số sản phẩm đã hết hàng: " + describeOutOfStock(outOfStockLines));
             } else {
                 // Lọc lại chỉ các item còn hàng
-                List<OrderDTO.ItemDTO> availableItems = orderDTO.getItems().stream()
-                        .filter(item -> !outOfStockItems.containsKey(item.getProductId()))
-                        .collect(Collectors.toList());
+                Set<StockReservationService.Line> failed = Collections.newSetFromMap(new IdentityHashMap<>());
+                failed.addAll(outOfStockLines);
+                List<OrderDTO.ItemDTO> availableItems = new ArrayList<>();
+                List<StockReservationService.Line> reservedLines = new ArrayList<>();
+                for (int i = 0; i < lines.size(); i++) {
+                    if (!failed.contains(lines.get(i))) {
+                        availableItems.add(orderDTO.getItems().get(i));
+                        reservedLines.add(lines.get(i));
+                    }
+                }
 
                 // Nếu không còn item nào sau khi lọc → không thể tiếp tục
                 if (availableItems.isEmpty()) {
@@ -139,9 +237,20 @@ public class OrderService {
                 }
 
                 orderDTO.setItems(availableItems);
+                lines = reservedLines;
             }
         }
 
+        try {
+            return placeOrder(orderDTO);
+        } catch (RuntimeException e) {
+            // Đơn không được tạo (mã giảm giá không hợp lệ, lỗi ghi, ...) → trả lại hàng đã giữ
+            stockReservationService.release(lines);
+            throw e;
+        }
+    }
+
+    private OrderDTO placeOrder(OrderDTO orderDTO) {
         // --- tiếp tục xử lý như logic ban đầu ---
         double totalPrice = 0;
         Set<ObjectId> uniqueVariantProductIds = new HashSet<>();
@@ -152,12 +261,13 @@ public class OrderService {
 
         int totalItems = uniqueVariantProductIds.size();
 
+        double shippingPrice = orderDTO.getShippingPrice();
+
         double discountAmount = 0;
         if (orderDTO.getDiscountCode() != null && !orderDTO.getDiscountCode().isEmpty()) {
-            discountAmount = calculateDiscount(orderDTO.getDiscountCode(), totalPrice, orderDTO.getUserId(), false);
+            discountAmount = calculateDiscount(orderDTO.getDiscountCode(), orderDTO.getItems(), shippingPrice, orderDTO.getUserId(), false);
         }
 
-        double shippingPrice = orderDTO.getShippingPrice();
         double finalPrice = totalPrice - discountAmount + shippingPrice;
 
         Order order = Order.builder()
@@ -183,110 +293,82 @@ public class OrderService {
                 .updatedAt(new Date())
                 .build();
 
-        orderRepository.save(order);
-        decreaseStockAfterOrder(orderDTO);
-        emailService.sendThankYouOrderEmail(order);
+        // Lưu đơn và ghi nhận vào thống kê không xen với việc tính lại thống kê của ngày
+        try (StatisticsAggregator.Fence ignored = statisticsAggregator.enterDay(order.getCreatedAt())) {
+            try {
+                orderRepository.save(order);
+            } catch (RuntimeException e) {
+                // Đơn không được lưu → hoàn lại lượt sử dụng mã giảm giá vừa ghi nhận
+                if (discountAmount > 0) {
+                    discountRedemptionService.cancel(order.getDiscountCode(), order.getUserId());
+                }
+                throw e;
+            }
+            statisticsAggregator.recordOrderCreated(order);
+        }
+
+        userOrderIndexService.recordPlaced(order);
+
+        // Đơn VNPay chỉ giữ hàng trong thời hạn thanh toán
+        if ("VNPay".equals(order.getPaymentMethod())) {
+            stockHoldService.hold(order);
+        }
+        outboxService.enqueue(EmailOutboxHandler.ORDER_THANK_YOU, EmailOutboxHandler.order(order.getId()));
 
         return convertToDTO(order);
     }
 
-    private Map<String, String> checkOutOfStockItems(List<OrderDTO.ItemDTO> items) {
-        Map<String, String> outOfStockItems = new HashMap<>();
-
+    private List<StockReservationService.Line> toStockLines(List<OrderDTO.ItemDTO> items) {
+        List<StockReservationService.Line> lines = new ArrayList<>(items.size());
         for (OrderDTO.ItemDTO item : items) {
-            Optional<Product> optionalProduct = productRepository.findByIdAndIsDeletedFalse(item.getProductId());
-
-            if (optionalProduct.isPresent()) {
-                Product product = optionalProduct.get();
-
-                for (Product.Variant variant : product.getVariants()) {
-                    if (variant.getVariantId().toString().equals(item.getVariantId())) {
-                        if (variant.getStock() < item.getQuantity()) {
-                            outOfStockItems.put(item.getProductId(), product.getName());
-                        }
-                        break;
-                    }
-                }
-            } else {
-                outOfStockItems.put(item.getProductId(), "Không tìm thấy sản phẩm");
-            }
+            lines.add(new StockReservationService.Line(item.getProductId(), item.getVariantId(), item.getQuantity()));
         }
+        return lines;
+    }
 
-        return outOfStockItems;
+    private List<StockReservationService.Line> toStockLines(Order order) {
+        List<StockReservationService.Line> lines = new ArrayList<>(order.getItems().size());
+        for (Order.Item item : order.getItems()) {
+            lines.add(new StockReservationService.Line(item.getProductId().toString(), item.getVariantId().toString(), item.getQuantity()));
+        }
+        return lines;
     }
 
-    private void decreaseStockAfterOrder(OrderDTO orderDTO) {
-        for (OrderDTO.ItemDTO itemDTO : orderDTO.getItems()) {
-            Optional<Product> optionalProduct = productRepository.findByIdAndIsDeletedFalse(itemDTO.getProductId());
-
-            // Kiểm tra nếu sản phẩm tồn tại
-            if (optionalProduct.isPresent()) {
-                Product product = optionalProduct.get();
-
-                // Tìm biến thể tương ứng với variantId
-                for (Product.Variant variant : product.getVariants()) {
-                    if (variant.getVariantId().toString().equals(itemDTO.getVariantId())) {
-                        int updatedStock = variant.getStock() - itemDTO.getQuantity();
-                        variant.setStock(updatedStock);
-
-                        // Lưu lại cập nhật vào cơ sở dữ liệu
-                        product.setTotalSold(product.getTotalSold() + itemDTO.getQuantity());
-                        productRepository.save(product);
-                        break;
-                    }
-                }
+    // Tên các sản phẩm hết hàng (chỉ đọc khi có dòng thất bại)
+    private List<String> describeOutOfStock(List<StockReservationService.Line> lines) {
+        Set<String> productIds = new LinkedHashSet<>();
+        for (StockReservationService.Line line : lines) {
+            if (ObjectId.isValid(line.getProductId())) productIds.add(line.getProductId());
+        }
+        Map<String, String> names = new HashMap<>();
+        productRepository.findAllById(productIds).forEach(product -> names.put(product.getId(), product.getName()));
 
-            } else {
-                System.out.println("Sản phẩm không tìm thấy: " + itemDTO.getProductId());
-            }
+        Set<String> descriptions = new LinkedHashSet<>();
+        for (StockReservationService.Line line : lines) {
+            descriptions.add(names.getOrDefault(line.getProductId(), "Không tìm thấy sản phẩm"));
         }
+        return new ArrayList<>(descriptions);
     }
 
-    private double calculateDiscount(String discountCode, double totalPrice, String userId, boolean isUpdate) {
-        // Lấy mã giảm giá từ cơ sở dữ liệu
-        DiscountCode discount = discountCodeRepository.findByCodeAndIsActiveTrueAndIsDeletedFalseAndValidDateRange(discountCode, new Date())
-                .orElse(null);
+    private double calculateDiscount(String discountCode, List<OrderDTO.ItemDTO> items, double shippingPrice,
+                                     String userId, boolean isUpdate) {
+        // Lấy mã giảm giá đang hiệu lực từ bộ nhớ đệm
+        DiscountCode discount = discountCodeCache.findValid(discountCode, new Date()).orElse(null);
 
         // Nếu không tìm thấy mã giảm giá hợp lệ
         if (discount == null) {
             return 0;
         }
 
-        // Nếu không phải là hành động cập nhật, kiểm tra xem người dùng đã sử dụng mã giảm giá chưa
-        if (!isUpdate) {
-            if (discount.getUsedByUsers() != null && discount.getUsedByUsers().contains(new ObjectId(userId))) {
-                throw new RuntimeException("Mã giảm giá này đã được sử dụng bởi bạn trước đó.");
-            }
-        }
-
-        // Kiểm tra nếu giá trị đơn hàng (totalPrice) nhỏ hơn số tiền mua tối thiểu để áp dụng mã giảm giá
-        if (discount.getMinimumPurchaseAmount() != null && totalPrice < discount.getMinimumPurchaseAmount()) {
-            return 0;
-        }
-
-        // Kiểm tra loại giảm giá và tính toán giảm giá phù hợp
-        double discountAmount = 0;
-        if ("percentage".equals(discount.getDiscountType())) {
-            discountAmount = totalPrice * (discount.getDiscountValue() / 100);
-
-            if (discount.getMaxDiscountAmount() != null) {
-                discountAmount = Math.min(discountAmount, discount.getMaxDiscountAmount());
-            }
-        } else if ("fixed".equals(discount.getDiscountType())) {
-            discountAmount = discount.getDiscountValue();
-        }
-
-        discountAmount = Math.min(discountAmount, totalPrice);
+        // Tính theo cùng quy tắc với gợi ý mã tốt nhất: sản phẩm / danh mục áp dụng, appliesTo,
+        // số tiền mua tối thiểu và số tiền giảm tối đa
+        double discountAmount = discountEvaluator.calculate(discount, DiscountEvaluator.Line.fromOrderItems(items), shippingPrice);
 
-        // Cập nhật usageCount và thêm userId vào usedByUsers
-        discount.setUsageCount(discount.getUsageCount() + 1);
-        if (discount.getUsedByUsers() == null) {
-            discount.setUsedByUsers(new ArrayList<>());
+        // Nếu không phải là hành động cập nhật (mã đã được ghi nhận khi tạo đơn), ghi nhận lượt sử dụng:
+        // người dùng chưa dùng mã và mã còn lượt, kiểm tra và tăng usageCount nguyên tử trên MongoDB
+        if (!isUpdate && discountAmount > 0) {
+            discountRedemptionService.redeem(discount, new ObjectId(userId));
         }
-        discount.getUsedByUsers().add(new ObjectId(userId));
-
-        // Lưu lại mã giảm giá với các cập nhật
-        discountCodeRepository.save(discount);
 
         return discountAmount;
     }
@@ -294,15 +376,16 @@ public class OrderService {
     // Phương thức kiểm tra và cập nhật trạng thái đơn hàng mỗi 30 phút
     @Scheduled(fixedRate = 1800000) // Chạy mỗi 30 phút (1800000 ms)
     public void updateOrderStatusToWaitingForPickup() {
-        Date currentTime = new Date();
-        long thirtyMinutesAgo = currentTime.getTime() - (30 * 60 * 1000);
-
-        List<Order> orders = orderRepository.findByOrderStatusAndCreatedAtBefore("Chờ xác nhận", new Date(thirtyMinutesAgo));
-        for (Order order : orders) {
-            order.setOrderStatus("Chờ lấy hàng");
-            order.setUpdatedAt(new Date());
-
-            orderRepository.save(order);
+        Date thirtyMinutesAgo = new Date(System.currentTimeMillis() - 30 * 60 * 1000);
+
+        Criteria predicate = Criteria.where("isDeleted").is(false)
+                .and("orderStatus").is("Chờ xác nhận")
+                .and("createdAt").lt(thirtyMinutesAgo);
+        // Các đơn thuộc nhiều ngày: không chạy song song với việc tính lại thống kê của bất kỳ ngày nào
+        try (StatisticsAggregator.Fence ignored = statisticsAggregator.enterAllDays()) {
+            List<Date> createdDates = orderTransitionService.transitionAndCollectCreatedAt(predicate,
+                    Map.of("orderStatus", "Chờ lấy hàng"));
+            statisticsAggregator.recordStatusChanged(createdDates, "Chờ xác nhận", "Chờ lấy hàng");
         }
     }
 
@@ -322,7 +405,51 @@ public class OrderService {
             throw new RuntimeException("Đơn hàng đã bị hủy, không thể cập nhật.");
         }
 
-        updateStockAndTotalSoldForUpdatedOrder(order, updatedOrderDTO);
+        if ("Đã nhận hàng".equals(updatedOrderDTO.getOrderStatus())) {
+            throw new RuntimeException("Không thể thay đổi trạng thái khi đơn hàng đã được nhận.");
+        }
+
+        // Tính toán lại tổng giá trị của đơn hàng sau khi cập nhật
+        double totalPrice = 0;
+        Set<ObjectId> uniqueVariantProductIds = new HashSet<>();
+        for (OrderDTO.ItemDTO itemDTO : updatedOrderDTO.getItems()) {
+            totalPrice += itemDTO.getDiscountPrice() * itemDTO.getQuantity();
+            uniqueVariantProductIds.add(new ObjectId(itemDTO.getVariantId()));
+        }
+
+        // Tính số lượng loại sản phẩm (distinct product types)
+        int totalItems = uniqueVariantProductIds.size();
+
+        double shippingPrice = updatedOrderDTO.getShippingPrice();
+
+        // Tính lại giá trị giảm giá (nếu có) trước mọi thay đổi tồn kho / chi tiêu:
+        // mã không hợp lệ hoặc hết lượt thì đơn chưa bị thay đổi gì
+        double discountAmount = 0;
+        boolean redeemed = false;
+        if (updatedOrderDTO.getDiscountCode() != null && !updatedOrderDTO.getDiscountCode().isEmpty()) {
+            // Chỉ ghi nhận lượt sử dụng khi đơn đổi sang mã khác
+            boolean sameCode = updatedOrderDTO.getDiscountCode().equals(order.getDiscountCode());
+            discountAmount = calculateDiscount(updatedOrderDTO.getDiscountCode(), updatedOrderDTO.getItems(), shippingPrice,
+                    order.getUserId().toHexString(), sameCode);
+            redeemed = !sameCode && discountAmount > 0;
+        }
+
+        StockChange stockChange;
+        try {
+            stockChange = updateStockAndTotalSoldForUpdatedOrder(order, updatedOrderDTO);
+        } catch (RuntimeException e) {
+            // Không đủ hàng → hoàn lại lượt sử dụng mã vừa ghi nhận
+            if (redeemed) {
+                discountRedemptionService.cancel(updatedOrderDTO.getDiscountCode(), order.getUserId());
+            }
+            throw e;
+        }
+        boolean wasPaid = "Đã thanh toán".equals(order.getPaymentStatus());
+        String previousCode = order.getDiscountCode();
+
+        // Trừ phần chi tiêu đã cộng theo giá trị cũ, cộng lại theo giá trị mới sau khi lưu
+        userSpendingService.revert(order);
+        StatisticsAggregator.OrderFigures before = StatisticsAggregator.OrderFigures.of(order);
 
         if (updatedOrderDTO.getItems() != null) {
             order.setItems(convertItemsToModel(updatedOrderDTO.getItems()));
@@ -341,9 +468,6 @@ public class OrderService {
         }
 
         if (updatedOrderDTO.getOrderStatus() != null) {
-            if ("Đã nhận hàng".equals(updatedOrderDTO.getOrderStatus())) {
-                throw new RuntimeException("Không thể thay đổi trạng thái khi đơn hàng đã được nhận.");
-            }
             order.setOrderStatus(updatedOrderDTO.getOrderStatus());
 
             if ("Đã giao".equals(updatedOrderDTO.getOrderStatus())) {
@@ -363,24 +487,6 @@ public class OrderService {
             order.setOrderNotes(updatedOrderDTO.getOrderNotes());
         }
 
-        // Tính toán lại tổng giá trị của đơn hàng sau khi cập nhật
-        double totalPrice = 0;
-        Set<ObjectId> uniqueVariantProductIds = new HashSet<>();
-        for (OrderDTO.ItemDTO itemDTO : updatedOrderDTO.getItems()) {
-            totalPrice += itemDTO.getDiscountPrice() * itemDTO.getQuantity();
-            uniqueVariantProductIds.add(new ObjectId(itemDTO.getVariantId()));
-        }
-
-        // Tính số lượng loại sản phẩm (distinct product types)
-        int totalItems = uniqueVariantProductIds.size();
-
-        // Tính lại giá trị giảm giá (nếu có)
-        double discountAmount = 0;
-        if (updatedOrderDTO.getDiscountCode() != null && !updatedOrderDTO.getDiscountCode().isEmpty()) {
-            discountAmount = calculateDiscount(updatedOrderDTO.getDiscountCode(), totalPrice, updatedOrderDTO.getUserId(), true);
-        }
-
-        double shippingPrice = updatedOrderDTO.getShippingPrice();
         double finalPrice = totalPrice - discountAmount + shippingPrice;
 
         // Cập nhật các thông tin liên quan đến giá trị tổng quan đơn hàng
@@ -395,47 +501,101 @@ public class OrderService {
         order.setUpdatedAt(new Date());
 
         // Lưu lại đơn hàng đã được cập nhật vào cơ sở dữ liệu
-        orderRepository.save(order);
+        try {
+            saveOrder(order, before);
+        } catch (RuntimeException e) {
+            // Đơn không được lưu → hoàn tác phần chênh lệch tồn kho, lượt sử dụng mã vừa ghi nhận
+            // và cộng lại phần chi tiêu theo đơn còn trong cơ sở dữ liệu
+            revertStockChange(order, stockChange);
+            if (redeemed) {
+                discountRedemptionService.cancel(updatedOrderDTO.getDiscountCode(), order.getUserId());
+            }
+            orderRepository.findById(order.getId()).ifPresent(userSpendingService::sync);
+            throw e;
+        }
+
+        // Đơn đổi sang mã khác hoặc bỏ mã: hoàn lại lượt sử dụng của mã cũ
+        if (previousCode != null && !previousCode.isEmpty() && !previousCode.equals(order.getDiscountCode())) {
+            discountRedemptionService.cancel(previousCode, order.getUserId());
+        }
+
+        // Lượt giữ hàng của đơn VNPay chưa thanh toán ghi theo số lượng mới;
+        // nếu lượt giữ vừa hết hạn (tồn kho đã được trả theo số lượng cũ) thì hoàn tác phần chênh lệch
+        if (stockChange.held && !stockHoldService.replaceItems(order)) {
+            revertStockChange(order, stockChange);
+        }
+        // Đơn được đánh dấu đã thanh toán khi giao: phần giữ hàng trở thành chính thức
+        if (!wasPaid && "Đã thanh toán".equals(order.getPaymentStatus())) {
+            commitStockForOrder(order);
+        }
+
+        userSpendingService.sync(order);
 
         return convertToDTO(order);
     }
 
-    public void updateStockAndTotalSoldForUpdatedOrder(Order oldOrder, OrderDTO updatedOrderDTO) {
-        // Duyệt qua các sản phẩm trong đơn hàng cũ và đơn hàng mới
+    // Phần chênh lệch tồn kho đã áp dụng khi sửa số lượng của đơn
+    private static class StockChange {
+        private static final StockChange NONE = new StockChange(List.of(), List.of(), false);
+
+        private final List<StockReservationService.Line> increases;
+        private final List<StockReservationService.Line> decreases;
+        private final boolean held;               // Đơn có lượt giữ hàng lúc áp dụng
+
+        private StockChange(List<StockReservationService.Line> increases, List<StockReservationService.Line> decreases,
+                            boolean held) {
+            this.increases = increases;
+            this.decreases = decreases;
+            this.held = held;
+        }
+    }
+
+    private StockChange updateStockAndTotalSoldForUpdatedOrder(Order oldOrder, OrderDTO updatedOrderDTO) {
+        // Gom phần chênh lệch số lượng: tăng thì giữ thêm hàng (có điều kiện), giảm thì trả lại hàng
+        List<StockReservationService.Line> increases = new ArrayList<>();
+        List<StockReservationService.Line> decreases = new ArrayList<>();
         for (int i = 0; i < updatedOrderDTO.getItems().size(); i++) {
             OrderDTO.ItemDTO updatedItemDTO = updatedOrderDTO.getItems().get(i);
             Order.Item oldItem = oldOrder.getItems().get(i);
 
             // Kiểm tra sự thay đổi về số lượng
-            int oldQuantity = oldItem.getQuantity();
-            int newQuantity = updatedItemDTO.getQuantity();
-
-            if (oldQuantity != newQuantity) {
-                int quantityDifference = newQuantity - oldQuantity;
-
-                Optional<Product> optionalProduct = productRepository.findByIdAndIsDeletedFalse(oldItem.getProductId().toString());
-
-                if (optionalProduct.isPresent()) {
-                    Product product = optionalProduct.get();
-
-                    for (Product.Variant variant : product.getVariants()) {
-                        if (variant.getVariantId().toString().equals(updatedItemDTO.getVariantId())) {
-                            if (quantityDifference > 0) {
-                                variant.setStock(variant.getStock() - quantityDifference);
-                                product.setTotalSold(product.getTotalSold() + quantityDifference);
-                            }
-                            else {
-                                variant.setStock(variant.getStock() + Math.abs(quantityDifference));
-                                product.setTotalSold(product.getTotalSold() - Math.abs(quantityDifference));
-                            }
-
-                            productRepository.save(product);
-                            break;
-                        }
-                    }
-                }
+            int quantityDifference = updatedItemDTO.getQuantity() - oldItem.getQuantity();
+            if (quantityDifference > 0) {
+                increases.add(new StockReservationService.Line(oldItem.getProductId().toString(), updatedItemDTO.getVariantId(), quantityDifference));
+            } else if (quantityDifference < 0) {
+                decreases.add(new StockReservationService.Line(oldItem.getProductId().toString(), updatedItemDTO.getVariantId(), -quantityDifference));
+            }
+        }
+
+        if (increases.isEmpty() && decreases.isEmpty()) {
+            return StockChange.NONE;
+        }
+
+        // Đơn VNPay có lượt giữ đã hết hạn: tồn kho đã được trả theo số lượng cũ,
+        // lần giữ hàng lại (tạo lại URL thanh toán) hoặc thanh toán sẽ trừ theo số lượng mới của đơn
+        boolean held = stockHoldService.exists(oldOrder.getOrderId());
+        if (!held && isStockReleased(oldOrder)) {
+            return StockChange.NONE;
+        }
+
+        if (!increases.isEmpty()) {
+            List<StockReservationService.Line> outOfStockLines = stockReservationService.reserve(increases, false);
+            if (!outOfStockLines.isEmpty()) {
+                throw new IllegalStateException("Một số sản phẩm không đủ hàng: " + describeOutOfStock(outOfStockLines));
             }
         }
+        stockReservationService.release(decreases);
+        return new StockChange(increases, decreases, held);
+    }
+
+    // Hoàn tác phần chênh lệch tồn kho: trả lại phần giữ thêm, giữ lại phần đã trả (nếu còn hàng)
+    private void revertStockChange(Order order, StockChange change) {
+        stockReservationService.release(change.increases);
+        List<StockReservationService.Line> outOfStockLines = stockReservationService.reserve(change.decreases, true);
+        if (!outOfStockLines.isEmpty()) {
+            System.out.println("Đơn " + order.getOrderId() + " không giữ lại được hàng đã trả khi sửa đơn: "
+                    + describeOutOfStock(outOfStockLines));
+        }
     }
 
     // Phương thức hủy đơn hàng
@@ -452,12 +612,14 @@ public class OrderService {
         // Cập nhật lại tồn kho (tăng lại số lượng khi đơn hàng bị hủy)
         increaseStockForOrder(order);
 
+        StatisticsAggregator.OrderFigures before = StatisticsAggregator.OrderFigures.of(order);
         order.setOrderStatus("Đã hủy");
         order.setCancellationReason(cancellationReason);
         order.setUpdatedAt(new Date());
 
         // Lưu lại đơn hàng đã cập nhật
-        orderRepository.save(order);
+        saveOrder(order, before);
+        userSpendingService.sync(order);
         return convertToDTO(order);
     }
 
@@ -496,13 +658,14 @@ public class OrderService {
         }
 
         // Cập nhật đơn hàng
+        StatisticsAggregator.OrderFigures before = StatisticsAggregator.OrderFigures.of(order);
         order.setReturnReason(returnReason);
         order.setReturnImageUrls(imageUrls);
         order.setReturnVideoUrls(videoUrls);
         order.setOrderStatus("Yêu cầu trả hàng");
         order.setUpdatedAt(new Date());
 
-        orderRepository.save(order);
+        saveOrder(order, before);
 
         return convertToDTO(order);
     }
@@ -564,15 +727,17 @@ public class OrderService {
         increaseStockForOrder(order);
 
         // Cập nhật trạng thái đơn hàng thành "Đã trả hàng"
+        StatisticsAggregator.OrderFigures before = StatisticsAggregator.OrderFigures.of(order);
         order.setOrderStatus("Đã trả hàng");
         order.setReturnApproved(true);
         order.setUpdatedAt(new Date());
 
         // Lưu lại đơn hàng đã cập nhật
-        orderRepository.save(order);
+        saveOrder(order, before);
+        userSpendingService.sync(order);
 
         // Gửi email thông báo cho người dùng
-        emailService.sendReturnCompletionEmail(order);
+        outboxService.enqueue(EmailOutboxHandler.RETURN_COMPLETED, EmailOutboxHandler.order(order.getId()));
 
         return convertToDTO(order);
     }
@@ -587,15 +752,16 @@ public class OrderService {
             throw new RuntimeException("Đơn hàng không thể từ chối trả hàng vì chưa có yêu cầu trả hàng.");
         }
 
+        StatisticsAggregator.OrderFigures before = StatisticsAggregator.OrderFigures.of(order);
         order.setOrderStatus("Từ chối trả hàng");
         order.setReturnRejectionReason(rejectionReason);
         order.setUpdatedAt(new Date());
 
         // Lưu lại đơn hàng đã cập nhật
-        orderRepository.save(order);
+        saveOrder(order, before);
 
         // Gửi email thông báo cho người dùng về việc từ chối trả hàng
-        emailService.sendReturnRejectionEmail(order);
+        outboxService.enqueue(EmailOutboxHandler.RETURN_REJECTED, EmailOutboxHandler.order(order.getId()));
 
         return convertToDTO(order);
     }
@@ -619,79 +785,160 @@ public class OrderService {
         order.setUpdatedAt(new Date());
 
         // Lưu lại đơn hàng đã được cập nhật
-        orderRepository.save(order);
+        saveOrder(order);
+        userSpendingService.sync(order);
+        userOrderIndexService.recordRemoved(List.of(order));
         return convertToDTO(order);
     }
 
     private void increaseStockForOrder(Order order) {
-        for (Order.Item item : order.getItems()) {
-            Optional<Product> optionalProduct = productRepository.findByIdAndIsDeletedFalse(item.getProductId().toString());
-            if (optionalProduct.isPresent()) {
-                Product product = optionalProduct.get();
-                for (Product.Variant variant : product.getVariants()) {
-                    if (variant.getVariantId().toString().equals(item.getVariantId().toString())) {
-                        variant.setStock(variant.getStock() + item.getQuantity());
-                        product.setTotalSold(product.getTotalSold() - item.getQuantity());
-                        productRepository.save(product);
-                        break;
-                    }
-                }
+        // Đơn VNPay có lượt giữ đã hết hạn thì tồn kho đã được trả trước đó
+        boolean held = stockHoldService.remove(order.getOrderId());
+        if (held || !isStockReleased(order)) {
+            stockReservationService.release(toStockLines(order));
+            setStockReleased(order, true);
+        }
+    }
+
+    // Thanh toán thành công: lượt giữ hàng trở thành phần trừ chính thức.
+    // Nếu lượt giữ đã hết hạn (tồn kho đã được trả), trừ lại phần còn hàng.
+    private void commitStockForOrder(Order order) {
+        boolean held = stockHoldService.remove(order.getOrderId());
+        if (!held && isStockReleased(order)) {
+            List<StockReservationService.Line> outOfStockLines = stockReservationService.reserve(toStockLines(order), true);
+            if (!outOfStockLines.isEmpty()) {
+                System.out.println("Đơn " + order.getOrderId() + " đã thanh toán sau khi hết hạn giữ hàng, không đủ hàng: "
+                        + describeOutOfStock(outOfStockLines));
             }
+            setStockReleased(order, false);
         }
     }
 
+    // Đọc lại cờ stockReleased từ cơ sở dữ liệu (có thể vừa được đặt khi lượt giữ hết hạn)
+    private boolean isStockReleased(Order order) {
+        Query query = new Query(Criteria.where("_id").is(order.getId()).and("stockReleased").is(true));
+        return mongoTemplate.exists(query, Order.class);
+    }
+
+    private void setStockReleased(Order order, boolean released) {
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(order.getId())),
+                new Update().set("stockReleased", released), Order.class);
+        order.setStockReleased(released);
+    }
+
+    // Lưu đơn đã sửa và ghi nhận phần thay đổi vào thống kê, không xen với việc tính lại thống kê của ngày tạo đơn
+    private void saveOrder(Order order, StatisticsAggregator.OrderFigures before) {
+        try (StatisticsAggregator.Fence ignored = statisticsAggregator.enterDay(order.getCreatedAt())) {
+            saveOrder(order);
+            statisticsAggregator.recordOrderChanged(before, order);
+        }
+    }
+
+    // Lưu đơn hàng đã sửa: ghi lại mọi trường trừ các cờ do dịch vụ khác cập nhật bằng lệnh riêng
+    // (stockReleased - hết hạn giữ hàng, spendingRecorded - bảng tổng hợp chi tiêu, transitionId - chuyển trạng thái hàng loạt),
+    // để giá trị đọc được lúc tải đơn không ghi đè lên thay đổi xảy ra trong lúc đang sửa đơn.
+    private void saveOrder(Order order) {
+        Document document = new Document();
+        mongoTemplate.getConverter().write(order, document);
+
+        Update update = new Update();
+        MongoPersistentEntity<?> entity = mongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(Order.class);
+        for (MongoPersistentProperty property : entity) {
+            String field = property.getFieldName();
+            if (property.isIdProperty() || SEPARATELY_UPDATED_FIELDS.contains(field)) continue;
+            Object value = document.get(field);
+            if (value != null) {
+                update.set(field, value);
+            } else {
+                update.unset(field);
+            }
+        }
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(order.getId())), update, Order.class);
+    }
+
     public void updateOrderPaymentStatus(String orderId, String newStatus) {
         Order order = orderRepository.findByOrderIdAndIsDeletedFalse(orderId)
                 .orElseThrow(() -> new RuntimeException("Không tìm thấy đơn hàng"));
+        if ("Đã thanh toán".equals(newStatus) && !"Đã thanh toán".equals(order.getPaymentStatus())) {
+            commitStockForOrder(order);
+        }
         order.setPaymentStatus(newStatus);
         order.setUpdatedAt(new Date());
-        orderRepository.save(order);
+        saveOrder(order);
+        userSpendingService.sync(order);
+    }
+
+    // Gia hạn giữ hàng khi tạo URL thanh toán VNPay; nếu lượt giữ đã hết hạn thì giữ lại hàng từ đầu
+    public void renewStockHold(String orderId) {
+        Order order = orderRepository.findByOrderIdAndIsDeletedFalse(orderId)
+                .orElseThrow(() -> new RuntimeException("Không tìm thấy đơn hàng"));
+        if ("Đã thanh toán".equals(order.getPaymentStatus()) || stockHoldService.extend(orderId)) {
+            return;
+        }
+        // Đơn tạo trước khi có lượt giữ hàng vẫn đang giữ tồn kho
+        if (!isStockReleased(order)) {
+            return;
+        }
+
+        List<StockReservationService.Line> outOfStockLines = stockReservationService.reserve(toStockLines(order), false);
+        if (!outOfStockLines.isEmpty()) {
+            throw new IllegalStateException("Một số sản phẩm đã hết hàng: " + describeOutOfStock(outOfStockLines));
+        }
+        stockHoldService.hold(order);
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(order.getId())),
+                new Update().set("stockReleased", false), Order.class);
     }
 
     @Scheduled(cron = "0 0 * * * *") // Chạy mỗi giờ
     public void autoDeleteOldVnpayOrders() {
-        Date now = new Date();
+        Date twentyFourHoursAgo = new Date(System.currentTimeMillis() - TimeUnit.HOURS.toMillis(24));
         List<String> targetStatuses = Arrays.asList("Chưa thanh toán", "Khách hủy giao dịch", "Nghi ngờ gian lận");
 
-        List<Order> orders = orderRepository.findAllByPaymentMethodAndPaymentStatusInAndIsDeletedFalse("VNPay", targetStatuses);
-
-        for (Order order : orders) {
-            long diffInMillis = now.getTime() - order.getCreatedAt().getTime();
-            long hoursElapsed = TimeUnit.MILLISECONDS.toHours(diffInMillis);
-
-            if (hoursElapsed >= 24) {
-                increaseStockForOrder(order);
-                order.setDeleted(true);
-                order.setUpdatedAt(now);
-                orderRepository.save(order);
-            }
-        }
+        // Xóa mềm và trả tồn kho cho các đơn VNPay chưa thanh toán quá 24 giờ
+        Criteria predicate = Criteria.where("isDeleted").is(false)
+                .and("paymentMethod").is("VNPay")
+                .and("paymentStatus").in(targetStatuses)
+                .and("createdAt").lte(twentyFourHoursAgo);
+        List<Order> deleted = orderTransitionService.transitionAndReleaseStock(predicate, Map.of("isDeleted", true));
+        userOrderIndexService.recordRemoved(deleted);
     }
 
+    // Phân tích chi tiêu theo tháng, đọc từ bảng tổng hợp UserMonthlySpendings (một bản ghi mỗi tháng)
     public Map<String, Object> getMonthlySpendingAnalytics(ObjectId userId) {
-        List<Order> orders = orderRepository.findByUserIdAndIsDeletedFalse(userId);
+        List<UserMonthlySpending> months = userSpendingService.getMonths(userId);
 
         Map<YearMonth, Double> monthlySpending = new TreeMap<>();
         Map<YearMonth, Integer> orderCountByMonth = new HashMap<>();
-        Map<YearMonth, Double> totalPerMonth = new HashMap<>();
+        Map<YearMonth, Double> avgOrderValueByMonth = new HashMap<>();
         Map<String, Double> spendingByCategory = new HashMap<>();
+        int orderCount = 0;
+        double totalPrice = 0, totalDiscount = 0, totalShipping = 0, totalFinalPrice = 0;
+        Date firstOrderAt = null, lastOrderAt = null;
 
-        for (Order order : orders) {
-            if (order.getCreatedAt() == null || !"Đã thanh toán".equals(order.getPaymentStatus())) continue;
-
-            YearMonth month = YearMonth.from(order.getCreatedAt().toInstant().atZone(ZoneId.systemDefault()).toLocalDate());
-            double finalPrice = order.getFinalPrice();
+        for (UserMonthlySpending spending : months) {
+            if (spending.getOrderCount() <= 0) continue;
+            YearMonth month = YearMonth.parse(spending.getMonth());
 
-            // Tổng chi theo tháng
-            monthlySpending.put(month, monthlySpending.getOrDefault(month, 0.0) + finalPrice);
-            totalPerMonth.put(month, totalPerMonth.getOrDefault(month, 0.0) + finalPrice);
-            orderCountByMonth.put(month, orderCountByMonth.getOrDefault(month, 0) + 1);
+            // Tổng chi, số đơn và giá trị trung bình mỗi đơn theo tháng
+            monthlySpending.put(month, spending.getTotalSpending());
+            orderCountByMonth.put(month, spending.getOrderCount());
+            avgOrderValueByMonth.put(month, spending.getTotalSpending() / spending.getOrderCount());
 
             // Chi tiêu theo danh mục sản phẩm
-            for (Order.Item item : order.getItems()) {
-                String category = item.getCategoryId() != null ? item.getCategoryId().toString() : "Không xác định";
-                double itemTotal = item.getDiscountPrice() * item.getQuantity();
-                spendingByCategory.put(category, spendingByCategory.getOrDefault(category, 0.0) + itemTotal);
+            if (spending.getSpendingByCategory() != null) {
+                spending.getSpendingByCategory().forEach((category, value) -> spendingByCategory.merge(category, value, Double::sum));
+            }
+
+            orderCount += spending.getOrderCount();
+            totalPrice += spending.getTotalPrice();
+            totalDiscount += spending.getTotalDiscount();
+            totalShipping += spending.getTotalShipping();
+            totalFinalPrice += spending.getTotalSpending();
+            if (firstOrderAt == null || (spending.getFirstOrderAt() != null && spending.getFirstOrderAt().before(firstOrderAt))) {
+                firstOrderAt = spending.getFirstOrderAt();
+            }
+            if (lastOrderAt == null || (spending.getLastOrderAt() != null && spending.getLastOrderAt().after(lastOrderAt))) {
+                lastOrderAt = spending.getLastOrderAt();
             }
         }
 
@@ -718,59 +965,33 @@ public class OrderService {
                 })
                 .collect(Collectors.toList());
 
-        // Giá trị trung bình mỗi đơn hàng theo tháng
-        Map<YearMonth, Double> avgOrderValueByMonth = new HashMap<>();
-        for (YearMonth month : totalPerMonth.keySet()) {
-            double total = totalPerMonth.get(month);
-            int count = orderCountByMonth.getOrDefault(month, 0);
-            avgOrderValueByMonth.put(month, count > 0 ? total / count : 0);
-        }
-
-        // Tính tổng chi tiêu để tính % chi tiêu theo danh mục
+        // Tính tổng chi tiêu để tính % chi tiêu theo danh mục; tên danh mục lấy từ cây danh mục trong bộ nhớ
         double totalSpendingAmount = spendingByCategory.values().stream().mapToDouble(Double::doubleValue).sum();
         Map<String, Double> spendingPercentByCategory = new HashMap<>();
+        Map<String, String> categoryNames = new HashMap<>();
         for (Map.Entry<String, Double> entry : spendingByCategory.entrySet()) {
             spendingPercentByCategory.put(entry.getKey(), totalSpendingAmount > 0 ? (entry.getValue() / totalSpendingAmount) * 100 : 0);
+            categoryNames.put(entry.getKey(), categoryName(entry.getKey()));
         }
 
-        // Tính tần suất đặt hàng trung bình (số ngày giữa các đơn)
-        List<LocalDate> orderDates = orders.stream()
-                .filter(o -> "Đã thanh toán".equals(o.getPaymentStatus()) && o.getCreatedAt() != null)
-                .map(o -> o.getCreatedAt().toInstant().atZone(ZoneId.systemDefault()).toLocalDate())
-                .sorted()
-                .collect(Collectors.toList());
-
+        // Tần suất đặt hàng trung bình (số ngày giữa các đơn): tổng khoảng cách giữa các đơn liên tiếp
+        // bằng khoảng cách giữa đơn đầu tiên và đơn cuối cùng
         long avgDaysBetweenOrders = 0;
-        if (orderDates.size() > 1) {
-            long totalDays = 0;
-            for (int i = 1; i < orderDates.size(); i++) {
-                totalDays += ChronoUnit.DAYS.between(orderDates.get(i - 1), orderDates.get(i));
-            }
-            avgDaysBetweenOrders = totalDays / (orderDates.size() - 1);
+        if (orderCount > 1 && firstOrderAt != null && lastOrderAt != null) {
+            LocalDate first = firstOrderAt.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+            LocalDate last = lastOrderAt.toInstant().atZone(ZoneId.systemDefault()).toLocalDate();
+            avgDaysBetweenOrders = ChronoUnit.DAYS.between(first, last) / (orderCount - 1);
         }
 
         // Gợi ý tiết kiệm mở rộng
-        StringBuilder suggestions = new StringBuilder(getSavingSuggestions(orders));
+        StringBuilder suggestions = new StringBuilder(getSavingSuggestions(orderCount, totalShipping, totalPrice, totalDiscount));
 
         // Gợi ý danh mục chi tiêu cao (>30%)
         for (Map.Entry<String, Double> entry : spendingPercentByCategory.entrySet()) {
             if (entry.getValue() > 30.0) {
-                String categoryId = entry.getKey();
-                double percent = entry.getValue();
-
-                categoryRepository.findByIdAndIsDeletedFalse(categoryId).ifPresentOrElse(
-                        category -> {
-                            suggestions.append(String.format(
-                                    "Chi tiêu nhiều ở danh mục %s (%.1f%% tổng chi tiêu). Hãy cân nhắc giảm hoặc tìm ưu đãi.\n",
-                                    category.getName(), percent));
-                        },
-                        () -> {
-                            suggestions.append(String.format(
-                                    "Chi tiêu nhiều ở danh mục %s (%.1f%% tổng chi tiêu). Hãy cân nhắc giảm hoặc tìm ưu đãi.\n",
-                                    categoryId, percent));
-                        }
-                );
-
+                suggestions.append(String.format(
+                        "Chi tiêu nhiều ở danh mục %s (%.1f%% tổng chi tiêu). Hãy cân nhắc giảm hoặc tìm ưu đãi.\n",
+                        categoryNames.get(entry.getKey()), entry.getValue()));
                 break;
             }
         }
@@ -789,16 +1010,6 @@ public class OrderService {
         }
 
         // Gợi ý tăng cường dùng mã giảm giá nếu % giảm giá thấp (<5%)
-        double totalFinalPrice = orders.stream()
-                .filter(o -> "Đã thanh toán".equals(o.getPaymentStatus()))
-                .mapToDouble(Order::getFinalPrice)
-                .sum();
-
-        double totalDiscount = orders.stream()
-                .filter(o -> "Đã thanh toán".equals(o.getPaymentStatus()))
-                .mapToDouble(Order::getDiscountAmount)
-                .sum();
-
         if (totalFinalPrice > 0 && (totalDiscount / totalFinalPrice) < 0.05) {
             suggestions.append("Bạn có thể tăng cường sử dụng mã giảm giá hoặc ưu đãi để tiết kiệm hơn.\n");
         }
@@ -816,6 +1027,7 @@ public class OrderService {
         response.put("monthlyChangePercent", percentChange);
         response.put("spendingByCategory", spendingByCategory);
         response.put("spendingPercentByCategory", spendingPercentByCategory);
+        response.put("categoryNames", categoryNames);
         response.put("orderCountByMonth", convertMapToStringKey(orderCountByMonth));
         response.put("avgOrderValueByMonth", convertMapToStringKey(avgOrderValueByMonth));
         response.put("avgDaysBetweenOrders", avgDaysBetweenOrders);
@@ -825,6 +1037,14 @@ public class OrderService {
         return response;
     }
 
+    // Tên danh mục theo ID; danh mục đã xóa hoặc không xác định thì giữ nguyên khóa
+    private String categoryName(String categoryId) {
+        return categoryTree.get(categoryId)
+                .filter(category -> !category.isDeleted())
+                .map(Category::getName)
+                .orElse(categoryId);
+    }
+
     // Chuyển Map<YearMonth, ?> thành Map<String, ?>
     private <T> Map<String, T> convertMapToStringKey(Map<YearMonth, T> map) {
         Map<String, T> result = new HashMap<>();
@@ -834,18 +1054,7 @@ public class OrderService {
         return result;
     }
 
-    private String getSavingSuggestions(List<Order> orders) {
-        double totalShipping = 0, totalWithoutDiscount = 0, totalDiscount = 0;
-        int orderCount = 0;
-
-        for (Order order : orders) {
-            if (!"Đã thanh toán".equals(order.getPaymentStatus())) continue;
-            orderCount++;
-            totalShipping += order.getShippingPrice();
-            totalWithoutDiscount += order.getTotalPrice();
-            totalDiscount += order.getDiscountAmount();
-        }
-
+    private String getSavingSuggestions(int orderCount, double totalShipping, double totalWithoutDiscount, double totalDiscount) {
         StringBuilder suggestions = new StringBuilder("Gợi ý tiết kiệm:\n");
 
         if (orderCount > 0 && (totalShipping / orderCount) > 15000) {
@@ -867,143 +1076,38 @@ public class OrderService {
         return suggestions.toString();
     }
 
-    // Xuất tất cả đơn hàng ra file Excel
-    public ByteArrayOutputStream exportOrdersToExcel(String paymentMethod, String paymentStatus, String orderStatus, String shippingMethod, String sortBy) throws IOException {
-        // Lấy tất cả đơn hàng từ repository (dữ liệu từ OrderDTO)
-        List<OrderDTO> orders = getAllOrders(paymentMethod, paymentStatus, orderStatus, shippingMethod, sortBy);
-
-        // Tạo workbook Excel
-        XSSFWorkbook workbook = new XSSFWorkbook();
-        Sheet sheet = workbook.createSheet("Orders");
-
-        // Định dạng chung cho workbook
-        CellStyle headerStyle = workbook.createCellStyle();
-        Font headerFont = workbook.createFont();
-        headerFont.setBold(true);
-        headerFont.setFontHeightInPoints((short) 12);
-        headerFont.setColor(IndexedColors.WHITE.getIndex());
-        headerStyle.setFont(headerFont);
-        headerStyle.setAlignment(HorizontalAlignment.CENTER);
-        headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-        headerStyle.setFillForegroundColor(IndexedColors.GREY_50_PERCENT.getIndex());
-        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
-        // Tạo dòng tiêu đề
-        Row headerRow = sheet.createRow(0);
-        String[] columns = {
-                "ID", "Mã đơn hàng", "Mã người dùng", "Tổng số sản phẩm", "Tổng giá trị",
-                "Giá vận chuyển", "Mã giảm giá", "Số tiền giảm giá", "Giá trị cuối", "Tên người nhận", "Số điện thoại",
-                "Địa chỉ giao hàng", "Phương thức thanh toán", "Trạng thái thanh toán", "Trạng thái đơn hàng",
-                "Phương thức giao hàng", "Ngày tạo", "Ngày cập nhật", "Trạng thái xóa", "Ghi chú"
-        };
-        for (int i = 0; i < columns.length; i++) {
-            Cell cell = headerRow.createCell(i);
-            cell.setCellValue(columns[i]);
-            cell.setCellStyle(headerStyle);
-        }
-
-        // Định dạng cho dữ liệu
-        CellStyle dataStyle = workbook.createCellStyle();
-        dataStyle.setAlignment(HorizontalAlignment.CENTER);
-        dataStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-
-        // Thêm dữ liệu đơn hàng vào file Excel
-        int rowNum = 1;
-        for (OrderDTO order : orders) {
-            Row row = sheet.createRow(rowNum++);
-
-            // Cột ID
-            row.createCell(0).setCellValue(order.getId());
-            row.getCell(0).setCellStyle(dataStyle);
-
-            // Cột Mã đơn hàng
-            row.createCell(1).setCellValue(order.getOrderId());
-            row.getCell(1).setCellStyle(dataStyle);
-
-            // Cột Mã người dùng
-            row.createCell(2).setCellValue(order.getUserId());
-            row.getCell(2).setCellStyle(dataStyle);
-
-            // Cột Tổng số sản phẩm
-            row.createCell(3).setCellValue(order.getTotalItems());
-            row.getCell(3).setCellStyle(dataStyle);
-
-            // Cột Tổng giá trị
-            row.createCell(4).setCellValue(order.getTotalPrice());
-            row.getCell(4).setCellStyle(dataStyle);
-
-            // Cột Giá vận chuyển
-            row.createCell(5).setCellValue(order.getShippingPrice());
-            row.getCell(5).setCellStyle(dataStyle);
-
-            // Cột Mã giảm giá
-            row.createCell(6).setCellValue(order.getDiscountCode() != null ? order.getDiscountCode() : "N/A");
-            row.getCell(6).setCellStyle(dataStyle);
-
-            // Cột Số tiền giảm giá
-            row.createCell(7).setCellValue(order.getDiscountAmount());
-            row.getCell(7).setCellStyle(dataStyle);
-
-            // Cột Giá trị cuối
-            row.createCell(8).setCellValue(order.getFinalPrice());
-            row.getCell(8).setCellStyle(dataStyle);
-
-            // Cột Tên người nhận
-            row.createCell(9).setCellValue(order.getReceiverName());
-            row.getCell(9).setCellStyle(dataStyle);
-
-            // Cột Số điện thoại
-            row.createCell(10).setCellValue(order.getPhoneNumber());
-            row.getCell(10).setCellStyle(dataStyle);
-
-            // Cột Địa chỉ giao hàng
-            row.createCell(11).setCellValue(order.getShippingAddress() != null ? order.getShippingAddress().toString() : "N/A");
-            row.getCell(11).setCellStyle(dataStyle);
-
-            // Cột Phương thức thanh toán
-            row.createCell(12).setCellValue(order.getPaymentMethod());
-            row.getCell(12).setCellStyle(dataStyle);
-
-            // Cột Trạng thái thanh toán
-            row.createCell(13).setCellValue(order.getPaymentStatus());
-            row.getCell(13).setCellStyle(dataStyle);
-
-            // Cột Trạng thái đơn hàng
-            row.createCell(14).setCellValue(order.getOrderStatus());
-            row.getCell(14).setCellStyle(dataStyle);
-
-            // Cột Phương thức giao hàng
-            row.createCell(15).setCellValue(order.getShippingMethod());
-            row.getCell(15).setCellStyle(dataStyle);
-
-            // Cột Ngày tạo
-            row.createCell(16).setCellValue(order.getCreatedAt() != null ? order.getCreatedAt().toString() : "N/A");
-            row.getCell(16).setCellStyle(dataStyle);
-
-            // Cột Ngày cập nhật
-            row.createCell(17).setCellValue(order.getUpdatedAt() != null ? order.getUpdatedAt().toString() : "N/A");
-            row.getCell(17).setCellStyle(dataStyle);
-
-            // Cột Trạng thái xóa
-            row.createCell(18).setCellValue(order.isDeleted() ? "Đã xóa" : "Đang hiển thị");
-            row.getCell(18).setCellStyle(dataStyle);
-
-            // Cột Ghi chú
-            row.createCell(19).setCellValue(order.getOrderNotes() != null ? order.getOrderNotes() : "N/A");
-            row.getCell(19).setCellStyle(dataStyle);
-        }
-
-        // Tự động điều chỉnh độ rộng cột theo nội dung
-        for (int i = 0; i < columns.length; i++) {
-            sheet.autoSizeColumn(i);
+    // Các cột của file Excel đơn hàng
+    private static final List<ExcelExportUtil.Column<OrderDTO>> ORDER_EXPORT_COLUMNS = List.of(
+            ExcelExportUtil.Column.of("ID", OrderDTO::getId),
+            ExcelExportUtil.Column.of("Mã đơn hàng", OrderDTO::getOrderId),
+            ExcelExportUtil.Column.of("Mã người dùng", OrderDTO::getUserId),
+            ExcelExportUtil.Column.of("Tổng số sản phẩm", OrderDTO::getTotalItems),
+            ExcelExportUtil.Column.of("Tổng giá trị", OrderDTO::getTotalPrice),
+            ExcelExportUtil.Column.of("Giá vận chuyển", OrderDTO::getShippingPrice),
+            ExcelExportUtil.Column.of("Mã giảm giá", o -> o.getDiscountCode() != null ? o.getDiscountCode() : "N/A"),
+            ExcelExportUtil.Column.of("Số tiền giảm giá", OrderDTO::getDiscountAmount),
+            ExcelExportUtil.Column.of("Giá trị cuối", OrderDTO::getFinalPrice),
+            ExcelExportUtil.Column.of("Tên người nhận", OrderDTO::getReceiverName),
+            ExcelExportUtil.Column.of("Số điện thoại", OrderDTO::getPhoneNumber),
+            ExcelExportUtil.Column.of("Địa chỉ giao hàng", o -> o.getShippingAddress() != null ? o.getShippingAddress().toString() : "N/A"),
+            ExcelExportUtil.Column.of("Phương thức thanh toán", OrderDTO::getPaymentMethod),
+            ExcelExportUtil.Column.of("Trạng thái thanh toán", OrderDTO::getPaymentStatus),
+            ExcelExportUtil.Column.of("Trạng thái đơn hàng", OrderDTO::getOrderStatus),
+            ExcelExportUtil.Column.of("Phương thức giao hàng", OrderDTO::getShippingMethod),
+            ExcelExportUtil.Column.of("Ngày tạo", o -> o.getCreatedAt() != null ? o.getCreatedAt().toString() : "N/A"),
+            ExcelExportUtil.Column.of("Ngày cập nhật", o -> o.getUpdatedAt() != null ? o.getUpdatedAt().toString() : "N/A"),
+            ExcelExportUtil.Column.of("Trạng thái xóa", o -> o.isDeleted() ? "Đã xóa" : "Đang hiển thị"),
+            ExcelExportUtil.Column.of("Ghi chú", o -> o.getOrderNotes() != null ? o.getOrderNotes() : "N/A")
+    );
+
+    // Xuất đơn hàng ra file Excel, đọc MongoDB theo cursor và ghi thẳng vào outputStream
+    public void exportOrdersToExcel(OrderFilterDTO filter, String sortBy, OutputStream outputStream) throws IOException {
+        Query query = orderFilterQuery(filter);
+        query.with(Sort.by(orderSortDirection(sortBy), "createdAt"));
+
+        try (Stream<Order> orders = mongoTemplate.stream(query, Order.class)) {
+            ExcelExportUtil.write(outputStream, "Orders", ORDER_EXPORT_COLUMNS, orders.map(this::convertToDTO));
         }
-
-        // Tạo OutputStream và ghi workbook vào đó
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        workbook.write(outputStream);
-        workbook.close();
-
-        return outputStream;
     }
 
     // Chuyển đổi từ Order sang OrderDTO
@@ -0,0 +1,137 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.model.Order;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+// Chuyển trạng thái hàng loạt cho các đơn hàng thỏa một điều kiện (dùng cho các tác vụ định kỳ).
+// Điều kiện (kể cả mốc thời gian) được đẩy xuống MongoDB và thay đổi được áp dụng bằng updateMulti,
+// thay cho việc đọc từng đơn về rồi save riêng lẻ; số lệnh gửi đến MongoDB không phụ thuộc số đơn trong mỗi lô.
+@Service
+public class OrderTransitionService {
+
+    private static final int BATCH_SIZE = 500;
+
+    // Trường đánh dấu các đơn đã được chuyển trong một lượt, dùng để đọc lại đúng các đơn đó
+    private static final String TRANSITION_FIELD = "transitionId";
+
+    private final MongoTemplate mongoTemplate;
+    private final StockReservationService stockReservationService;
+    private final StockHoldService stockHoldService;
+
+    public OrderTransitionService(MongoTemplate mongoTemplate, StockReservationService stockReservationService,
+                                  StockHoldService stockHoldService) {
+        this.mongoTemplate = mongoTemplate;
+        this.stockReservationService = stockReservationService;
+        this.stockHoldService = stockHoldService;
+    }
+
+    // Đặt các trường changes cho các đơn thỏa điều kiện, theo lô, và trả về ngày tạo của các đơn đã chuyển (để cập nhật thống kê theo ngày).
+    // Mỗi lô gồm một lần đọc, một lệnh updateMulti và một lần đọc lại các đơn vừa được đánh dấu.
+    public List<Date> transitionAndCollectCreatedAt(Criteria predicate, Map<String, Object> changes) {
+        List<Date> createdDates = new ArrayList<>();
+        ObjectId lastId = null;
+        while (true) {
+            Criteria page = lastId == null ? predicate
+                    : new Criteria().andOperator(predicate, Criteria.where("_id").gt(lastId));
+            Query query = new Query(page).with(Sort.by(Sort.Direction.ASC, "_id")).limit(BATCH_SIZE);
+            query.fields().include("_id");
+            List<Order> candidates = mongoTemplate.find(query, Order.class);
+            if (candidates.isEmpty()) break;
+
+            List<ObjectId> ids = new ArrayList<>(candidates.size());
+            for (Order order : candidates) {
+                ids.add(new ObjectId(order.getId()));
+            }
+            lastId = ids.get(ids.size() - 1);
+
+            String token = new ObjectId().toHexString();
+            mongoTemplate.updateMulti(
+                    new Query(new Criteria().andOperator(predicate, Criteria.where("_id").in(ids))),
+                    toUpdate(changes, new Date()).set(TRANSITION_FIELD, token),
+                    Order.class);
+
+            Query transitioned = new Query(Criteria.where("_id").in(ids).and(TRANSITION_FIELD).is(token));
+            transitioned.fields().include("createdAt");
+            for (Order order : mongoTemplate.find(transitioned, Order.class)) {
+                createdDates.add(order.getCreatedAt());
+            }
+
+            if (candidates.size() < BATCH_SIZE) break;
+        }
+        return createdDates;
+    }
+
+    // Áp dụng thay đổi và trả lại tồn kho cho các đơn thỏa điều kiện (hủy / xóa đơn chưa hoàn tất).
+    // Xử lý theo lô: mỗi lô gồm một lần đọc, giành các lượt giữ hàng còn lại, hai lệnh updateMulti
+    // và một lệnh bulk cộng tồn kho đã gộp theo biến thể. Trả về các đơn đã chuyển (chỉ gồm orderId, userId, createdAt, items).
+    public List<Order> transitionAndReleaseStock(Criteria predicate, Map<String, Object> changes) {
+        List<Order> transitionedOrders = new ArrayList<>();
+        ObjectId lastId = null;
+        while (true) {
+            // Duyệt theo _id tăng dần để luôn tiến lên, kể cả khi thay đổi không làm đơn hết thỏa điều kiện
+            Criteria page = lastId == null ? predicate
+                    : new Criteria().andOperator(predicate, Criteria.where("_id").gt(lastId));
+            Query query = new Query(page).with(Sort.by(Sort.Direction.ASC, "_id")).limit(BATCH_SIZE);
+            query.fields().include("_id", "orderId");
+            List<Order> candidates = mongoTemplate.find(query, Order.class);
+            if (candidates.isEmpty()) break;
+
+            List<ObjectId> ids = new ArrayList<>(candidates.size());
+            List<String> orderIds = new ArrayList<>(candidates.size());
+            for (Order order : candidates) {
+                ids.add(new ObjectId(order.getId()));
+                orderIds.add(order.getOrderId());
+            }
+            lastId = ids.get(ids.size() - 1);
+
+            // Giành lượt giữ hàng trước rồi mới đọc cờ stockReleased (cùng thứ tự với khi hủy từng đơn),
+            // để lượt quét hết hạn giữ hàng chạy đồng thời không trả tồn kho lần thứ hai
+            Set<String> held = stockHoldService.removeAll(orderIds);
+
+            // Chia theo cờ stockReleased ngay trong lệnh update: nhóm chưa trả tồn kho được đánh dấu riêng
+            String token = new ObjectId().toHexString();
+            String releaseToken = token + ":release";
+            Criteria batch = new Criteria().andOperator(predicate, Criteria.where("_id").in(ids));
+            Date now = new Date();
+            mongoTemplate.updateMulti(
+                    new Query(new Criteria().andOperator(batch, Criteria.where("stockReleased").ne(true))),
+                    toUpdate(changes, now).set("stockReleased", true).set(TRANSITION_FIELD, releaseToken),
+                    Order.class);
+            mongoTemplate.updateMulti(
+                    new Query(new Criteria().andOperator(batch, Criteria.where("stockReleased").is(true))),
+                    toUpdate(changes, now).set(TRANSITION_FIELD, token),
+                    Order.class);
+
+            // Đọc lại các đơn vừa được chuyển và cần trả tồn kho
+            Query transitioned = new Query(Criteria.where("_id").in(ids).and(TRANSITION_FIELD).in(token, releaseToken));
+            transitioned.fields().include("orderId", "userId", "createdAt", "items", TRANSITION_FIELD);
+            List<StockReservationService.Line> lines = new ArrayList<>();
+            for (Order order : mongoTemplate.find(transitioned, Order.class)) {
+                transitionedOrders.add(order);
+                if (!releaseToken.equals(order.getTransitionId()) && !held.contains(order.getOrderId())) continue;
+                for (Order.Item item : order.getItems()) {
+                    lines.add(new StockReservationService.Line(item.getProductId().toString(),
+                            item.getVariantId().toString(), item.getQuantity()));
+                }
+            }
+            stockReservationService.release(lines);
+
+            if (candidates.size() < BATCH_SIZE) break;
+        }
+        return transitionedOrders;
+    }
+
+    private static Update toUpdate(Map<String, Object> changes, Date now) {
+        Update update = new Update();
+        changes.forEach(update::set);
+        return update.set("updatedAt", now);
+    }
+}
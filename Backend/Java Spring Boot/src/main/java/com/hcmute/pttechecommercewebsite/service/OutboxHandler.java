@@ -0,0 +1,13 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.model.OutboxMessage;
+
+import java.util.Set;
+
+// Xử lý các thông điệp outbox của một hoặc nhiều loại; ném exception để thông điệp được thử lại
+public interface OutboxHandler {
+
+    Set<String> getTypes();
+
+    void handle(OutboxMessage message);
+}
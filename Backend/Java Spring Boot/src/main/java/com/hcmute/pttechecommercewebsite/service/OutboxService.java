@@ -0,0 +1,142 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.model.OutboxMessage;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+// Outbox cho các tác vụ phụ sau khi ghi dữ liệu (gửi email, ...).
+// Service nghiệp vụ chỉ ghi một thông điệp vào collection OutboxMessages ngay sau khi lưu đơn hàng / đánh giá / người dùng,
+// rồi trả về; worker chạy nền xử lý thông điệp với số lần thử giới hạn và thời gian chờ tăng dần,
+// thông điệp thất bại quá số lần thử được chuyển sang trạng thái DEAD.
+// Thông điệp được giữ trong MongoDB nên không mất khi ứng dụng khởi động lại hay kênh chuyển bị đầy.
+@Service
+public class OutboxService {
+
+    private final MongoTemplate mongoTemplate;
+    private final OutboxTransport transport;
+    private final Map<String, OutboxHandler> handlers = new HashMap<>();
+
+    @Value("${outbox.max-attempts:5}")
+    private int maxAttempts;
+
+    // Thời gian chờ trước lần thử lại đầu tiên, nhân đôi sau mỗi lần thất bại
+    @Value("${outbox.backoff-initial-ms:10000}")
+    private long backoffInitialMs;
+
+    @Value("${outbox.backoff-max-ms:3600000}")
+    private long backoffMaxMs;
+
+    // Sau thời gian này mà thông điệp chưa được xử lý xong (worker dừng giữa chừng, kênh làm mất) thì được phát lại
+    @Value("${outbox.redelivery-ms:300000}")
+    private long redeliveryMs;
+
+    @Value("${outbox.poll-batch-size:100}")
+    private int pollBatchSize;
+
+    public OutboxService(MongoTemplate mongoTemplate, OutboxTransport transport, List<OutboxHandler> handlers) {
+        this.mongoTemplate = mongoTemplate;
+        this.transport = transport;
+        for (OutboxHandler handler : handlers) {
+            for (String type : handler.getTypes()) {
+                this.handlers.put(type, handler);
+            }
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        transport.bind(this::process);
+    }
+
+    // Ghi một thông điệp và chuyển ngay cho worker
+    public void enqueue(String type, Map<String, String> payload) {
+        Date now = new Date();
+        OutboxMessage message = mongoTemplate.insert(OutboxMessage.builder()
+                .type(type)
+                .payload(payload)
+                .status(OutboxMessage.PENDING)
+                .attempts(0)
+                .nextAttemptAt(new Date(now.getTime() + redeliveryMs))
+                .createdAt(now)
+                .build());
+        transport.publish(message.getId());
+    }
+
+    // Xử lý một thông điệp (gọi từ worker của kênh chuyển)
+    public void process(String messageId) {
+        Date now = new Date();
+
+        // Giành thông điệp: chỉ một worker chuyển được PENDING → PROCESSING
+        OutboxMessage message = mongoTemplate.findAndModify(
+                new Query(Criteria.where("_id").is(messageId).and("status").is(OutboxMessage.PENDING)),
+                new Update().set("status", OutboxMessage.PROCESSING)
+                        .set("nextAttemptAt", new Date(now.getTime() + redeliveryMs))
+                        .inc("attempts", 1),
+                FindAndModifyOptions.options().returnNew(true),
+                OutboxMessage.class);
+        if (message == null) return;
+
+        try {
+            OutboxHandler handler = handlers.get(message.getType());
+            if (handler == null) {
+                throw new IllegalStateException("Không có bộ xử lý cho loại thông điệp: " + message.getType());
+            }
+            handler.handle(message);
+
+            mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(messageId)),
+                    new Update().set("status", OutboxMessage.SENT).set("processedAt", new Date()).unset("nextAttemptAt"),
+                    OutboxMessage.class);
+        } catch (RuntimeException e) {
+            fail(message, e);
+        }
+    }
+
+    private void fail(OutboxMessage message, RuntimeException e) {
+        String error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        Update update = new Update().set("lastError", error);
+
+        if (message.getAttempts() >= maxAttempts) {
+            update.set("status", OutboxMessage.DEAD).set("processedAt", new Date()).unset("nextAttemptAt");
+            System.out.println("Outbox: thông điệp " + message.getId() + " (" + message.getType()
+                    + ") thất bại sau " + message.getAttempts() + " lần, chuyển sang DEAD: " + error);
+        } else {
+            long delay = backoffInitialMs << Math.min(message.getAttempts() - 1, 20);
+            update.set("status", OutboxMessage.PENDING)
+                    .set("nextAttemptAt", new Date(System.currentTimeMillis() + Math.min(delay, backoffMaxMs)));
+        }
+        mongoTemplate.updateFirst(new Query(Criteria.where("_id").is(message.getId())), update, OutboxMessage.class);
+    }
+
+    // Phát lại các thông điệp đến hạn: chờ thử lại, bị kênh chuyển làm mất, hoặc worker dừng giữa chừng
+    @Scheduled(fixedDelayString = "${outbox.poll-interval-ms:5000}")
+    public void redeliver() {
+        Date now = new Date();
+        Query due = new Query(Criteria.where("status").in(OutboxMessage.PENDING, OutboxMessage.PROCESSING)
+                .and("nextAttemptAt").lte(now))
+                .with(Sort.by(Sort.Direction.ASC, "nextAttemptAt"))
+                .limit(pollBatchSize);
+        due.fields().include("_id");
+
+        for (OutboxMessage message : mongoTemplate.find(due, OutboxMessage.class)) {
+            // Gia hạn trước khi phát để lần quét sau không phát trùng
+            OutboxMessage leased = mongoTemplate.findAndModify(
+                    new Query(Criteria.where("_id").is(message.getId()).and("nextAttemptAt").lte(now)),
+                    new Update().set("status", OutboxMessage.PENDING)
+                            .set("nextAttemptAt", new Date(now.getTime() + redeliveryMs)),
+                    OutboxMessage.class);
+            if (leased != null) {
+                transport.publish(leased.getId());
+            }
+        }
+    }
+}
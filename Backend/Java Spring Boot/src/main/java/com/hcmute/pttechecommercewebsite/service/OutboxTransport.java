@@ -0,0 +1,13 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import java.util.function.Consumer;
+
+// Kênh chuyển ID thông điệp outbox tới worker: hàng đợi trong tiến trình (mặc định) hoặc AMQP.
+// Kênh có thể làm mất thông điệp (hàng đợi đầy, khởi động lại); OutboxService phát lại các thông điệp chưa xử lý.
+public interface OutboxTransport {
+
+    // Đăng ký hàm xử lý, gọi một lần khi khởi động
+    void bind(Consumer<String> processor);
+
+    void publish(String messageId);
+}
@@ -4,21 +4,19 @@ import com.hcmute.pttechecommercewebsite.dto.PolicyDTO;
 import com.hcmute.pttechecommercewebsite.exception.ResourceNotFoundException;
 import com.hcmute.pttechecommercewebsite.model.Policy;
 import com.hcmute.pttechecommercewebsite.repository.PolicyRepository;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.*;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
-import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.validation.annotation.Validated;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 @Validated
@@ -135,21 +133,6 @@ public class PolicyService {
         return convertToDTO(savedPolicy);
     }
 
-    @Scheduled(fixedRate = 60000)
-    @Transactional
-    public void checkAndActivateScheduledPolicies() {
-        Date now = new Date();
-
-        List<Policy> scheduledPolicies = policyRepository.findByScheduledDateBeforeAndIsDeletedFalseAndIsActiveFalse(now);
-
-        for (Policy policy : scheduledPolicies) {
-            policy.setActive(true);
-            policy.setScheduledDate(null);
-            policy.setUpdatedAt(now);
-            policyRepository.save(policy);
-        }
-    }
-
     // Chỉnh sửa chính sách
     public PolicyDTO updatePolicy(String id, PolicyDTO policyDTO) {
         Optional<Policy> existingPolicy = policyRepository.findById(id);
@@ -214,85 +197,28 @@ public class PolicyService {
         }
     }
 
-    // Phương thức xuất tất cả chính sách ra file Excel
-    public ByteArrayOutputStream exportPoliciesToExcel(String sortBy, String sortOrder) throws IOException {
-        // Lấy danh sách các chính sách từ service với sắp xếp
-        List<PolicyDTO> policies = getAllPoliciesWithDeletedFalse(sortBy, sortOrder);
-
-        // Tạo workbook Excel
-        XSSFWorkbook workbook = new XSSFWorkbook();
-        Sheet sheet = workbook.createSheet("Policies");
-
-        // Định dạng chung cho workbook
-        CellStyle headerStyle = workbook.createCellStyle();
-        Font headerFont = workbook.createFont();
-        headerFont.setBold(true);
-        headerFont.setFontHeightInPoints((short) 12);
-        headerFont.setColor(IndexedColors.WHITE.getIndex());
-        headerStyle.setFont(headerFont);
-        headerStyle.setAlignment(HorizontalAlignment.CENTER);
-        headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-        headerStyle.setFillForegroundColor(IndexedColors.GREY_50_PERCENT.getIndex());
-        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
-        // Tạo dòng tiêu đề
-        Row headerRow = sheet.createRow(0);
-        String[] columns = {"ID", "Loại chính sách", "Tiêu đề", "Mô tả", "Nội dung", "Trạng thái hoạt động", "Trạng thái xóa"};
-        for (int i = 0; i < columns.length; i++) {
-            Cell cell = headerRow.createCell(i);
-            cell.setCellValue(columns[i]);
-            cell.setCellStyle(headerStyle);
-        }
-
-        // Định dạng cho dữ liệu
-        CellStyle dataStyle = workbook.createCellStyle();
-        dataStyle.setAlignment(HorizontalAlignment.CENTER);
-        dataStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-
-        // Thêm dữ liệu chính sách vào file Excel
-        int rowNum = 1;
-        for (PolicyDTO policy : policies) {
-            Row row = sheet.createRow(rowNum++);
-
-            // Cột ID
-            row.createCell(0).setCellValue(policy.getId());
-            row.getCell(0).setCellStyle(dataStyle);
-
-            // Cột Loại chính sách
-            row.createCell(1).setCellValue(policy.getType());
-            row.getCell(1).setCellStyle(dataStyle);
-
-            // Cột Tiêu đề
-            row.createCell(2).setCellValue(policy.getTitle());
-            row.getCell(2).setCellStyle(dataStyle);
-
-            // Cột Mô tả
-            row.createCell(3).setCellValue(policy.getDescription() != null ? policy.getDescription() : "Không có");
-            row.getCell(3).setCellStyle(dataStyle);
-
-            // Cột Nội dung
-            row.createCell(4).setCellValue(policy.getContent() != null ? policy.getContent() : "Không có");
-            row.getCell(4).setCellStyle(dataStyle);
-
-            // Cột Trạng thái hoạt động
-            row.createCell(5).setCellValue(policy.isActive() ? "Đang hoạt động" : "Không hoạt động");
-            row.getCell(5).setCellStyle(dataStyle);
-
-            // Cột Trạng thái xóa
-            row.createCell(6).setCellValue(policy.isDeleted() ? "Đã xóa" : "Đang hiển thị");
-            row.getCell(6).setCellStyle(dataStyle);
+    // Các cột của file Excel chính sách
+    private static final List<ExcelExportUtil.Column<PolicyDTO>> POLICY_EXPORT_COLUMNS = List.of(
+            ExcelExportUtil.Column.of("ID", PolicyDTO::getId),
+            ExcelExportUtil.Column.of("Loại chính sách", PolicyDTO::getType),
+            ExcelExportUtil.Column.of("Tiêu đề", PolicyDTO::getTitle),
+            ExcelExportUtil.Column.of("Mô tả", p -> p.getDescription() != null ? p.getDescription() : "Không có"),
+            ExcelExportUtil.Column.of("Nội dung", p -> p.getContent() != null ? p.getContent() : "Không có"),
+            ExcelExportUtil.Column.of("Trạng thái hoạt động", p -> p.isActive() ? "Đang hoạt động" : "Không hoạt động"),
+            ExcelExportUtil.Column.of("Trạng thái xóa", p -> p.isDeleted() ? "Đã xóa" : "Đang hiển thị")
+    );
+
+    // Xuất chính sách ra file Excel, đọc MongoDB theo cursor và ghi thẳng vào outputStream
+    public void exportPoliciesToExcel(String sortBy, String sortOrder, OutputStream outputStream) throws IOException {
+        Sort sort = Sort.by(Sort.Order.by(sortBy));
+        if ("desc".equalsIgnoreCase(sortOrder)) {
+            sort = sort.descending();
+        } else {
+            sort = sort.ascending();
         }
 
-        // Tự động điều chỉnh độ rộng cột theo nội dung
-        for (int i = 0; i < columns.length; i++) {
-            sheet.autoSizeColumn(i);
+        try (Stream<Policy> policies = policyRepository.streamByIsDeletedFalse(sort)) {
+            ExcelExportUtil.write(outputStream, "Policies", POLICY_EXPORT_COLUMNS, policies.map(this::convertToDTO));
         }
-
-        // Tạo OutputStream và ghi workbook vào đó
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        workbook.write(outputStream);
-        workbook.close();
-
-        return outputStream;
     }
 }
\ No newline at end of file
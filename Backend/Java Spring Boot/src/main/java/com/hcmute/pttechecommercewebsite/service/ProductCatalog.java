@@ -0,0 +1,621 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.dto.CursorPageDTO;
+import com.hcmute.pttechecommercewebsite.dto.ProductDTO;
+import com.hcmute.pttechecommercewebsite.model.Brand;
+import com.hcmute.pttechecommercewebsite.model.Product;
+import com.hcmute.pttechecommercewebsite.util.CursorPaginationUtil;
+import lombok.Builder;
+import lombok.Getter;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Bản chụp (snapshot) chỉ đọc của các sản phẩm đang hoạt động, phục vụ /api/products/active và /search-filter
+// mà không cần truy vấn MongoDB. Sửa một sản phẩm đã có (giá, tồn kho, thương hiệu...) tạo snapshot mới bằng cách
+// thay đúng dòng đó trong các cột, chỉ mục và thứ tự giá; chỉ khi thêm / gỡ sản phẩm mới dựng lại toàn bộ.
+@Component
+public class ProductCatalog {
+
+    // Các trường có thể sắp xếp trực tiếp trong bộ nhớ
+    private static final Set<String> SORTABLE_FIELDS = Set.of(
+            "name", "productId", "pricing.current", "pricing.original", "totalSold",
+            "ratings.average", "ratings.totalReviews", "visibilityType", "createdAt", "_id", "id"
+    );
+
+    // Sản phẩm đang hoạt động theo ID (nguồn để dựng snapshot)
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // Tên thương hiệu (chữ thường) -> danh sách ID thương hiệu
+    private final Map<String, Set<String>> brandIdsByName = new ConcurrentHashMap<>();
+
+    // Thương hiệu ID -> tên hiện tại, dùng để gỡ tên cũ khi thương hiệu đổi tên và hiển thị facet
+    private final Map<String, String> brandNamesById = new ConcurrentHashMap<>();
+
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+    private volatile boolean dirty = false;
+    private volatile boolean loaded = false;
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    // Kiểm tra sản phẩm có thuộc danh sách hoạt động hay không
+    public static boolean isActive(Product product) {
+        return product != null && !product.isDeleted() && !"inactive".equals(product.getStatus());
+    }
+
+    // Nạp lại toàn bộ catalog (dùng khi khởi động hoặc đồng bộ định kỳ)
+    public synchronized void replaceAll(Collection<Entry> activeEntries, Collection<Brand> brands) {
+        entries.clear();
+        for (Entry entry : activeEntries) {
+            entries.put(entry.getId(), entry);
+        }
+
+        brandIdsByName.clear();
+        brandNamesById.clear();
+        for (Brand brand : brands) {
+            putBrand(brand);
+        }
+
+        dirty = true;
+        loaded = true;
+    }
+
+    // Cập nhật một sản phẩm; sản phẩm không còn hoạt động sẽ bị gỡ khỏi catalog
+    public synchronized void upsert(Product product, ProductDTO dto) {
+        if (product == null || product.getId() == null) return;
+
+        if (isActive(product) && dto != null) {
+            Entry entry = Entry.of(product, dto);
+            Entry previous = entries.put(product.getId(), entry);
+            if (previous != null && !dirty) {
+                // Sản phẩm đã có trong snapshot: chỉ thay dòng của nó
+                int row = Arrays.binarySearch(snapshot.ids, entry.getId());
+                if (row >= 0) {
+                    snapshot = snapshot.withRow(row, entry);
+                    return;
+                }
+            }
+        } else if (entries.remove(product.getId()) == null) {
+            return;
+        }
+        dirty = true;
+    }
+
+    public synchronized void remove(String productId) {
+        if (productId != null && entries.remove(productId) != null) {
+            dirty = true;
+        }
+    }
+
+    // Cập nhật từ điển tên thương hiệu
+    public synchronized void upsertBrand(Brand brand) {
+        if (brand == null || brand.getId() == null) return;
+
+        String oldName = brandNamesById.remove(brand.getId());
+        if (oldName != null) {
+            String oldKey = oldName.toLowerCase(Locale.ROOT);
+            Set<String> ids = brandIdsByName.get(oldKey);
+            if (ids != null) {
+                ids.remove(brand.getId());
+                if (ids.isEmpty()) brandIdsByName.remove(oldKey);
+            }
+        }
+        putBrand(brand);
+    }
+
+    private void putBrand(Brand brand) {
+        if (brand.getId() == null || brand.getName() == null) return;
+        String key = brand.getName().toLowerCase(Locale.ROOT);
+        brandIdsByName.computeIfAbsent(key, k -> ConcurrentHashMap.newKeySet()).add(brand.getId());
+        brandNamesById.put(brand.getId(), brand.getName());
+    }
+
+    // Tìm ID thương hiệu theo tên (không phân biệt hoa thường), tương đương findByNameInIgnoreCase
+    public Set<String> resolveBrandIds(Collection<String> brandNames) {
+        Set<String> ids = new HashSet<>();
+        for (String name : brandNames) {
+            if (name == null) continue;
+            Set<String> matched = brandIdsByName.get(name.toLowerCase(Locale.ROOT));
+            if (matched != null) ids.addAll(matched);
+        }
+        return ids;
+    }
+
+    public String getBrandName(String brandId) {
+        return brandId != null ? brandNamesById.get(brandId) : null;
+    }
+
+    public boolean supportsSort(String sortBy) {
+        return sortBy == null || SORTABLE_FIELDS.contains(sortBy);
+    }
+
+    public int size() {
+        return current().products.length;
+    }
+
+    // Lọc và sắp xếp sản phẩm hoàn toàn trong bộ nhớ
+    public List<ProductDTO> find(Filter filter) {
+        Snapshot snap = current();
+        int[] order = snap.sortedRows(filter);
+
+        List<ProductDTO> result = new ArrayList<>(order.length);
+        for (int row : order) {
+            result.add(snap.products[row]);
+        }
+        return result;
+    }
+
+    // Đếm số sản phẩm theo từng nhóm lọc (facet) trên cùng snapshot, không cần truy vấn lại
+    public FacetCounts countFacets(Filter filter, double[] priceBounds) {
+        return current().facets(filter, priceBounds);
+    }
+
+    // Lấy một trang kết quả theo cursor (giá trị sắp xếp + ID của sản phẩm cuối trang trước)
+    public CursorPageDTO<ProductDTO> findPage(Filter filter, String cursor, int pageSize, boolean includeTotal) {
+        Snapshot snap = current();
+        int[] order = snap.sortedRows(filter);
+        boolean descending = filter.getSortBy() != null && "desc".equalsIgnoreCase(filter.getSortOrder());
+
+        int start = 0;
+        if (cursor != null && !cursor.isBlank()) {
+            CursorPaginationUtil.Cursor decoded = CursorPaginationUtil.decodeCursor(cursor);
+            start = snap.firstAfter(order, filter.getSortBy(), descending, decoded.getValue(), decoded.getId());
+        }
+
+        int end = Math.min(order.length, start + pageSize);
+        List<ProductDTO> items = new ArrayList<>(end - start);
+        for (int i = start; i < end; i++) {
+            items.add(snap.products[order[i]]);
+        }
+
+        boolean hasMore = end < order.length;
+        String nextCursor = null;
+        if (hasMore && end > start) {
+            int last = order[end - 1];
+            nextCursor = CursorPaginationUtil.encodeCursor(snap.sortKey(last, filter.getSortBy()), snap.ids[last]);
+        }
+
+        return CursorPageDTO.<ProductDTO>builder()
+                .items(items)
+                .nextCursor(nextCursor)
+                .hasMore(hasMore)
+                .pageSize(pageSize)
+                .totalCount(includeTotal ? (long) order.length : null)
+                .build();
+    }
+
+    // Lấy snapshot hiện tại, dựng lại nếu có sản phẩm được thêm / gỡ
+    private Snapshot current() {
+        if (!dirty) return snapshot;
+
+        synchronized (this) {
+            if (dirty) {
+                // Xóa cờ trước khi đọc entries để thay đổi đồng thời sẽ kích hoạt lần dựng tiếp theo
+                dirty = false;
+                snapshot = Snapshot.build(new ArrayList<>(entries.values()));
+            }
+            return snapshot;
+        }
+    }
+
+    // Điều kiện lọc; null nghĩa là không lọc theo trường đó, tập rỗng nghĩa là không khớp sản phẩm nào
+    @Getter
+    @Builder
+    public static class Filter {
+        private Collection<String> productIds;   // Kết quả tìm kiếm theo từ khóa (ProductSearchIndex)
+        private Collection<String> brandIds;
+        private Collection<String> categoryIds;
+        private Collection<String> visibilityTypes;
+        private Collection<String> conditions;
+        private Double minPrice;
+        private Double maxPrice;
+        private String sortBy;
+        private String sortOrder;
+    }
+
+    // Kết quả đếm facet theo ID (thương hiệu, danh mục) hoặc giá trị (tình trạng, loại hiển thị)
+    @Getter
+    public static class FacetCounts {
+        private final Map<String, Integer> brands = new LinkedHashMap<>();
+        private final Map<String, Integer> categories = new LinkedHashMap<>();
+        private final Map<String, Integer> conditions = new LinkedHashMap<>();
+        private final Map<String, Integer> visibilityTypes = new LinkedHashMap<>();
+        private int[] priceBuckets;          // priceBuckets[i]: số sản phẩm có giá trong [bounds[i-1], bounds[i])
+    }
+
+    // Dữ liệu đã tính sẵn của một sản phẩm
+    @Getter
+    public static class Entry {
+        private final String id;
+        private final ProductDTO dto;
+        private final String brandId;
+        private final String categoryId;
+        private final String visibilityType;
+        private final Set<String> conditions;
+        private final double price;
+        private final long createdAt;
+
+        private Entry(Product product, ProductDTO dto) {
+            this.id = product.getId();
+            this.dto = dto;
+            this.brandId = product.getBrandId() != null ? product.getBrandId().toString() : null;
+            this.categoryId = product.getCategoryId() != null ? product.getCategoryId().toString() : null;
+            this.visibilityType = product.getVisibilityType();
+
+            Set<String> variantConditions = new HashSet<>();
+            if (product.getVariants() != null) {
+                for (Product.Variant variant : product.getVariants()) {
+                    if (variant.getCondition() != null) variantConditions.add(variant.getCondition());
+                }
+            }
+            this.conditions = variantConditions;
+            this.price = product.getPricing() != null ? product.getPricing().getCurrent() : 0.0;
+            this.createdAt = product.getCreatedAt() != null ? product.getCreatedAt().getTime() : Long.MIN_VALUE;
+        }
+
+        public static Entry of(Product product, ProductDTO dto) {
+            return new Entry(product, dto);
+        }
+    }
+
+    // Snapshot bất biến dạng cột, các dòng được sắp theo _id (tương đương thứ tự tự nhiên của MongoDB)
+    private static final class Snapshot {
+
+        static final Snapshot EMPTY = build(List.of());
+
+        final Entry[] rows;
+        final ProductDTO[] products;
+        final String[] ids;
+        final String[] names;
+        final long[] createdAt;
+        final double[] prices;
+        final Map<String, BitSet> byBrand;
+        final Map<String, BitSet> byCategory;
+        final Map<String, BitSet> byVisibility;
+        final Map<String, BitSet> byCondition;
+
+        // Chỉ mục giá: các dòng sắp xếp tăng dần theo pricing.current
+        final int[] priceOrder;
+        final double[] sortedPrices;
+
+        // Các mảng và BitSet không bị sửa sau khi snapshot được công bố, nên có thể dùng chung giữa các snapshot
+        private Snapshot(Entry[] rows, ProductDTO[] products, String[] ids, String[] names, long[] createdAt, double[] prices,
+                         Map<String, BitSet> byBrand, Map<String, BitSet> byCategory,
+                         Map<String, BitSet> byVisibility, Map<String, BitSet> byCondition,
+                         int[] priceOrder, double[] sortedPrices) {
+            this.rows = rows;
+            this.products = products;
+            this.ids = ids;
+            this.names = names;
+            this.createdAt = createdAt;
+            this.prices = prices;
+            this.byBrand = byBrand;
+            this.byCategory = byCategory;
+            this.byVisibility = byVisibility;
+            this.byCondition = byCondition;
+            this.priceOrder = priceOrder;
+            this.sortedPrices = sortedPrices;
+        }
+
+        static Snapshot build(List<Entry> source) {
+            List<Entry> sorted = new ArrayList<>(source);
+            sorted.sort(Comparator.comparing(Entry::getId));
+
+            int size = sorted.size();
+            Snapshot snap = new Snapshot(new Entry[size], new ProductDTO[size], new String[size], new String[size],
+                    new long[size], new double[size], new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>(),
+                    new int[size], new double[size]);
+            double[] prices = snap.prices;
+
+            for (int i = 0; i < size; i++) {
+                Entry entry = sorted.get(i);
+                snap.rows[i] = entry;
+                snap.products[i] = entry.getDto();
+                snap.ids[i] = entry.getId();
+                snap.names[i] = entry.getDto().getName();
+                snap.createdAt[i] = entry.getCreatedAt();
+                prices[i] = entry.getPrice();
+
+                index(snap.byBrand, entry.getBrandId(), i);
+                index(snap.byCategory, entry.getCategoryId(), i);
+                index(snap.byVisibility, entry.getVisibilityType(), i);
+                for (String condition : entry.getConditions()) {
+                    index(snap.byCondition, condition, i);
+                }
+            }
+
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, Comparator.comparingDouble(row -> prices[row]));
+            for (int i = 0; i < order.length; i++) {
+                snap.priceOrder[i] = order[i];
+                snap.sortedPrices[i] = prices[order[i]];
+            }
+            return snap;
+        }
+
+        // Snapshot mới với dòng row được thay bằng entry (cùng ID): sao chép các cột, chỉ sửa BitSet của các khóa
+        // thay đổi và dời vị trí của dòng trong thứ tự giá, không sắp xếp lại
+        Snapshot withRow(int row, Entry entry) {
+            Entry previous = rows[row];
+
+            Entry[] nextRows = rows.clone();
+            ProductDTO[] nextProducts = products.clone();
+            String[] nextNames = names.clone();
+            long[] nextCreatedAt = createdAt.clone();
+            double[] nextPrices = prices.clone();
+            nextRows[row] = entry;
+            nextProducts[row] = entry.getDto();
+            nextNames[row] = entry.getDto().getName();
+            nextCreatedAt[row] = entry.getCreatedAt();
+            nextPrices[row] = entry.getPrice();
+
+            int[] nextPriceOrder = priceOrder;
+            double[] nextSortedPrices = sortedPrices;
+            if (Double.compare(previous.getPrice(), entry.getPrice()) != 0) {
+                nextPriceOrder = new int[priceOrder.length];
+                nextSortedPrices = new double[sortedPrices.length];
+                movePrice(row, entry.getPrice(), nextPriceOrder, nextSortedPrices);
+            }
+
+            return new Snapshot(nextRows, nextProducts, ids, nextNames, nextCreatedAt, nextPrices,
+                    reindex(byBrand, row, keys(previous.getBrandId()), keys(entry.getBrandId())),
+                    reindex(byCategory, row, keys(previous.getCategoryId()), keys(entry.getCategoryId())),
+                    reindex(byVisibility, row, keys(previous.getVisibilityType()), keys(entry.getVisibilityType())),
+                    reindex(byCondition, row, previous.getConditions(), entry.getConditions()),
+                    nextPriceOrder, nextSortedPrices);
+        }
+
+        // Ghi thứ tự giá mới vào order / sorted: gỡ row khỏi vị trí cũ rồi chèn vào vị trí của giá mới
+        private void movePrice(int row, double price, int[] order, double[] sorted) {
+            int n = priceOrder.length;
+            int position = lowerBound(sortedPrices, n, prices[row]);
+            while (priceOrder[position] != row) position++;
+
+            System.arraycopy(priceOrder, 0, order, 0, position);
+            System.arraycopy(priceOrder, position + 1, order, position, n - position - 1);
+            System.arraycopy(sortedPrices, 0, sorted, 0, position);
+            System.arraycopy(sortedPrices, position + 1, sorted, position, n - position - 1);
+
+            int insert = upperBound(sorted, n - 1, price);
+            System.arraycopy(order, insert, order, insert + 1, n - 1 - insert);
+            System.arraycopy(sorted, insert, sorted, insert + 1, n - 1 - insert);
+            order[insert] = row;
+            sorted[insert] = price;
+        }
+
+        // Bản sao của chỉ mục với row được chuyển từ các khóa cũ sang các khóa mới; BitSet của khóa không đổi dùng chung
+        private static Map<String, BitSet> reindex(Map<String, BitSet> index, int row,
+                                                   Set<String> oldKeys, Set<String> newKeys) {
+            if (oldKeys.equals(newKeys)) return index;
+
+            Map<String, BitSet> next = new HashMap<>(index);
+            for (String key : oldKeys) {
+                if (newKeys.contains(key)) continue;
+                BitSet posting = (BitSet) next.get(key).clone();
+                posting.clear(row);
+                if (posting.isEmpty()) next.remove(key); else next.put(key, posting);
+            }
+            for (String key : newKeys) {
+                if (oldKeys.contains(key)) continue;
+                BitSet posting = next.containsKey(key) ? (BitSet) next.get(key).clone() : new BitSet();
+                posting.set(row);
+                next.put(key, posting);
+            }
+            return next;
+        }
+
+        private static Set<String> keys(String key) {
+            return key != null ? Set.of(key) : Set.of();
+        }
+
+        private static void index(Map<String, BitSet> index, String key, int row) {
+            if (key == null) return;
+            index.computeIfAbsent(key, k -> new BitSet()).set(row);
+        }
+
+        BitSet filter(Filter filter) {
+            BitSet rows = all();
+            for (BitSet part : filterParts(filter)) {
+                if (part != null) rows.and(part);
+            }
+            return rows;
+        }
+
+        // Các thành phần của bộ lọc theo thứ tự: thương hiệu, danh mục, loại hiển thị, tình trạng, giá, từ khóa
+        // (null nếu không lọc theo thành phần đó)
+        private BitSet[] filterParts(Filter filter) {
+            BitSet[] parts = new BitSet[6];
+            parts[0] = matching(byBrand, filter.getBrandIds());
+            parts[1] = matching(byCategory, filter.getCategoryIds());
+            parts[2] = matching(byVisibility, filter.getVisibilityTypes());
+            parts[3] = matching(byCondition, filter.getConditions());
+
+            if (filter.getMinPrice() != null || filter.getMaxPrice() != null) {
+                parts[4] = priceRange(filter.getMinPrice(), filter.getMaxPrice());
+            }
+
+            if (filter.getProductIds() != null) {
+                BitSet matched = new BitSet(products.length);
+                for (String productId : filter.getProductIds()) {
+                    int row = Arrays.binarySearch(ids, productId);
+                    if (row >= 0) matched.set(row);
+                }
+                parts[5] = matched;
+            }
+            return parts;
+        }
+
+        private BitSet all() {
+            BitSet rows = new BitSet(products.length);
+            rows.set(0, products.length);
+            return rows;
+        }
+
+        // Các dòng thỏa mọi thành phần lọc trừ thành phần thứ skip
+        private BitSet allExcept(BitSet[] parts, int skip) {
+            BitSet rows = all();
+            for (int i = 0; i < parts.length; i++) {
+                if (i != skip && parts[i] != null) rows.and(parts[i]);
+            }
+            return rows;
+        }
+
+        FacetCounts facets(Filter filter, double[] priceBounds) {
+            BitSet[] parts = filterParts(filter);
+            FacetCounts counts = new FacetCounts();
+
+            count(counts.getBrands(), byBrand, allExcept(parts, 0));
+            count(counts.getCategories(), byCategory, allExcept(parts, 1));
+            count(counts.getVisibilityTypes(), byVisibility, allExcept(parts, 2));
+            count(counts.getConditions(), byCondition, allExcept(parts, 3));
+
+            int[] buckets = new int[priceBounds.length + 1];
+            BitSet rows = allExcept(parts, 4);
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                int position = Arrays.binarySearch(priceBounds, prices[row]);
+                buckets[position >= 0 ? position + 1 : -position - 1]++;
+            }
+            counts.priceBuckets = buckets;
+            return counts;
+        }
+
+        private static void count(Map<String, Integer> target, Map<String, BitSet> index, BitSet rows) {
+            for (Map.Entry<String, BitSet> posting : index.entrySet()) {
+                BitSet matched = (BitSet) posting.getValue().clone();
+                matched.and(rows);
+                int cardinality = matched.cardinality();
+                if (cardinality > 0) target.put(posting.getKey(), cardinality);
+            }
+        }
+
+        private BitSet matching(Map<String, BitSet> index, Collection<String> values) {
+            if (values == null) return null;
+
+            BitSet matched = new BitSet(products.length);
+            for (String value : values) {
+                BitSet posting = index.get(value);
+                if (posting != null) matched.or(posting);
+            }
+            return matched;
+        }
+
+        private BitSet priceRange(Double minPrice, Double maxPrice) {
+            int from = minPrice != null ? lowerBound(sortedPrices, sortedPrices.length, minPrice) : 0;
+            int to = maxPrice != null ? upperBound(sortedPrices, sortedPrices.length, maxPrice) : sortedPrices.length;
+
+            BitSet matched = new BitSet(products.length);
+            for (int i = from; i < to; i++) {
+                matched.set(priceOrder[i]);
+            }
+            return matched;
+        }
+
+        // Vị trí đầu tiên trong sorted[0, length) có giá >= value
+        private static int lowerBound(double[] sorted, int length, double value) {
+            int lo = 0, hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sorted[mid] < value) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        // Vị trí đầu tiên trong sorted[0, length) có giá > value
+        private static int upperBound(double[] sorted, int length, double value) {
+            int lo = 0, hi = length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (sorted[mid] <= value) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        // Các dòng thỏa bộ lọc, đã sắp xếp theo (trường sắp xếp, _id)
+        int[] sortedRows(Filter filter) {
+            BitSet rows = filter(filter);
+            Integer[] order = new Integer[rows.cardinality()];
+            int n = 0;
+            for (int row = rows.nextSetBit(0); row >= 0; row = rows.nextSetBit(row + 1)) {
+                order[n++] = row;
+            }
+
+            // Không truyền sortBy: giữ thứ tự tự nhiên theo _id như MongoDB
+            if (filter.getSortBy() != null) {
+                boolean descending = "desc".equalsIgnoreCase(filter.getSortOrder());
+                Arrays.sort(order, (a, b) -> compareRows(a, b, filter.getSortBy(), descending));
+            }
+            return Arrays.stream(order).mapToInt(Integer::intValue).toArray();
+        }
+
+        // Vị trí đầu tiên trong order đứng sau cursor (tìm nhị phân)
+        int firstAfter(int[] order, String sortBy, boolean descending, Object cursorKey, String cursorId) {
+            if (cursorId == null) throw new IllegalArgumentException("Cursor không hợp lệ");
+
+            int lo = 0, hi = order.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (compareToCursor(order[mid], sortBy, descending, cursorKey, cursorId) <= 0) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+
+        private int compareRows(int a, int b, String sortBy, boolean descending) {
+            int result = compareKeys(sortKey(a, sortBy), sortKey(b, sortBy));
+            if (result == 0) result = ids[a].compareTo(ids[b]);
+            return descending ? -result : result;
+        }
+
+        private int compareToCursor(int row, String sortBy, boolean descending, Object cursorKey, String cursorId) {
+            int result;
+            try {
+                result = sortBy == null ? 0 : compareKeys(sortKey(row, sortBy), cursorKey);
+            } catch (ClassCastException e) {
+                throw new IllegalArgumentException("Cursor không hợp lệ");
+            }
+            if (result == 0) result = ids[row].compareTo(cursorId);
+            return descending ? -result : result;
+        }
+
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        private static int compareKeys(Object a, Object b) {
+            if (a == null || b == null) return a == null ? (b == null ? 0 : -1) : 1;
+            if (a instanceof Number && b instanceof Number) {
+                return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+            }
+            return ((Comparable) a).compareTo(b);
+        }
+
+        // Giá trị của trường sắp xếp cho một dòng (null được xếp nhỏ nhất giống MongoDB)
+        Object sortKey(int row, String sortBy) {
+            if (sortBy == null) return null;
+
+            ProductDTO product = products[row];
+            switch (sortBy) {
+                case "name":
+                    return names[row];
+                case "productId":
+                    return product.getProductId();
+                case "visibilityType":
+                    return product.getVisibilityType();
+                case "pricing.current":
+                    return product.getPricing() != null ? product.getPricing().getCurrent() : null;
+                case "pricing.original":
+                    return product.getPricing() != null ? product.getPricing().getOriginal() : null;
+                case "totalSold":
+                    return product.getTotalSold();
+                case "ratings.average":
+                    return product.getRatings() != null ? product.getRatings().getAverage() : null;
+                case "ratings.totalReviews":
+                    return product.getRatings() != null ? product.getRatings().getTotalReviews() : null;
+                case "createdAt":
+                    return createdAt[row] != Long.MIN_VALUE ? createdAt[row] : null;
+                default:
+                    return ids[row];
+            }
+        }
+    }
+}
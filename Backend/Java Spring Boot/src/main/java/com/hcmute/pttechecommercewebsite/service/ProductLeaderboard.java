@@ -0,0 +1,213 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.dto.ProductDTO;
+import com.hcmute.pttechecommercewebsite.model.Product;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+// Bảng xếp hạng sản phẩm bán chạy / đánh giá cao (toàn bộ và theo danh mục) giữ sẵn trong bộ nhớ.
+// Mỗi bảng là một tập có thứ tự, cập nhật O(log n) mỗi khi sản phẩm được lưu
+// (StockReservationService.reserve / release đổi totalSold và phát sự kiện lưu qua publishSaved,
+// ReviewService.updateProductRatings đổi điểm),
+// nên đọc top-N chỉ cần duyệt N phần tử đầu.
+@Component
+public class ProductLeaderboard {
+
+    public enum Board {
+        TOP_SELLING, TOP_RATED
+    }
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${leaderboard.max-size:100}")
+    private int maxSize;
+
+    private volatile Map<Board, Ranking> rankings = newRankings();
+
+    // DTO của các sản phẩm đã từng được trả về, bỏ khi sản phẩm thay đổi
+    private final Map<String, ProductDTO> dtoCache = new ConcurrentHashMap<>();
+
+    private volatile boolean loaded = false;
+
+    public ProductLeaderboard(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    // Bán chạy: totalSold giảm dần; đánh giá cao: ratings.average rồi ratings.totalReviews giảm dần
+    private static Map<Board, Ranking> newRankings() {
+        Map<Board, Ranking> boards = new EnumMap<>(Board.class);
+        boards.put(Board.TOP_SELLING, new Ranking(Comparator
+                .comparingDouble((Rank r) -> r.primary).reversed()
+                .thenComparing(r -> r.productId)));
+        boards.put(Board.TOP_RATED, new Ranking(Comparator
+                .comparingDouble((Rank r) -> r.primary).reversed()
+                .thenComparing(Comparator.comparingDouble((Rank r) -> r.secondary).reversed())
+                .thenComparing(r -> r.productId)));
+        return boards;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    // Nạp lại toàn bộ bảng xếp hạng, chạy định kỳ để khắc phục các cập nhật không phát sinh sự kiện
+    @Scheduled(fixedDelayString = "${leaderboard.reload-interval-ms:900000}",
+            initialDelayString = "${leaderboard.reload-interval-ms:900000}")
+    public synchronized void rebuild() {
+        Query query = new Query();
+        query.addCriteria(Criteria.where("isDeleted").is(false));
+        query.fields().include("categoryId", "totalSold", "ratings", "isDeleted");
+
+        Map<Board, Ranking> fresh = newRankings();
+        try (Stream<Product> products = mongoTemplate.stream(query, Product.class)) {
+            products.forEach(product -> put(fresh, product));
+        }
+
+        rankings = fresh;
+        dtoCache.clear();
+        loaded = true;
+    }
+
+    // Cập nhật vị trí của một sản phẩm vừa được lưu; sản phẩm đã xóa mềm bị gỡ khỏi bảng xếp hạng
+    public synchronized void upsert(Product product) {
+        if (!loaded || product == null || product.getId() == null) return;
+
+        dtoCache.remove(product.getId());
+        if (product.isDeleted()) {
+            for (Ranking ranking : rankings.values()) {
+                ranking.remove(product.getId());
+            }
+        } else {
+            put(rankings, product);
+        }
+    }
+
+    private static void put(Map<Board, Ranking> boards, Product product) {
+        String categoryId = product.getCategoryId() != null ? product.getCategoryId().toString() : null;
+        double average = product.getRatings() != null ? product.getRatings().getAverage() : 0.0;
+        int totalReviews = product.getRatings() != null ? product.getRatings().getTotalReviews() : 0;
+
+        boards.get(Board.TOP_SELLING).put(new Rank(product.getId(), categoryId, product.getTotalSold(), 0));
+        boards.get(Board.TOP_RATED).put(new Rank(product.getId(), categoryId, average, totalReviews));
+    }
+
+    // Top-N sản phẩm của bảng xếp hạng; categoryIds null để lấy toàn bộ, ngược lại gộp các danh mục đã cho
+    public List<ProductDTO> top(Board board, Collection<String> categoryIds, int limit,
+                                Function<List<String>, Map<String, ProductDTO>> loader) {
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) rebuild();
+            }
+        }
+
+        int size = Math.max(0, Math.min(limit, maxSize));
+        List<String> ids = rankings.get(board).top(categoryIds, size);
+
+        List<String> missing = new ArrayList<>();
+        for (String id : ids) {
+            if (!dtoCache.containsKey(id)) missing.add(id);
+        }
+        if (!missing.isEmpty()) {
+            dtoCache.putAll(loader.apply(missing));
+        }
+
+        List<ProductDTO> result = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            ProductDTO dto = dtoCache.get(id);
+            if (dto != null) result.add(dto);
+        }
+        return result;
+    }
+
+    // Vị trí của một sản phẩm trong bảng xếp hạng
+    private static final class Rank {
+        final String productId;
+        final String categoryId;
+        final double primary;
+        final double secondary;
+
+        Rank(String productId, String categoryId, double primary, double secondary) {
+            this.productId = productId;
+            this.categoryId = categoryId;
+            this.primary = primary;
+            this.secondary = secondary;
+        }
+    }
+
+    // Một bảng xếp hạng: tập có thứ tự toàn cục và theo từng danh mục
+    private static final class Ranking {
+        final Comparator<Rank> order;
+        final ConcurrentSkipListSet<Rank> global;
+        final Map<String, ConcurrentSkipListSet<Rank>> byCategory = new ConcurrentHashMap<>();
+        final Map<String, Rank> current = new ConcurrentHashMap<>();
+
+        Ranking(Comparator<Rank> order) {
+            this.order = order;
+            this.global = new ConcurrentSkipListSet<>(order);
+        }
+
+        void put(Rank rank) {
+            remove(rank.productId);
+            current.put(rank.productId, rank);
+            global.add(rank);
+            if (rank.categoryId != null) {
+                byCategory.computeIfAbsent(rank.categoryId, k -> new ConcurrentSkipListSet<>(order)).add(rank);
+            }
+        }
+
+        void remove(String productId) {
+            Rank old = current.remove(productId);
+            if (old == null) return;
+            global.remove(old);
+            if (old.categoryId != null) {
+                ConcurrentSkipListSet<Rank> ranks = byCategory.get(old.categoryId);
+                if (ranks != null) ranks.remove(old);
+            }
+        }
+
+        List<String> top(Collection<String> categoryIds, int limit) {
+            List<String> ids = new ArrayList<>(limit);
+            if (limit == 0) return ids;
+
+            if (categoryIds == null) {
+                for (Rank rank : global) {
+                    ids.add(rank.productId);
+                    if (ids.size() == limit) break;
+                }
+                return ids;
+            }
+
+            // Gộp k bảng danh mục đã sắp xếp, chỉ duyệt tối đa limit phần tử
+            PriorityQueue<Map.Entry<Rank, Iterator<Rank>>> heads =
+                    new PriorityQueue<>((a, b) -> order.compare(a.getKey(), b.getKey()));
+            for (String categoryId : categoryIds) {
+                ConcurrentSkipListSet<Rank> ranks = byCategory.get(categoryId);
+                if (ranks == null) continue;
+                Iterator<Rank> iterator = ranks.iterator();
+                if (iterator.hasNext()) heads.add(new AbstractMap.SimpleEntry<>(iterator.next(), iterator));
+            }
+
+            while (!heads.isEmpty() && ids.size() < limit) {
+                Map.Entry<Rank, Iterator<Rank>> head = heads.poll();
+                ids.add(head.getKey().productId);
+                Iterator<Rank> iterator = head.getValue();
+                if (iterator.hasNext()) heads.add(new AbstractMap.SimpleEntry<>(iterator.next(), iterator));
+            }
+            return ids;
+        }
+    }
+}
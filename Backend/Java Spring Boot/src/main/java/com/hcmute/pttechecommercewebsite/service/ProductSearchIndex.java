@@ -0,0 +1,402 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.model.Brand;
+import com.hcmute.pttechecommercewebsite.model.Category;
+import com.hcmute.pttechecommercewebsite.model.Product;
+import com.hcmute.pttechecommercewebsite.repository.BrandRepository;
+import com.hcmute.pttechecommercewebsite.util.VietnameseTextUtil;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+// Chỉ mục đảo (inverted index) trong bộ nhớ cho tìm kiếm sản phẩm theo từ khóa.
+// Chỉ mục gồm tên, tag, tên thương hiệu, tên danh mục và giá trị thông số kỹ thuật (đã bỏ dấu tiếng Việt),
+// xếp hạng bằng BM25 có nhân thêm độ phổ biến (totalSold, ratings.average).
+// Cập nhật dần qua CatalogEventListener khi sản phẩm / thương hiệu / danh mục được lưu.
+@Component
+public class ProductSearchIndex {
+
+    // Trọng số của từng trường khi tính tần suất từ
+    private static final float NAME_WEIGHT = 3.0f;
+    private static final float BRAND_WEIGHT = 2.0f;
+    private static final float CATEGORY_WEIGHT = 1.5f;
+    private static final float TAG_WEIGHT = 1.5f;
+    private static final float SPEC_WEIGHT = 0.5f;
+
+    // Tham số BM25
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    // Từ cuối của truy vấn được mở rộng theo tiền tố (đang gõ dở), với hệ số điểm thấp hơn khớp chính xác
+    private static final float PREFIX_MATCH_FACTOR = 0.6f;
+    private static final int MAX_PREFIX_EXPANSIONS = 50;
+
+    private final MongoTemplate mongoTemplate;
+    private final BrandRepository brandRepository;
+    private final CategoryTree categoryTree;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private Index index = new Index();
+    private volatile boolean loaded = false;
+
+    public ProductSearchIndex(MongoTemplate mongoTemplate, BrandRepository brandRepository, CategoryTree categoryTree) {
+        this.mongoTemplate = mongoTemplate;
+        this.brandRepository = brandRepository;
+        this.categoryTree = categoryTree;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    // Dựng lại toàn bộ chỉ mục từ MongoDB, chạy định kỳ để khắc phục các cập nhật không phát sinh sự kiện (updateMulti, ...)
+    @Scheduled(fixedDelayString = "${search.index.reload-interval-ms:900000}",
+            initialDelayString = "${search.index.reload-interval-ms:900000}")
+    public void rebuild() {
+        Index fresh = new Index();
+        for (Brand brand : brandRepository.findAll()) {
+            if (brand.getId() != null) fresh.brandNames.put(brand.getId(), brand.getName());
+        }
+
+        Query query = new Query();
+        query.addCriteria(Criteria.where("isDeleted").is(false));
+        query.fields().include("name", "tags", "brandId", "categoryId", "specifications", "totalSold", "ratings", "isDeleted");
+
+        try (Stream<Product> products = mongoTemplate.stream(query, Product.class)) {
+            products.forEach(product -> fresh.put(product.getId(), buildDoc(product, fresh)));
+        }
+
+        lock.writeLock().lock();
+        try {
+            index = fresh;
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Cập nhật một sản phẩm vừa được lưu (sản phẩm đã xóa mềm bị gỡ khỏi chỉ mục)
+    public void upsert(Product product) {
+        if (!loaded || product == null || product.getId() == null) return;
+
+        lock.writeLock().lock();
+        try {
+            if (product.isDeleted()) {
+                index.remove(product.getId());
+            } else {
+                index.put(product.getId(), buildDoc(product, index));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Thương hiệu đổi tên: lập chỉ mục lại các sản phẩm thuộc thương hiệu đó
+    public void updateBrand(Brand brand) {
+        if (!loaded || brand == null || brand.getId() == null) return;
+
+        lock.writeLock().lock();
+        try {
+            String oldName = index.brandNames.put(brand.getId(), brand.getName());
+            if (!Objects.equals(oldName, brand.getName())) {
+                index.relabelBrand(index.docsByBrand.get(brand.getId()));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Danh mục đổi tên: lập chỉ mục lại các sản phẩm thuộc danh mục đó
+    public void updateCategory(Category category) {
+        if (!loaded || category == null || category.getId() == null) return;
+
+        lock.writeLock().lock();
+        try {
+            Set<Integer> docIds = index.docsByCategory.get(category.getId());
+            if (docIds != null && !docIds.isEmpty()) {
+                Doc sample = index.docs.get(docIds.iterator().next());
+                if (!Objects.equals(sample.categoryName, category.getName())) {
+                    index.relabelCategory(docIds, category.getName());
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Tìm các sản phẩm khớp với mọi từ trong truy vấn, trả về ID sản phẩm theo điểm giảm dần
+    public List<String> search(String keyword) {
+        List<String> tokens = new ArrayList<>(new LinkedHashSet<>(VietnameseTextUtil.tokenize(keyword)));
+        if (tokens.isEmpty()) return List.of();
+
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) rebuild();
+            }
+        }
+
+        lock.readLock().lock();
+        try {
+            return index.search(tokens);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Doc buildDoc(Product product, Index target) {
+        Map<String, Float> baseTerms = new HashMap<>();
+        float baseLength = 0;
+        baseLength += addTerms(baseTerms, product.getName(), NAME_WEIGHT);
+        if (product.getTags() != null) {
+            for (String tag : product.getTags()) {
+                baseLength += addTerms(baseTerms, tag, TAG_WEIGHT);
+            }
+        }
+        if (product.getSpecifications() != null) {
+            for (String value : product.getSpecifications().values()) {
+                baseLength += addTerms(baseTerms, value, SPEC_WEIGHT);
+            }
+        }
+
+        String brandId = product.getBrandId() != null ? product.getBrandId().toString() : null;
+        String categoryId = product.getCategoryId() != null ? product.getCategoryId().toString() : null;
+        String categoryName = categoryId != null ? categoryTree.get(categoryId).map(Category::getName).orElse(null) : null;
+
+        double sold = Math.max(0, product.getTotalSold());
+        double rating = product.getRatings() != null ? product.getRatings().getAverage() : 0.0;
+        float boost = (float) ((1 + 0.1 * Math.log1p(sold)) * (1 + 0.05 * rating));
+
+        return new Doc(product.getId(), brandId, categoryId, baseTerms, baseLength,
+                brandId != null ? target.brandNames.get(brandId) : null, categoryName, boost);
+    }
+
+    // Thêm các từ của một trường với trọng số tương ứng, trả về độ dài (có trọng số) của trường
+    private static float addTerms(Map<String, Float> terms, String text, float weight) {
+        if (text == null) return 0;
+        float length = 0;
+        for (String token : VietnameseTextUtil.tokenize(text)) {
+            terms.merge(token, weight, Float::sum);
+            length += weight;
+        }
+        return length;
+    }
+
+    // Một sản phẩm trong chỉ mục
+    private static final class Doc {
+        final String productId;
+        final String brandId;
+        final String categoryId;
+        final Map<String, Float> baseTerms;      // Từ của tên, tag, thông số
+        final float baseLength;
+        final float boost;                       // Hệ số độ phổ biến
+        String brandName;
+        String categoryName;
+        Map<String, Float> terms;                // Toàn bộ từ (kể cả tên thương hiệu / danh mục)
+        float length;
+
+        Doc(String productId, String brandId, String categoryId, Map<String, Float> baseTerms, float baseLength,
+            String brandName, String categoryName, float boost) {
+            this.productId = productId;
+            this.brandId = brandId;
+            this.categoryId = categoryId;
+            this.baseTerms = baseTerms;
+            this.baseLength = baseLength;
+            this.boost = boost;
+            label(brandName, categoryName);
+        }
+
+        void label(String brandName, String categoryName) {
+            this.brandName = brandName;
+            this.categoryName = categoryName;
+            this.terms = new HashMap<>(baseTerms);
+            this.length = baseLength + addTerms(terms, brandName, BRAND_WEIGHT) + addTerms(terms, categoryName, CATEGORY_WEIGHT);
+        }
+    }
+
+    // Danh sách (doc, tần suất có trọng số) của một từ; xóa bằng cách đổi chỗ với phần tử cuối
+    private static final class Posting {
+        int[] docs = new int[4];
+        float[] weights = new float[4];
+        int size;
+
+        void add(int doc, float weight) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            docs[size] = doc;
+            weights[size] = weight;
+            size++;
+        }
+
+        void remove(int doc) {
+            for (int i = 0; i < size; i++) {
+                if (docs[i] == doc) {
+                    size--;
+                    docs[i] = docs[size];
+                    weights[i] = weights[size];
+                    return;
+                }
+            }
+        }
+    }
+
+    // Trạng thái chỉ mục; mọi truy cập đều nằm trong khóa đọc/ghi của ProductSearchIndex
+    private static final class Index {
+        final Map<String, Integer> docIdsByProduct = new HashMap<>();
+        final List<Doc> docs = new ArrayList<>();
+        final Deque<Integer> freeDocIds = new ArrayDeque<>();
+        final TreeMap<String, Posting> postings = new TreeMap<>();
+        final Map<String, String> brandNames = new HashMap<>();
+        final Map<String, Set<Integer>> docsByBrand = new HashMap<>();
+        final Map<String, Set<Integer>> docsByCategory = new HashMap<>();
+        int liveDocs;
+        double totalLength;
+
+        void put(String productId, Doc doc) {
+            Integer docId = docIdsByProduct.get(productId);
+            if (docId != null) {
+                unlink(docId);
+            } else {
+                docId = freeDocIds.isEmpty() ? docs.size() : freeDocIds.pop();
+                if (docId == docs.size()) docs.add(null);
+                docIdsByProduct.put(productId, docId);
+            }
+            link(docId, doc);
+        }
+
+        void remove(String productId) {
+            Integer docId = docIdsByProduct.remove(productId);
+            if (docId == null) return;
+            unlink(docId);
+            docs.set(docId, null);
+            freeDocIds.push(docId);
+        }
+
+        void relabelBrand(Set<Integer> docIds) {
+            if (docIds == null) return;
+            for (Integer docId : new ArrayList<>(docIds)) {
+                Doc doc = docs.get(docId);
+                unlink(docId);
+                doc.label(brandNames.get(doc.brandId), doc.categoryName);
+                link(docId, doc);
+            }
+        }
+
+        void relabelCategory(Set<Integer> docIds, String categoryName) {
+            for (Integer docId : new ArrayList<>(docIds)) {
+                Doc doc = docs.get(docId);
+                unlink(docId);
+                doc.label(doc.brandName, categoryName);
+                link(docId, doc);
+            }
+        }
+
+        private void link(int docId, Doc doc) {
+            docs.set(docId, doc);
+            for (Map.Entry<String, Float> term : doc.terms.entrySet()) {
+                postings.computeIfAbsent(term.getKey(), k -> new Posting()).add(docId, term.getValue());
+            }
+            if (doc.brandId != null) docsByBrand.computeIfAbsent(doc.brandId, k -> new HashSet<>()).add(docId);
+            if (doc.categoryId != null) docsByCategory.computeIfAbsent(doc.categoryId, k -> new HashSet<>()).add(docId);
+            liveDocs++;
+            totalLength += doc.length;
+        }
+
+        private void unlink(int docId) {
+            Doc doc = docs.get(docId);
+            if (doc == null) return;
+            for (String term : doc.terms.keySet()) {
+                Posting posting = postings.get(term);
+                if (posting == null) continue;
+                posting.remove(docId);
+                if (posting.size == 0) postings.remove(term);
+            }
+            if (doc.brandId != null) removeFrom(docsByBrand, doc.brandId, docId);
+            if (doc.categoryId != null) removeFrom(docsByCategory, doc.categoryId, docId);
+            liveDocs--;
+            totalLength -= doc.length;
+        }
+
+        private static void removeFrom(Map<String, Set<Integer>> map, String key, int docId) {
+            Set<Integer> ids = map.get(key);
+            if (ids == null) return;
+            ids.remove(docId);
+            if (ids.isEmpty()) map.remove(key);
+        }
+
+        List<String> search(List<String> tokens) {
+            if (liveDocs == 0) return List.of();
+
+            double avgLength = totalLength / liveDocs;
+            float[] scores = new float[docs.size()];
+            float[] tokenScores = new float[docs.size()];
+            int[] matched = new int[docs.size()];
+            List<Integer> candidates = new ArrayList<>();
+
+            for (int i = 0; i < tokens.size(); i++) {
+                String token = tokens.get(i);
+                boolean expand = i == tokens.size() - 1;
+
+                Map<String, Float> terms = new LinkedHashMap<>();
+                if (postings.containsKey(token)) terms.put(token, 1.0f);
+                if (expand) {
+                    for (String term : postings.subMap(token, false, token + Character.MAX_VALUE, false).keySet()) {
+                        if (terms.size() >= MAX_PREFIX_EXPANSIONS) break;
+                        terms.put(term, PREFIX_MATCH_FACTOR);
+                    }
+                }
+                if (terms.isEmpty()) return List.of();
+
+                for (Map.Entry<String, Float> term : terms.entrySet()) {
+                    Posting posting = postings.get(term.getKey());
+                    double idf = Math.log(1 + (liveDocs - posting.size + 0.5) / (posting.size + 0.5));
+
+                    for (int p = 0; p < posting.size; p++) {
+                        int docId = posting.docs[p];
+                        if (matched[docId] < i) continue;   // Không khớp một từ trước đó
+
+                        Doc doc = docs.get(docId);
+                        double tf = posting.weights[p];
+                        double norm = tf * (K1 + 1) / (tf + K1 * (1 - B + B * doc.length / avgLength));
+                        float score = (float) (idf * norm) * term.getValue();
+
+                        if (matched[docId] == i) {
+                            if (i == 0) candidates.add(docId);
+                            matched[docId] = i + 1;
+                            tokenScores[docId] = score;
+                            scores[docId] += score;
+                        } else if (score > tokenScores[docId]) {
+                            scores[docId] += score - tokenScores[docId];
+                            tokenScores[docId] = score;
+                        }
+                    }
+                }
+            }
+
+            List<Integer> hits = new ArrayList<>();
+            for (Integer docId : candidates) {
+                if (matched[docId] == tokens.size()) {
+                    scores[docId] *= docs.get(docId).boost;
+                    hits.add(docId);
+                }
+            }
+            hits.sort((a, b) -> {
+                int byScore = Float.compare(scores[b], scores[a]);
+                return byScore != 0 ? byScore : docs.get(a).productId.compareTo(docs.get(b).productId);
+            });
+
+            List<String> result = new ArrayList<>(hits.size());
+            for (Integer docId : hits) {
+                result.add(docs.get(docId).productId);
+            }
+            return result;
+        }
+    }
+}
@@ -1,28 +1,35 @@
 package com.hcmute.pttechecommercewebsite.service;
 
 import com.hcmute.pttechecommercewebsite.dto.ComparisonResultDTO;
+import com.hcmute.pttechecommercewebsite.dto.CursorPageDTO;
+import com.hcmute.pttechecommercewebsite.dto.ImportResultDTO;
 import com.hcmute.pttechecommercewebsite.dto.ProductDTO;
+import com.hcmute.pttechecommercewebsite.dto.ProductFacetsDTO;
+import com.hcmute.pttechecommercewebsite.dto.ProductSearchResultDTO;
+import com.hcmute.pttechecommercewebsite.dto.SuggestionDTO;
 import com.hcmute.pttechecommercewebsite.exception.ResourceNotFoundException;
 import com.hcmute.pttechecommercewebsite.model.Product;
 import com.hcmute.pttechecommercewebsite.repository.BrandRepository;
-import com.hcmute.pttechecommercewebsite.repository.CategoryRepository;
 import com.hcmute.pttechecommercewebsite.repository.ProductRepository;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.*;
+import com.hcmute.pttechecommercewebsite.util.CursorPaginationUtil;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
+import com.hcmute.pttechecommercewebsite.util.ExcelImportUtil;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -36,7 +43,12 @@ public class ProductService {
 
     private final ProductRepository productRepository;
     private final BrandRepository brandRepository;
-    private final CategoryRepository categoryRepository;
+    private final CategoryTree categoryTree;
+    private final ProductCatalog productCatalog;
+    private final ProductSearchIndex productSearchIndex;
+    private final SuggestionTrie suggestionTrie;
+    private final ProductLeaderboard productLeaderboard;
+    private final CursorPaginationUtil cursorPaginationUtil;
 
     private String uploadDir = "upload-images/products";
     private String uploadUrl = "http://localhost:8081/images/products";
@@ -48,16 +60,48 @@ public class ProductService {
     public ProductService(
             ProductRepository productRepository,
             BrandRepository brandRepository,
-            CategoryRepository categoryRepository
+            CategoryTree categoryTree,
+            ProductCatalog productCatalog,
+            ProductSearchIndex productSearchIndex,
+            SuggestionTrie suggestionTrie,
+            ProductLeaderboard productLeaderboard,
+            CursorPaginationUtil cursorPaginationUtil
     ) {
         this.productRepository = productRepository;
         this.brandRepository = brandRepository;
-        this.categoryRepository = categoryRepository;
+        this.categoryTree = categoryTree;
+        this.productCatalog = productCatalog;
+        this.productSearchIndex = productSearchIndex;
+        this.suggestionTrie = suggestionTrie;
+        this.productLeaderboard = productLeaderboard;
+        this.cursorPaginationUtil = cursorPaginationUtil;
     }
 
     @Autowired
     private MongoTemplate mongoTemplate;
 
+    // Số thay đổi loại hiển thị được ghi trong một lần bulkWrite
+    private static final int VISIBILITY_BATCH_SIZE = 1000;
+
+    // Các trường client được phép sắp xếp khi phân trang theo cursor
+    private static final Set<String> PAGE_SORTABLE_FIELDS = Set.of(
+            "name", "productId", "pricing.current", "pricing.original", "totalSold",
+            "ratings.average", "ratings.totalReviews", "visibilityType", "createdAt", "updatedAt", "id"
+    );
+
+    // Các mốc chia khoảng giá cho facet, tăng dần
+    private double[] priceFacetBounds;
+
+    @Value("${search.facets.price-bounds:5000000,10000000,20000000,30000000}")
+    private void setPriceFacetBounds(String bounds) {
+        this.priceFacetBounds = Arrays.stream(bounds.split(","))
+                .map(String::trim)
+                .filter(value -> !value.isEmpty())
+                .mapToDouble(Double::parseDouble)
+                .sorted()
+                .toArray();
+    }
+
     // Chuyển Entity thành DTO
     private ProductDTO convertToDTO(Product product) {
         return ProductDTO.builder()
@@ -135,32 +179,10 @@ public class ProductService {
                 .build();
     }
 
+    // Danh mục theo tên cùng toàn bộ danh mục con cháu, tra từ bảng bao đóng của cây danh mục
     private Set<ObjectId> getAllCategoryIdsByNames(List<String> categoryNames) {
-        Set<ObjectId> allCategoryIds = new HashSet<>();
-
-        List<ObjectId> rootCategoryIds = categoryRepository.findByNameInIgnoreCase(categoryNames)
-                .stream().map(category -> new ObjectId(category.getId())).collect(Collectors.toList());
-
-        for (ObjectId rootId : rootCategoryIds) {
-            collectSubcategoryIds(rootId, allCategoryIds);
-        }
-
-        return allCategoryIds;
-    }
-
-    // Đệ quy tìm các danh mục con
-    private void collectSubcategoryIds(ObjectId parentId, Set<ObjectId> collectedIds) {
-        if (collectedIds.contains(parentId)) return;
-
-        collectedIds.add(parentId);
-
-        // Tìm danh mục con có parentId này
-        List<ObjectId> childIds = categoryRepository.findByParentCategoryId(parentId)
-                .stream().map(c -> new ObjectId(c.getId())).collect(Collectors.toList());
-
-        for (ObjectId childId : childIds) {
-            collectSubcategoryIds(childId, collectedIds);
-        }
+        return categoryTree.findIdsWithDescendantsByNames(categoryNames)
+                .stream().map(ObjectId::new).collect(Collectors.toSet());
     }
 
     // Lấy tất cả sản phẩm không bị xóa
@@ -181,8 +203,84 @@ public class ProductService {
             List<String> brandNames, List<String> categoryNames,
             List<String> visibilityTypes, List<String> conditions, Double minPrice, Double maxPrice) {
 
+        Set<ObjectId> categoryIds = categoryNames != null && !categoryNames.isEmpty()
+                ? getAllCategoryIdsByNames(categoryNames) : null;
+
+        // Trả lời từ catalog trong bộ nhớ nếu trường sắp xếp được hỗ trợ
+        if (productCatalog.supportsSort(sortBy)) {
+            ensureCatalogLoaded();
+            return productCatalog.find(buildCatalogFilter(
+                    null, sortBy, sortOrder, brandNames, categoryIds, visibilityTypes, conditions, minPrice, maxPrice));
+        }
+
         Query query = new Query();
         query.addCriteria(Criteria.where("isDeleted").is(false).and("status").ne("inactive"));
+        addFilterCriteria(query, brandNames, categoryIds, visibilityTypes, conditions, minPrice, maxPrice);
+
+        // Xử lý sắp xếp
+        if (sortBy != null) {
+            Sort.Direction direction = "desc".equalsIgnoreCase(sortOrder) ? Sort.Direction.DESC : Sort.Direction.ASC;
+            query.with(Sort.by(direction, sortBy));
+        }
+
+        List<Product> products = mongoTemplate.find(query, Product.class);
+        return products.stream().map(this::convertToDTO).collect(Collectors.toList());
+    }
+
+    // Lấy một trang sản phẩm không bị xóa (phân trang theo cursor)
+    public CursorPageDTO<ProductDTO> getProductsPage(String sortBy, String sortOrder, String cursor, Integer limit, boolean includeTotal) {
+        CursorPaginationUtil.requireSortable(sortBy, PAGE_SORTABLE_FIELDS);
+        Query query = new Query();
+        query.addCriteria(Criteria.where("isDeleted").is(false));
+
+        return cursorPaginationUtil.find(query, Product.class, sortBy != null ? sortBy : "createdAt", toDirection(sortOrder),
+                cursor, limit, includeTotal).map(this::convertToDTO);
+    }
+
+    // Lấy một trang sản phẩm đang hoạt động với bộ lọc (phân trang theo cursor)
+    public CursorPageDTO<ProductDTO> getActiveProductsPage(
+            String sortBy, String sortOrder,
+            List<String> brandNames, List<String> categoryNames,
+            List<String> visibilityTypes, List<String> conditions, Double minPrice, Double maxPrice,
+            String cursor, Integer limit, boolean includeTotal) {
+
+        CursorPaginationUtil.requireSortable(sortBy, PAGE_SORTABLE_FIELDS);
+        Set<ObjectId> categoryIds = categoryNames != null && !categoryNames.isEmpty()
+                ? getAllCategoryIdsByNames(categoryNames) : null;
+
+        if (productCatalog.supportsSort(sortBy)) {
+            ensureCatalogLoaded();
+            return productCatalog.findPage(buildCatalogFilter(
+                            null, sortBy, sortOrder, brandNames, categoryIds, visibilityTypes, conditions, minPrice, maxPrice),
+                    cursor, cursorPaginationUtil.resolvePageSize(limit), includeTotal);
+        }
+
+        Query query = new Query();
+        query.addCriteria(Criteria.where("isDeleted").is(false).and("status").ne("inactive"));
+        addFilterCriteria(query, brandNames, categoryIds, visibilityTypes, conditions, minPrice, maxPrice);
+
+        return cursorPaginationUtil.find(query, Product.class, sortBy, toDirection(sortOrder),
+                cursor, limit, includeTotal).map(this::convertToDTO);
+    }
+
+    // Lấy một trang sản phẩm đã ẩn (phân trang theo cursor)
+    public CursorPageDTO<ProductDTO> getInactiveProductsPage(String sortBy, String sortOrder, String cursor, Integer limit, boolean includeTotal) {
+        CursorPaginationUtil.requireSortable(sortBy, PAGE_SORTABLE_FIELDS);
+        Query query = new Query();
+        query.addCriteria(Criteria.where("isDeleted").is(false).and("status").is("inactive"));
+
+        return cursorPaginationUtil.find(query, Product.class, sortBy != null ? sortBy : "createdAt", toDirection(sortOrder),
+                cursor, limit, includeTotal).map(this::convertToDTO);
+    }
+
+    private Sort.Direction toDirection(String sortOrder) {
+        return "desc".equalsIgnoreCase(sortOrder) ? Sort.Direction.DESC : Sort.Direction.ASC;
+    }
+
+    // Thêm các điều kiện lọc dùng chung cho truy vấn MongoDB
+    private void addFilterCriteria(
+            Query query, List<String> brandNames, Set<ObjectId> categoryIds,
+            List<String> visibilityTypes, List<String> conditions, Double minPrice, Double maxPrice) {
 
         if (brandNames != null && !brandNames.isEmpty()) {
             List<ObjectId> brandIds = brandRepository.findByNameInIgnoreCase(brandNames)
@@ -190,9 +288,8 @@ public class ProductService {
             query.addCriteria(Criteria.where("brandId").in(brandIds));
         }
 
-        if (categoryNames != null && !categoryNames.isEmpty()) {
-            Set<ObjectId> allCategoryIds = getAllCategoryIdsByNames(categoryNames);
-            query.addCriteria(Criteria.where("categoryId").in(allCategoryIds));
+        if (categoryIds != null) {
+            query.addCriteria(Criteria.where("categoryId").in(categoryIds));
         }
 
         if (visibilityTypes != null && !visibilityTypes.isEmpty()) {
@@ -214,50 +311,109 @@ public class ProductService {
             }
             query.addCriteria(priceCriteria);
         }
+    }
 
-        // Xử lý sắp xếp
-        if (sortBy != null) {
-            Sort.Direction direction = "desc".equalsIgnoreCase(sortOrder) ? Sort.Direction.DESC : Sort.Direction.ASC;
-            query.with(Sort.by(direction, sortBy));
+    // Chuyển các tham số lọc thành bộ lọc của catalog
+    private ProductCatalog.Filter buildCatalogFilter(
+            Collection<String> productIds, String sortBy, String sortOrder,
+            List<String> brandNames, Set<ObjectId> categoryIds,
+            List<String> visibilityTypes, List<String> conditions, Double minPrice, Double maxPrice) {
+
+        return ProductCatalog.Filter.builder()
+                .productIds(productIds)
+                .brandIds(brandNames != null && !brandNames.isEmpty() ? productCatalog.resolveBrandIds(brandNames) : null)
+                .categoryIds(categoryIds != null ? categoryIds.stream().map(ObjectId::toString).collect(Collectors.toSet()) : null)
+                .visibilityTypes(visibilityTypes != null && !visibilityTypes.isEmpty() ? visibilityTypes : null)
+                .conditions(conditions != null && !conditions.isEmpty() ? conditions : null)
+                .minPrice(minPrice)
+                .maxPrice(maxPrice)
+                .sortBy(sortBy)
+                .sortOrder(sortOrder)
+                .build();
+    }
+
+    // Nạp catalog ở lần truy cập đầu tiên
+    private void ensureCatalogLoaded() {
+        if (!productCatalog.isLoaded()) {
+            synchronized (productCatalog) {
+                if (!productCatalog.isLoaded()) {
+                    refreshCatalog();
+                }
+            }
         }
+    }
 
-        List<Product> products = mongoTemplate.find(query, Product.class);
-        return products.stream().map(this::convertToDTO).collect(Collectors.toList());
+    // Nạp lại toàn bộ catalog từ MongoDB, chạy định kỳ để khắc phục sai lệch (nếu có)
+    @Scheduled(fixedDelayString = "${catalog.snapshot.reload-interval-ms:900000}",
+            initialDelayString = "${catalog.snapshot.reload-interval-ms:900000}")
+    public void refreshCatalog() {
+        Query query = new Query();
+        query.addCriteria(Criteria.where("isDeleted").is(false).and("status").ne("inactive"));
+
+        List<ProductCatalog.Entry> entries = new ArrayList<>();
+        for (Product product : mongoTemplate.find(query, Product.class)) {
+            ProductDTO dto = convertToCatalogDTO(product);
+            if (dto != null) {
+                entries.add(ProductCatalog.Entry.of(product, dto));
+            }
+        }
+
+        productCatalog.replaceAll(entries, brandRepository.findAll());
+    }
+
+    // Đồng bộ một sản phẩm vừa được lưu vào catalog
+    public void syncCatalogEntry(Product product) {
+        if (!productCatalog.isLoaded()) return;
+        productCatalog.upsert(product, ProductCatalog.isActive(product) ? convertToCatalogDTO(product) : null);
+    }
+
+    // Sản phẩm thiếu dữ liệu bắt buộc (giá, biến thể, ...) không được đưa vào catalog
+    private ProductDTO convertToCatalogDTO(Product product) {
+        try {
+            return convertToDTO(product);
+        } catch (RuntimeException e) {
+            return null;
+        }
     }
 
     // Lấy tất cả sản phẩm không bị xóa và không hiển thị
     public List<ProductDTO> getAllInactiveProducts(String sortBy, String sortOrder) {
+        List<Product> products = mongoTemplate.find(inactiveProductsQuery(sortBy, sortOrder), Product.class);
+        return products.stream().map(this::convertToDTO).collect(Collectors.toList());
+    }
+
+    private Query inactiveProductsQuery(String sortBy, String sortOrder) {
         Sort.Direction direction = "desc".equalsIgnoreCase(sortOrder) ? Sort.Direction.DESC : Sort.Direction.ASC;
         Sort sort = Sort.by(direction, sortBy != null ? sortBy : "createdAt");
 
         Query query = new Query();
         query.addCriteria(Criteria.where("isDeleted").is(false).and("status").is("inactive"));
         query.with(sort);
-
-        List<Product> products = mongoTemplate.find(query, Product.class);
-        return products.stream().map(this::convertToDTO).collect(Collectors.toList());
+        return query;
     }
 
-    // Lấy top 10 sản phẩm bán chạy nhất (dựa vào sắp xếp giảm dần theo totalSold)
-    public List<ProductDTO> getTopSellingProducts() {
-        Query query = new Query();
-        query.addCriteria(Criteria.where("isDeleted").is(false));
-        query.with(Sort.by(Sort.Direction.DESC, "totalSold"));
-        query.limit(10);
+    // Lấy top sản phẩm bán chạy nhất (mặc định 10), có thể lọc theo danh mục (bao gồm danh mục con)
+    public List<ProductDTO> getTopSellingProducts(Integer limit, String categoryId) {
+        return productLeaderboard.top(ProductLeaderboard.Board.TOP_SELLING, leaderboardCategories(categoryId),
+                limit != null ? limit : 10, this::loadProductDTOs);
+    }
 
-        List<Product> topSellingProducts = mongoTemplate.find(query, Product.class);
-        return topSellingProducts.stream().map(this::convertToDTO).collect(Collectors.toList());
+    // Lấy top sản phẩm có số sao và số lượng đánh giá cao nhất (mặc định 10), có thể lọc theo danh mục
+    public List<ProductDTO> getTopRatedProducts(Integer limit, String categoryId) {
+        return productLeaderboard.top(ProductLeaderboard.Board.TOP_RATED, leaderboardCategories(categoryId),
+                limit != null ? limit : 10, this::loadProductDTOs);
     }
 
-    // Lấy top 10 sản phẩm có số lượng đánh giá và số sao cao nhất
-    public List<ProductDTO> getTopRatedProducts() {
-        Query query = new Query();
-        query.addCriteria(Criteria.where("isDeleted").is(false));
-        query.with(Sort.by(Sort.Direction.DESC, "ratings.average"));
-        query.limit(10);
+    private Collection<String> leaderboardCategories(String categoryId) {
+        if (categoryId == null || categoryId.isBlank()) return null;
+        Set<String> categoryIds = categoryTree.getDescendantIds(categoryId);
+        return categoryIds.isEmpty() ? Set.of(categoryId) : categoryIds;
+    }
 
-        List<Product> topRatedProducts = mongoTemplate.find(query, Product.class);
-        return topRatedProducts.stream().map(this::convertToDTO).collect(Collectors.toList());
+    private Map<String, ProductDTO> loadProductDTOs(List<String> ids) {
+        Map<String, ProductDTO> dtos = new HashMap<>();
+        productRepository.findAllById(ids).forEach(product -> dtos.put(product.getId(), convertToDTO(product)));
+        return dtos;
     }
 
     // Lấy những sản phẩm có số lượng tồn kho dưới 10
@@ -287,14 +443,20 @@ public class ProductService {
         return Optional.ofNullable(product).map(this::convertToDTO);
     }
 
-    // Tìm kiếm sản phẩm theo tên
+    // Tìm kiếm sản phẩm theo từ khóa (tên, tag, thương hiệu, danh mục, thông số), xếp theo mức độ liên quan
     public List<ProductDTO> searchProductsByName(String keyword) {
-        Query query = new Query();
-        query.addCriteria(Criteria.where("name").regex(keyword, "i")
-                .and("isDeleted").is(false));
+        List<String> rankedIds = productSearchIndex.search(keyword);
+        if (rankedIds.isEmpty()) return new ArrayList<>();
 
-        List<Product> products = mongoTemplate.find(query, Product.class);
-        return products.stream().map(this::convertToDTO).collect(Collectors.toList());
+        List<Product> products = new ArrayList<>();
+        productRepository.findAllById(rankedIds).forEach(products::add);
+        return orderByRank(products.stream().filter(product -> !product.isDeleted()).map(this::convertToDTO), rankedIds);
+    }
+
+    // Gợi ý tìm kiếm (typeahead) theo tiền tố, xếp theo độ phổ biến
+    public List<SuggestionDTO> getSuggestions(String prefix, Integer limit) {
+        int size = limit == null || limit <= 0 ? 10 : Math.min(limit, SuggestionTrie.MAX_SUGGESTIONS);
+        return suggestionTrie.suggest(prefix, size);
     }
 
     public List<ProductDTO> searchWithFilters(
@@ -303,52 +465,115 @@ public class ProductService {
             List<String> brandNames, List<String> categoryNames,
             List<String> visibilityTypes, List<String> conditions, Double minPrice, Double maxPrice) {
 
-        Query query = new Query();
-        query.addCriteria(Criteria.where("isDeleted").is(false).and("status").ne("inactive"));
-
-        if (keyword != null && !keyword.trim().isEmpty()) {
-            query.addCriteria(Criteria.where("name").regex(keyword.trim(), "i"));
-        }
+        return searchWithFilters(keyword, sortBy, sortOrder, brandNames, categoryNames,
+                visibilityTypes, conditions, minPrice, maxPrice, false).getProducts();
+    }
 
-        if (brandNames != null && !brandNames.isEmpty()) {
-            List<ObjectId> brandIds = brandRepository.findByNameInIgnoreCase(brandNames)
-                    .stream().map(brand -> new ObjectId(brand.getId())).collect(Collectors.toList());
-            query.addCriteria(Criteria.where("brandId").in(brandIds));
-        }
+    // Tìm kiếm với bộ lọc, kèm số lượng theo từng nhóm lọc (facet) nếu được yêu cầu
+    public ProductSearchResultDTO searchWithFilters(
+            String keyword,
+            String sortBy, String sortOrder,
+            List<String> brandNames, List<String> categoryNames,
+            List<String> visibilityTypes, List<String> conditions, Double minPrice, Double maxPrice,
+            boolean includeFacets) {
 
+        Set<ObjectId> categoryIds = null;
         if (categoryNames != null && !categoryNames.isEmpty()) {
-            List<ObjectId> categoryIds = categoryRepository.findByNameInIgnoreCase(categoryNames)
-                    .stream().map(category -> new ObjectId(category.getId())).collect(Collectors.toList());
-            query.addCriteria(Criteria.where("categoryId").in(categoryIds));
+            categoryIds = categoryTree.findIdsByNames(categoryNames)
+                    .stream().map(ObjectId::new).collect(Collectors.toSet());
         }
 
-        if (visibilityTypes != null && !visibilityTypes.isEmpty()) {
-            query.addCriteria(Criteria.where("visibilityType").in(visibilityTypes));
+        List<String> rankedIds = keyword != null && !keyword.trim().isEmpty() ? productSearchIndex.search(keyword) : null;
+
+        List<ProductDTO> products = rankedIds != null && rankedIds.isEmpty()
+                ? new ArrayList<>()
+                : findWithFilters(rankedIds, sortBy, sortOrder, brandNames, categoryIds, visibilityTypes, conditions, minPrice, maxPrice);
+
+        ProductFacetsDTO facets = null;
+        if (includeFacets) {
+            ensureCatalogLoaded();
+            facets = buildFacets(productCatalog.countFacets(buildCatalogFilter(
+                    rankedIds, null, null, brandNames, categoryIds, visibilityTypes, conditions, minPrice, maxPrice), priceFacetBounds));
         }
 
-        if (conditions != null && !conditions.isEmpty()) {
-            query.addCriteria(Criteria.where("variants.condition").in(conditions));
+        return ProductSearchResultDTO.builder()
+                .products(products)
+                .facets(facets)
+                .build();
+    }
+
+    private List<ProductDTO> findWithFilters(
+            List<String> rankedIds, String sortBy, String sortOrder,
+            List<String> brandNames, Set<ObjectId> categoryIds,
+            List<String> visibilityTypes, List<String> conditions, Double minPrice, Double maxPrice) {
+
+        // Trả lời từ catalog trong bộ nhớ nếu trường sắp xếp được hỗ trợ
+        if (productCatalog.supportsSort(sortBy)) {
+            ensureCatalogLoaded();
+            List<ProductDTO> result = productCatalog.find(buildCatalogFilter(
+                    rankedIds, sortBy, sortOrder, brandNames, categoryIds, visibilityTypes, conditions, minPrice, maxPrice));
+            return rankedIds != null && sortBy == null ? orderByRank(result.stream(), rankedIds) : result;
         }
 
-        if (minPrice != null || maxPrice != null) {
-            Criteria priceCriteria = Criteria.where("pricing.current");
-            if (minPrice != null && maxPrice != null) {
-                priceCriteria.gte(minPrice).lte(maxPrice);
-            } else if (minPrice != null) {
-                priceCriteria.gte(minPrice);
-            } else {
-                priceCriteria.lte(maxPrice);
-            }
-            query.addCriteria(priceCriteria);
+        Query query = new Query();
+        query.addCriteria(Criteria.where("isDeleted").is(false).and("status").ne("inactive"));
+
+        if (rankedIds != null) {
+            query.addCriteria(Criteria.where("_id").in(rankedIds.stream().map(ObjectId::new).collect(Collectors.toList())));
         }
 
+        addFilterCriteria(query, brandNames, categoryIds, visibilityTypes, conditions, minPrice, maxPrice);
+
         if (sortBy != null) {
             Sort.Direction direction = "desc".equalsIgnoreCase(sortOrder) ? Sort.Direction.DESC : Sort.Direction.ASC;
             query.with(Sort.by(direction, sortBy));
         }
 
         List<Product> products = mongoTemplate.find(query, Product.class);
-        return products.stream().map(this::convertToDTO).collect(Collectors.toList());
+        Stream<ProductDTO> dtos = products.stream().map(this::convertToDTO);
+        return rankedIds != null && sortBy == null ? orderByRank(dtos, rankedIds) : dtos.collect(Collectors.toList());
+    }
+
+    // Đổi ID thương hiệu / danh mục trong kết quả đếm sang tên (đúng với tham số lọc brandName, categoryName)
+    private ProductFacetsDTO buildFacets(ProductCatalog.FacetCounts counts) {
+        Map<String, Integer> brands = new LinkedHashMap<>();
+        counts.getBrands().forEach((brandId, count) -> {
+            String name = productCatalog.getBrandName(brandId);
+            if (name != null) brands.merge(name, count, Integer::sum);
+        });
+
+        Map<String, Integer> categories = new LinkedHashMap<>();
+        counts.getCategories().forEach((categoryId, count) ->
+                categoryTree.get(categoryId).ifPresent(category -> categories.merge(category.getName(), count, Integer::sum)));
+
+        List<ProductFacetsDTO.PriceRangeDTO> priceRanges = new ArrayList<>();
+        int[] buckets = counts.getPriceBuckets();
+        for (int i = 0; i < buckets.length; i++) {
+            priceRanges.add(ProductFacetsDTO.PriceRangeDTO.builder()
+                    .min(i > 0 ? priceFacetBounds[i - 1] : null)
+                    .max(i < priceFacetBounds.length ? priceFacetBounds[i] : null)
+                    .count(buckets[i])
+                    .build());
+        }
+
+        return ProductFacetsDTO.builder()
+                .brands(brands)
+                .categories(categories)
+                .conditions(counts.getConditions())
+                .visibilityTypes(counts.getVisibilityTypes())
+                .priceRanges(priceRanges)
+                .build();
+    }
+
+    // Sắp xếp kết quả theo thứ hạng của chỉ mục tìm kiếm
+    private List<ProductDTO> orderByRank(Stream<ProductDTO> products, List<String> rankedIds) {
+        Map<String, Integer> rank = new HashMap<>();
+        for (int i = 0; i < rankedIds.size(); i++) {
+            rank.put(rankedIds.get(i), i);
+        }
+        return products
+                .sorted(Comparator.comparingInt(dto -> rank.getOrDefault(dto.getId(), Integer.MAX_VALUE)))
+                .collect(Collectors.toList());
     }
 
     // Thêm mới sản phẩm
@@ -466,42 +691,62 @@ public class ProductService {
         return convertToDTO(newProduct);
     }
 
-    // Kiểm tra và kích hoạt sản phẩm khi đến thời gian lên lịch
-    @Scheduled(fixedRate = 60000)
-    @Transactional
-    public void checkAndActivateScheduledProducts() {
-        Date now = new Date();
-        List<Product> scheduledProducts = productRepository.findByScheduledDateBeforeAndIsDeletedFalse(now);
-
-        for (Product product : scheduledProducts) {
-            product.setStatus("active");
-            product.setScheduledDate(null);
-            product.setUpdatedAt(now);
-            productRepository.save(product);
-        }
-    }
-
-    // Phương thức sẽ tự động chạy mỗi ngày vào lúc 00:00
-    @Scheduled(cron = "0 0 * * * *")
-    @Transactional
+    // Cập nhật loại hiển thị cho tất cả sản phẩm, mặc định chạy mỗi giờ (đầu giờ).
+    // Duyệt cursor MongoDB chỉ với các trường calculateVisibilityType cần, ghi thay đổi theo lô bulkWrite không thứ tự.
+    @Scheduled(cron = "${product.visibility.cron:0 0 * * * *}")
     public void updateVisibilityTypeForAllProducts() {
+        long startTime = System.currentTimeMillis();
         Date now = new Date();
-        List<Product> products = productRepository.findByIsDeletedFalse();
 
-        for (Product product : products) {
-            updateVisibilityTypeBasedOnCriteria(product, now);
+        Query query = new Query();
+        query.addCriteria(Criteria.where("isDeleted").is(false));
+        query.fields().include("totalSold", "ratings.average", "ratings.totalReviews", "createdAt",
+                "pricing.original", "pricing.current", "visibilityType");
+        query.cursorBatchSize(VISIBILITY_BATCH_SIZE);
+
+        int scanned = 0;
+        int updated = 0;
+        Map<String, String> pending = new LinkedHashMap<>();
+
+        try (Stream<Product> products = mongoTemplate.stream(query, Product.class)) {
+            Iterator<Product> iterator = products.iterator();
+            while (iterator.hasNext()) {
+                Product product = iterator.next();
+                scanned++;
+
+                String newVisibility = calculateVisibilityType(product, now);
+                if (!Objects.equals(product.getVisibilityType(), newVisibility)) {
+                    pending.put(product.getId(), newVisibility);
+                }
+
+                if (pending.size() >= VISIBILITY_BATCH_SIZE) {
+                    updated += flushVisibilityUpdates(pending, now);
+                }
+            }
         }
+        updated += flushVisibilityUpdates(pending, now);
+
+        System.out.println("Cập nhật loại hiển thị sản phẩm: đã duyệt " + scanned + ", đã cập nhật " + updated
+                + " sản phẩm trong " + (System.currentTimeMillis() - startTime) + " ms");
     }
 
-    private void updateVisibilityTypeBasedOnCriteria(Product product, Date now) {
-        String currentVisibility = product.getVisibilityType();
-        String newVisibility = calculateVisibilityType(product, now);
+    // Ghi một lô thay đổi loại hiển thị, trả về số document đã sửa
+    private int flushVisibilityUpdates(Map<String, String> pending, Date now) {
+        if (pending.isEmpty()) return 0;
 
-        if (!Objects.equals(currentVisibility, newVisibility)) {
-            product.setVisibilityType(newVisibility);
-            product.setUpdatedAt(now);
-            productRepository.save(product);
+        BulkOperations bulkOps = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+        pending.forEach((id, visibilityType) -> bulkOps.updateOne(
+                Query.query(Criteria.where("_id").is(new ObjectId(id))),
+                new Update().set("visibilityType", visibilityType).set("updatedAt", now)));
+        int modified = bulkOps.execute().getModifiedCount();
+
+        // bulkWrite không phát sinh sự kiện lưu, đồng bộ catalog cho các sản phẩm vừa đổi loại hiển thị
+        if (productCatalog.isLoaded()) {
+            productRepository.findAllById(pending.keySet()).forEach(this::syncCatalogEntry);
         }
+
+        pending.clear();
+        return modified;
     }
 
     private String calculateVisibilityType(Product product, Date now) {
@@ -810,125 +1055,109 @@ public class ProductService {
         return result;
     }
 
-    public void importProductsFromExcel(MultipartFile file) throws IOException {
-        List<Product> productList = new ArrayList<>();
-        XSSFWorkbook workbook = new XSSFWorkbook(file.getInputStream());
-        XSSFSheet sheet = workbook.getSheetAt(0);
-
-        for (int i = 1; i <= sheet.getLastRowNum(); i++) {
-            Row row = sheet.getRow(i);
-            if (row == null) continue;
-
-            // Lấy dữ liệu từ các cột tương ứng
-            String productId = getCellString(row.getCell(1));
-            String name = getCellString(row.getCell(2));
-            String description = getCellString(row.getCell(3));
-            double originalPrice = parseDoubleSafe(row.getCell(4));
-            double currentPrice = parseDoubleSafe(row.getCell(5));
-            String brandIdStr = getCellString(row.getCell(6));
-            String categoryIdStr = getCellString(row.getCell(7));
-            String specificationsStr = getCellString(row.getCell(8));
-            String variantsStr = getCellString(row.getCell(9));
-            String tagsStr = getCellString(row.getCell(10));
-            String videosStr = getCellString(row.getCell(11));
-            String blogTitle = getCellString(row.getCell(12));
-            String blogDesc = getCellString(row.getCell(13));
-            String blogContent = getCellString(row.getCell(14));
-            double avgRating = parseDoubleSafe(row.getCell(15));
-            int totalReviews = (int) parseDoubleSafe(row.getCell(16));
-            String warrantyDuration = getCellString(row.getCell(17));
-            int totalSold = (int) parseDoubleSafe(row.getCell(18));
-            String status = getCellString(row.getCell(19));
-            String visibilityType = getCellString(row.getCell(20));
-            String deletedStr = getCellString(row.getCell(21));
-            String scheduleDateStr = getCellString(row.getCell(22));
-
-            // Xử lý các ObjectId
-            ObjectId brandId = isValidObjectId(brandIdStr) ? new ObjectId(brandIdStr) : null;
-            ObjectId categoryId = isValidObjectId(categoryIdStr) ? new ObjectId(categoryIdStr) : null;
-
-            // Phân tích các thông số kỹ thuật, biến thể, tags, videos
-            Map<String, String> specifications = parseKeyValueString(specificationsStr);
-            List<Product.Variant> variants = parseVariants(variantsStr);
-            List<String> tags = parseList(tagsStr);
-            List<String> videos = parseList(videosStr);
-
-            boolean isDeleted = "Đã xóa".equalsIgnoreCase(deletedStr);
-            Date scheduledDate = parseDate(scheduleDateStr);
-
-            // Tạo đối tượng Product
-            Product product = Product.builder()
-                    .productId(productId)
-                    .name(name)
-                    .description(description)
-                    .brandId(brandId)
-                    .categoryId(categoryId)
-                    .pricing(Product.Pricing.builder()
-                            .original(originalPrice)
-                            .current(currentPrice)
-                            .history(new ArrayList<>())
-                            .build())
-                    .specifications(specifications)
-                    .variants(variants)
-                    .tags(tags)
-                    .videos(videos)
-                    .images(new ArrayList<>()) // Nếu không có cột, để rỗng
-                    .blog(Product.Blog.builder()
-                            .title(blogTitle)
-                            .description(blogDesc)
-                            .content(blogContent)
-                            .publishedDate(new Date())
-                            .build())
-                    .ratings(Product.Ratings.builder()
-                            .average(avgRating)
-                            .totalReviews(totalReviews)
-                            .build())
-                    .warranty(Product.Warranty.builder()
-                            .duration(warrantyDuration)
-                            .terms("Không rõ")
-                            .build())
-                    .totalSold(totalSold)
-                    .status(status)
-                    .visibilityType(visibilityType != null ? visibilityType : "Mới")
-                    .isDeleted(isDeleted)
-                    .scheduledDate(scheduledDate)
-                    .createdAt(new Date())
-                    .updatedAt(new Date())
-                    .build();
-
-            productList.add(product);
-        }
-
-        productRepository.saveAll(productList);
-        workbook.close();
+    // Import sản phẩm từ file Excel: đọc streaming, kiểm tra song song và ghi theo lô bằng insert không thứ tự
+    public ImportResultDTO importProductsFromExcel(MultipartFile file) throws IOException {
+        return ExcelImportUtil.importSheet(file.getInputStream(), this::parseProductRow, batch ->
+                mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class).insert(batch).execute());
     }
 
-    private String getCellString(Cell cell) {
-        if (cell == null) return null;
+    private Product parseProductRow(ExcelImportUtil.SheetRow row) {
+        // Lấy dữ liệu từ các cột tương ứng
+        String productId = row.getString(1);
+        String name = row.getString(2);
+        String description = row.getString(3);
+        double originalPrice = row.getDouble(4);
+        double currentPrice = row.getDouble(5);
+        String brandIdStr = row.getString(6);
+        String categoryIdStr = row.getString(7);
+        String specificationsStr = row.getString(8);
+        String variantsStr = row.getString(9);
+        String tagsStr = row.getString(10);
+        String videosStr = row.getString(11);
+        String blogTitle = row.getString(12);
+        String blogDesc = row.getString(13);
+        String blogContent = row.getString(14);
+        double avgRating = row.getDouble(15);
+        int totalReviews = row.getInt(16);
+        String warrantyDuration = row.getString(17);
+        int totalSold = row.getInt(18);
+        String status = row.getString(19);
+        String visibilityType = row.getString(20);
+        String deletedStr = row.getString(21);
+        String scheduleDateStr = row.getString(22);
+
+        if (name == null) {
+            throw new IllegalArgumentException("Thiếu tên sản phẩm");
+        }
+        if (originalPrice < 0 || currentPrice < 0) {
+            throw new IllegalArgumentException("Giá sản phẩm không được âm");
+        }
 
-        return switch (cell.getCellType()) {
-            case STRING -> cell.getStringCellValue().trim();
-            case NUMERIC -> String.valueOf(cell.getNumericCellValue());
-            case BOOLEAN -> String.valueOf(cell.getBooleanCellValue());
-            case FORMULA -> cell.getCellFormula();
-            default -> null;
-        };
+        // Xử lý các ObjectId
+        if (brandIdStr != null && !isValidObjectId(brandIdStr)) {
+            throw new IllegalArgumentException("ID thương hiệu không hợp lệ: " + brandIdStr);
+        }
+        if (categoryIdStr != null && !isValidObjectId(categoryIdStr)) {
+            throw new IllegalArgumentException("ID danh mục không hợp lệ: " + categoryIdStr);
+        }
+        ObjectId brandId = brandIdStr != null ? new ObjectId(brandIdStr) : null;
+        ObjectId categoryId = categoryIdStr != null ? new ObjectId(categoryIdStr) : null;
+
+        // Phân tích các thông số kỹ thuật, biến thể, tags, videos
+        Map<String, String> specifications = parseKeyValueString(specificationsStr);
+        List<Product.Variant> variants = parseVariants(variantsStr);
+        List<String> tags = parseList(tagsStr);
+        List<String> videos = parseList(videosStr);
+
+        boolean isDeleted = "Đã xóa".equalsIgnoreCase(deletedStr);
+        Date scheduledDate = parseDate(scheduleDateStr);
+
+        // Tạo đối tượng Product, gán sẵn ID để sự kiện lưu của bulk insert cập nhật được catalog và chỉ mục tìm kiếm
+        return Product.builder()
+                .id(new ObjectId().toHexString())
+                .productId(productId)
+                .name(name)
+                .description(description)
+                .brandId(brandId)
+                .categoryId(categoryId)
+                .pricing(Product.Pricing.builder()
+                        .original(originalPrice)
+                        .current(currentPrice)
+                        .history(new ArrayList<>())
+                        .build())
+                .specifications(specifications)
+                .variants(variants)
+                .tags(tags)
+                .videos(videos)
+                .images(new ArrayList<>()) // Nếu không có cột, để rỗng
+                .blog(Product.Blog.builder()
+                        .title(blogTitle)
+                        .description(blogDesc)
+                        .content(blogContent)
+                        .publishedDate(new Date())
+                        .build())
+                .ratings(Product.Ratings.builder()
+                        .average(avgRating)
+                        .totalReviews(totalReviews)
+                        .build())
+                .warranty(Product.Warranty.builder()
+                        .duration(warrantyDuration)
+                        .terms("Không rõ")
+                        .build())
+                .totalSold(totalSold)
+                .status(status)
+                .visibilityType(visibilityType != null ? visibilityType : "Mới")
+                .isDeleted(isDeleted)
+                .scheduledDate(scheduledDate)
+                .createdAt(new Date())
+                .updatedAt(new Date())
+                .build();
     }
 
     private boolean isValidObjectId(String id) {
         return id != null && ObjectId.isValid(id);
     }
 
-    private double parseDoubleSafe(Cell cell) {
-        try {
-            return cell != null && cell.getCellType() == CellType.NUMERIC
-                    ? cell.getNumericCellValue()
-                    : Double.parseDouble(getCellString(cell));
-        } catch (Exception e) {
-            return 0.0;
-        }
-    }
-
     private Map<String, String> parseKeyValueString(String str) {
         if (str == null || str.isBlank()) return new HashMap<>();
         return Arrays.stream(str.split(","))
@@ -951,11 +1180,19 @@ public class ProductService {
                         .ram(arr[3])
                         .storage(arr[4])
                         .condition(arr[5])
-                        .stock(Integer.parseInt(arr[6]))
+                        .stock(parseStock(arr[6]))
                         .build())
                 .collect(Collectors.toList());
     }
 
+    private int parseStock(String value) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Số lượng tồn kho của biến thể không hợp lệ: " + value);
+        }
+    }
+
     private List<String> parseList(String input) {
         return input == null ? new ArrayList<>() :
                 Arrays.stream(input.split(","))
@@ -973,155 +1210,37 @@ public class ProductService {
         }
     }
 
-    // Xuất tất cả sản phẩm ra file Excel
-    public ByteArrayOutputStream exportProductsToExcel(String sortBy, String sortOrder) throws IOException {
-        // Lấy tất cả sản phẩm từ repository (dữ liệu từ ProductDTO)
-        List<ProductDTO> products = getAllInactiveProducts(sortBy, sortOrder);
-
-        // Tạo workbook Excel
-        XSSFWorkbook workbook = new XSSFWorkbook();
-        Sheet sheet = workbook.createSheet("Products");
-
-        // Định dạng chung cho workbook
-        CellStyle headerStyle = workbook.createCellStyle();
-        Font headerFont = workbook.createFont();
-        headerFont.setBold(true);
-        headerFont.setFontHeightInPoints((short) 12);
-        headerFont.setColor(IndexedColors.WHITE.getIndex());
-        headerStyle.setFont(headerFont);
-        headerStyle.setAlignment(HorizontalAlignment.CENTER);
-        headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-        headerStyle.setFillForegroundColor(IndexedColors.GREY_50_PERCENT.getIndex());
-        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
-        // Tạo dòng tiêu đề
-        Row headerRow = sheet.createRow(0);
-        String[] columns = {
-                "ID", "Mã sản phẩm", "Tên sản phẩm", "Mô tả", "Giá gốc", "Giá hiện tại",
-                "Thương hiệu", "Danh mục", "Thông số kỹ thuật", "Biến thể", "Tags",
-                "Videos", "Blog Tiêu đề", "Blog Mô tả", "Blog Nội dung", "Đánh giá trung bình",
-                "Tổng số lượt đánh giá", "Bảo hành", "Tổng số lượng đã bán","Trạng thái", "Loại hiển thị", "Trạng thái xóa",
-                "Thời gian lên lịch"
-        };
-        for (int i = 0; i < columns.length; i++) {
-            Cell cell = headerRow.createCell(i);
-            cell.setCellValue(columns[i]);
-            cell.setCellStyle(headerStyle);
-        }
-
-        // Định dạng cho dữ liệu
-        CellStyle dataStyle = workbook.createCellStyle();
-        dataStyle.setAlignment(HorizontalAlignment.CENTER);
-        dataStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-
-        // Thêm dữ liệu sản phẩm vào file Excel
-        int rowNum = 1;
-        for (ProductDTO product : products) {
-            Row row = sheet.createRow(rowNum++);
-
-            // Cột ID
-            row.createCell(0).setCellValue(product.getId());
-            row.getCell(0).setCellStyle(dataStyle);
-
-            // Cột Mã sản phẩm
-            row.createCell(1).setCellValue(product.getProductId());
-            row.getCell(1).setCellStyle(dataStyle);
-
-            // Cột Tên sản phẩm
-            row.createCell(2).setCellValue(product.getName());
-            row.getCell(2).setCellStyle(dataStyle);
-
-            // Cột Mô tả
-            row.createCell(3).setCellValue(product.getDescription());
-            row.getCell(3).setCellStyle(dataStyle);
-
-            // Cột Giá gốc
-            row.createCell(4).setCellValue(product.getPricing().getOriginal());
-            row.getCell(4).setCellStyle(dataStyle);
-
-            // Cột Giá hiện tại
-            row.createCell(5).setCellValue(product.getPricing().getCurrent());
-            row.getCell(5).setCellStyle(dataStyle);
-
-            // Cột Thương hiệu
-            row.createCell(6).setCellValue(product.getBrandId());
-            row.getCell(6).setCellStyle(dataStyle);
-
-            // Cột Danh mục
-            row.createCell(7).setCellValue(product.getCategoryId());
-            row.getCell(7).setCellStyle(dataStyle);
-
-            // Cột Thông số kỹ thuật
-            row.createCell(8).setCellValue(product.getSpecifications().toString());
-            row.getCell(8).setCellStyle(dataStyle);
-
-            // Cột Biến thể
-            row.createCell(9).setCellValue(product.getVariants().toString());
-            row.getCell(9).setCellStyle(dataStyle);
-
-            // Cột Tags
-            row.createCell(10).setCellValue(String.join(", ", product.getTags()));
-            row.getCell(10).setCellStyle(dataStyle);
-
-            // Cột Videos
-            row.createCell(11).setCellValue(String.join(", ", product.getVideos()));
-            row.getCell(11).setCellStyle(dataStyle);
-
-            // Cột Blog Tiêu đề
-            row.createCell(12).setCellValue(product.getBlog() != null ? product.getBlog().getTitle() : "N/A");
-            row.getCell(12).setCellStyle(dataStyle);
-
-            // Cột Blog Mô tả
-            row.createCell(13).setCellValue(product.getBlog() != null ? product.getBlog().getDescription() : "N/A");
-            row.getCell(13).setCellStyle(dataStyle);
-
-            // Cột Blog Nội dung
-            row.createCell(14).setCellValue(product.getBlog() != null ? product.getBlog().getContent() : "N/A");
-            row.getCell(14).setCellStyle(dataStyle);
-
-            // Cột Đánh giá trung bình
-            row.createCell(15).setCellValue(product.getRatings() != null ? product.getRatings().getAverage() : 0.0);
-            row.getCell(15).setCellStyle(dataStyle);
-
-            // Cột Tổng số lượt đánh giá
-            row.createCell(16).setCellValue(product.getRatings() != null ? product.getRatings().getTotalReviews() : 0);
-            row.getCell(16).setCellStyle(dataStyle);
-
-            // Cột Bảo hành
-            row.createCell(17).setCellValue(product.getWarranty() != null ? product.getWarranty().getDuration() : "N/A");
-            row.getCell(17).setCellStyle(dataStyle);
-
-            // Cột Tổng số lượng đã bán
-            row.createCell(18).setCellValue(product.getTotalSold());
-            row.getCell(18).setCellStyle(dataStyle);
-
-            // Cột Trạng thái
-            row.createCell(19).setCellValue(product.getStatus());
-            row.getCell(19).setCellStyle(dataStyle);
-
-            // Cột Loại hiển thị
-            row.createCell(20).setCellValue(product.getVisibilityType());
-            row.getCell(20).setCellStyle(dataStyle);
-
-            // Cột Trạng thái xóa
-            row.createCell(21).setCellValue(product.isDeleted() ? "Đã xóa" : "Đang hiển thị");
-            row.getCell(21).setCellStyle(dataStyle);
-
-            // Cột Thời gian lên lịch
-            row.createCell(22).setCellValue(product.getScheduledDate() != null ? product.getScheduledDate().toString() : "N/A");
-            row.getCell(22).setCellStyle(dataStyle);
-        }
-
-        // Tự động điều chỉnh độ rộng cột theo nội dung
-        for (int i = 0; i < columns.length; i++) {
-            sheet.autoSizeColumn(i);
+    // Các cột của file Excel sản phẩm
+    private static final List<ExcelExportUtil.Column<ProductDTO>> PRODUCT_EXPORT_COLUMNS = List.of(
+            ExcelExportUtil.Column.of("ID", ProductDTO::getId),
+            ExcelExportUtil.Column.of("Mã sản phẩm", ProductDTO::getProductId),
+            ExcelExportUtil.Column.of("Tên sản phẩm", ProductDTO::getName),
+            ExcelExportUtil.Column.of("Mô tả", ProductDTO::getDescription),
+            ExcelExportUtil.Column.of("Giá gốc", p -> p.getPricing() != null ? p.getPricing().getOriginal() : null),
+            ExcelExportUtil.Column.of("Giá hiện tại", p -> p.getPricing() != null ? p.getPricing().getCurrent() : null),
+            ExcelExportUtil.Column.of("Thương hiệu", ProductDTO::getBrandId),
+            ExcelExportUtil.Column.of("Danh mục", ProductDTO::getCategoryId),
+            ExcelExportUtil.Column.of("Thông số kỹ thuật", ProductDTO::getSpecifications),
+            ExcelExportUtil.Column.of("Biến thể", ProductDTO::getVariants),
+            ExcelExportUtil.Column.of("Tags", p -> p.getTags() != null ? String.join(", ", p.getTags()) : null),
+            ExcelExportUtil.Column.of("Videos", p -> p.getVideos() != null ? String.join(", ", p.getVideos()) : null),
+            ExcelExportUtil.Column.of("Blog Tiêu đề", p -> p.getBlog() != null ? p.getBlog().getTitle() : "N/A"),
+            ExcelExportUtil.Column.of("Blog Mô tả", p -> p.getBlog() != null ? p.getBlog().getDescription() : "N/A"),
+            ExcelExportUtil.Column.of("Blog Nội dung", p -> p.getBlog() != null ? p.getBlog().getContent() : "N/A"),
+            ExcelExportUtil.Column.of("Đánh giá trung bình", p -> p.getRatings() != null ? p.getRatings().getAverage() : 0.0),
+            ExcelExportUtil.Column.of("Tổng số lượt đánh giá", p -> p.getRatings() != null ? p.getRatings().getTotalReviews() : 0),
+            ExcelExportUtil.Column.of("Bảo hành", p -> p.getWarranty() != null ? p.getWarranty().getDuration() : "N/A"),
+            ExcelExportUtil.Column.of("Tổng số lượng đã bán", ProductDTO::getTotalSold),
+            ExcelExportUtil.Column.of("Trạng thái", ProductDTO::getStatus),
+            ExcelExportUtil.Column.of("Loại hiển thị", ProductDTO::getVisibilityType),
+            ExcelExportUtil.Column.of("Trạng thái xóa", p -> p.isDeleted() ? "Đã xóa" : "Đang hiển thị"),
+            ExcelExportUtil.Column.of("Thời gian lên lịch", p -> p.getScheduledDate() != null ? p.getScheduledDate().toString() : "N/A")
+    );
+
+    // Xuất tất cả sản phẩm ngừng kinh doanh ra file Excel, đọc MongoDB theo cursor và ghi thẳng vào outputStream
+    public void exportProductsToExcel(String sortBy, String sortOrder, OutputStream outputStream) throws IOException {
+        try (Stream<Product> products = mongoTemplate.stream(inactiveProductsQuery(sortBy, sortOrder), Product.class)) {
+            ExcelExportUtil.write(outputStream, "Products", PRODUCT_EXPORT_COLUMNS, products.map(this::convertToDTO));
         }
-
-        // Tạo OutputStream và ghi workbook vào đó
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        workbook.write(outputStream);
-        workbook.close();
-
-        return outputStream;
     }
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package com.hcmute.pttechecommercewebsite.service;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.hcmute.pttechecommercewebsite.dto.CursorPageDTO;
 import com.hcmute.pttechecommercewebsite.dto.ReviewDTO;
 import com.hcmute.pttechecommercewebsite.exception.ResourceNotFoundException;
 import com.hcmute.pttechecommercewebsite.exception.ReviewSuspiciousException;
@@ -8,8 +9,12 @@ import com.hcmute.pttechecommercewebsite.model.Product;
 import com.hcmute.pttechecommercewebsite.model.Review;
 import com.hcmute.pttechecommercewebsite.repository.ProductRepository;
 import com.hcmute.pttechecommercewebsite.repository.ReviewRepository;
+import com.hcmute.pttechecommercewebsite.util.CursorPaginationUtil;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
@@ -36,7 +41,13 @@ public class ReviewService {
     private ProductRepository productRepository;
 
     @Autowired
-    private EmailService emailService;
+    private OutboxService outboxService;
+
+    @Autowired
+    private CursorPaginationUtil cursorPaginationUtil;
+
+    @Autowired
+    private StatisticsAggregator statisticsAggregator;
 
     private final String reviewUploadDir = "upload-images/reviews";
     private final String reviewUploadUrl = "http://localhost:8081/images/reviews";
@@ -71,6 +82,24 @@ public class ReviewService {
         return reviews.stream().map(this::convertToDTO).collect(Collectors.toList());
     }
 
+    // Xem đánh giá theo trang (phân trang theo cursor), mới nhất trước
+    public CursorPageDTO<ReviewDTO> getReviewsPage(String cursor, Integer limit, boolean includeTotal) {
+        Query query = new Query();
+        query.addCriteria(Criteria.where("isDeleted").is(false));
+
+        return cursorPaginationUtil.find(query, Review.class, "createdAt", Sort.Direction.DESC, cursor, limit, includeTotal)
+                .map(this::convertToDTO);
+    }
+
+    // Xem đánh giá của sản phẩm theo trang, mới nhất trước
+    public CursorPageDTO<ReviewDTO> getReviewsByProductIdPage(ObjectId productId, String cursor, Integer limit, boolean includeTotal) {
+        Query query = new Query();
+        query.addCriteria(Criteria.where("productId").is(productId).and("isDeleted").is(false));
+
+        return cursorPaginationUtil.find(query, Review.class, "createdAt", Sort.Direction.DESC, cursor, limit, includeTotal)
+                .map(this::convertToDTO);
+    }
+
     // Xem đánh giá theo ID
     public Optional<ReviewDTO> getReviewById(String id) {
         Optional<Review> review = reviewRepository.findByIdAndIsDeletedFalse(id);
@@ -130,13 +159,18 @@ public class ReviewService {
         review.setCreatedAt(new Date());
         review.setUpdatedAt(new Date());
 
-        Review savedReview = reviewRepository.save(review);
+        // Lưu đánh giá và ghi nhận vào thống kê không xen với việc tính lại thống kê của ngày
+        Review savedReview;
+        try (StatisticsAggregator.Fence ignored = statisticsAggregator.enterDay(review.getCreatedAt())) {
+            savedReview = reviewRepository.save(review);
+            statisticsAggregator.recordReview(savedReview.getCreatedAt(), null, savedReview.getRating());
+        }
         String productId = savedReview.getProductId().toString();
         double newRating = savedReview.getRating();
         updateProductRatings(productId, newRating, 0);
 
         // Gửi email cảm ơn sau khi đánh giá thành công
-        emailService.sendThankYouEmail(savedReview);
+        outboxService.enqueue(EmailOutboxHandler.REVIEW_THANK_YOU, EmailOutboxHandler.review(savedReview.getId()));
 
         return convertToDTO(savedReview);
     }
@@ -177,7 +211,13 @@ public class ReviewService {
 
             review.setId(id);
             review.setUpdatedAt(new Date());
-            Review updatedReview = reviewRepository.save(review);
+            Review updatedReview;
+            try (StatisticsAggregator.Fence ignored = statisticsAggregator.enterDay(oldReview.getCreatedAt())) {
+                updatedReview = reviewRepository.save(review);
+                if (oldRating != newRating) {
+                    statisticsAggregator.recordReview(oldReview.getCreatedAt(), oldRating, newRating);
+                }
+            }
 
             if (oldRating != newRating) {
                 updateProductRatings(updatedReview.getProductId().toString(), newRating, oldRating);
@@ -0,0 +1,516 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.model.Order;
+import com.hcmute.pttechecommercewebsite.model.Product;
+import com.hcmute.pttechecommercewebsite.model.Statistics;
+import com.hcmute.pttechecommercewebsite.model.UserOrderIndex;
+import com.hcmute.pttechecommercewebsite.repository.ProductRepository;
+import jakarta.annotation.PreDestroy;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.aggregation.ArithmeticOperators;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BooleanSupplier;
+
+import static com.hcmute.pttechecommercewebsite.service.StatisticsRollupService.*;
+
+// Cộng dồn thống kê từ các sự kiện đơn hàng / đánh giá (tạo đơn, đổi trạng thái, sửa đơn, đánh giá mới...).
+// Các thay đổi được gom trong bộ nhớ theo giờ tạo của đơn / đánh giá và ghi vào thống kê của ngày đó (Statistics)
+// cùng các bản tổng hợp theo giờ / tuần / tháng (StatisticsRollups) bằng $inc theo chu kỳ statistics.flush-interval-ms, thay cho việc đọc lại toàn bộ đơn hàng trong ngày mỗi phút.
+// Lô ghi thất bại không được ghi lại (tránh cộng hai lần phần đã ghi): các ngày của lô được StatisticsService tính lại từ đầu.
+// Việc tính lại một ngày (recompute) không xen với flush và với các lệnh ghi đơn / đánh giá của ngày đó (enterDay),
+// nên mỗi đơn được tính đúng một lần: hoặc trong lần đọc lại, hoặc trong phần thay đổi ghi sau đó.
+// Sai lệch khác (nếu có) được StatisticsService đối soát lại hằng đêm bằng cách tính lại từ đầu.
+@Service
+public class StatisticsAggregator {
+
+    public static final String RETURNED_STATUS = "Đã trả hàng";
+
+    private final MongoTemplate mongoTemplate;
+    private final ProductRepository productRepository;
+    private final UserOrderIndexService userOrderIndexService;
+
+    // Thay đổi chưa ghi, theo giờ (đầu giờ)
+    private Map<Date, Delta> pending = new HashMap<>();
+
+    // Các ngày có lần ghi thất bại, chờ StatisticsService tính lại từ đơn hàng / đánh giá
+    private final Set<Date> staleDays = new HashSet<>();
+
+    // Số lệnh ghi đơn / đánh giá đang chạy theo ngày tạo, số lệnh ghi hàng loạt (nhiều ngày) và các ngày đang được tính lại
+    private final Map<Date, Integer> writers = new HashMap<>();
+    private int bulkWriters;
+    private final Set<Date> recomputing = new HashSet<>();
+
+    // flush giữ khóa ghi, việc tính lại giữ khóa đọc: không có $inc nào chen giữa lần đọc lại và lần ghi kết quả.
+    // Khóa công bằng để flush không phải chờ hết cả tiến trình backfill
+    private final ReentrantReadWriteLock flushLock = new ReentrantReadWriteLock(true);
+
+    public StatisticsAggregator(MongoTemplate mongoTemplate, ProductRepository productRepository,
+                                UserOrderIndexService userOrderIndexService) {
+        this.mongoTemplate = mongoTemplate;
+        this.productRepository = productRepository;
+        this.userOrderIndexService = userOrderIndexService;
+    }
+
+    // Các số liệu của một đơn hàng được tính vào thống kê; chụp lại trước khi sửa đơn để tính phần chênh lệch
+    public static class OrderFigures {
+        private final double finalPrice;
+        private final double discountAmount;
+        private final double shippingPrice;
+        private final int totalItems;
+        private final String paymentMethod;
+        private final String orderStatus;
+        private final String shippingMethod;
+        private final Map<ObjectId, Integer> quantities = new HashMap<>();
+        private final Map<ObjectId, Double> revenues = new HashMap<>();
+        private final Map<ObjectId, String> productNames = new HashMap<>();
+
+        private OrderFigures(Order order) {
+            this.finalPrice = order.getFinalPrice();
+            this.discountAmount = order.getDiscountAmount();
+            this.shippingPrice = order.getShippingPrice();
+            this.totalItems = order.getTotalItems();
+            this.paymentMethod = order.getPaymentMethod();
+            this.orderStatus = order.getOrderStatus();
+            this.shippingMethod = order.getShippingMethod();
+            if (order.getItems() != null) {
+                for (Order.Item item : order.getItems()) {
+                    quantities.merge(item.getProductId(), item.getQuantity(), Integer::sum);
+                    revenues.merge(item.getProductId(), item.getTotalPrice(), Double::sum);
+                    if (item.getProductName() != null) productNames.put(item.getProductId(), item.getProductName());
+                }
+            }
+        }
+
+        public static OrderFigures of(Order order) {
+            return new OrderFigures(order);
+        }
+    }
+
+    // Khoảng ghi của một lệnh ghi đơn / đánh giá: lệnh ghi và lần ghi nhận thay đổi tương ứng nằm trong khoảng này
+    public class Fence implements AutoCloseable {
+        private final Date day;
+
+        private Fence(Date day) {
+            this.day = day;
+        }
+
+        @Override
+        public void close() {
+            leave(day);
+        }
+    }
+
+    // Bắt đầu ghi đơn / đánh giá tạo lúc createdAt; chờ nếu ngày đó đang được tính lại
+    public synchronized Fence enterDay(Date createdAt) {
+        Date day = StatisticsRollupService.periodStart(DAY, createdAt != null ? createdAt : new Date());
+        await(() -> !recomputing.contains(day));
+        writers.merge(day, 1, Integer::sum);
+        return new Fence(day);
+    }
+
+    // Bắt đầu ghi hàng loạt các đơn thuộc nhiều ngày chưa biết trước; chờ nếu có ngày đang được tính lại
+    public synchronized Fence enterAllDays() {
+        await(recomputing::isEmpty);
+        bulkWriters++;
+        return new Fence(null);
+    }
+
+    private synchronized void leave(Date day) {
+        if (day == null) {
+            bulkWriters--;
+        } else {
+            writers.computeIfPresent(day, (key, count) -> count > 1 ? count - 1 : null);
+        }
+        notifyAll();
+    }
+
+    // Tính lại ngày chứa date bằng task: chờ các lệnh ghi đang chạy của ngày xong và chặn lệnh ghi mới,
+    // bỏ các thay đổi chưa ghi của ngày (đã nằm trong dữ liệu được đọc lại) và không cho flush chạy cho đến khi task xong
+    public void recompute(Date date, Runnable task) {
+        Date day = StatisticsRollupService.periodStart(DAY, date);
+        flushLock.readLock().lock();
+        try {
+            synchronized (this) {
+                await(() -> !recomputing.contains(day));
+                recomputing.add(day);
+            }
+            try {
+                synchronized (this) {
+                    await(() -> writers.getOrDefault(day, 0) == 0 && bulkWriters == 0);
+                    pending.keySet().removeIf(hourStart -> StatisticsRollupService.periodStart(DAY, hourStart).equals(day));
+                }
+                task.run();
+            } finally {
+                synchronized (this) {
+                    recomputing.remove(day);
+                    notifyAll();
+                }
+            }
+        } finally {
+            flushLock.readLock().unlock();
+        }
+    }
+
+    // Chờ (đang giữ khóa của đối tượng) cho đến khi condition đúng
+    private void await(BooleanSupplier condition) {
+        while (!condition.getAsBoolean()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Bị gián đoạn khi chờ tính lại thống kê", e);
+            }
+        }
+    }
+
+    // Các hàm record* được gọi sau khi ghi thành công, bên trong Fence của lệnh ghi đó
+
+    // Đơn hàng mới được tạo
+    public synchronized void recordOrderCreated(Order order) {
+        if (order.getCreatedAt() == null) return;
+        Delta delta = hour(order.getCreatedAt());
+        delta.apply(OrderFigures.of(order), 1);
+        delta.observe(order.getFinalPrice());
+        delta.purchases.add(new Purchase(order.getUserId(), order.getCreatedAt()));
+        delta.creates = true;
+    }
+
+    // Đơn hàng đã được sửa (trạng thái, sản phẩm, giá, phương thức...); before được chụp trước khi sửa
+    public synchronized void recordOrderChanged(OrderFigures before, Order after) {
+        if (after.getCreatedAt() == null) return;
+        Delta delta = hour(after.getCreatedAt());
+        delta.apply(before, -1);
+        delta.apply(OrderFigures.of(after), 1);
+        if (after.getFinalPrice() != before.finalPrice) {
+            delta.observe(after.getFinalPrice());
+        }
+    }
+
+    // Các đơn được chuyển trạng thái hàng loạt (OrderTransitionService), theo ngày tạo của từng đơn
+    public synchronized void recordStatusChanged(List<Date> createdDates, String fromStatus, String toStatus) {
+        for (Date createdAt : createdDates) {
+            if (createdAt == null) continue;
+            Delta delta = hour(createdAt);
+            delta.byStatus.merge(fromStatus, -1, Integer::sum);
+            delta.byStatus.merge(toStatus, 1, Integer::sum);
+        }
+    }
+
+    // Đánh giá mới (oldRating = null) hoặc đánh giá được sửa điểm
+    public synchronized void recordReview(Date createdAt, Double oldRating, double newRating) {
+        if (createdAt == null) return;
+        Delta delta = hour(createdAt);
+        if (oldRating == null) {
+            delta.reviews++;
+            delta.creates = true;
+        } else {
+            delta.ratingSum -= oldRating;
+            delta.countRating(oldRating, -1);
+        }
+        delta.ratingSum += newRating;
+        delta.countRating(newRating, 1);
+    }
+
+    // Ghi các thay đổi đã gom vào MongoDB: một lệnh bulk cho Statistics và một cho StatisticsRollups
+    @Scheduled(fixedDelayString = "${statistics.flush-interval-ms:10000}",
+            initialDelayString = "${statistics.flush-interval-ms:10000}")
+    public void flush() {
+        flushLock.writeLock().lock();
+        try {
+            Map<Date, Delta> batch;
+            synchronized (this) {
+                if (pending.isEmpty()) return;
+                batch = pending;
+                pending = new HashMap<>();
+            }
+
+            try {
+                write(batch);
+            } catch (RuntimeException e) {
+                // Không ghi lại phần thay đổi: một phần lô (một trong hai lệnh bulk, hoặc các lệnh trước lệnh lỗi của
+                // bulk ORDERED) có thể đã được ghi, ghi lại sẽ cộng hai lần. Các ngày bị ảnh hưởng được tính lại từ đầu.
+                e.printStackTrace();
+                synchronized (this) {
+                    batch.keySet().forEach(hourStart -> staleDays.add(StatisticsRollupService.periodStart(DAY, hourStart)));
+                }
+            }
+        } finally {
+            flushLock.writeLock().unlock();
+        }
+    }
+
+    // Lấy và xóa danh sách các ngày cần tính lại
+    public synchronized Set<Date> takeStaleDays() {
+        Set<Date> days = new HashSet<>(staleDays);
+        staleDays.clear();
+        return days;
+    }
+
+    // Đánh dấu ngày cần tính lại (lần tính lại trước thất bại)
+    public synchronized void markStale(Date day) {
+        staleDays.add(StatisticsRollupService.periodStart(DAY, day));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    private Delta hour(Date createdAt) {
+        return pending.computeIfAbsent(StatisticsRollupService.periodStart(HOUR, createdAt), key -> new Delta());
+    }
+
+    private void write(Map<Date, Delta> batch) {
+        // Tên sản phẩm cho danh sách bán chạy: một truy vấn cho tất cả các sản phẩm trong lô
+        Set<String> productIds = new HashSet<>();
+        batch.values().forEach(delta -> delta.quantities.keySet().forEach(id -> productIds.add(id.toString())));
+        Map<ObjectId, Product> products = new HashMap<>();
+        productRepository.findAllById(productIds).forEach(product -> products.put(new ObjectId(product.getId()), product));
+
+        // Phân loại khách hàng mới / quay lại: một truy vấn $in cho tất cả người đặt trong lô
+        Set<ObjectId> userIds = new HashSet<>();
+        batch.values().forEach(delta -> delta.purchases.forEach(purchase -> userIds.add(purchase.userId)));
+        Map<ObjectId, UserOrderIndex> customers = userOrderIndexService.find(userIds);
+        batch.values().forEach(delta -> delta.classifyCustomers(customers));
+
+        // Cùng một phần thay đổi được cộng vào bản theo giờ, ngày (Statistics), tuần và tháng
+        BulkOperations daily = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Statistics.class);
+        BulkOperations rollups = mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Statistics.class,
+                StatisticsRollupService.ROLLUP_COLLECTION);
+        Date now = new Date();
+        for (String resolution : List.of(HOUR, DAY, WEEK, MONTH)) {
+            Map<Date, Delta> periods = HOUR.equals(resolution) ? batch : rollUp(batch, resolution);
+            BulkOperations bulk = DAY.equals(resolution) ? daily : rollups;
+            periods.forEach((start, delta) -> append(bulk, resolution, start, delta, products, now));
+        }
+        daily.execute();
+        rollups.execute();
+    }
+
+    // Gộp các phần thay đổi theo giờ thành phần thay đổi theo ngày / tuần / tháng
+    private static Map<Date, Delta> rollUp(Map<Date, Delta> hours, String resolution) {
+        Map<Date, Delta> periods = new HashMap<>();
+        hours.forEach((hourStart, delta) -> periods
+                .computeIfAbsent(StatisticsRollupService.periodStart(resolution, hourStart), key -> new Delta())
+                .merge(delta));
+        return periods;
+    }
+
+    private static void append(BulkOperations bulk, String resolution, Date start, Delta delta,
+                               Map<ObjectId, Product> products, Date now) {
+        Update update = delta.toUpdate().set("updatedAt", now);
+        if (delta.creates) {
+            update.setOnInsert("createdAt", now);
+            // Bản theo giờ / tuần / tháng nhận resolution và date từ điều kiện bằng của truy vấn upsert
+            if (DAY.equals(resolution)) update.setOnInsert("date", start);
+            bulk.upsert(periodQuery(resolution, start), update);
+        } else {
+            // Chỉ thay đổi trạng thái / giá của đơn cũ: không tạo thống kê cho khoảng chưa có
+            bulk.updateOne(periodQuery(resolution, start), update);
+        }
+
+        // Sản phẩm bán chạy, doanh thu theo giá đã bán (Order.Item.totalPrice)
+        for (Map.Entry<ObjectId, Integer> sold : delta.quantities.entrySet()) {
+            ObjectId productId = sold.getKey();
+            int quantity = sold.getValue();
+            double revenue = delta.revenues.getOrDefault(productId, 0.0);
+            if (productId == null || (quantity == 0 && revenue == 0)) continue;
+            if (quantity > 0) {
+                Product product = products.get(productId);
+                String name = product != null ? product.getName() : delta.productNames.get(productId);
+                Query absent = new Query(StatisticsRollupService.periodCriteria(resolution, start)
+                        .and("topSellingProducts.productId").ne(productId));
+                bulk.updateOne(absent, new Update().push("topSellingProducts",
+                        new Statistics.ProductSales(productId, name, 0, 0)));
+            }
+            Query present = new Query(StatisticsRollupService.periodCriteria(resolution, start)
+                    .and("topSellingProducts.productId").is(productId));
+            bulk.updateOne(present, new Update()
+                    .inc("topSellingProducts.$.quantitySold", quantity)
+                    .inc("topSellingProducts.$.revenueFromProduct", revenue));
+        }
+
+        bulk.updateOne(periodQuery(resolution, start), averages());
+    }
+
+    // Tính lại các giá trị trung bình từ các tổng vừa cộng dồn
+    private static AggregationUpdate averages() {
+        return AggregationUpdate.update()
+                .set("averageOrderValue").toValue(ConditionalOperators
+                        .when(ComparisonOperators.valueOf("totalOrders").greaterThanValue(0))
+                        .thenValueOf(ArithmeticOperators.valueOf("totalRevenue").divideBy("totalOrders"))
+                        .otherwise(0))
+                .set("customerFeedback.averageRating").toValue(ConditionalOperators
+                        .when(ComparisonOperators.valueOf("customerFeedback.totalReviews").greaterThanValue(0))
+                        .thenValueOf(ArithmeticOperators.valueOf("customerFeedback.totalRating").divideBy("customerFeedback.totalReviews"))
+                        .otherwise(0));
+    }
+
+    private static Query periodQuery(String resolution, Date start) {
+        return new Query(StatisticsRollupService.periodCriteria(resolution, start));
+    }
+
+    // Một đơn hàng mới, chờ phân loại khách hàng mới / quay lại khi ghi
+    private static class Purchase {
+        final ObjectId userId;
+        final Date createdAt;
+
+        Purchase(ObjectId userId, Date createdAt) {
+            this.userId = userId;
+            this.createdAt = createdAt;
+        }
+    }
+
+    // Phần thay đổi chưa được ghi của một khoảng thời gian (giờ, hoặc ngày / tuần / tháng khi gộp lại)
+    private static class Delta {
+        int orders;
+        int itemsSold;
+        double revenue;
+        double discounts;
+        double shipping;
+        int returnedItems;
+        double returnRevenue;
+        final Map<String, Integer> byPaymentMethod = new HashMap<>();
+        final Map<String, Integer> byStatus = new HashMap<>();
+        final Map<String, Integer> byShippingMethod = new HashMap<>();
+        final Map<ObjectId, Integer> quantities = new HashMap<>();
+        final Map<ObjectId, Double> revenues = new HashMap<>();
+        final Map<ObjectId, String> productNames = new HashMap<>();
+        Double highest;
+        Double lowest;
+
+        // Các đơn mới, phân loại khách mới / quay lại khi ghi
+        final List<Purchase> purchases = new ArrayList<>();
+        int newCustomers;
+        int returningCustomers;
+
+        int reviews;
+        double ratingSum;
+        int positiveReviews;
+        int negativeReviews;
+
+        // Có đơn / đánh giá mới: được phép tạo thống kê cho khoảng chưa có
+        boolean creates;
+
+        void apply(OrderFigures figures, int sign) {
+            orders += sign;
+            itemsSold += sign * figures.totalItems;
+            revenue += sign * figures.finalPrice;
+            discounts += sign * figures.discountAmount;
+            shipping += sign * figures.shippingPrice;
+            count(byPaymentMethod, figures.paymentMethod, sign);
+            count(byStatus, figures.orderStatus, sign);
+            count(byShippingMethod, figures.shippingMethod, sign);
+            figures.quantities.forEach((productId, quantity) -> quantities.merge(productId, sign * quantity, Integer::sum));
+            figures.revenues.forEach((productId, revenue) -> revenues.merge(productId, sign * revenue, Double::sum));
+            productNames.putAll(figures.productNames);
+            if (RETURNED_STATUS.equals(figures.orderStatus)) {
+                returnedItems += sign * figures.totalItems;
+                returnRevenue += sign * figures.finalPrice;
+            }
+        }
+
+        void observe(double finalPrice) {
+            highest = highest == null ? finalPrice : Math.max(highest, finalPrice);
+            lowest = lowest == null ? finalPrice : Math.min(lowest, finalPrice);
+        }
+
+        void countRating(double rating, int sign) {
+            if (rating >= 4) {
+                positiveReviews += sign;
+            } else if (rating <= 2) {
+                negativeReviews += sign;
+            }
+        }
+
+        void classifyCustomers(Map<ObjectId, UserOrderIndex> customers) {
+            for (Purchase purchase : purchases) {
+                if (UserOrderIndexService.isReturning(customers.get(purchase.userId), purchase.createdAt)) {
+                    returningCustomers++;
+                } else {
+                    newCustomers++;
+                }
+            }
+            purchases.clear();
+        }
+
+        Update toUpdate() {
+            Update update = new Update();
+            inc(update, "totalOrders", orders);
+            inc(update, "totalItemsSold", itemsSold);
+            inc(update, "totalRevenue", revenue);
+            inc(update, "totalDiscounts", discounts);
+            inc(update, "totalPaymentAmount", revenue);
+            inc(update, "totalShippingCosts", shipping);
+            inc(update, "totalPaymentFees", revenue);
+            inc(update, "newCustomers", newCustomers);
+            inc(update, "returningCustomers", returningCustomers);
+            inc(update, "totalCustomers", newCustomers + returningCustomers);
+            inc(update, "totalReturnedItems", returnedItems);
+            inc(update, "totalRevenueFromReturns", returnRevenue);
+            byPaymentMethod.forEach((key, value) -> inc(update, "totalOrdersByPaymentMethod." + key, value));
+            byStatus.forEach((key, value) -> inc(update, "totalOrdersByStatus." + key, value));
+            byShippingMethod.forEach((key, value) -> inc(update, "totalOrdersByShippingMethod." + key, value));
+            inc(update, "customerFeedback.totalReviews", reviews);
+            inc(update, "customerFeedback.totalRating", ratingSum);
+            inc(update, "customerFeedback.positiveReviews", positiveReviews);
+            inc(update, "customerFeedback.negativeReviews", negativeReviews);
+            if (highest != null) update.max("highestOrderValue", highest);
+            if (lowest != null) update.min("lowestOrderValue", lowest);
+            return update;
+        }
+
+        Delta merge(Delta other) {
+            orders += other.orders;
+            itemsSold += other.itemsSold;
+            revenue += other.revenue;
+            discounts += other.discounts;
+            shipping += other.shipping;
+            returnedItems += other.returnedItems;
+            returnRevenue += other.returnRevenue;
+            other.byPaymentMethod.forEach((key, value) -> byPaymentMethod.merge(key, value, Integer::sum));
+            other.byStatus.forEach((key, value) -> byStatus.merge(key, value, Integer::sum));
+            other.byShippingMethod.forEach((key, value) -> byShippingMethod.merge(key, value, Integer::sum));
+            other.quantities.forEach((key, value) -> quantities.merge(key, value, Integer::sum));
+            other.revenues.forEach((key, value) -> revenues.merge(key, value, Double::sum));
+            other.productNames.forEach(productNames::putIfAbsent);
+            if (other.highest != null) observe(other.highest);
+            if (other.lowest != null) observe(other.lowest);
+            purchases.addAll(other.purchases);
+            newCustomers += other.newCustomers;
+            returningCustomers += other.returningCustomers;
+            reviews += other.reviews;
+            ratingSum += other.ratingSum;
+            positiveReviews += other.positiveReviews;
+            negativeReviews += other.negativeReviews;
+            creates |= other.creates;
+            return this;
+        }
+
+        private static void count(Map<String, Integer> counts, String key, int sign) {
+            // Khóa null / chứa dấu chấm không dùng được làm tên trường MongoDB
+            if (key == null || key.contains(".") || key.startsWith("$")) return;
+            counts.merge(key, sign, Integer::sum);
+        }
+
+        private static void inc(Update update, String field, double value) {
+            if (value != 0) update.inc(field, value);
+        }
+
+        private static void inc(Update update, String field, int value) {
+            if (value != 0) update.inc(field, value);
+        }
+    }
+}
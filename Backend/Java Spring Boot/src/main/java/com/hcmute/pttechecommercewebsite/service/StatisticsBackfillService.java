@@ -0,0 +1,281 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.dto.StatisticsBackfillJobDTO;
+import com.hcmute.pttechecommercewebsite.model.Order;
+import com.hcmute.pttechecommercewebsite.model.StatisticsBackfillJob;
+import com.hcmute.pttechecommercewebsite.repository.StatisticsBackfillJobRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+
+// Tính lại thống kê cho một khoảng ngày bất kỳ trong quá khứ (quản trị viên kích hoạt).
+// Mỗi ngày là một tác vụ độc lập chạy trên một pool cố định statistics.backfill.concurrency luồng, nên số lệnh
+// MongoDB chạy đồng thời bị giới hạn. Tiến độ (các ngày đã xong / bị lỗi) được lưu trong StatisticsBackfillJobs:
+// chạy tiếp một tiến trình bị hủy / gián đoạn chỉ tính các ngày chưa xong. Bản tổng hợp theo tuần / tháng được
+// dựng lại một lần cho mỗi khoảng sau khi tính xong các ngày, thay vì sau mỗi ngày.
+@Service
+public class StatisticsBackfillService {
+
+    public static final String RUNNING = "RUNNING";
+    public static final String COMPLETED = "COMPLETED";
+    public static final String FAILED = "FAILED";
+    public static final String CANCELLED = "CANCELLED";
+    public static final String INTERRUPTED = "INTERRUPTED";
+
+    private final MongoTemplate mongoTemplate;
+    private final StatisticsBackfillJobRepository statisticsBackfillJobRepository;
+    private final StatisticsService statisticsService;
+    private final StatisticsRollupService statisticsRollupService;
+
+    // Số ngày được tính đồng thời
+    @Value("${statistics.backfill.concurrency:4}")
+    private int concurrency;
+
+    // Tiến trình đang chạy trên ứng dụng này (mỗi lúc một tiến trình)
+    private final AtomicReference<String> running = new AtomicReference<>();
+    private volatile boolean cancelRequested;
+
+    public StatisticsBackfillService(MongoTemplate mongoTemplate,
+                                     StatisticsBackfillJobRepository statisticsBackfillJobRepository,
+                                     StatisticsService statisticsService,
+                                     StatisticsRollupService statisticsRollupService) {
+        this.mongoTemplate = mongoTemplate;
+        this.statisticsBackfillJobRepository = statisticsBackfillJobRepository;
+        this.statisticsService = statisticsService;
+        this.statisticsRollupService = statisticsRollupService;
+    }
+
+    // Tạo và chạy tiến trình cho khoảng [from, to]; không có from: từ ngày của đơn hàng đầu tiên, không có to: hôm nay
+    public StatisticsBackfillJobDTO start(Date from, Date to) {
+        Date today = StatisticsRollupService.periodStart(StatisticsRollupService.DAY, new Date());
+        if (from == null) {
+            Order first = mongoTemplate.findOne(new Query().with(Sort.by(Sort.Direction.ASC, "createdAt")).limit(1), Order.class);
+            from = first != null && first.getCreatedAt() != null ? first.getCreatedAt() : today;
+        }
+        Date fromDay = StatisticsRollupService.periodStart(StatisticsRollupService.DAY, from);
+        Date toDay = to != null ? StatisticsRollupService.periodStart(StatisticsRollupService.DAY, to) : today;
+        if (toDay.after(today)) {
+            toDay = today;
+        }
+        if (fromDay.after(toDay)) {
+            throw new IllegalArgumentException("Ngày bắt đầu phải trước ngày kết thúc và không sau hôm nay");
+        }
+
+        Date now = new Date();
+        StatisticsBackfillJob job = StatisticsBackfillJob.builder()
+                .fromDate(fromDay)
+                .toDate(toDay)
+                .status(RUNNING)
+                .totalDays(days(fromDay, toDay).size())
+                .completedDates(new ArrayList<>())
+                .failedDates(new ArrayList<>())
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+        if (!running.compareAndSet(null, "")) {
+            throw new IllegalStateException("Đang có một tiến trình tính lại thống kê chạy: " + running.get());
+        }
+        try {
+            job = statisticsBackfillJobRepository.save(job);
+        } catch (RuntimeException e) {
+            running.set(null);
+            throw e;
+        }
+        launch(job);
+        return convertToDTO(findJob(job.getId()));
+    }
+
+    // Chạy tiếp tiến trình bị hủy / gián đoạn / có ngày lỗi: chỉ tính các ngày chưa xong
+    public StatisticsBackfillJobDTO resume(String id) {
+        StatisticsBackfillJob job = findJob(id);
+        if (COMPLETED.equals(job.getStatus())) {
+            throw new IllegalStateException("Tiến trình đã hoàn tất: " + id);
+        }
+        if (!running.compareAndSet(null, "")) {
+            throw new IllegalStateException("Đang có một tiến trình tính lại thống kê chạy: " + running.get());
+        }
+        launch(job);
+        return convertToDTO(findJob(id));
+    }
+
+    // Yêu cầu dừng tiến trình đang chạy; các ngày đang tính dở vẫn được tính xong
+    public StatisticsBackfillJobDTO cancel(String id) {
+        StatisticsBackfillJob job = findJob(id);
+        if (id.equals(running.get())) {
+            cancelRequested = true;
+        } else if (RUNNING.equals(job.getStatus())) {
+            // Tiến trình không còn chạy trên ứng dụng này (ví dụ ứng dụng đã khởi động lại)
+            finish(id, INTERRUPTED);
+            job = findJob(id);
+        } else {
+            throw new IllegalStateException("Tiến trình không chạy: " + id);
+        }
+        return convertToDTO(job);
+    }
+
+    public StatisticsBackfillJobDTO getJob(String id) {
+        return convertToDTO(findJob(id));
+    }
+
+    public List<StatisticsBackfillJobDTO> getJobs() {
+        return statisticsBackfillJobRepository.findAllByOrderByCreatedAtDesc().stream()
+                .map(this::convertToDTO)
+                .collect(Collectors.toList());
+    }
+
+    // Các tiến trình còn RUNNING khi khởi động đã bị dừng cùng ứng dụng: đánh dấu để có thể chạy tiếp
+    @EventListener(ApplicationReadyEvent.class)
+    public void markInterrupted() {
+        mongoTemplate.updateMulti(new Query(Criteria.where("status").is(RUNNING)),
+                new Update().set("status", INTERRUPTED).set("updatedAt", new Date()), StatisticsBackfillJob.class);
+    }
+
+    private StatisticsBackfillJob findJob(String id) {
+        return statisticsBackfillJobRepository.findById(id)
+                .orElseThrow(() -> new RuntimeException("Không tìm thấy tiến trình tính lại thống kê với id: " + id));
+    }
+
+    private void launch(StatisticsBackfillJob job) {
+        running.set(job.getId());
+        cancelRequested = false;
+        Date now = new Date();
+        try {
+            mongoTemplate.updateFirst(new Query(Criteria.where("id").is(job.getId())), new Update()
+                    .set("status", RUNNING)
+                    .set("startedAt", now)
+                    .unset("finishedAt")
+                    .set("updatedAt", now), StatisticsBackfillJob.class);
+        } catch (RuntimeException e) {
+            running.set(null);
+            throw e;
+        }
+
+        Thread thread = new Thread(() -> {
+            try {
+                run(job);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                finish(job.getId(), FAILED);
+            } finally {
+                running.set(null);
+            }
+        }, "statistics-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run(StatisticsBackfillJob job) {
+        List<Date> days = days(job.getFromDate(), job.getToDate());
+        Set<Date> completed = new HashSet<>(job.getCompletedDates() != null ? job.getCompletedDates() : List.of());
+        List<Date> remaining = days.stream().filter(day -> !completed.contains(day)).toList();
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, concurrency), task -> {
+            Thread thread = new Thread(task, "statistics-backfill-day");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (Date day : remaining) {
+                tasks.add(executor.submit(() -> runDay(job.getId(), day)));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelRequested = true;
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Bản tổng hợp theo tuần / tháng: một lần cho mỗi khoảng chứa các ngày trong tiến trình
+        if (!cancelRequested) {
+            for (String resolution : List.of(StatisticsRollupService.WEEK, StatisticsRollupService.MONTH)) {
+                Set<Date> periods = new LinkedHashSet<>();
+                days.forEach(day -> periods.add(StatisticsRollupService.periodStart(resolution, day)));
+                for (Date periodStart : periods) {
+                    statisticsRollupService.rebuild(resolution, periodStart);
+                }
+            }
+        }
+
+        StatisticsBackfillJob result = findJob(job.getId());
+        boolean failed = result.getFailedDates() != null && !result.getFailedDates().isEmpty();
+        finish(job.getId(), cancelRequested ? CANCELLED : failed ? FAILED : COMPLETED);
+    }
+
+    // Tính lại thống kê của một ngày và ghi nhận kết quả vào tiến trình
+    private void runDay(String jobId, Date day) {
+        if (cancelRequested) return;
+        Query query = new Query(Criteria.where("id").is(jobId));
+        try {
+            statisticsService.generateDailyStatistics(day, false);
+            mongoTemplate.updateFirst(query, new Update()
+                    .addToSet("completedDates", day)
+                    .pull("failedDates", day)
+                    .set("updatedAt", new Date()), StatisticsBackfillJob.class);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            mongoTemplate.updateFirst(query, new Update()
+                    .addToSet("failedDates", day)
+                    .set("lastError", e.getMessage())
+                    .set("updatedAt", new Date()), StatisticsBackfillJob.class);
+        }
+    }
+
+    private void finish(String id, String status) {
+        Date now = new Date();
+        mongoTemplate.updateFirst(new Query(Criteria.where("id").is(id)), new Update()
+                .set("status", status)
+                .set("finishedAt", now)
+                .set("updatedAt", now), StatisticsBackfillJob.class);
+    }
+
+    // Đầu mỗi ngày trong khoảng [fromDay, toDay]
+    private static List<Date> days(Date fromDay, Date toDay) {
+        List<Date> days = new ArrayList<>();
+        for (Date day = fromDay; !day.after(toDay);
+             day = StatisticsRollupService.periodEnd(StatisticsRollupService.DAY, day)) {
+            days.add(day);
+        }
+        return days;
+    }
+
+    private StatisticsBackfillJobDTO convertToDTO(StatisticsBackfillJob job) {
+        int completedDays = job.getCompletedDates() != null ? job.getCompletedDates().size() : 0;
+        List<Date> failedDates = job.getFailedDates() != null ? job.getFailedDates() : List.of();
+        return StatisticsBackfillJobDTO.builder()
+                .id(job.getId())
+                .fromDate(job.getFromDate())
+                .toDate(job.getToDate())
+                .status(job.getStatus())
+                .totalDays(job.getTotalDays())
+                .completedDays(completedDays)
+                .failedDays(failedDates.size())
+                .progress(job.getTotalDays() > 0 ? completedDays * 100.0 / job.getTotalDays() : 100)
+                .failedDates(failedDates)
+                .lastError(job.getLastError())
+                .startedAt(job.getStartedAt())
+                .finishedAt(job.getFinishedAt())
+                .createdAt(job.getCreatedAt())
+                .updatedAt(job.getUpdatedAt())
+                .build();
+    }
+}
@@ -0,0 +1,248 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.model.Statistics;
+import jakarta.annotation.PostConstruct;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+// Thống kê theo nhiều độ phân giải: giờ, ngày, tuần, tháng.
+// Thống kê theo ngày nằm trong collection Statistics; bản tổng hợp theo giờ / tuần / tháng nằm trong StatisticsRollups
+// (cùng cấu trúc Statistics, thêm trường resolution). Bản theo tuần / tháng được dựng lại từ chuỗi thống kê theo ngày,
+// nên biểu đồ một năm chỉ đọc khoảng 12 bản ghi theo tháng thay vì mọi bản ghi theo ngày.
+@Service
+public class StatisticsRollupService {
+
+    public static final String HOUR = "hour";
+    public static final String DAY = "day";
+    public static final String WEEK = "week";
+    public static final String MONTH = "month";
+
+    public static final String ROLLUP_COLLECTION = "StatisticsRollups";
+
+    private static final List<String> RESOLUTIONS = List.of(HOUR, DAY, WEEK, MONTH);
+
+    private final MongoTemplate mongoTemplate;
+
+    public StatisticsRollupService(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    // Chỉ mục cho truy vấn theo khoảng thời gian của từng độ phân giải (collection không gắn với lớp @Document riêng)
+    @PostConstruct
+    public void ensureIndexes() {
+        mongoTemplate.indexOps(ROLLUP_COLLECTION).ensureIndex(new Index()
+                .on("resolution", Sort.Direction.ASC)
+                .on("date", Sort.Direction.ASC)
+                .unique()
+                .named("resolution_date"));
+    }
+
+    public static boolean isResolution(String resolution) {
+        return RESOLUTIONS.contains(resolution);
+    }
+
+    // Độ phân giải thô nhất còn cho biểu đồ đủ điểm với khoảng thời gian [from, to]
+    public static String resolutionFor(Date from, Date to) {
+        long days = (to.getTime() - from.getTime()) / (24L * 60 * 60 * 1000);
+        if (days <= 1) return HOUR;
+        if (days <= 31) return DAY;
+        if (days <= 180) return WEEK;
+        return MONTH;
+    }
+
+    // Độ phân giải cho các khoảng thời gian đặt sẵn: ngày -> giờ, tuần / tháng -> ngày, năm -> tháng
+    public static String resolutionForPeriod(String period) {
+        switch (period) {
+            case "day":
+                return HOUR;
+            case "week":
+            case "month":
+                return DAY;
+            default:
+                return MONTH;
+        }
+    }
+
+    // Thời điểm bắt đầu của khoảng (giờ / ngày / tuần bắt đầu từ thứ Hai / tháng) chứa date
+    public static Date periodStart(String resolution, Date date) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setFirstDayOfWeek(Calendar.MONDAY);
+        calendar.setTime(date);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        if (!HOUR.equals(resolution)) {
+            calendar.set(Calendar.HOUR_OF_DAY, 0);
+        }
+        if (WEEK.equals(resolution)) {
+            calendar.set(Calendar.DAY_OF_WEEK, Calendar.MONDAY);
+        } else if (MONTH.equals(resolution)) {
+            calendar.set(Calendar.DAY_OF_MONTH, 1);
+        }
+        return calendar.getTime();
+    }
+
+    // Thời điểm bắt đầu của khoảng kế tiếp
+    public static Date periodEnd(String resolution, Date periodStart) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(periodStart);
+        switch (resolution) {
+            case HOUR -> calendar.add(Calendar.HOUR_OF_DAY, 1);
+            case WEEK -> calendar.add(Calendar.WEEK_OF_YEAR, 1);
+            case MONTH -> calendar.add(Calendar.MONTH, 1);
+            default -> calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        return calendar.getTime();
+    }
+
+    // Điều kiện chọn bản ghi của một khoảng: thống kê theo ngày có thể mang giờ bất kỳ trong ngày (dữ liệu cũ)
+    public static Criteria periodCriteria(String resolution, Date periodStart) {
+        if (DAY.equals(resolution)) {
+            return Criteria.where("date").gte(periodStart).lt(periodEnd(DAY, periodStart));
+        }
+        return Criteria.where("resolution").is(resolution).and("date").is(periodStart);
+    }
+
+    // Các bản ghi của độ phân giải resolution trong khoảng [from, to], tăng dần theo thời gian
+    public List<Statistics> findRange(String resolution, Date from, Date to) {
+        Criteria inRange = Criteria.where("date").gte(periodStart(resolution, from)).lte(to);
+        if (DAY.equals(resolution)) {
+            return mongoTemplate.find(new Query(inRange).with(Sort.by(Sort.Direction.ASC, "date")), Statistics.class);
+        }
+        Query query = new Query(Criteria.where("resolution").is(resolution).andOperator(inRange))
+                .with(Sort.by(Sort.Direction.ASC, "date"));
+        return mongoTemplate.find(query, Statistics.class, ROLLUP_COLLECTION);
+    }
+
+    // Ghi đè bản tổng hợp theo giờ; xóa nếu khoảng không có đơn hàng / đánh giá nào
+    public void replaceHour(Date hourStart, Statistics statistics) {
+        replace(HOUR, hourStart, isEmpty(statistics) ? null : statistics);
+    }
+
+    // Xóa các bản tổng hợp theo giờ của một ngày (ngày không có đơn hàng / đánh giá)
+    public void removeHours(Date startOfDay) {
+        Query query = new Query(Criteria.where("resolution").is(HOUR).and("date")
+                .gte(startOfDay).lt(periodEnd(DAY, startOfDay)));
+        mongoTemplate.remove(query, ROLLUP_COLLECTION);
+    }
+
+    // Dựng lại bản tổng hợp theo tuần và theo tháng chứa ngày day từ các thống kê theo ngày
+    public void rebuildFromDaily(Date day) {
+        for (String resolution : List.of(WEEK, MONTH)) {
+            rebuild(resolution, periodStart(resolution, day));
+        }
+    }
+
+    // Dựng lại bản tổng hợp theo tuần / tháng bắt đầu lúc periodStart từ các thống kê theo ngày
+    public void rebuild(String resolution, Date periodStart) {
+        Query query = new Query(Criteria.where("date").gte(periodStart).lt(periodEnd(resolution, periodStart)));
+        List<Statistics> days = mongoTemplate.find(query, Statistics.class);
+        replace(resolution, periodStart, days.isEmpty() ? null : merge(days));
+    }
+
+    private void replace(String resolution, Date periodStart, Statistics statistics) {
+        Query query = new Query(periodCriteria(resolution, periodStart));
+        Statistics existing = mongoTemplate.findOne(query, Statistics.class, ROLLUP_COLLECTION);
+        if (statistics == null) {
+            if (existing != null) mongoTemplate.remove(query, ROLLUP_COLLECTION);
+            return;
+        }
+
+        Date now = new Date();
+        statistics.setId(existing != null ? existing.getId() : new ObjectId());
+        statistics.setResolution(resolution);
+        statistics.setDate(periodStart);
+        statistics.setCreatedAt(existing != null && existing.getCreatedAt() != null ? existing.getCreatedAt() : now);
+        statistics.setUpdatedAt(now);
+        mongoTemplate.save(statistics, ROLLUP_COLLECTION);
+    }
+
+    private static boolean isEmpty(Statistics statistics) {
+        return statistics.getTotalOrders() == 0
+                && (statistics.getCustomerFeedback() == null || statistics.getCustomerFeedback().getTotalReviews() == 0);
+    }
+
+    // Cộng các thống kê theo ngày thành một bản tổng hợp
+    private static Statistics merge(List<Statistics> days) {
+        Statistics total = Statistics.builder()
+                .totalOrdersByPaymentMethod(new HashMap<>())
+                .totalOrdersByStatus(new HashMap<>())
+                .totalOrdersByShippingMethod(new HashMap<>())
+                .build();
+        Map<ObjectId, Statistics.ProductSales> products = new LinkedHashMap<>();
+        Double highest = null;
+        Double lowest = null;
+        int totalReviews = 0, positiveReviews = 0, negativeReviews = 0;
+        double totalRating = 0;
+
+        for (Statistics day : days) {
+            total.setTotalOrders(total.getTotalOrders() + day.getTotalOrders());
+            total.setTotalItemsSold(total.getTotalItemsSold() + day.getTotalItemsSold());
+            total.setTotalRevenue(total.getTotalRevenue() + day.getTotalRevenue());
+            total.setTotalDiscounts(total.getTotalDiscounts() + day.getTotalDiscounts());
+            total.setTotalPaymentAmount(total.getTotalPaymentAmount() + day.getTotalPaymentAmount());
+            total.setTotalShippingCosts(total.getTotalShippingCosts() + day.getTotalShippingCosts());
+            total.setTotalPaymentFees(total.getTotalPaymentFees() + day.getTotalPaymentFees());
+            total.setNewCustomers(total.getNewCustomers() + day.getNewCustomers());
+            total.setReturningCustomers(total.getReturningCustomers() + day.getReturningCustomers());
+            total.setTotalCustomers(total.getTotalCustomers() + day.getTotalCustomers());
+            total.setTotalReturnedItems(total.getTotalReturnedItems() + day.getTotalReturnedItems());
+            total.setTotalRevenueFromReturns(total.getTotalRevenueFromReturns() + day.getTotalRevenueFromReturns());
+            addCounts(total.getTotalOrdersByPaymentMethod(), day.getTotalOrdersByPaymentMethod());
+            addCounts(total.getTotalOrdersByStatus(), day.getTotalOrdersByStatus());
+            addCounts(total.getTotalOrdersByShippingMethod(), day.getTotalOrdersByShippingMethod());
+
+            if (day.getTotalOrders() > 0) {
+                highest = highest == null ? day.getHighestOrderValue() : Math.max(highest, day.getHighestOrderValue());
+                lowest = lowest == null ? day.getLowestOrderValue() : Math.min(lowest, day.getLowestOrderValue());
+            }
+
+            if (day.getTopSellingProducts() != null) {
+                for (Statistics.ProductSales sales : day.getTopSellingProducts()) {
+                    Statistics.ProductSales product = products.computeIfAbsent(sales.getProductId(),
+                            id -> new Statistics.ProductSales(id, sales.getProductName(), 0, 0));
+                    product.setQuantitySold(product.getQuantitySold() + sales.getQuantitySold());
+                    product.setRevenueFromProduct(product.getRevenueFromProduct() + sales.getRevenueFromProduct());
+                }
+            }
+
+            Statistics.CustomerFeedback feedback = day.getCustomerFeedback();
+            if (feedback != null) {
+                totalReviews += feedback.getTotalReviews();
+                positiveReviews += feedback.getPositiveReviews();
+                negativeReviews += feedback.getNegativeReviews();
+                // Thống kê cũ chưa có totalRating: suy ra từ đánh giá trung bình
+                totalRating += feedback.getTotalRating() != 0 ? feedback.getTotalRating()
+                        : feedback.getAverageRating() * feedback.getTotalReviews();
+            }
+        }
+
+        List<Statistics.ProductSales> topSellingProducts = new ArrayList<>(products.values());
+        topSellingProducts.sort(Comparator.comparingDouble(Statistics.ProductSales::getRevenueFromProduct).reversed());
+        total.setTopSellingProducts(topSellingProducts);
+        total.setHighestOrderValue(highest != null ? highest : 0);
+        total.setLowestOrderValue(lowest != null ? lowest : 0);
+        total.setAverageOrderValue(total.getTotalOrders() > 0 ? total.getTotalRevenue() / total.getTotalOrders() : 0);
+        total.setCustomerFeedback(Statistics.CustomerFeedback.builder()
+                .averageRating(totalReviews > 0 ? totalRating / totalReviews : 0)
+                .totalReviews(totalReviews)
+                .positiveReviews(positiveReviews)
+                .negativeReviews(negativeReviews)
+                .totalRating(totalRating)
+                .build());
+        return total;
+    }
+
+    private static void addCounts(Map<String, Integer> total, Map<String, Integer> counts) {
+        if (counts != null) {
+            counts.forEach((key, value) -> total.merge(key, value, Integer::sum));
+        }
+    }
+}
@@ -4,56 +4,64 @@ import com.hcmute.pttechecommercewebsite.dto.StatisticsDTO;
 import com.hcmute.pttechecommercewebsite.model.Review;
 import com.hcmute.pttechecommercewebsite.model.Statistics;
 import com.hcmute.pttechecommercewebsite.model.Order;
-import com.hcmute.pttechecommercewebsite.model.Product;
-import com.hcmute.pttechecommercewebsite.repository.OrderRepository;
+import com.hcmute.pttechecommercewebsite.model.UserOrderIndex;
 import com.hcmute.pttechecommercewebsite.repository.ProductRepository;
-import com.hcmute.pttechecommercewebsite.repository.ReviewRepository;
 import com.hcmute.pttechecommercewebsite.repository.StatisticsRepository;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.ComparisonOperators;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class StatisticsService {
 
     @Autowired
-    private OrderRepository orderRepository;
+    private ProductRepository productRepository;
 
     @Autowired
-    private ProductRepository productRepository;
+    private StatisticsRepository statisticsRepository;
 
     @Autowired
-    private ReviewRepository reviewRepository;
+    private MongoTemplate mongoTemplate;
 
     @Autowired
-    private StatisticsRepository statisticsRepository;
+    private StatisticsAggregator statisticsAggregator;
 
-    // Lọc thống kê theo sortBy và period
-    public List<StatisticsDTO> getAllStatistics(String sortBy, String period) {
-        List<Statistics> statisticsList = statisticsRepository.findAll();
-
-        // Lọc thống kê theo thời gian
-        if (period != null) {
-            Date startDate = getStartDateForPeriod(period);
-            statisticsList = statisticsList.stream()
-                    .filter(stat -> stat.getDate().after(startDate))
-                    .collect(Collectors.toList());
-        }
+    @Autowired
+    private UserOrderIndexService userOrderIndexService;
 
-        // Sắp xếp theo 'newest' hoặc 'oldest'
-        if ("latest".equals(sortBy)) {
-            statisticsList.sort((s1, s2) -> s2.getDate().compareTo(s1.getDate()));
-        } else if ("oldest".equals(sortBy)) {
-            statisticsList.sort(Comparator.comparing(Statistics::getDate));
-        }
+    @Autowired
+    private StatisticsRollupService statisticsRollupService;
+
+    @Value("${statistics.reconcile-on-startup:true}")
+    private boolean reconcileOnStartup;
+
+    // Lọc thống kê theo sortBy và period (lọc và sắp xếp trên MongoDB theo chỉ mục trên date)
+    public List<StatisticsDTO> getAllStatistics(String sortBy, String period) {
+        Sort sort = "oldest".equals(sortBy) ? Sort.by(Sort.Direction.ASC, "date")
+                : "latest".equals(sortBy) ? Sort.by(Sort.Direction.DESC, "date") : Sort.unsorted();
+        Date startDate = period != null ? getStartDateForPeriod(period) : new Date(0);
+        List<Statistics> statisticsList = statisticsRepository.findByDateAfter(startDate, sort);
 
         // Chuyển đổi sang DTO
         return statisticsList.stream()
@@ -61,6 +69,37 @@ public class StatisticsService {
                 .collect(Collectors.toList());
     }
 
+    // Thống kê trong khoảng [from, to] theo độ phân giải resolution (hour / day / week / month), tăng dần theo thời gian.
+    // Không có resolution: chọn theo period (day / week / month / year) hoặc theo độ dài khoảng thời gian,
+    // để biểu đồ dài chỉ đọc các bản tổng hợp thô (ví dụ một năm: 12 bản theo tháng)
+    public List<StatisticsDTO> getStatisticsRange(Date from, Date to, String resolution, String period) {
+        if (from == null) {
+            from = period != null ? getStartDateForPeriod(period) : getStartOfDay(new Date());
+        }
+        if (to == null) {
+            to = new Date();
+        }
+        if (from.after(to)) {
+            throw new IllegalArgumentException("Thời gian bắt đầu phải trước thời gian kết thúc");
+        }
+
+        if (resolution == null) {
+            resolution = period != null ? StatisticsRollupService.resolutionForPeriod(period)
+                    : StatisticsRollupService.resolutionFor(from, to);
+        } else if (!StatisticsRollupService.isResolution(resolution)) {
+            throw new IllegalArgumentException("Độ phân giải không hợp lệ: " + resolution);
+        }
+
+        String rollup = resolution;
+        return statisticsRollupService.findRange(resolution, from, to).stream()
+                .map(statistics -> {
+                    StatisticsDTO dto = convertToDTO(statistics);
+                    dto.setResolution(rollup);
+                    return dto;
+                })
+                .collect(Collectors.toList());
+    }
+
     // Lấy chi tiết thống kê theo ID
     public StatisticsDTO getStatisticsById(String id) {
         Optional<Statistics> statisticsOptional = statisticsRepository.findById(id);
@@ -92,180 +131,236 @@ public class StatisticsService {
         return calendar.getTime();
     }
 
-    // Hàm để thực hiện thống kê vào cuối ngày
-    @Scheduled(cron = "0 * * * * ?") // Thực hiện mỗi phút
-    public void generateDailyStatistics() {
-        Date today = new Date();
-        Date startOfDay = getStartOfDay(today);
-        Date endOfDay = getEndOfDay(today);
-
-        // Kiểm tra xem đã có thống kê cho ngày hôm nay chưa (so sánh trong khoảng thời gian ngày)
-        Optional<Statistics> existingStatistics = statisticsRepository.findByDateBetween(startOfDay, endOfDay);
-
-        // Lấy tất cả các đơn hàng trong ngày
-        List<Order> orders = orderRepository.findByCreatedAtBetween(startOfDay, endOfDay);
-
-        // Tính toán các thông số thống kê
-        int totalOrders = orders.size();
-        int totalItemsSold = 0;
-        double totalRevenue = 0;
-        double totalDiscounts = 0;
-        double totalPaymentAmount = 0;
-        double totalShippingCosts = 0;
-        double totalPaymentFees = 0;
-        List<Statistics.ProductSales> topSellingProducts = new ArrayList<>();
-        int newCustomers = 0;
-        int returningCustomers = 0;
-        Map<String, Integer> totalOrdersByPaymentMethod = new HashMap<>();
-        Map<String, Integer> totalOrdersByStatus = new HashMap<>();
-        Map<String, Integer> totalOrdersByShippingMethod = new HashMap<>();
-        int totalReturnedItems = 0;
-        double totalRevenueFromReturns = 0;
-
-        double highestOrderValue = Double.MIN_VALUE;
-        double lowestOrderValue = Double.MAX_VALUE;
-
-        // Đếm số lượng sản phẩm bán ra và tổng doanh thu
-        Map<ObjectId, Integer> productSales = new HashMap<>();
-
-        // Các biến cho Customer Feedback
-        int totalReviews = 0;
-        int positiveReviews = 0;
-        int negativeReviews = 0;
-        double totalRating = 0;
-
-        // Lấy tất cả các đánh giá của sản phẩm trong ngày hôm nay
-        List<Review> reviews = reviewRepository.findByCreatedAtBetween(startOfDay, endOfDay);
-
-        // Đếm các đánh giá cho các sản phẩm trong ngày hôm nay
-        for (Review review : reviews) {
-            totalReviews++;
-            totalRating += review.getRating();
-            if (review.getRating() >= 4) {
-                positiveReviews++;
-            } else if (review.getRating() <= 2) {
-                negativeReviews++;
+    // Thống kê trong ngày được StatisticsAggregator cộng dồn từ các sự kiện đơn hàng / đánh giá.
+    // Đối soát hằng đêm: tính lại từ đầu thống kê của hôm qua và hôm nay để sửa các sai lệch (nếu có)
+    @Scheduled(cron = "${statistics.reconcile-cron:0 5 0 * * *}")
+    public void reconcileStatistics() {
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.DAY_OF_MONTH, -1);
+        generateDailyStatistics(calendar.getTime());
+        generateDailyStatistics(new Date());
+    }
+
+    // Tính lại thống kê hôm nay khi khởi động, làm mốc cho các lần cộng dồn tiếp theo
+    @EventListener(ApplicationReadyEvent.class)
+    public void reconcileToday() {
+        if (reconcileOnStartup) {
+            generateDailyStatistics(new Date());
+        }
+    }
+
+    // Tính lại các ngày mà StatisticsAggregator ghi cộng dồn thất bại (có thể đã ghi một phần)
+    @Scheduled(fixedDelayString = "${statistics.flush-interval-ms:10000}",
+            initialDelayString = "${statistics.flush-interval-ms:10000}")
+    public void recomputeStaleDays() {
+        for (Date day : statisticsAggregator.takeStaleDays()) {
+            try {
+                generateDailyStatistics(day);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                statisticsAggregator.markStale(day);
             }
         }
+    }
 
-        double averageRating = (totalReviews > 0) ? totalRating / totalReviews : 0;
+    // Tính lại toàn bộ thống kê của ngày chứa date từ các đơn hàng và đánh giá trong ngày
+    public void generateDailyStatistics(Date date) {
+        generateDailyStatistics(date, true);
+    }
 
-        // Đếm số lượng sản phẩm bán ra và tính toán doanh thu
-        for (Order order : orders) {
-            totalPaymentAmount += order.getFinalPrice();
-            totalShippingCosts += order.getShippingPrice();
-            totalPaymentFees += order.getFinalPrice();
-            totalRevenue += order.getFinalPrice();
-            totalDiscounts += order.getDiscountAmount();
-            totalItemsSold += order.getTotalItems();
+    // rebuildPeriods = false: không dựng lại bản tổng hợp theo tuần / tháng chứa ngày này
+    // (tiến trình backfill dựng lại một lần cho mỗi tuần / tháng sau khi tính xong các ngày).
+    // Chạy trong StatisticsAggregator.recompute: các thay đổi chưa ghi của ngày bị bỏ (đã nằm trong lần đọc lại)
+    // và không có lần flush / lệnh ghi đơn nào của ngày chen giữa lần đọc lại và lần ghi kết quả
+    public void generateDailyStatistics(Date date, boolean rebuildPeriods) {
+        statisticsAggregator.recompute(date, () -> recomputeDay(date, rebuildPeriods));
+    }
 
-            // Tính giá trị trung bình đơn hàng, giá trị cao nhất và thấp nhất
-            if (order.getFinalPrice() > highestOrderValue) {
-                highestOrderValue = order.getFinalPrice();
+    private void recomputeDay(Date date, boolean rebuildPeriods) {
+        Date startOfDay = getStartOfDay(date);
+        Date endOfDay = getEndOfDay(date);
+
+        Statistics statistics = computeStatistics(startOfDay, endOfDay);
+
+        // Ghi đè các số liệu lên thống kê của ngày (giữ ID, ngày và thời gian tạo của bản cũ) bằng một lệnh upsert
+        // theo ngày, thay cho đọc rồi save cả bản ghi
+        Document document = new Document();
+        mongoTemplate.getConverter().write(statistics, document);
+        Date now = new Date();
+        Update update = new Update();
+        document.forEach((field, value) -> {
+            if (!"_id".equals(field) && !"date".equals(field) && !"createdAt".equals(field)) {
+                update.set(field, value);
             }
-            if (order.getFinalPrice() < lowestOrderValue) {
-                lowestOrderValue = order.getFinalPrice();
+        });
+        update.set("updatedAt", now).setOnInsert("date", startOfDay).setOnInsert("createdAt", now);
+        mongoTemplate.upsert(new Query(StatisticsRollupService.periodCriteria(StatisticsRollupService.DAY, startOfDay)),
+                update, Statistics.class);
+
+        // Bản tổng hợp theo giờ của ngày (không suy ra được từ thống kê theo ngày nên tính lại từ đơn hàng),
+        // sau đó dựng lại bản theo tuần / tháng chứa ngày này
+        if (statistics.getTotalOrders() == 0 && statistics.getCustomerFeedback().getTotalReviews() == 0) {
+            statisticsRollupService.removeHours(startOfDay);
+        } else {
+            Date hourStart = startOfDay;
+            while (hourStart.before(endOfDay)) {
+                Date nextHour = StatisticsRollupService.periodEnd(StatisticsRollupService.HOUR, hourStart);
+                statisticsRollupService.replaceHour(hourStart, computeStatistics(hourStart, new Date(nextHour.getTime() - 1)));
+                hourStart = nextHour;
             }
+        }
+        if (rebuildPeriods) {
+            statisticsRollupService.rebuildFromDaily(startOfDay);
+        }
+    }
 
-            for (Order.Item item : order.getItems()) {
-                // Cập nhật doanh thu cho mỗi sản phẩm
-                productSales.put(item.getProductId(), productSales.getOrDefault(item.getProductId(), 0) + item.getQuantity());
-            }
+    // Tính thống kê của một khoảng thời gian (ngày / giờ) bằng một pipeline $facet trên Orders (tổng, phân loại,
+    // sản phẩm bán chạy, người đặt) và một pipeline trên Reviews; tên sản phẩm được tra trong một truy vấn cho tất cả sản phẩm bán chạy.
+    private Statistics computeStatistics(Date start, Date end) {
+        Criteria inRange = Criteria.where("createdAt").gte(start).lte(end);
+
+        Aggregation orderPipeline = Aggregation.newAggregation(
+                Aggregation.match(inRange),
+                Aggregation.facet(
+                                Aggregation.group()
+                                        .count().as("totalOrders")
+                                        .sum("totalItems").as("totalItemsSold")
+                                        .sum("finalPrice").as("totalRevenue")
+                                        .sum("discountAmount").as("totalDiscounts")
+                                        .sum("shippingPrice").as("totalShippingCosts")
+                                        .max("finalPrice").as("highestOrderValue")
+                                        .min("finalPrice").as("lowestOrderValue")
+                                        .sum(returnedOnly("$totalItems")).as("totalReturnedItems")
+                                        .sum(returnedOnly("$finalPrice")).as("totalRevenueFromReturns"))
+                        .as("totals")
+                        .and(Aggregation.group("paymentMethod").count().as("count")).as("byPaymentMethod")
+                        .and(Aggregation.group("orderStatus").count().as("count")).as("byStatus")
+                        .and(Aggregation.group("shippingMethod").count().as("count")).as("byShippingMethod")
+                        .and(Aggregation.unwind("items"),
+                                Aggregation.group("items.productId")
+                                        .first("items.productName").as("productName")
+                                        .sum("items.quantity").as("quantitySold")
+                                        .sum("items.totalPrice").as("revenueFromProduct"),
+                                Aggregation.sort(Sort.Direction.DESC, "revenueFromProduct"))
+                        .as("topSellingProducts")
+                        .and(Aggregation.group("userId").min("createdAt").as("firstOrderAt").count().as("orders"))
+                        .as("customers"));
+        Document facets = mongoTemplate.aggregate(orderPipeline, Order.class, Document.class).getUniqueMappedResult();
+        if (facets == null) {
+            facets = new Document();
+        }
 
-            // Phân loại theo phương thức thanh toán
-            totalOrdersByPaymentMethod.put(order.getPaymentMethod(), totalOrdersByPaymentMethod.getOrDefault(order.getPaymentMethod(), 0) + 1);
+        Document totals = facets.getList("totals", Document.class, List.of()).stream().findFirst().orElse(new Document());
+        int totalOrders = intValue(totals.get("totalOrders"));
+        double totalRevenue = doubleValue(totals.get("totalRevenue"));
 
-            // Phân loại theo trạng thái đơn hàng
-            totalOrdersByStatus.put(order.getOrderStatus(), totalOrdersByStatus.getOrDefault(order.getOrderStatus(), 0) + 1);
+        // Khách hàng mới / quay lại: đơn đầu tiên trong ngày của một người dùng là của khách mới nếu người dùng
+        // chưa có đơn nào trước đó; các đơn sau trong ngày đều là của khách quay lại
+        List<Document> customerGroups = facets.getList("customers", Document.class, List.of());
+        Map<ObjectId, UserOrderIndex> customers = userOrderIndexService.find(customerGroups.stream()
+                .map(group -> group.get("_id") instanceof ObjectId ? (ObjectId) group.get("_id") : null)
+                .toList());
+        int newCustomers = 0;
+        int returningCustomers = 0;
+        for (Document group : customerGroups) {
+            int orders = intValue(group.get("orders"));
+            boolean returning = group.get("_id") instanceof ObjectId
+                    && UserOrderIndexService.isReturning(customers.get((ObjectId) group.get("_id")), group.getDate("firstOrderAt"));
+            newCustomers += returning ? 0 : 1;
+            returningCustomers += returning ? orders : orders - 1;
+        }
 
-            // Phân loại theo phương thức vận chuyển
-            totalOrdersByShippingMethod.put(order.getShippingMethod(), totalOrdersByShippingMethod.getOrDefault(order.getShippingMethod(), 0) + 1);
+        // Sản phẩm bán chạy, doanh thu theo giá đã bán (Order.Item.totalPrice)
+        List<Document> productGroups = facets.getList("topSellingProducts", Document.class, List.of());
+        Set<String> productIds = new HashSet<>();
+        for (Document group : productGroups) {
+            if (group.get("_id") instanceof ObjectId) productIds.add(group.get("_id").toString());
+        }
+        Map<String, String> productNames = new HashMap<>();
+        productRepository.findAllById(productIds).forEach(product -> productNames.put(product.getId(), product.getName()));
 
-            // Tính toán số khách hàng quay lại
-            if (isReturningCustomer(order)) {
-                returningCustomers++;
-            } else {
-                newCustomers++;
-            }
+        List<Statistics.ProductSales> topSellingProducts = new ArrayList<>();
+        for (Document group : productGroups) {
+            if (!(group.get("_id") instanceof ObjectId)) continue;
+            ObjectId productId = (ObjectId) group.get("_id");
+            topSellingProducts.add(new Statistics.ProductSales(productId,
+                    productNames.getOrDefault(productId.toString(), group.getString("productName")),
+                    intValue(group.get("quantitySold")),
+                    doubleValue(group.get("revenueFromProduct"))));
+        }
 
-            // Kiểm tra các đơn hàng trả lại
-            if (order.getOrderStatus().equals("Trả hàng")) {
-                totalReturnedItems += order.getTotalItems();
-                totalRevenueFromReturns += order.getFinalPrice();
-            }
+        // Đánh giá của khách hàng trong ngày
+        Aggregation reviewPipeline = Aggregation.newAggregation(
+                Aggregation.match(inRange),
+                Aggregation.group()
+                        .count().as("totalReviews")
+                        .sum("rating").as("totalRating")
+                        .sum(ConditionalOperators.when(ComparisonOperators.valueOf("rating").greaterThanEqualToValue(4))
+                                .then(1).otherwise(0)).as("positiveReviews")
+                        .sum(ConditionalOperators.when(ComparisonOperators.valueOf("rating").lessThanEqualToValue(2))
+                                .then(1).otherwise(0)).as("negativeReviews"));
+        Document reviews = mongoTemplate.aggregate(reviewPipeline, Review.class, Document.class).getUniqueMappedResult();
+        if (reviews == null) {
+            reviews = new Document();
         }
+        int totalReviews = intValue(reviews.get("totalReviews"));
+        double totalRating = doubleValue(reviews.get("totalRating"));
+
+        return Statistics.builder()
+                .date(start)
+                .totalOrders(totalOrders)
+                .totalItemsSold(intValue(totals.get("totalItemsSold")))
+                .totalRevenue(totalRevenue)
+                .totalDiscounts(doubleValue(totals.get("totalDiscounts")))
+                .totalPaymentAmount(totalRevenue)
+                .totalShippingCosts(doubleValue(totals.get("totalShippingCosts")))
+                .totalPaymentFees(totalRevenue)
+                .topSellingProducts(topSellingProducts)
+                .newCustomers(newCustomers)
+                .totalCustomers(newCustomers + returningCustomers)
+                .returningCustomers(returningCustomers)
+                .totalOrdersByPaymentMethod(countsOf(facets, "byPaymentMethod"))
+                .totalOrdersByStatus(countsOf(facets, "byStatus"))
+                .totalOrdersByShippingMethod(countsOf(facets, "byShippingMethod"))
+                .totalReturnedItems(intValue(totals.get("totalReturnedItems")))
+                .totalRevenueFromReturns(doubleValue(totals.get("totalRevenueFromReturns")))
+                .averageOrderValue(totalOrders > 0 ? totalRevenue / totalOrders : 0)
+                .highestOrderValue(doubleValue(totals.get("highestOrderValue")))
+                .lowestOrderValue(doubleValue(totals.get("lowestOrderValue")))
+                .customerFeedback(Statistics.CustomerFeedback.builder()
+                        .averageRating(totalReviews > 0 ? totalRating / totalReviews : 0)
+                        .totalReviews(totalReviews)
+                        .positiveReviews(intValue(reviews.get("positiveReviews")))
+                        .negativeReviews(intValue(reviews.get("negativeReviews")))
+                        .totalRating(totalRating)
+                        .build())
+                .build();
+    }
 
-        // Lấy top sản phẩm bán chạy
-        for (Map.Entry<ObjectId, Integer> entry : productSales.entrySet()) {
-            Product product = productRepository.findById(entry.getKey().toString()).orElse(null);
-            if (product != null) {
-                topSellingProducts.add(new Statistics.ProductSales(entry.getKey(), product.getName(), entry.getValue(), product.getPricing().getCurrent() * entry.getValue()));
+    // Giá trị field nếu đơn ở trạng thái đã trả hàng, ngược lại 0
+    private static AggregationExpression returnedOnly(String field) {
+        return ConditionalOperators.when(ComparisonOperators.valueOf("orderStatus").equalToValue(StatisticsAggregator.RETURNED_STATUS))
+                .thenValueOf(field)
+                .otherwise(0);
+    }
+
+    // Kết quả group theo khóa của một facet thành map khóa -> số đơn (bỏ khóa null)
+    private static Map<String, Integer> countsOf(Document facets, String facet) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Document group : facets.getList(facet, Document.class, List.of())) {
+            if (group.get("_id") != null) {
+                counts.put(group.get("_id").toString(), intValue(group.get("count")));
             }
         }
+        return counts;
+    }
 
-        // Tính toán giá trị trung bình của đơn hàng
-        double averageOrderValue = totalRevenue / totalOrders;
-
-        // Nếu đã có thống kê cho ngày hôm nay, cập nhật lại
-        if (existingStatistics.isPresent()) {
-            Statistics existingStat = existingStatistics.get();
-
-            // Cập nhật các trường thống kê
-            existingStat.setTotalOrders(totalOrders);
-            existingStat.setTotalItemsSold(totalItemsSold);
-            existingStat.setTotalRevenue(totalRevenue);
-            existingStat.setTotalDiscounts(totalDiscounts);
-            existingStat.setTotalPaymentAmount(totalPaymentAmount);
-            existingStat.setTotalShippingCosts(totalShippingCosts);
-            existingStat.setTotalPaymentFees(totalPaymentFees);
-            existingStat.setTopSellingProducts(topSellingProducts);
-            existingStat.setNewCustomers(newCustomers);
-            existingStat.setTotalCustomers(newCustomers + returningCustomers);
-            existingStat.setReturningCustomers(returningCustomers);
-            existingStat.setTotalOrdersByPaymentMethod(totalOrdersByPaymentMethod);
-            existingStat.setTotalOrdersByStatus(totalOrdersByStatus);
-            existingStat.setTotalOrdersByShippingMethod(totalOrdersByShippingMethod);
-            existingStat.setTotalReturnedItems(totalReturnedItems);
-            existingStat.setTotalRevenueFromReturns(totalRevenueFromReturns);
-            existingStat.setAverageOrderValue(averageOrderValue);
-            existingStat.setHighestOrderValue(highestOrderValue);
-            existingStat.setLowestOrderValue(lowestOrderValue);
-
-            // Cập nhật Customer Feedback
-            Statistics.CustomerFeedback customerFeedback = new Statistics.CustomerFeedback(averageRating, totalReviews, positiveReviews, negativeReviews);
-            existingStat.setCustomerFeedback(customerFeedback);
-
-            // Lưu lại bản cập nhật
-            statisticsRepository.save(existingStat);
-        } else {
-            // Tạo mới nếu chưa có thống kê cho ngày hôm nay
-            Statistics statistics = Statistics.builder()
-                    .date(today)
-                    .totalOrders(totalOrders)
-                    .totalItemsSold(totalItemsSold)
-                    .totalRevenue(totalRevenue)
-                    .totalDiscounts(totalDiscounts)
-                    .totalPaymentAmount(totalPaymentAmount)
-                    .totalShippingCosts(totalShippingCosts)
-                    .totalPaymentFees(totalPaymentFees)
-                    .topSellingProducts(topSellingProducts)
-                    .newCustomers(newCustomers)
-                    .totalCustomers(newCustomers + returningCustomers)
-                    .returningCustomers(returningCustomers)
-                    .totalOrdersByPaymentMethod(totalOrdersByPaymentMethod)
-                    .totalOrdersByStatus(totalOrdersByStatus)
-                    .totalOrdersByShippingMethod(totalOrdersByShippingMethod)
-                    .totalReturnedItems(totalReturnedItems)
-                    .totalRevenueFromReturns(totalRevenueFromReturns)
-                    .averageOrderValue(averageOrderValue)
-                    .highestOrderValue(highestOrderValue)
-                    .lowestOrderValue(lowestOrderValue)
-                    .customerFeedback(new Statistics.CustomerFeedback(averageRating, totalReviews, positiveReviews, negativeReviews))
-                    .build();
-
-            // Lưu thống kê mới
-            statisticsRepository.save(statistics);
-        }
+    private static int intValue(Object value) {
+        return value instanceof Number ? ((Number) value).intValue() : 0;
+    }
+
+    private static double doubleValue(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : 0;
     }
 
     // Hàm để lấy thời gian bắt đầu của ngày
@@ -290,159 +385,50 @@ public class StatisticsService {
         return calendar.getTime();
     }
 
-    // Hàm kiểm tra khách hàng có quay lại hay không
-    private boolean isReturningCustomer(Order order) {
-        return orderRepository.findByUserIdAndIsDeletedFalse(order.getUserId()).size() > 1;
-    }
-
-    public ByteArrayOutputStream exportStatisticsToExcel(String sortBy, String period) throws IOException {
-        List<StatisticsDTO> statisticsList = getAllStatistics(sortBy, period);
-
-        // Tạo workbook Excel
-        XSSFWorkbook workbook = new XSSFWorkbook();
-        Sheet sheet = workbook.createSheet("Statistics");
-
-        // Định dạng chung cho workbook
-        CellStyle headerStyle = workbook.createCellStyle();
-        Font headerFont = workbook.createFont();
-        headerFont.setBold(true);
-        headerFont.setFontHeightInPoints((short) 12);
-        headerFont.setColor(IndexedColors.WHITE.getIndex());
-        headerStyle.setFont(headerFont);
-        headerStyle.setAlignment(HorizontalAlignment.CENTER);
-        headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-        headerStyle.setFillForegroundColor(IndexedColors.GREY_50_PERCENT.getIndex());
-        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
-        // Tạo dòng tiêu đề
-        Row headerRow = sheet.createRow(0);
-        String[] columns = {
-                "ID", "Ngày thống kê", "Tổng số đơn hàng", "Tổng số sản phẩm bán", "Tổng doanh thu", "Tổng giảm giá",
-                "Tổng thanh toán", "Tổng chi phí vận chuyển", "Tổng phí thanh toán", "Sản phẩm bán chạy", "Khách hàng mới",
-                "Tổng khách hàng", "Khách hàng quay lại", "Đánh giá trung bình", "Tổng số đánh giá", "Đánh giá tích cực",
-                "Đánh giá tiêu cực", "Giá trị trung bình của đơn hàng", "Giá trị cao nhất của đơn hàng",
-                "Giá trị thấp nhất của đơn hàng", "Tổng số sản phẩm trả lại", "Doanh thu từ sản phẩm trả lại"
-        };
-        for (int i = 0; i < columns.length; i++) {
-            Cell cell = headerRow.createCell(i);
-            cell.setCellValue(columns[i]);
-            cell.setCellStyle(headerStyle);
-        }
-
-        // Định dạng cho dữ liệu
-        CellStyle dataStyle = workbook.createCellStyle();
-        dataStyle.setAlignment(HorizontalAlignment.CENTER);
-        dataStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-
-        // Thêm dữ liệu thống kê vào file Excel
-        int rowNum = 1;
-        for (StatisticsDTO statistics : statisticsList) {
-            Row row = sheet.createRow(rowNum++);
-
-            // Cột ID
-            row.createCell(0).setCellValue(statistics.getId());
-            row.getCell(0).setCellStyle(dataStyle);
-
-            // Cột Ngày thống kê
-            row.createCell(1).setCellValue(statistics.getDate().toString());
-            row.getCell(1).setCellStyle(dataStyle);
-
-            // Cột Tổng số đơn hàng
-            row.createCell(2).setCellValue(statistics.getTotalOrders());
-            row.getCell(2).setCellStyle(dataStyle);
-
-            // Cột Tổng số sản phẩm bán
-            row.createCell(3).setCellValue(statistics.getTotalItemsSold());
-            row.getCell(3).setCellStyle(dataStyle);
-
-            // Cột Tổng doanh thu
-            row.createCell(4).setCellValue(statistics.getTotalRevenue());
-            row.getCell(4).setCellStyle(dataStyle);
-
-            // Cột Tổng giảm giá
-            row.createCell(5).setCellValue(statistics.getTotalDiscounts());
-            row.getCell(5).setCellStyle(dataStyle);
-
-            // Cột Tổng thanh toán
-            row.createCell(6).setCellValue(statistics.getTotalPaymentAmount());
-            row.getCell(6).setCellStyle(dataStyle);
-
-            // Cột Tổng chi phí vận chuyển
-            row.createCell(7).setCellValue(statistics.getTotalShippingCosts());
-            row.getCell(7).setCellStyle(dataStyle);
-
-            // Cột Tổng phí thanh toán
-            row.createCell(8).setCellValue(statistics.getTotalPaymentFees());
-            row.getCell(8).setCellStyle(dataStyle);
-
-            // Cột Sản phẩm bán chạy (Tạo chuỗi từ topSellingProducts)
-            row.createCell(9).setCellValue(getTopSellingProductsString(statistics.getTopSellingProducts()));
-            row.getCell(9).setCellStyle(dataStyle);
-
-            // Cột Khách hàng mới
-            row.createCell(10).setCellValue(statistics.getNewCustomers());
-            row.getCell(10).setCellStyle(dataStyle);
-
-            // Cột Tổng khách hàng
-            row.createCell(11).setCellValue(statistics.getTotalCustomers());
-            row.getCell(11).setCellStyle(dataStyle);
-
-            // Cột Khách hàng quay lại
-            row.createCell(12).setCellValue(statistics.getReturningCustomers());
-            row.getCell(12).setCellStyle(dataStyle);
-
-            // Cột Đánh giá trung bình
-            row.createCell(13).setCellValue(statistics.getCustomerFeedback().getAverageRating());
-            row.getCell(13).setCellStyle(dataStyle);
-
-            // Cột Tổng số đánh giá
-            row.createCell(14).setCellValue(statistics.getCustomerFeedback().getTotalReviews());
-            row.getCell(14).setCellStyle(dataStyle);
-
-            // Cột Đánh giá tích cực
-            row.createCell(15).setCellValue(statistics.getCustomerFeedback().getPositiveReviews());
-            row.getCell(15).setCellStyle(dataStyle);
-
-            // Cột Đánh giá tiêu cực
-            row.createCell(16).setCellValue(statistics.getCustomerFeedback().getNegativeReviews());
-            row.getCell(16).setCellStyle(dataStyle);
-
-            // Cột Giá trị trung bình của đơn hàng
-            row.createCell(17).setCellValue(statistics.getAverageOrderValue());
-            row.getCell(17).setCellStyle(dataStyle);
-
-            // Cột Giá trị cao nhất của đơn hàng
-            row.createCell(18).setCellValue(statistics.getHighestOrderValue());
-            row.getCell(18).setCellStyle(dataStyle);
-
-            // Cột Giá trị thấp nhất của đơn hàng
-            row.createCell(19).setCellValue(statistics.getLowestOrderValue());
-            row.getCell(19).setCellStyle(dataStyle);
-
-            // Cột Tổng số sản phẩm trả lại
-            row.createCell(20).setCellValue(statistics.getTotalReturnedItems());
-            row.getCell(20).setCellStyle(dataStyle);
-
-            // Cột Doanh thu từ sản phẩm trả lại
-            row.createCell(21).setCellValue(statistics.getTotalRevenueFromReturns());
-            row.getCell(21).setCellStyle(dataStyle);
+    // Các cột của file Excel thống kê
+    private static final List<ExcelExportUtil.Column<StatisticsDTO>> STATISTICS_EXPORT_COLUMNS = List.of(
+            ExcelExportUtil.Column.of("ID", StatisticsDTO::getId),
+            ExcelExportUtil.Column.of("Ngày thống kê", s -> s.getDate().toString()),
+            ExcelExportUtil.Column.of("Tổng số đơn hàng", StatisticsDTO::getTotalOrders),
+            ExcelExportUtil.Column.of("Tổng số sản phẩm bán", StatisticsDTO::getTotalItemsSold),
+            ExcelExportUtil.Column.of("Tổng doanh thu", StatisticsDTO::getTotalRevenue),
+            ExcelExportUtil.Column.of("Tổng giảm giá", StatisticsDTO::getTotalDiscounts),
+            ExcelExportUtil.Column.of("Tổng thanh toán", StatisticsDTO::getTotalPaymentAmount),
+            ExcelExportUtil.Column.of("Tổng chi phí vận chuyển", StatisticsDTO::getTotalShippingCosts),
+            ExcelExportUtil.Column.of("Tổng phí thanh toán", StatisticsDTO::getTotalPaymentFees),
+            ExcelExportUtil.Column.of("Sản phẩm bán chạy", s -> getTopSellingProductsString(s.getTopSellingProducts())),
+            ExcelExportUtil.Column.of("Khách hàng mới", StatisticsDTO::getNewCustomers),
+            ExcelExportUtil.Column.of("Tổng khách hàng", StatisticsDTO::getTotalCustomers),
+            ExcelExportUtil.Column.of("Khách hàng quay lại", StatisticsDTO::getReturningCustomers),
+            ExcelExportUtil.Column.of("Đánh giá trung bình", s -> s.getCustomerFeedback().getAverageRating()),
+            ExcelExportUtil.Column.of("Tổng số đánh giá", s -> s.getCustomerFeedback().getTotalReviews()),
+            ExcelExportUtil.Column.of("Đánh giá tích cực", s -> s.getCustomerFeedback().getPositiveReviews()),
+            ExcelExportUtil.Column.of("Đánh giá tiêu cực", s -> s.getCustomerFeedback().getNegativeReviews()),
+            ExcelExportUtil.Column.of("Giá trị trung bình của đơn hàng", StatisticsDTO::getAverageOrderValue),
+            ExcelExportUtil.Column.of("Giá trị cao nhất của đơn hàng", StatisticsDTO::getHighestOrderValue),
+            ExcelExportUtil.Column.of("Giá trị thấp nhất của đơn hàng", StatisticsDTO::getLowestOrderValue),
+            ExcelExportUtil.Column.of("Tổng số sản phẩm trả lại", StatisticsDTO::getTotalReturnedItems),
+            ExcelExportUtil.Column.of("Doanh thu từ sản phẩm trả lại", StatisticsDTO::getTotalRevenueFromReturns)
+    );
+
+    // Xuất thống kê ra file Excel, đọc MongoDB theo cursor và ghi thẳng vào outputStream
+    public void exportStatisticsToExcel(String sortBy, String period, OutputStream outputStream) throws IOException {
+        Sort sort = Sort.unsorted();
+        if ("latest".equals(sortBy)) {
+            sort = Sort.by(Sort.Direction.DESC, "date");
+        } else if ("oldest".equals(sortBy)) {
+            sort = Sort.by(Sort.Direction.ASC, "date");
         }
 
-        // Tự động điều chỉnh độ rộng cột theo nội dung
-        for (int i = 0; i < columns.length; i++) {
-            sheet.autoSizeColumn(i);
+        try (Stream<Statistics> statistics = period != null
+                ? statisticsRepository.streamByDateAfter(getStartDateForPeriod(period), sort)
+                : statisticsRepository.streamAllBy(sort)) {
+            ExcelExportUtil.write(outputStream, "Statistics", STATISTICS_EXPORT_COLUMNS, statistics.map(this::convertToDTO));
         }
-
-        // Tạo OutputStream và ghi workbook vào đó
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        workbook.write(outputStream);
-        workbook.close();
-
-        return outputStream;
     }
 
     // Phương thức để lấy danh sách sản phẩm bán chạy dưới dạng chuỗi
-    private String getTopSellingProductsString(List<StatisticsDTO.ProductSalesDTO> topSellingProducts) {
+    private static String getTopSellingProductsString(List<StatisticsDTO.ProductSalesDTO> topSellingProducts) {
         StringBuilder sb = new StringBuilder();
         for (StatisticsDTO.ProductSalesDTO product : topSellingProducts) {
             sb.append(product.getProductName())
@@ -458,6 +444,7 @@ public class StatisticsService {
         return StatisticsDTO.builder()
                 .id(statistics.getId().toString())
                 .date(statistics.getDate())
+                .resolution(statistics.getResolution() != null ? statistics.getResolution() : StatisticsRollupService.DAY)
                 .totalOrders(statistics.getTotalOrders())
                 .totalItemsSold(statistics.getTotalItemsSold())
                 .totalRevenue(statistics.getTotalRevenue())
@@ -483,6 +470,9 @@ public class StatisticsService {
 
     // Chuyển đổi topSellingProducts
     private List<StatisticsDTO.ProductSalesDTO> convertToProductSalesDTO(List<Statistics.ProductSales> topSellingProducts) {
+        if (topSellingProducts == null) {
+            return new ArrayList<>();
+        }
         return topSellingProducts.stream()
                 .map(productSales -> new StatisticsDTO.ProductSalesDTO(
                         productSales.getProductId().toString(),
@@ -0,0 +1,152 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.model.Order;
+import com.hcmute.pttechecommercewebsite.model.StockHold;
+import com.hcmute.pttechecommercewebsite.repository.StockHoldRepository;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+// Giữ hàng có thời hạn cho các đơn VNPay chưa thanh toán.
+// Tồn kho đã được trừ khi tạo đơn (StockReservationService); lượt giữ ghi lại phần đã trừ cùng thời điểm hết hạn.
+// Khi IPN báo thanh toán thành công, lượt giữ bị xóa và phần trừ trở thành chính thức;
+// nếu quá hạn mà chưa thanh toán, tồn kho được trả lại ngay thay vì chờ đơn bị xóa sau 24 giờ.
+// Các lượt giữ quá hạn được tìm theo chỉ mục expiresAt nên không phải duyệt toàn bộ đơn hàng.
+@Service
+public class StockHoldService {
+
+    private static final int EXPIRE_BATCH_SIZE = 500;
+
+    private final StockHoldRepository stockHoldRepository;
+    private final StockReservationService stockReservationService;
+    private final MongoTemplate mongoTemplate;
+
+    // Cùng thời hạn với vnp_ExpireDate của URL thanh toán
+    @Value("${vnpay.payment-timeout-minutes:15}")
+    private int holdMinutes;
+
+    public StockHoldService(StockHoldRepository stockHoldRepository, StockReservationService stockReservationService,
+                            MongoTemplate mongoTemplate) {
+        this.stockHoldRepository = stockHoldRepository;
+        this.stockReservationService = stockReservationService;
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    // Tạo lượt giữ cho phần tồn kho đã trừ của đơn hàng
+    public void hold(Order order) {
+        Date now = new Date();
+        stockHoldRepository.save(StockHold.builder()
+                .orderId(order.getOrderId())
+                .items(toItems(order))
+                .expiresAt(expiryFrom(now))
+                .createdAt(now)
+                .build());
+    }
+
+    // Gia hạn lượt giữ khi khách tạo lại URL thanh toán; trả về false nếu lượt giữ không còn
+    public boolean extend(String orderId) {
+        Query query = new Query(Criteria.where("orderId").is(orderId));
+        Update update = new Update().set("expiresAt", expiryFrom(new Date()));
+        return mongoTemplate.updateFirst(query, update, StockHold.class).getModifiedCount() > 0;
+    }
+
+    // Đơn còn lượt giữ hàng (VNPay chưa thanh toán và chưa hết hạn)
+    public boolean exists(String orderId) {
+        return mongoTemplate.exists(new Query(Criteria.where("orderId").is(orderId)), StockHold.class);
+    }
+
+    // Ghi lại các dòng của lượt giữ theo số lượng mới của đơn (phần chênh lệch đã được trừ / trả khi sửa đơn).
+    // Trả về false nếu lượt giữ không còn: vừa hết hạn và tồn kho đã được trả theo các dòng cũ.
+    public boolean replaceItems(Order order) {
+        Query query = new Query(Criteria.where("orderId").is(order.getOrderId()));
+        return mongoTemplate.updateFirst(query, new Update().set("items", toItems(order)), StockHold.class)
+                .getMatchedCount() > 0;
+    }
+
+    // Xóa lượt giữ mà không trả tồn kho: thanh toán thành công (phần trừ trở thành chính thức),
+    // hoặc đơn bị hủy / xóa và tồn kho được trả theo đơn hàng. Trả về false nếu lượt giữ không còn.
+    public boolean remove(String orderId) {
+        Query query = new Query(Criteria.where("orderId").is(orderId));
+        return mongoTemplate.findAndRemove(query, StockHold.class) != null;
+    }
+
+    // Xóa lượt giữ của nhiều đơn cùng lúc (hủy / xóa hàng loạt); trả về mã các đơn mà lượt giữ được xóa bởi lời gọi này.
+    // Thường không còn lượt giữ nào nên chỉ tốn một lần đọc; mỗi lượt giữ còn lại được giành bằng findAndRemove.
+    public Set<String> removeAll(Collection<String> orderIds) {
+        Set<String> removed = new HashSet<>();
+        if (orderIds.isEmpty()) return removed;
+
+        Query query = new Query(Criteria.where("orderId").in(orderIds));
+        query.fields().include("orderId");
+        for (StockHold hold : mongoTemplate.find(query, StockHold.class)) {
+            if (remove(hold.getOrderId())) {
+                removed.add(hold.getOrderId());
+            }
+        }
+        return removed;
+    }
+
+    // Trả lại tồn kho của các lượt giữ đã quá hạn
+    @Scheduled(fixedDelayString = "${stock-hold.sweep-interval-ms:60000}")
+    public void expireHolds() {
+        List<StockHold> expired;
+        do {
+            Date now = new Date();
+            Query query = new Query(Criteria.where("expiresAt").lte(now))
+                    .with(Sort.by(Sort.Direction.ASC, "expiresAt"))
+                    .limit(EXPIRE_BATCH_SIZE);
+            expired = mongoTemplate.find(query, StockHold.class);
+
+            for (StockHold hold : expired) {
+                // Đánh dấu đơn trước để thanh toán đến muộn biết cần giữ lại hàng,
+                // rồi giành lượt giữ bằng findAndRemove để tồn kho chỉ được trả một lần
+                // (IPN đến cùng lúc hoặc nhiều instance cùng chạy)
+                Query order = new Query(Criteria.where("orderId").is(hold.getOrderId()));
+                mongoTemplate.updateFirst(order, new Update().set("stockReleased", true), Order.class);
+
+                Query claim = new Query(Criteria.where("_id").is(hold.getId()).and("expiresAt").lte(now));
+                StockHold claimed = mongoTemplate.findAndRemove(claim, StockHold.class);
+                if (claimed == null) {
+                    // Lượt giữ vừa được thanh toán hoặc gia hạn
+                    mongoTemplate.updateFirst(order, new Update().set("stockReleased", false), Order.class);
+                    continue;
+                }
+
+                stockReservationService.release(toLines(claimed));
+                System.out.println("Hết hạn giữ hàng cho đơn " + claimed.getOrderId() + ", đã trả lại tồn kho");
+            }
+        } while (expired.size() == EXPIRE_BATCH_SIZE);
+    }
+
+    private static List<StockHold.Item> toItems(Order order) {
+        List<StockHold.Item> items = new ArrayList<>();
+        for (Order.Item item : order.getItems()) {
+            items.add(StockHold.Item.builder()
+                    .productId(item.getProductId())
+                    .variantId(item.getVariantId())
+                    .quantity(item.getQuantity())
+                    .build());
+        }
+        return items;
+    }
+
+    private static List<StockReservationService.Line> toLines(StockHold hold) {
+        List<StockReservationService.Line> lines = new ArrayList<>();
+        for (StockHold.Item item : hold.getItems()) {
+            lines.add(new StockReservationService.Line(item.getProductId().toString(),
+                    item.getVariantId().toString(), item.getQuantity()));
+        }
+        return lines;
+    }
+
+    private Date expiryFrom(Date from) {
+        return new Date(from.getTime() + holdMinutes * 60_000L);
+    }
+}
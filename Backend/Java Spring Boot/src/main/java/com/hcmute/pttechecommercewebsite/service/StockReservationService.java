@@ -0,0 +1,150 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.model.Product;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+// Trừ / hoàn tồn kho theo biến thể bằng các lệnh $inc nguyên tử trên MongoDB.
+// Mỗi dòng chỉ được trừ khi biến thể còn đủ hàng (điều kiện stock >= quantity nằm trong chính lệnh update),
+// nên các đơn đặt đồng thời không thể làm tồn kho âm hay ghi đè lên nhau như khi đọc - sửa - save cả sản phẩm.
+// Mỗi dòng giữ hàng là một lệnh update riêng: kết quả của từng lệnh cho biết chính xác dòng nào đã bị trừ
+// (lệnh bulk chỉ trả về tổng số bản ghi bị sửa). Các dòng cần hoàn lại được gửi trong một lệnh bulk.
+@Service
+public class StockReservationService {
+
+    private final MongoTemplate mongoTemplate;
+    private final ApplicationEventPublisher eventPublisher;
+
+    public StockReservationService(MongoTemplate mongoTemplate, ApplicationEventPublisher eventPublisher) {
+        this.mongoTemplate = mongoTemplate;
+        this.eventPublisher = eventPublisher;
+    }
+
+    // Một dòng cần trừ tồn kho: số lượng của một biến thể trong một sản phẩm
+    public static class Line {
+        private final String productId;
+        private final String variantId;
+        private final int quantity;
+
+        public Line(String productId, String variantId, int quantity) {
+            this.productId = productId;
+            this.variantId = variantId;
+            this.quantity = quantity;
+        }
+
+        public String getProductId() {
+            return productId;
+        }
+
+        public String getVariantId() {
+            return variantId;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+    }
+
+    // Trừ tồn kho và tăng totalSold cho các dòng; trả về các dòng không đủ hàng (hoặc không tìm thấy sản phẩm/biến thể).
+    // allowPartial = false: chỉ cần một dòng thất bại là hoàn lại toàn bộ các dòng đã trừ.
+    // allowPartial = true: giữ lại các dòng đã trừ, chỉ trả về các dòng thất bại.
+    public List<Line> reserve(List<Line> lines, boolean allowPartial) {
+        List<Line> failed = new ArrayList<>();
+        List<Line> candidates = new ArrayList<>();
+        for (Line line : lines) {
+            if (line.quantity <= 0 || !ObjectId.isValid(line.productId) || !ObjectId.isValid(line.variantId)) {
+                failed.add(line);
+            } else {
+                candidates.add(line);
+            }
+        }
+        if (candidates.isEmpty()) return failed;
+
+        List<Line> applied = new ArrayList<>();
+        for (Line line : candidates) {
+            ObjectId variantId = new ObjectId(line.variantId);
+            Query query = new Query(Criteria.where("_id").is(new ObjectId(line.productId))
+                    .and("isDeleted").is(false)
+                    .and("variants").elemMatch(Criteria.where("variantId").is(variantId).and("stock").gte(line.quantity)));
+            Update update = new Update()
+                    .inc("variants.$[v].stock", -line.quantity)
+                    .inc("totalSold", line.quantity)
+                    .filterArray(Criteria.where("v.variantId").is(variantId));
+            if (mongoTemplate.updateFirst(query, update, Product.class).getModifiedCount() > 0) {
+                applied.add(line);
+            } else {
+                failed.add(line);
+            }
+        }
+
+        // Nếu không cho phép đặt một phần thì hoàn lại các dòng đã trừ
+        if (!failed.isEmpty() && !allowPartial) {
+            restore(applied);
+        }
+
+        publishSaved(candidates);
+        return failed;
+    }
+
+    // Hoàn lại tồn kho và giảm totalSold cho các dòng (hủy đơn, trả hàng, đơn thanh toán thất bại).
+    // Các dòng cùng biến thể (nhiều đơn hủy cùng lúc) được gộp thành một lệnh $inc.
+    public void release(List<Line> lines) {
+        Map<String, Line> merged = new LinkedHashMap<>();
+        for (Line line : lines) {
+            if (line.quantity > 0 && ObjectId.isValid(line.productId) && ObjectId.isValid(line.variantId)) {
+                merged.merge(line.productId + ":" + line.variantId, line,
+                        (a, b) -> new Line(a.productId, a.variantId, a.quantity + b.quantity));
+            }
+        }
+        if (merged.isEmpty()) return;
+
+        List<Line> valid = new ArrayList<>(merged.values());
+
+        restore(valid);
+        publishSaved(valid);
+    }
+
+    // Cộng lại tồn kho và giảm totalSold cho các dòng trong một lệnh bulk
+    private void restore(List<Line> lines) {
+        if (lines.isEmpty()) return;
+
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class);
+        for (Line line : lines) {
+            ObjectId variantId = new ObjectId(line.variantId);
+            bulk.updateOne(new Query(Criteria.where("_id").is(new ObjectId(line.productId))
+                            .and("variants.variantId").is(variantId)),
+                    new Update()
+                            .inc("variants.$[v].stock", line.quantity)
+                            .inc("totalSold", -line.quantity)
+                            .filterArray(Criteria.where("v.variantId").is(variantId)));
+        }
+        bulk.execute();
+    }
+
+    // Lệnh bulk update không phát sinh sự kiện lưu: đọc lại các sản phẩm và phát sự kiện
+    // để catalog, bảng xếp hạng và chỉ mục tìm kiếm thấy tồn kho / totalSold mới
+    private void publishSaved(List<Line> lines) {
+        String collection = mongoTemplate.getCollectionName(Product.class);
+        for (Product product : mongoTemplate.find(new Query(Criteria.where("_id").in(productIds(lines))), Product.class)) {
+            eventPublisher.publishEvent(new AfterSaveEvent<>(product, new Document(), collection));
+        }
+    }
+
+    private static Set<ObjectId> productIds(List<Line> lines) {
+        Set<ObjectId> productIds = new LinkedHashSet<>();
+        for (Line line : lines) {
+            productIds.add(new ObjectId(line.productId));
+        }
+        return productIds;
+    }
+}
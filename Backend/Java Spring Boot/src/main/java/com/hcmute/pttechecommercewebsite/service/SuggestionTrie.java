@@ -0,0 +1,358 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.dto.SuggestionDTO;
+import com.hcmute.pttechecommercewebsite.model.Brand;
+import com.hcmute.pttechecommercewebsite.model.Category;
+import com.hcmute.pttechecommercewebsite.model.Product;
+import com.hcmute.pttechecommercewebsite.repository.BrandRepository;
+import com.hcmute.pttechecommercewebsite.repository.CategoryRepository;
+import com.hcmute.pttechecommercewebsite.util.VietnameseTextUtil;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+// Cây tiền tố (trie) phục vụ gợi ý tìm kiếm (typeahead) theo tên sản phẩm, thương hiệu và danh mục.
+// Mỗi từ (đã bỏ dấu) của tên được đưa vào trie, nên gõ đầu của bất kỳ từ nào cũng cho ra gợi ý.
+// Mỗi nút lưu sẵn top gợi ý phổ biến nhất của nhánh con; khi dữ liệu thay đổi chỉ các nút trên đường đi bị làm mới.
+@Component
+public class SuggestionTrie {
+
+    public static final int MAX_SUGGESTIONS = 20;
+
+    private static final String PRODUCT = "product";
+    private static final String BRAND = "brand";
+    private static final String CATEGORY = "category";
+
+    // Phổ biến hơn xếp trước, cùng độ phổ biến thì tên ngắn hơn xếp trước
+    private static final Comparator<Suggestion> RANKING = Comparator
+            .comparingLong((Suggestion s) -> s.popularity).reversed()
+            .thenComparingInt(s -> s.text.length())
+            .thenComparing(s -> s.key);
+
+    private final MongoTemplate mongoTemplate;
+    private final BrandRepository brandRepository;
+    private final CategoryRepository categoryRepository;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private State state = new State();
+    private volatile boolean loaded = false;
+
+    public SuggestionTrie(MongoTemplate mongoTemplate, BrandRepository brandRepository, CategoryRepository categoryRepository) {
+        this.mongoTemplate = mongoTemplate;
+        this.brandRepository = brandRepository;
+        this.categoryRepository = categoryRepository;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    // Dựng lại toàn bộ trie từ MongoDB, chạy định kỳ để khắc phục các cập nhật không phát sinh sự kiện
+    @Scheduled(fixedDelayString = "${suggest.index.reload-interval-ms:900000}",
+            initialDelayString = "${suggest.index.reload-interval-ms:900000}")
+    public void rebuild() {
+        State fresh = new State();
+
+        Query query = new Query();
+        query.addCriteria(Criteria.where("isDeleted").is(false).and("status").ne("inactive"));
+        query.fields().include("name", "brandId", "categoryId", "totalSold", "status", "isDeleted");
+        try (Stream<Product> products = mongoTemplate.stream(query, Product.class)) {
+            products.forEach(fresh::putProduct);
+        }
+
+        // Thương hiệu / danh mục được thêm sau để độ phổ biến đã được cộng dồn từ sản phẩm
+        brandRepository.findAll().forEach(fresh::putBrand);
+        categoryRepository.findAll().forEach(fresh::putCategory);
+
+        lock.writeLock().lock();
+        try {
+            state = fresh;
+            loaded = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void upsertProduct(Product product) {
+        if (!loaded || product == null || product.getId() == null) return;
+        write(() -> state.putProduct(product));
+    }
+
+    public void upsertBrand(Brand brand) {
+        if (!loaded || brand == null || brand.getId() == null) return;
+        write(() -> state.putBrand(brand));
+    }
+
+    public void upsertCategory(Category category) {
+        if (!loaded || category == null || category.getId() == null) return;
+        write(() -> state.putCategory(category));
+    }
+
+    // Gợi ý theo tiền tố: các từ trước phải khớp trọn, từ cuối khớp theo tiền tố
+    public List<SuggestionDTO> suggest(String prefix, int limit) {
+        List<String> tokens = VietnameseTextUtil.tokenize(prefix);
+        if (tokens.isEmpty() || limit <= 0) return List.of();
+
+        if (!loaded) {
+            synchronized (this) {
+                if (!loaded) rebuild();
+            }
+        }
+
+        lock.readLock().lock();
+        try {
+            List<Suggestion> matches = state.suggest(tokens, Math.min(limit, MAX_SUGGESTIONS));
+            List<SuggestionDTO> result = new ArrayList<>(matches.size());
+            for (Suggestion s : matches) {
+                result.add(SuggestionDTO.builder()
+                        .text(s.text)
+                        .type(s.type)
+                        .id(s.refId)
+                        .popularity(s.popularity)
+                        .build());
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void write(Runnable action) {
+        lock.writeLock().lock();
+        try {
+            action.run();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Một gợi ý (bất biến, thay đổi bằng cách gỡ ra rồi thêm lại)
+    private static final class Suggestion {
+        final String key;
+        final String type;
+        final String refId;
+        final String text;
+        final Set<String> tokens;
+        final long popularity;
+
+        Suggestion(String type, String refId, String text, long popularity) {
+            this.key = type + ":" + refId;
+            this.type = type;
+            this.refId = refId;
+            this.text = text;
+            this.tokens = new LinkedHashSet<>(VietnameseTextUtil.tokenize(text));
+            this.popularity = popularity;
+        }
+
+        Suggestion withPopularity(long popularity) {
+            return new Suggestion(type, refId, text, popularity);
+        }
+    }
+
+    private static final class Node {
+        final Map<Character, Node> children = new HashMap<>();
+        final Set<Suggestion> entries = new HashSet<>();     // Gợi ý có một từ kết thúc tại nút này
+        volatile List<Suggestion> top;                        // Top gợi ý của nhánh con (null = cần tính lại)
+    }
+
+    // Số lượng đã bán và nhóm của một sản phẩm, để cộng dồn độ phổ biến cho thương hiệu / danh mục
+    private static final class ProductRef {
+        final String brandId;
+        final String categoryId;
+        final long sold;
+
+        ProductRef(String brandId, String categoryId, long sold) {
+            this.brandId = brandId;
+            this.categoryId = categoryId;
+            this.sold = sold;
+        }
+    }
+
+    // Trạng thái trie; mọi thao tác ghi đều nằm trong khóa ghi của SuggestionTrie
+    private static final class State {
+        final Node root = new Node();
+        final Map<String, Suggestion> entries = new HashMap<>();
+        final Map<String, ProductRef> products = new HashMap<>();
+        final Map<String, Long> soldByBrand = new HashMap<>();
+        final Map<String, Long> soldByCategory = new HashMap<>();
+
+        void putProduct(Product product) {
+            String id = product.getId();
+            ProductRef previous = products.remove(id);
+            if (previous != null) {
+                adjust(soldByBrand, previous.brandId, -previous.sold);
+                adjust(soldByCategory, previous.categoryId, -previous.sold);
+            }
+
+            Suggestion old = entries.remove(PRODUCT + ":" + id);
+            if (old != null) unlink(old);
+
+            if (ProductCatalog.isActive(product) && product.getName() != null) {
+                ProductRef ref = new ProductRef(
+                        product.getBrandId() != null ? product.getBrandId().toString() : null,
+                        product.getCategoryId() != null ? product.getCategoryId().toString() : null,
+                        Math.max(0, product.getTotalSold()));
+                products.put(id, ref);
+                adjust(soldByBrand, ref.brandId, ref.sold);
+                adjust(soldByCategory, ref.categoryId, ref.sold);
+                link(new Suggestion(PRODUCT, id, product.getName(), ref.sold));
+            }
+
+            if (previous != null) {
+                refreshPopularity(BRAND, previous.brandId, soldByBrand);
+                refreshPopularity(CATEGORY, previous.categoryId, soldByCategory);
+            }
+            ProductRef current = products.get(id);
+            if (current != null) {
+                refreshPopularity(BRAND, current.brandId, soldByBrand);
+                refreshPopularity(CATEGORY, current.categoryId, soldByCategory);
+            }
+        }
+
+        void putBrand(Brand brand) {
+            boolean visible = !brand.isDeleted() && brand.isActive();
+            putGroup(BRAND, brand.getId(), visible ? brand.getName() : null, soldByBrand);
+        }
+
+        void putCategory(Category category) {
+            boolean visible = !category.isDeleted() && category.isActive();
+            putGroup(CATEGORY, category.getId(), visible ? category.getName() : null, soldByCategory);
+        }
+
+        private void putGroup(String type, String id, String name, Map<String, Long> sold) {
+            Suggestion old = entries.remove(type + ":" + id);
+            if (old != null) unlink(old);
+            if (name != null) {
+                link(new Suggestion(type, id, name, sold.getOrDefault(id, 0L)));
+            }
+        }
+
+        private void refreshPopularity(String type, String id, Map<String, Long> sold) {
+            if (id == null) return;
+            Suggestion old = entries.get(type + ":" + id);
+            long popularity = sold.getOrDefault(id, 0L);
+            if (old == null || old.popularity == popularity) return;
+
+            entries.remove(old.key);
+            unlink(old);
+            link(old.withPopularity(popularity));
+        }
+
+        private static void adjust(Map<String, Long> totals, String key, long delta) {
+            if (key == null) return;
+            long value = totals.getOrDefault(key, 0L) + delta;
+            if (value == 0) totals.remove(key); else totals.put(key, value);
+        }
+
+        private void link(Suggestion suggestion) {
+            entries.put(suggestion.key, suggestion);
+            for (String token : suggestion.tokens) {
+                Node node = root;
+                node.top = null;
+                for (int i = 0; i < token.length(); i++) {
+                    node = node.children.computeIfAbsent(token.charAt(i), c -> new Node());
+                    node.top = null;
+                }
+                node.entries.add(suggestion);
+            }
+        }
+
+        private void unlink(Suggestion suggestion) {
+            for (String token : suggestion.tokens) {
+                Node[] path = new Node[token.length() + 1];
+                path[0] = root;
+                root.top = null;
+                int depth = 0;
+                while (depth < token.length()) {
+                    Node next = path[depth].children.get(token.charAt(depth));
+                    if (next == null) break;
+                    path[++depth] = next;
+                    next.top = null;
+                }
+                if (depth < token.length()) continue;
+
+                path[depth].entries.remove(suggestion);
+
+                // Cắt bỏ các nút không còn dữ liệu
+                for (int i = depth; i > 0; i--) {
+                    Node node = path[i];
+                    if (!node.entries.isEmpty() || !node.children.isEmpty()) break;
+                    path[i - 1].children.remove(token.charAt(i - 1));
+                }
+            }
+        }
+
+        private Node find(String prefix) {
+            Node node = root;
+            for (int i = 0; i < prefix.length() && node != null; i++) {
+                node = node.children.get(prefix.charAt(i));
+            }
+            return node;
+        }
+
+        List<Suggestion> suggest(List<String> tokens, int limit) {
+            String last = tokens.get(tokens.size() - 1);
+            Node node = find(last);
+            if (node == null) return List.of();
+
+            if (tokens.size() == 1) {
+                List<Suggestion> top = top(node);
+                return top.subList(0, Math.min(limit, top.size()));
+            }
+
+            // Nhiều từ: lấy tập ứng viên nhỏ nhất trong các từ đã gõ trọn, rồi lọc theo các từ còn lại
+            Set<Suggestion> candidates = null;
+            for (String token : tokens.subList(0, tokens.size() - 1)) {
+                Node exact = find(token);
+                if (exact == null || exact.entries.isEmpty()) return List.of();
+                if (candidates == null || exact.entries.size() < candidates.size()) candidates = exact.entries;
+            }
+
+            List<Suggestion> matches = new ArrayList<>();
+            for (Suggestion s : candidates) {
+                if (!s.tokens.containsAll(tokens.subList(0, tokens.size() - 1))) continue;
+                for (String token : s.tokens) {
+                    if (token.startsWith(last)) {
+                        matches.add(s);
+                        break;
+                    }
+                }
+            }
+            matches.sort(RANKING);
+            return matches.subList(0, Math.min(limit, matches.size()));
+        }
+
+        // Top gợi ý của nhánh con, tính lười và lưu lại tại nút cho tới khi nhánh thay đổi
+        private List<Suggestion> top(Node node) {
+            List<Suggestion> cached = node.top;
+            if (cached != null) return cached;
+
+            Set<Suggestion> all = new HashSet<>();
+            Deque<Node> stack = new ArrayDeque<>();
+            stack.push(node);
+            while (!stack.isEmpty()) {
+                Node current = stack.pop();
+                all.addAll(current.entries);
+                current.children.values().forEach(stack::push);
+            }
+
+            PriorityQueue<Suggestion> heap = new PriorityQueue<>(RANKING.reversed());
+            for (Suggestion s : all) {
+                heap.offer(s);
+                if (heap.size() > MAX_SUGGESTIONS) heap.poll();
+            }
+            List<Suggestion> result = new ArrayList<>(heap);
+            result.sort(RANKING);
+
+            cached = Collections.unmodifiableList(result);
+            node.top = cached;
+            return cached;
+        }
+    }
+}
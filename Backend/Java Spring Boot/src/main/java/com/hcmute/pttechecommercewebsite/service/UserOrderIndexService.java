@@ -0,0 +1,163 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.model.Order;
+import com.hcmute.pttechecommercewebsite.model.UserOrderIndex;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.stream.Stream;
+
+// Chỉ mục theo người dùng (UserOrderIndexes): thời gian đơn hàng đầu tiên và số đơn hàng chưa xóa.
+// Được cập nhật khi tạo / xóa đơn, dùng để phân loại khách hàng mới / quay lại trong thống kê bằng một truy vấn $in
+// cho cả lô đơn hàng, thay cho việc tải toàn bộ lịch sử đơn hàng của từng người dùng.
+@Service
+public class UserOrderIndexService {
+
+    private static final int BACKFILL_BATCH_SIZE = 500;
+
+    private final MongoTemplate mongoTemplate;
+
+    // Dựng chỉ mục từ các đơn hàng có sẵn khi ứng dụng khởi động
+    @Value("${user-order-index.backfill-on-startup:true}")
+    private boolean backfillOnStartup;
+
+    public UserOrderIndexService(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    // Ghi nhận đơn hàng mới của người dùng
+    public void recordPlaced(Order order) {
+        if (order.getUserId() == null || order.getCreatedAt() == null) return;
+        Update update = new Update()
+                .inc("orderCount", 1)
+                .min("firstOrderAt", order.getCreatedAt())
+                .set("updatedAt", new Date());
+        mongoTemplate.upsert(new Query(Criteria.where("userId").is(order.getUserId())), update, UserOrderIndex.class);
+    }
+
+    // Ghi nhận các đơn hàng bị xóa (xóa mềm)
+    public void recordRemoved(Collection<Order> orders) {
+        Map<ObjectId, Integer> removed = new HashMap<>();
+        for (Order order : orders) {
+            if (order.getUserId() != null) {
+                removed.merge(order.getUserId(), 1, Integer::sum);
+            }
+        }
+        if (removed.isEmpty()) return;
+
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserOrderIndex.class);
+        Date now = new Date();
+        removed.forEach((userId, count) -> bulk.updateOne(new Query(Criteria.where("userId").is(userId)),
+                new Update().inc("orderCount", -count).set("updatedAt", now)));
+        bulk.execute();
+
+        // $min không trừ ngược được: tính lại đơn đầu tiên của các người dùng bị ảnh hưởng (một lệnh aggregate)
+        refresh(removed.keySet());
+    }
+
+    // Chỉ mục của các người dùng trong userIds (một truy vấn $in)
+    public Map<ObjectId, UserOrderIndex> find(Collection<ObjectId> userIds) {
+        Map<ObjectId, UserOrderIndex> entries = new HashMap<>();
+        Set<ObjectId> ids = new HashSet<>(userIds);
+        ids.remove(null);
+        if (ids.isEmpty()) return entries;
+
+        for (UserOrderIndex entry : mongoTemplate.find(new Query(Criteria.where("userId").in(ids)), UserOrderIndex.class)) {
+            entries.put(entry.getUserId(), entry);
+        }
+        return entries;
+    }
+
+    // Đơn tạo lúc createdAt là của khách hàng quay lại nếu người dùng đã có đơn hàng trước đó
+    public static boolean isReturning(UserOrderIndex entry, Date createdAt) {
+        return entry != null && entry.getFirstOrderAt() != null && createdAt != null
+                && entry.getFirstOrderAt().before(createdAt);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startBackfill() {
+        if (!backfillOnStartup) return;
+
+        Thread thread = new Thread(() -> {
+            try {
+                int users = backfill();
+                if (users > 0) {
+                    System.out.println("Đã dựng chỉ mục đơn hàng đầu tiên cho " + users + " người dùng");
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, "user-order-index-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Dựng lại chỉ mục từ các đơn hàng chưa xóa: một lệnh aggregate gom theo người dùng, ghi theo lô bằng bulk upsert.
+    // Trả về số người dùng đã ghi.
+    public int backfill() {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("isDeleted").is(false).and("userId").ne(null)),
+                Aggregation.group("userId").min("createdAt").as("firstOrderAt").count().as("orderCount")
+        ).withOptions(AggregationOptions.builder().allowDiskUse(true).build());
+
+        int total = 0;
+        List<Document> batch = new ArrayList<>(BACKFILL_BATCH_SIZE);
+        try (Stream<Document> users = mongoTemplate.aggregateStream(aggregation, Order.class, Document.class)) {
+            Iterator<Document> iterator = users.iterator();
+            while (iterator.hasNext()) {
+                batch.add(iterator.next());
+                if (batch.size() == BACKFILL_BATCH_SIZE) {
+                    total += write(batch);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            total += write(batch);
+        }
+        return total;
+    }
+
+    private void refresh(Collection<ObjectId> userIds) {
+        Aggregation aggregation = Aggregation.newAggregation(
+                Aggregation.match(Criteria.where("userId").in(userIds).and("isDeleted").is(false)),
+                Aggregation.group("userId").min("createdAt").as("firstOrderAt").count().as("orderCount"));
+        List<Document> users = mongoTemplate.aggregate(aggregation, Order.class, Document.class).getMappedResults();
+        if (!users.isEmpty()) {
+            write(users);
+        }
+
+        // Người dùng không còn đơn hàng nào
+        Set<ObjectId> remaining = new HashSet<>();
+        users.forEach(user -> remaining.add(user.getObjectId("_id")));
+        List<ObjectId> empty = userIds.stream().filter(userId -> !remaining.contains(userId)).toList();
+        if (!empty.isEmpty()) {
+            mongoTemplate.remove(new Query(Criteria.where("userId").in(empty)), UserOrderIndex.class);
+        }
+    }
+
+    private int write(List<Document> users) {
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserOrderIndex.class);
+        Date now = new Date();
+        for (Document user : users) {
+            bulk.upsert(new Query(Criteria.where("userId").is(user.get("_id"))), new Update()
+                    .set("firstOrderAt", user.getDate("firstOrderAt"))
+                    .set("orderCount", user.getInteger("orderCount"))
+                    .set("updatedAt", now));
+        }
+        bulk.execute();
+        return users.size();
+    }
+}
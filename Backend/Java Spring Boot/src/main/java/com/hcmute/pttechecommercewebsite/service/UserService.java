@@ -1,17 +1,21 @@
 package com.hcmute.pttechecommercewebsite.service;
 
 import com.hcmute.pttechecommercewebsite.dto.CartDTO;
+import com.hcmute.pttechecommercewebsite.dto.CursorPageDTO;
 import com.hcmute.pttechecommercewebsite.dto.UserDTO;
 import com.hcmute.pttechecommercewebsite.exception.ResourceNotFoundException;
 import com.hcmute.pttechecommercewebsite.model.Cart;
 import com.hcmute.pttechecommercewebsite.model.User;
 import com.hcmute.pttechecommercewebsite.repository.CartRepository;
 import com.hcmute.pttechecommercewebsite.repository.UserRepository;
+import com.hcmute.pttechecommercewebsite.util.CursorPaginationUtil;
+import com.hcmute.pttechecommercewebsite.util.ExcelExportUtil;
 import com.hcmute.pttechecommercewebsite.util.JwtUtil;
-import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.bson.types.ObjectId;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
@@ -19,14 +23,15 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Service
 public class UserService {
@@ -46,6 +51,9 @@ public class UserService {
     @Autowired
     private EmailService emailService;
 
+    @Autowired
+    private OutboxService outboxService;
+
     @Autowired
     private GoogleAuthService googleAuthService;
 
@@ -55,17 +63,15 @@ public class UserService {
     @Autowired
     private JwtUtil jwtUtil;
 
+    @Autowired
+    private CursorPaginationUtil cursorPaginationUtil;
+
     // Thư mục lưu trữ hình ảnh người dùng
     private String uploadDir = "upload-images/users";
 
     // URL công khai để truy cập hình ảnh
     private String uploadUrl = "http://localhost:8081/images/users";
 
-    // Gửi email xác thực
-    private void sendVerificationEmail(User user) {
-        emailService.sendVerificationEmail(user);
-    }
-
     // Gửi email reset mật khẩu
     private void sendPasswordResetEmail(User user, boolean isAdmin, boolean isMobile) {
         emailService.sendPasswordResetEmail(user, isAdmin, isMobile);
@@ -111,6 +117,17 @@ public class UserService {
         return users.stream().map(this::convertToDTO).collect(Collectors.toList());
     }
 
+    // Lấy một trang người dùng chưa bị xóa (phân trang theo cursor)
+    public CursorPageDTO<UserDTO> getUsersPage(String sortBy, String sortOrder, String cursor, Integer limit, boolean includeTotal) {
+        CursorPaginationUtil.requireSortable(sortBy, PAGE_SORTABLE_FIELDS);
+        Query query = new Query();
+        query.addCriteria(Criteria.where("isDeleted").is(false));
+
+        Sort.Direction direction = "desc".equalsIgnoreCase(sortOrder) ? Sort.Direction.DESC : Sort.Direction.ASC;
+        return cursorPaginationUtil.find(query, User.class, sortBy != null ? sortBy : "createdAt", direction, cursor, limit, includeTotal)
+                .map(this::convertToDTO);
+    }
+
     // Lấy người dùng theo ID
     public Optional<UserDTO> getUserById(String id) {
         Optional<User> user = userRepository.findById(id);
@@ -261,7 +278,7 @@ public class UserService {
         user.setVerificationExpiry(calendar.getTime());
 
         User savedUser = userRepository.save(user);
-        sendVerificationEmail(savedUser);
+        outboxService.enqueue(EmailOutboxHandler.USER_VERIFICATION, EmailOutboxHandler.user(savedUser.getId()));
         return convertToDTO(savedUser);
     }
 
@@ -647,114 +664,37 @@ public class UserService {
         }
     }
 
-    public ByteArrayOutputStream exportUsersToExcel(String sortBy, String sortOrder) throws IOException {
-        List<UserDTO> users = getAllUsers();
-
-        // Tạo workbook Excel
-        XSSFWorkbook workbook = new XSSFWorkbook();
-        Sheet sheet = workbook.createSheet("Users");
-
-        // Định dạng chung cho workbook
-        CellStyle headerStyle = workbook.createCellStyle();
-        Font headerFont = workbook.createFont();
-        headerFont.setBold(true);
-        headerFont.setFontHeightInPoints((short) 12);
-        headerFont.setColor(IndexedColors.WHITE.getIndex());
-        headerStyle.setFont(headerFont);
-        headerStyle.setAlignment(HorizontalAlignment.CENTER);
-        headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-        headerStyle.setFillForegroundColor(IndexedColors.GREY_50_PERCENT.getIndex());
-        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
-
-        // Tạo dòng tiêu đề
-        Row headerRow = sheet.createRow(0);
-        String[] columns = {
-                "ID", "Tên người dùng", "Email", "Số điện thoại", "Địa chỉ", "Thành phố", "Quận/Huyện", "Xã/Phường",
-                "Quốc gia", "Trạng thái tài khoản", "Vai trò", "Trạng thái xác thực", "Trạng thái xóa", "Trạng thái chặn"
-        };
-        for (int i = 0; i < columns.length; i++) {
-            Cell cell = headerRow.createCell(i);
-            cell.setCellValue(columns[i]);
-            cell.setCellStyle(headerStyle);
-        }
-
-        // Định dạng cho dữ liệu
-        CellStyle dataStyle = workbook.createCellStyle();
-        dataStyle.setAlignment(HorizontalAlignment.CENTER);
-        dataStyle.setVerticalAlignment(VerticalAlignment.CENTER);
-
-        // Thêm dữ liệu người dùng vào file Excel
-        int rowNum = 1;
-        for (UserDTO user : users) {
-            Row row = sheet.createRow(rowNum++);
-
-            // Cột ID
-            row.createCell(0).setCellValue(user.getId());
-            row.getCell(0).setCellStyle(dataStyle);
-
-            // Cột Tên người dùng
-            row.createCell(1).setCellValue(user.getUsername());
-            row.getCell(1).setCellStyle(dataStyle);
-
-            // Cột Email
-            row.createCell(2).setCellValue(user.getEmail());
-            row.getCell(2).setCellStyle(dataStyle);
-
-            // Cột Số điện thoại
-            row.createCell(3).setCellValue(user.getPhoneNumber());
-            row.getCell(3).setCellStyle(dataStyle);
-
-            // Cột Địa chỉ
-            row.createCell(4).setCellValue(user.getAddress() != null ? user.getAddress().getStreet() : "N/A");
-            row.getCell(4).setCellStyle(dataStyle);
-
-            // Cột Thành phố
-            row.createCell(5).setCellValue(user.getAddress() != null ? user.getAddress().getCity() : "N/A");
-            row.getCell(5).setCellStyle(dataStyle);
-
-            // Cột Quận/Huyện
-            row.createCell(6).setCellValue(user.getAddress() != null ? user.getAddress().getDistrict() : "N/A");
-            row.getCell(6).setCellStyle(dataStyle);
-
-            // Cột Xã/Phường
-            row.createCell(7).setCellValue(user.getAddress() != null ? user.getAddress().getCommunes() : "N/A");
-            row.getCell(7).setCellStyle(dataStyle);
-
-            // Cột Quốc gia
-            row.createCell(8).setCellValue(user.getAddress() != null ? user.getAddress().getCountry() : "N/A");
-            row.getCell(8).setCellStyle(dataStyle);
-
-            // Cột Trạng thái tài khoản
-            row.createCell(10).setCellValue(user.isVerified() ? "Đã xác thực" : "Chưa xác thực");
-            row.getCell(10).setCellStyle(dataStyle);
-
-            // Cột Vai trò
-            row.createCell(11).setCellValue(user.getRoles() != null ?
-                    user.getRoles().stream()
-                            .map(role -> role.getRoleName())
-                            .collect(Collectors.joining(", ")) : "N/A");
-            row.getCell(11).setCellStyle(dataStyle);
-
-            // Cột Trạng thái xóa
-            row.createCell(12).setCellValue(user.isDeleted() ? "Đã xóa" : "Chưa xóa");
-            row.getCell(12).setCellStyle(dataStyle);
-
-            // Cột Trạng thái chặn
-            row.createCell(13).setCellValue(user.isBlocked() ? "Đã chặn" : "Chưa chặn");
-            row.getCell(13).setCellStyle(dataStyle);
+    // Các cột của file Excel người dùng
+    // Các trường client được phép sắp xếp khi phân trang theo cursor
+    private static final Set<String> PAGE_SORTABLE_FIELDS = Set.of(
+            "username", "email", "createdAt", "updatedAt", "id"
+    );
+
+    private static final List<ExcelExportUtil.Column<UserDTO>> USER_EXPORT_COLUMNS = List.of(
+            ExcelExportUtil.Column.of("ID", UserDTO::getId),
+            ExcelExportUtil.Column.of("Tên người dùng", UserDTO::getUsername),
+            ExcelExportUtil.Column.of("Email", UserDTO::getEmail),
+            ExcelExportUtil.Column.of("Số điện thoại", UserDTO::getPhoneNumber),
+            ExcelExportUtil.Column.of("Địa chỉ", u -> u.getAddress() != null ? u.getAddress().getStreet() : "N/A"),
+            ExcelExportUtil.Column.of("Thành phố", u -> u.getAddress() != null ? u.getAddress().getCity() : "N/A"),
+            ExcelExportUtil.Column.of("Quận/Huyện", u -> u.getAddress() != null ? u.getAddress().getDistrict() : "N/A"),
+            ExcelExportUtil.Column.of("Xã/Phường", u -> u.getAddress() != null ? u.getAddress().getCommunes() : "N/A"),
+            ExcelExportUtil.Column.of("Quốc gia", u -> u.getAddress() != null ? u.getAddress().getCountry() : "N/A"),
+            ExcelExportUtil.Column.of("Vai trò", u -> u.getRoles() != null ?
+                    u.getRoles().stream().map(UserDTO.RoleDTO::getRoleName).collect(Collectors.joining(", ")) : "N/A"),
+            ExcelExportUtil.Column.of("Trạng thái xác thực", u -> u.isVerified() ? "Đã xác thực" : "Chưa xác thực"),
+            ExcelExportUtil.Column.of("Trạng thái xóa", u -> u.isDeleted() ? "Đã xóa" : "Chưa xóa"),
+            ExcelExportUtil.Column.of("Trạng thái chặn", u -> u.isBlocked() ? "Đã chặn" : "Chưa chặn")
+    );
+
+    // Xuất người dùng chưa xóa ra file Excel, đọc MongoDB theo cursor và ghi thẳng vào outputStream
+    public void exportUsersToExcel(String sortBy, String sortOrder, OutputStream outputStream) throws IOException {
+        Sort.Direction direction = "desc".equalsIgnoreCase(sortOrder) ? Sort.Direction.DESC : Sort.Direction.ASC;
+        Sort sort = Sort.by(direction, sortBy != null ? sortBy : "createdAt");
+
+        try (Stream<User> users = userRepository.streamAllByIsDeletedFalse(sort)) {
+            ExcelExportUtil.write(outputStream, "Users", USER_EXPORT_COLUMNS, users.map(this::convertToDTO));
         }
-
-        // Tự động điều chỉnh độ rộng cột theo nội dung
-        for (int i = 0; i < columns.length; i++) {
-            sheet.autoSizeColumn(i);
-        }
-
-        // Tạo OutputStream và ghi workbook vào đó
-        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-        workbook.write(outputStream);
-        workbook.close();
-
-        return outputStream;
     }
 
     // Chuyển đổi từ User model sang UserDTO
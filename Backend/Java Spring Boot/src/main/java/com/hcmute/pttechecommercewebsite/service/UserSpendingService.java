@@ -0,0 +1,251 @@
+package com.hcmute.pttechecommercewebsite.service;
+
+import com.hcmute.pttechecommercewebsite.model.Order;
+import com.hcmute.pttechecommercewebsite.model.UserMonthlySpending;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.*;
+
+// Bảng tổng hợp chi tiêu theo tháng của từng người dùng (UserMonthlySpendings) cho trang phân tích chi tiêu.
+// Mỗi đơn được cộng vào tháng tạo đơn khi chuyển sang "Đã thanh toán" và bị trừ lại khi đơn bị hủy, trả hàng hoặc xóa,
+// bằng lệnh $inc upsert; cờ Order.spendingRecorded bảo đảm mỗi đơn chỉ được cộng / trừ một lần.
+// Nhờ vậy API phân tích chỉ đọc một bản ghi cho mỗi tháng thay vì toàn bộ đơn hàng và sản phẩm của người dùng.
+@Service
+public class UserSpendingService {
+
+    public static final String UNKNOWN_CATEGORY = "Không xác định";
+
+    private static final int BACKFILL_BATCH_SIZE = 500;
+
+    private final MongoTemplate mongoTemplate;
+
+    // Cộng các đơn đã thanh toán nhưng chưa có trong bảng tổng hợp khi ứng dụng khởi động (dữ liệu có từ trước)
+    @Value("${user-spending.backfill-on-startup:true}")
+    private boolean backfillOnStartup;
+
+    public UserSpendingService(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    // Đưa bảng tổng hợp về đúng với trạng thái hiện tại của đơn: cộng nếu đơn được tính mà chưa cộng,
+    // trừ nếu đã cộng mà đơn không còn được tính. Gọi sau khi đơn đã được lưu.
+    public void sync(Order order) {
+        if (isCounted(order)) {
+            record(order);
+        } else {
+            revert(order);
+        }
+    }
+
+    // Trừ phần đóng góp của đơn (nếu đã cộng), ví dụ trước khi sửa sản phẩm / giá của đơn đã thanh toán
+    public void revert(Order order) {
+        if (order.getId() == null || order.getCreatedAt() == null || !claim(order, false)) return;
+
+        UserMonthlySpending key = keyOf(order);
+        Query query = monthQuery(key.getUserId(), key.getMonth());
+        mongoTemplate.updateFirst(query, toUpdate(contribution(order), -1), UserMonthlySpending.class);
+
+        // Tháng không còn đơn nào thì xóa bản ghi (tránh sai số cộng dồn của số thực)
+        mongoTemplate.remove(new Query(Criteria.where("userId").is(key.getUserId()).and("month").is(key.getMonth())
+                .and("orderCount").lte(0)), UserMonthlySpending.class);
+
+        // $min / $max không trừ ngược được: tính lại mốc thời gian của tháng nếu đơn bị trừ nằm ở đầu / cuối tháng
+        UserMonthlySpending month = mongoTemplate.findOne(query, UserMonthlySpending.class);
+        if (month != null && (order.getCreatedAt().equals(month.getFirstOrderAt())
+                || order.getCreatedAt().equals(month.getLastOrderAt()))) {
+            refreshOrderDates(month);
+        }
+    }
+
+    // Các tháng có chi tiêu của người dùng, tăng dần theo tháng
+    public List<UserMonthlySpending> getMonths(ObjectId userId) {
+        Query query = new Query(Criteria.where("userId").is(userId)).with(Sort.by(Sort.Direction.ASC, "month"));
+        return mongoTemplate.find(query, UserMonthlySpending.class);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void startBackfill() {
+        if (!backfillOnStartup) return;
+
+        Thread thread = new Thread(() -> {
+            try {
+                int recorded = backfill();
+                if (recorded > 0) {
+                    System.out.println("Đã cộng " + recorded + " đơn hàng vào bảng tổng hợp chi tiêu theo tháng");
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, "user-spending-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Cộng các đơn được tính nhưng chưa có trong bảng tổng hợp; mỗi lô được gộp theo (người dùng, tháng)
+    // và ghi bằng một lệnh bulk. Trả về số đơn đã cộng.
+    public int backfill() {
+        int total = 0;
+        String lastId = null;
+        while (true) {
+            Criteria criteria = countedCriteria().and("spendingRecorded").ne(true);
+            if (lastId != null) {
+                criteria = criteria.and("_id").gt(new ObjectId(lastId));
+            }
+            Query query = new Query(criteria).with(Sort.by(Sort.Direction.ASC, "_id")).limit(BACKFILL_BATCH_SIZE);
+            List<Order> orders = mongoTemplate.find(query, Order.class);
+            if (orders.isEmpty()) break;
+
+            Map<String, UserMonthlySpending> months = new LinkedHashMap<>();
+            for (Order order : orders) {
+                lastId = order.getId();
+                if (order.getCreatedAt() == null || order.getUserId() == null) continue;
+                // Giành từng đơn để không cộng trùng với luồng thanh toán đang chạy
+                if (!claim(order, true)) continue;
+
+                UserMonthlySpending delta = contribution(order);
+                UserMonthlySpending month = months.putIfAbsent(delta.getUserId().toHexString() + ":" + delta.getMonth(), delta);
+                if (month != null) {
+                    merge(month, delta);
+                }
+                total++;
+            }
+
+            if (!months.isEmpty()) {
+                BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, UserMonthlySpending.class);
+                for (UserMonthlySpending month : months.values()) {
+                    bulk.upsert(monthQuery(month.getUserId(), month.getMonth()), toUpdate(month, 1));
+                }
+                bulk.execute();
+            }
+            if (orders.size() < BACKFILL_BATCH_SIZE) break;
+        }
+        return total;
+    }
+
+    private void record(Order order) {
+        if (order.getId() == null || order.getCreatedAt() == null || order.getUserId() == null) return;
+        if (!claim(order, true)) return;
+
+        UserMonthlySpending key = keyOf(order);
+        mongoTemplate.upsert(monthQuery(key.getUserId(), key.getMonth()), toUpdate(contribution(order), 1),
+                UserMonthlySpending.class);
+    }
+
+    // Chuyển cờ spendingRecorded một cách nguyên tử; chỉ lời gọi chuyển được cờ mới cộng / trừ bảng tổng hợp
+    private boolean claim(Order order, boolean recorded) {
+        Criteria criteria = Criteria.where("_id").is(order.getId());
+        // Đơn có từ trước chưa có trường spendingRecorded được coi như chưa cộng
+        criteria = recorded ? criteria.and("spendingRecorded").ne(true) : criteria.and("spendingRecorded").is(true);
+        boolean claimed = mongoTemplate.updateFirst(new Query(criteria), new Update().set("spendingRecorded", recorded),
+                Order.class).getModifiedCount() > 0;
+        if (claimed) {
+            order.setSpendingRecorded(recorded);
+        }
+        return claimed;
+    }
+
+    // Phần đóng góp của một đơn vào bản ghi tháng của nó
+    private static UserMonthlySpending contribution(Order order) {
+        UserMonthlySpending delta = keyOf(order);
+        delta.setTotalSpending(order.getFinalPrice());
+        delta.setOrderCount(1);
+        delta.setTotalPrice(order.getTotalPrice());
+        delta.setTotalDiscount(order.getDiscountAmount());
+        delta.setTotalShipping(order.getShippingPrice());
+        delta.setFirstOrderAt(order.getCreatedAt());
+        delta.setLastOrderAt(order.getCreatedAt());
+
+        Map<String, Double> byCategory = new HashMap<>();
+        if (order.getItems() != null) {
+            for (Order.Item item : order.getItems()) {
+                String category = item.getCategoryId() != null ? item.getCategoryId().toString() : UNKNOWN_CATEGORY;
+                byCategory.merge(category, item.getDiscountPrice() * item.getQuantity(), Double::sum);
+            }
+        }
+        delta.setSpendingByCategory(byCategory);
+        return delta;
+    }
+
+    // Gộp phần đóng góp của một đơn vào phần đóng góp của cả tháng (dùng khi backfill)
+    private static void merge(UserMonthlySpending target, UserMonthlySpending delta) {
+        target.setTotalSpending(target.getTotalSpending() + delta.getTotalSpending());
+        target.setOrderCount(target.getOrderCount() + delta.getOrderCount());
+        target.setTotalPrice(target.getTotalPrice() + delta.getTotalPrice());
+        target.setTotalDiscount(target.getTotalDiscount() + delta.getTotalDiscount());
+        target.setTotalShipping(target.getTotalShipping() + delta.getTotalShipping());
+        if (target.getFirstOrderAt().after(delta.getFirstOrderAt())) target.setFirstOrderAt(delta.getFirstOrderAt());
+        if (target.getLastOrderAt().before(delta.getLastOrderAt())) target.setLastOrderAt(delta.getLastOrderAt());
+        for (Map.Entry<String, Double> entry : delta.getSpendingByCategory().entrySet()) {
+            target.getSpendingByCategory().merge(entry.getKey(), entry.getValue(), Double::sum);
+        }
+    }
+
+    // Lệnh $inc cộng (sign = 1) hoặc trừ (sign = -1) một phần đóng góp
+    private static Update toUpdate(UserMonthlySpending delta, int sign) {
+        Update update = new Update()
+                .inc("totalSpending", sign * delta.getTotalSpending())
+                .inc("orderCount", sign * delta.getOrderCount())
+                .inc("totalPrice", sign * delta.getTotalPrice())
+                .inc("totalDiscount", sign * delta.getTotalDiscount())
+                .inc("totalShipping", sign * delta.getTotalShipping());
+        for (Map.Entry<String, Double> entry : delta.getSpendingByCategory().entrySet()) {
+            update.inc("spendingByCategory." + entry.getKey(), sign * entry.getValue());
+        }
+        if (sign > 0) {
+            update.min("firstOrderAt", delta.getFirstOrderAt()).max("lastOrderAt", delta.getLastOrderAt());
+        }
+        return update;
+    }
+
+    private void refreshOrderDates(UserMonthlySpending month) {
+        YearMonth yearMonth = YearMonth.parse(month.getMonth());
+        ZoneId zone = ZoneId.systemDefault();
+        Date from = Date.from(yearMonth.atDay(1).atStartOfDay(zone).toInstant());
+        Date to = Date.from(yearMonth.plusMonths(1).atDay(1).atStartOfDay(zone).toInstant());
+
+        Criteria criteria = countedCriteria().and("userId").is(month.getUserId())
+                .and("createdAt").gte(from).lt(to).and("spendingRecorded").is(true);
+        Order first = mongoTemplate.findOne(new Query(criteria).with(Sort.by(Sort.Direction.ASC, "createdAt")), Order.class);
+        Order last = mongoTemplate.findOne(new Query(criteria).with(Sort.by(Sort.Direction.DESC, "createdAt")), Order.class);
+        if (first == null || last == null) return;
+
+        mongoTemplate.updateFirst(monthQuery(month.getUserId(), month.getMonth()),
+                new Update().set("firstOrderAt", first.getCreatedAt()).set("lastOrderAt", last.getCreatedAt()),
+                UserMonthlySpending.class);
+    }
+
+    // Đơn được tính vào chi tiêu: đã thanh toán, chưa xóa, không bị hủy / trả hàng
+    private static boolean isCounted(Order order) {
+        return !order.isDeleted()
+                && "Đã thanh toán".equals(order.getPaymentStatus())
+                && !"Đã hủy".equals(order.getOrderStatus())
+                && !"Đã trả hàng".equals(order.getOrderStatus());
+    }
+
+    private static Criteria countedCriteria() {
+        return Criteria.where("isDeleted").is(false)
+                .and("paymentStatus").is("Đã thanh toán")
+                .and("orderStatus").nin("Đã hủy", "Đã trả hàng");
+    }
+
+    private static UserMonthlySpending keyOf(Order order) {
+        YearMonth month = YearMonth.from(order.getCreatedAt().toInstant().atZone(ZoneId.systemDefault()).toLocalDate());
+        return UserMonthlySpending.builder().userId(order.getUserId()).month(month.toString()).build();
+    }
+
+    private static Query monthQuery(ObjectId userId, String month) {
+        return new Query(Criteria.where("userId").is(userId).and("month").is(month));
+    }
+}
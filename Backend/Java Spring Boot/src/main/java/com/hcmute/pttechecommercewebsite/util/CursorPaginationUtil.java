@@ -0,0 +1,166 @@
+package com.hcmute.pttechecommercewebsite.util;
+
+import com.hcmute.pttechecommercewebsite.dto.CursorPageDTO;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.ObjectId;
+import org.springframework.beans.BeanWrapperImpl;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+
+// Phân trang theo cursor (keyset): cursor chứa giá trị của trường sắp xếp và _id của phần tử cuối trang,
+// nên mỗi trang chỉ đọc đúng pageSize + 1 document thay vì toàn bộ collection
+@Component
+public class CursorPaginationUtil {
+
+    private static final JsonWriterSettings CURSOR_JSON = JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED).build();
+
+    private final MongoTemplate mongoTemplate;
+
+    @Value("${pagination.default-page-size:20}")
+    private int defaultPageSize;
+
+    @Value("${pagination.max-page-size:100}")
+    private int maxPageSize;
+
+    public CursorPaginationUtil(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    // Kích thước trang thực tế (mặc định nếu không truyền, không vượt quá giới hạn cấu hình)
+    public int resolvePageSize(Integer limit) {
+        if (limit == null || limit <= 0) return defaultPageSize;
+        return Math.min(limit, maxPageSize);
+    }
+
+    // Kiểm tra trường sắp xếp do client gửi lên: chỉ chấp nhận các trường trong danh sách cho phép,
+    // vì giá trị của trường sắp xếp được mã hóa nguyên vào nextCursor
+    public static String requireSortable(String sortBy, Set<String> sortableFields) {
+        if (sortBy != null && !sortableFields.contains(sortBy)) {
+            throw new IllegalArgumentException("Trường sắp xếp không hợp lệ: " + sortBy);
+        }
+        return sortBy;
+    }
+
+    // Lấy một trang dữ liệu theo query gốc, sắp xếp theo sortField rồi đến _id
+    public <T> CursorPageDTO<T> find(Query query, Class<T> entityClass, String sortField, Sort.Direction direction,
+                                     String cursor, Integer limit, boolean includeTotal) {
+        int pageSize = resolvePageSize(limit);
+        String field = sortField == null || "id".equals(sortField) ? "_id" : sortField;
+        boolean ascending = direction.isAscending();
+
+        // Đếm tổng trước khi thêm điều kiện cursor
+        Long totalCount = includeTotal ? mongoTemplate.count(query, entityClass) : null;
+
+        if (cursor != null && !cursor.isBlank()) {
+            query.addCriteria(afterCursor(field, ascending, decodeCursor(cursor)));
+        }
+
+        Sort sort = "_id".equals(field)
+                ? Sort.by(direction, "_id")
+                : Sort.by(direction, field).and(Sort.by(direction, "_id"));
+        query.with(sort);
+        query.limit(pageSize + 1);
+
+        List<T> rows = mongoTemplate.find(query, entityClass);
+        boolean hasMore = rows.size() > pageSize;
+        if (hasMore) {
+            rows = new ArrayList<>(rows.subList(0, pageSize));
+        }
+
+        String nextCursor = null;
+        if (hasMore) {
+            T last = rows.get(rows.size() - 1);
+            BeanWrapperImpl wrapper = new BeanWrapperImpl(last);
+            Object id = wrapper.getPropertyValue("id");
+            Object sortValue = "_id".equals(field) ? null : readProperty(wrapper, field);
+            nextCursor = encodeCursor(sortValue, id != null ? id.toString() : null);
+        }
+
+        return CursorPageDTO.<T>builder()
+                .items(rows)
+                .nextCursor(nextCursor)
+                .hasMore(hasMore)
+                .pageSize(pageSize)
+                .totalCount(totalCount)
+                .build();
+    }
+
+    // Điều kiện "đứng sau cursor" theo thứ tự (field, _id); giá trị null được MongoDB xếp nhỏ nhất
+    private Criteria afterCursor(String field, boolean ascending, Cursor cursor) {
+        Object id = toIdValue(cursor.getId());
+        if ("_id".equals(field)) {
+            return ascending ? Criteria.where("_id").gt(id) : Criteria.where("_id").lt(id);
+        }
+
+        Object value = cursor.getValue();
+        List<Criteria> branches = new ArrayList<>();
+        if (value == null) {
+            branches.add(ascending
+                    ? Criteria.where(field).is(null).and("_id").gt(id)
+                    : Criteria.where(field).is(null).and("_id").lt(id));
+            if (ascending) {
+                branches.add(Criteria.where(field).ne(null));
+            }
+        } else {
+            branches.add(ascending ? Criteria.where(field).gt(value) : Criteria.where(field).lt(value));
+            branches.add(ascending
+                    ? Criteria.where(field).is(value).and("_id").gt(id)
+                    : Criteria.where(field).is(value).and("_id").lt(id));
+            if (!ascending) {
+                branches.add(Criteria.where(field).is(null));
+            }
+        }
+        return new Criteria().orOperator(branches);
+    }
+
+    private Object readProperty(BeanWrapperImpl wrapper, String field) {
+        try {
+            return wrapper.getPropertyValue(field);
+        } catch (BeansException e) {
+            throw new IllegalArgumentException("Trường sắp xếp không hợp lệ: " + field);
+        }
+    }
+
+    private Object toIdValue(String id) {
+        if (id == null) throw new IllegalArgumentException("Cursor không hợp lệ");
+        return ObjectId.isValid(id) ? new ObjectId(id) : id;
+    }
+
+    // Mã hóa cursor thành chuỗi an toàn cho URL (client coi như chuỗi mờ, không cần hiểu nội dung)
+    public static String encodeCursor(Object sortValue, String id) {
+        String json = new Document("k", sortValue).append("id", id).toJson(CURSOR_JSON);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static Cursor decodeCursor(String cursor) {
+        try {
+            String json = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            Document document = Document.parse(json);
+            return new Cursor(document.get("k"), document.getString("id"));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Cursor không hợp lệ");
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    public static class Cursor {
+        private final Object value;          // Giá trị trường sắp xếp của phần tử cuối trang trước.
+        private final String id;             // _id của phần tử cuối trang trước.
+    }
+}
@@ -0,0 +1,143 @@
+package com.hcmute.pttechecommercewebsite.util;
+
+import org.apache.poi.ss.usermodel.*;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+// Xuất Excel dạng streaming dùng chung cho các API export-excel.
+// Dòng được ghi qua SXSSFWorkbook: chỉ ROW_WINDOW dòng gần nhất nằm trong bộ nhớ, phần còn lại được đẩy ra file tạm,
+// workbook được ghi thẳng vào OutputStream của response nên không cần giữ danh sách DTO hay mảng byte của cả file.
+public class ExcelExportUtil {
+
+    public static final String CONTENT_TYPE = "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+
+    // Số dòng giữ trong bộ nhớ; độ rộng cột được tính theo ngần này dòng đầu tiên
+    public static final int ROW_WINDOW = 100;
+
+    private ExcelExportUtil() {
+    }
+
+    // Khai báo một cột: tiêu đề và cách lấy giá trị từ một dòng dữ liệu
+    public static class Column<T> {
+        private final String header;
+        private final Function<T, ?> value;
+
+        private Column(String header, Function<T, ?> value) {
+            this.header = header;
+            this.value = value;
+        }
+
+        public static <T> Column<T> of(String header, Function<T, ?> value) {
+            return new Column<>(header, value);
+        }
+
+        public String getHeader() {
+            return header;
+        }
+    }
+
+    // Response tải file, nội dung được ghi dần vào response bởi body
+    public static ResponseEntity<StreamingResponseBody> attachment(String fileName, StreamingResponseBody body) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.add(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=" + fileName);
+        headers.add(HttpHeaders.CONTENT_TYPE, CONTENT_TYPE);
+        return ResponseEntity.ok().headers(headers).body(body);
+    }
+
+    // Ghi một sheet gồm dòng tiêu đề và các dòng lấy lần lượt từ rows vào outputStream
+    public static <T> void write(OutputStream outputStream, String sheetName, List<Column<T>> columns,
+                                 Stream<T> rows) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_WINDOW);
+        workbook.setCompressTempFiles(true);
+        try {
+            SXSSFSheet sheet = workbook.createSheet(sheetName);
+            sheet.trackAllColumnsForAutoSizing();
+
+            CellStyle headerStyle = createHeaderStyle(workbook);
+            CellStyle dataStyle = workbook.createCellStyle();
+            dataStyle.setAlignment(HorizontalAlignment.CENTER);
+            dataStyle.setVerticalAlignment(VerticalAlignment.CENTER);
+
+            // Tạo dòng tiêu đề
+            Row headerRow = sheet.createRow(0);
+            for (int i = 0; i < columns.size(); i++) {
+                Cell cell = headerRow.createCell(i);
+                cell.setCellValue(columns.get(i).getHeader());
+                cell.setCellStyle(headerStyle);
+            }
+
+            // Thêm dữ liệu, điều chỉnh độ rộng cột khi cửa sổ đầu tiên đầy rồi ngừng đo để giữ tốc độ ghi
+            int rowNum = 1;
+            boolean sized = false;
+            Iterator<T> iterator = rows.iterator();
+            while (iterator.hasNext()) {
+                T item = iterator.next();
+                Row row = sheet.createRow(rowNum++);
+                for (int i = 0; i < columns.size(); i++) {
+                    Cell cell = row.createCell(i);
+                    setCellValue(cell, columns.get(i).value.apply(item));
+                    cell.setCellStyle(dataStyle);
+                }
+
+                if (!sized && rowNum == ROW_WINDOW) {
+                    autoSizeColumns(sheet, columns.size());
+                    sized = true;
+                }
+            }
+            if (!sized) {
+                autoSizeColumns(sheet, columns.size());
+            }
+
+            workbook.write(outputStream);
+            outputStream.flush();
+        } finally {
+            workbook.close();
+        }
+    }
+
+    private static CellStyle createHeaderStyle(Workbook workbook) {
+        CellStyle headerStyle = workbook.createCellStyle();
+        Font headerFont = workbook.createFont();
+        headerFont.setBold(true);
+        headerFont.setFontHeightInPoints((short) 12);
+        headerFont.setColor(IndexedColors.WHITE.getIndex());
+        headerStyle.setFont(headerFont);
+        headerStyle.setAlignment(HorizontalAlignment.CENTER);
+        headerStyle.setVerticalAlignment(VerticalAlignment.CENTER);
+        headerStyle.setFillForegroundColor(IndexedColors.GREY_50_PERCENT.getIndex());
+        headerStyle.setFillPattern(FillPatternType.SOLID_FOREGROUND);
+        return headerStyle;
+    }
+
+    private static void autoSizeColumns(SXSSFSheet sheet, int columnCount) {
+        for (int i = 0; i < columnCount; i++) {
+            sheet.autoSizeColumn(i);
+        }
+        sheet.untrackAllColumnsForAutoSizing();
+    }
+
+    private static void setCellValue(Cell cell, Object value) {
+        if (value == null) {
+            cell.setBlank();
+        } else if (value instanceof Number number) {
+            cell.setCellValue(number.doubleValue());
+        } else if (value instanceof Boolean bool) {
+            cell.setCellValue(bool);
+        } else if (value instanceof Date date) {
+            cell.setCellValue(date.toString());
+        } else {
+            cell.setCellValue(value.toString());
+        }
+    }
+}
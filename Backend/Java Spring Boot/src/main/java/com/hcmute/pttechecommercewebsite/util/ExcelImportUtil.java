@@ -0,0 +1,245 @@
+package com.hcmute.pttechecommercewebsite.util;
+
+import com.hcmute.pttechecommercewebsite.dto.ImportResultDTO;
+import com.mongodb.bulk.BulkWriteError;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.util.CellReference;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+// Nhập Excel dạng streaming dùng chung cho các API import-excel.
+// Sheet đầu tiên được đọc bằng SAX (XSSFSheetXMLHandler) nên không dựng toàn bộ workbook trong bộ nhớ;
+// các dòng được gom theo lô BATCH_SIZE, kiểm tra song song rồi ghi cả lô một lần.
+// Lỗi của từng dòng (dữ liệu không hợp lệ hoặc bị MongoDB từ chối) được trả về trong ImportResultDTO.
+public class ExcelImportUtil {
+
+    public static final int BATCH_SIZE = 1000;
+
+    // Số lỗi tối đa trả về trong báo cáo; failedRows vẫn đếm đủ
+    public static final int MAX_REPORTED_ERRORS = 1000;
+
+    private ExcelImportUtil() {
+    }
+
+    // Chuyển một dòng thành đối tượng; trả về null để bỏ qua dòng, ném IllegalArgumentException nếu dòng không hợp lệ.
+    // Được gọi song song nên không được dùng trạng thái dùng chung.
+    @FunctionalInterface
+    public interface RowParser<T> {
+        T parse(SheetRow row);
+    }
+
+    // Ghi một lô đối tượng hợp lệ; BulkOperationException được ánh xạ về dòng tương ứng theo chỉ số trong lô
+    @FunctionalInterface
+    public interface BatchWriter<T> {
+        void write(List<T> batch);
+    }
+
+    // Một dòng dữ liệu đã đọc từ sheet, giá trị ô là chuỗi đã định dạng như khi hiển thị trong Excel
+    public static class SheetRow {
+        private final int rowNumber;
+        private final Map<Integer, String> cells;
+
+        private SheetRow(int rowNumber, Map<Integer, String> cells) {
+            this.rowNumber = rowNumber;
+            this.cells = cells;
+        }
+
+        // Số thứ tự dòng trong Excel (bắt đầu từ 1)
+        public int getRowNumber() {
+            return rowNumber;
+        }
+
+        public boolean isBlank() {
+            return cells.values().stream().allMatch(v -> v == null || v.isBlank());
+        }
+
+        // Giá trị chuỗi của ô (đã trim), null nếu ô trống
+        public String getString(int column) {
+            String value = cells.get(column);
+            if (value == null) return null;
+            value = value.trim();
+            return value.isEmpty() ? null : value;
+        }
+
+        // Giá trị số của ô, 0 nếu ô trống
+        public double getDouble(int column) {
+            String value = getString(column);
+            if (value == null) return 0.0;
+            try {
+                return Double.parseDouble(value.replace(",", ""));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Cột " + (column + 1) + ": giá trị số không hợp lệ '" + value + "'");
+            }
+        }
+
+        public int getInt(int column) {
+            return (int) getDouble(column);
+        }
+    }
+
+    // Đọc sheet đầu tiên (bỏ qua dòng tiêu đề), kiểm tra và ghi theo lô
+    public static <T> ImportResultDTO importSheet(InputStream inputStream, RowParser<T> parser,
+                                                 BatchWriter<T> writer) throws IOException {
+        ImportResultDTO result = new ImportResultDTO();
+        List<SheetRow> pending = new ArrayList<>(BATCH_SIZE);
+
+        readSheet(inputStream, row -> {
+            if (row.getRowNumber() == 1 || row.isBlank()) return;
+            pending.add(row);
+            if (pending.size() == BATCH_SIZE) {
+                processBatch(pending, parser, writer, result);
+                pending.clear();
+            }
+        });
+        if (!pending.isEmpty()) {
+            processBatch(pending, parser, writer, result);
+        }
+        return result;
+    }
+
+    // Ghi nhận lỗi của một dòng vào báo cáo
+    public static void addError(ImportResultDTO result, int rowNumber, String message) {
+        result.setFailedRows(result.getFailedRows() + 1);
+        if (result.getErrors().size() < MAX_REPORTED_ERRORS) {
+            result.getErrors().add(ImportResultDTO.RowErrorDTO.builder().row(rowNumber).message(message).build());
+        }
+    }
+
+    private static <T> void processBatch(List<SheetRow> rows, RowParser<T> parser, BatchWriter<T> writer,
+                                         ImportResultDTO result) {
+        // Kiểm tra song song, giữ nguyên thứ tự dòng
+        List<Parsed<T>> parsed = rows.parallelStream()
+                .map(row -> {
+                    try {
+                        return new Parsed<>(row.getRowNumber(), parser.parse(row), null);
+                    } catch (RuntimeException e) {
+                        String message = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+                        return new Parsed<T>(row.getRowNumber(), null, message);
+                    }
+                })
+                .toList();
+
+        List<T> valid = new ArrayList<>();
+        List<Integer> validRows = new ArrayList<>();
+        for (Parsed<T> item : parsed) {
+            if (item.error != null) {
+                result.setTotalRows(result.getTotalRows() + 1);
+                addError(result, item.rowNumber, item.error);
+            } else if (item.value != null) {
+                result.setTotalRows(result.getTotalRows() + 1);
+                valid.add(item.value);
+                validRows.add(item.rowNumber);
+            }
+        }
+        if (valid.isEmpty()) return;
+
+        try {
+            writer.write(valid);
+            result.setImportedRows(result.getImportedRows() + valid.size());
+        } catch (BulkOperationException e) {
+            // Ghi không thứ tự: các phần tử khác trong lô vẫn được ghi
+            for (BulkWriteError error : e.getErrors()) {
+                addError(result, validRows.get(error.getIndex()), error.getMessage());
+            }
+            result.setImportedRows(result.getImportedRows() + valid.size() - e.getErrors().size());
+        } catch (RuntimeException e) {
+            for (Integer rowNumber : validRows) {
+                addError(result, rowNumber, "Lỗi khi ghi dữ liệu: " + e.getMessage());
+            }
+        }
+    }
+
+    // Đọc sheet đầu tiên bằng SAX, mỗi dòng được chuyển cho consumer ngay khi đọc xong
+    private static void readSheet(InputStream inputStream, Consumer<SheetRow> consumer) throws IOException {
+        // OPCPackage mở từ file đọc từng phần của gói zip khi cần, thay vì nạp toàn bộ vào bộ nhớ
+        Path tempFile = Files.createTempFile("excel-import-", ".xlsx");
+        try {
+            Files.copy(inputStream, tempFile, StandardCopyOption.REPLACE_EXISTING);
+            try (OPCPackage pkg = OPCPackage.open(tempFile.toFile(), PackageAccess.READ)) {
+                XSSFReader reader = new XSSFReader(pkg);
+                ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+                StylesTable styles = reader.getStylesTable();
+
+                Iterator<InputStream> sheets = reader.getSheetsData();
+                if (!sheets.hasNext()) return;
+
+                try (InputStream sheet = sheets.next()) {
+                    XMLReader parser = XMLHelper.newXMLReader();
+                    parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings,
+                            new RowCollector(consumer), new DataFormatter(), false));
+                    parser.parse(new InputSource(sheet));
+                }
+            }
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException("File Excel không hợp lệ: " + e.getMessage(), e);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static class RowCollector implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final Consumer<SheetRow> consumer;
+        private Map<Integer, String> cells;
+        private int rowNumber;
+        private int nextColumn;
+
+        RowCollector(Consumer<SheetRow> consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            rowNumber = rowNum + 1;
+            cells = new HashMap<>();
+            nextColumn = 0;
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            consumer.accept(new SheetRow(rowNumber, cells));
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int column = cellReference != null ? new CellReference(cellReference).getCol() : nextColumn;
+            cells.put(column, formattedValue);
+            nextColumn = column + 1;
+        }
+    }
+
+    private static class Parsed<T> {
+        final int rowNumber;
+        final T value;
+        final String error;
+
+        Parsed(int rowNumber, T value, String error) {
+            this.rowNumber = rowNumber;
+            this.value = value;
+            this.error = error;
+        }
+    }
+}
@@ -26,7 +26,7 @@ public class VNPayUtil {
         SimpleDateFormat formatter = new SimpleDateFormat("yyyyMMddHHmmss");
         String vnpCreateDate = formatter.format(cld.getTime());
 
-        cld.add(Calendar.MINUTE, 15);
+        cld.add(Calendar.MINUTE, config.getVnpPaymentTimeoutMinutes());
         String vnpExpireDate = formatter.format(cld.getTime());
 
         long amountInVNPayFormat = (long) (amount * 100);
@@ -0,0 +1,102 @@
+package com.hcmute.pttechecommercewebsite;
+
+import com.hcmute.pttechecommercewebsite.model.Brand;
+import com.hcmute.pttechecommercewebsite.model.Product;
+import com.hcmute.pttechecommercewebsite.service.ActivationScheduler;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+public class ActivationSchedulerTest {
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    private ActivationScheduler activationScheduler;
+
+    @BeforeEach
+    void setUp() {
+        when(mongoTemplate.getCollectionName(any())).thenAnswer(invocation ->
+                ((Class<?>) invocation.getArgument(0)).getSimpleName() + "s");
+        activationScheduler = new ActivationScheduler(mongoTemplate, eventPublisher);
+    }
+
+    @Test
+    @DisplayName("Nạp lại lịch nhiều lần không thêm bản sao vào hàng đợi")
+    void reseedKeepsOneEntryPerRecord() {
+        Document product = new Document("_id", new ObjectId()).append("scheduledDate", new Date(System.currentTimeMillis() + 30 * DAY));
+        Document brand = new Document("_id", new ObjectId()).append("scheduledDate", new Date(System.currentTimeMillis() + DAY));
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), anyString())).thenAnswer(invocation -> {
+            String collection = invocation.getArgument(2);
+            if ("Products".equals(collection)) return List.of(product);
+            if ("Brands".equals(collection)) return List.of(brand);
+            return List.of();
+        });
+
+        for (int i = 0; i < 24; i++) {
+            activationScheduler.reseed();
+        }
+
+        assertEquals(2, activationScheduler.pendingCount());
+    }
+
+    @Test
+    @DisplayName("Đổi lịch thay thế lịch cũ của cùng bản ghi")
+    void rescheduleReplacesPreviousEntry() {
+        ObjectId id = new ObjectId();
+        long now = System.currentTimeMillis();
+
+        save(Product.builder().build(), id, new Date(now + 30 * DAY));
+        save(Product.builder().build(), id, new Date(now + 30 * DAY));
+        save(Product.builder().build(), id, new Date(now + 2 * DAY));
+        assertEquals(1, activationScheduler.pendingCount());
+
+        // Cùng id nhưng khác loại dữ liệu là một lịch khác
+        save(Brand.builder().build(), id, new Date(now + DAY));
+        assertEquals(2, activationScheduler.pendingCount());
+    }
+
+    @Test
+    @DisplayName("Lưu bản ghi không còn scheduledDate thì bỏ lịch đang chờ")
+    void saveWithoutScheduledDateRemovesEntry() {
+        ObjectId id = new ObjectId();
+
+        save(Product.builder().build(), id, new Date(System.currentTimeMillis() + DAY));
+        assertEquals(1, activationScheduler.pendingCount());
+
+        save(Product.builder().build(), id, null);
+        assertEquals(0, activationScheduler.pendingCount());
+    }
+
+    private void save(Object entity, ObjectId id, Date scheduledDate) {
+        Document document = new Document("_id", id);
+        if (scheduledDate != null) {
+            document.append("scheduledDate", scheduledDate);
+        }
+        activationScheduler.onAfterSave(new AfterSaveEvent<>(entity, document, "collection"));
+    }
+}
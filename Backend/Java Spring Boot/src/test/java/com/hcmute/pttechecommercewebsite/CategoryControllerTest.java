@@ -3,6 +3,7 @@ package com.hcmute.pttechecommercewebsite;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hcmute.pttechecommercewebsite.controller.CategoryController;
 import com.hcmute.pttechecommercewebsite.dto.CategoryDTO;
+import com.hcmute.pttechecommercewebsite.dto.CategoryTreeDTO;
 import com.hcmute.pttechecommercewebsite.exception.ResourceNotFoundException;
 import com.hcmute.pttechecommercewebsite.service.CategoryService;
 import org.junit.jupiter.api.BeforeEach;
@@ -177,6 +178,37 @@ public class CategoryControllerTest {
         verify(categoryService, times(1)).getCategoriesByParentId("5");
     }
 
+    @Test
+    @DisplayName("Lấy cây danh mục thành công")
+    void getCategoryTreeSuccess() throws Exception {
+        // Mock cây danh mục gồm một danh mục gốc và một danh mục con
+        CategoryTreeDTO child = new CategoryTreeDTO("3", "Điện thoại thông minh", "Danh mục điện thoại thông minh", "1", "image3.jpg", List.of("smartphone"), "/1/3", 1, List.of());
+        CategoryTreeDTO root = new CategoryTreeDTO("1", "Điện thoại", "Danh mục điện thoại", null, "image1.jpg", List.of("điện thoại"), "/1", 0, List.of(child));
+
+        when(categoryService.getCategoryTree()).thenReturn(List.of(root));
+
+        mockMvc.perform(get("/api/categories/tree"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$", hasSize(1)))
+                .andExpect(jsonPath("$[0].name", is("Điện thoại")))
+                .andExpect(jsonPath("$[0].children", hasSize(1)))
+                .andExpect(jsonPath("$[0].children[0].path", is("/1/3")))
+                .andExpect(jsonPath("$[0].children[0].depth", is(1)));
+
+        verify(categoryService, times(1)).getCategoryTree();
+    }
+
+    @Test
+    @DisplayName("Lấy cây danh mục khi không có dữ liệu")
+    void getCategoryTreeNoContent() throws Exception {
+        when(categoryService.getCategoryTree()).thenReturn(List.of());
+
+        mockMvc.perform(get("/api/categories/tree"))
+                .andExpect(status().isNoContent());
+
+        verify(categoryService, times(1)).getCategoryTree();
+    }
+
     @Test
     @DisplayName("Tìm kiếm danh mục theo tên thành công")
     void searchCategoriesByNameSuccess() throws Exception {
@@ -3,6 +3,7 @@ package com.hcmute.pttechecommercewebsite;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hcmute.pttechecommercewebsite.controller.DiscountCodeController;
 import com.hcmute.pttechecommercewebsite.dto.DiscountCodeDTO;
+import com.hcmute.pttechecommercewebsite.dto.DiscountEvaluationDTO;
 import com.hcmute.pttechecommercewebsite.exception.ResourceNotFoundException;
 import com.hcmute.pttechecommercewebsite.service.DiscountCodeService;
 import org.junit.jupiter.api.BeforeEach;
@@ -14,6 +15,8 @@ import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.http.MediaType;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 
@@ -223,4 +226,49 @@ public class DiscountCodeControllerTest {
 
         verify(discountCodeService, times(1)).deleteDiscountCode("99");
     }
-}
\ No newline at end of file
+
+    @Test
+    @DisplayName("Xếp hạng mã giảm giá cho giỏ hàng theo người dùng đăng nhập")
+    void getBestDiscountCodesForCartUsesPrincipal() throws Exception {
+        DiscountEvaluationDTO evaluation = DiscountEvaluationDTO.builder()
+                .id("1").code("DISCOUNT10").discountAmount(10000).build();
+        when(discountCodeService.getBestDiscountCodesForCart("cart-1", 30000, "alice")).thenReturn(List.of(evaluation));
+
+        mockMvc.perform(get("/api/discount-codes/best")
+                        .param("cartId", "cart-1")
+                        .param("shippingPrice", "30000")
+                        .principal(new UsernamePasswordAuthenticationToken("alice", null)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].code", is("DISCOUNT10")));
+
+        verify(discountCodeService, times(1)).getBestDiscountCodesForCart("cart-1", 30000, "alice");
+    }
+
+    @Test
+    @DisplayName("Xếp hạng mã giảm giá cho giỏ hàng của người khác bị từ chối")
+    void getBestDiscountCodesForCartForbidden() throws Exception {
+        when(discountCodeService.getBestDiscountCodesForCart("cart-2", 0, "alice"))
+                .thenThrow(new AccessDeniedException("Bạn không có quyền xem giỏ hàng này"));
+
+        mockMvc.perform(get("/api/discount-codes/best")
+                        .param("cartId", "cart-2")
+                        .principal(new UsernamePasswordAuthenticationToken("alice", null)))
+                .andExpect(status().isForbidden())
+                .andExpect(jsonPath("$.message", is("Bạn không có quyền xem giỏ hàng này")));
+    }
+
+    @Test
+    @DisplayName("Mã đã sử dụng được xác định theo người dùng đăng nhập, bỏ qua tham số userId")
+    void getUsableDiscountCodesIgnoresUserIdParam() throws Exception {
+        DiscountCodeDTO mockDiscountCode = new DiscountCodeDTO("1", "DISCOUNT10", "Giảm 10% cho mọi đơn hàng", "percentage", 10.0, null, null, null, null, "products", new Date(), new Date(), 100, 50, null, true, false, null);
+        when(discountCodeService.getUsableDiscountCodes("alice")).thenReturn(List.of(mockDiscountCode));
+
+        mockMvc.perform(get("/api/discount-codes/usable")
+                        .param("userId", "507f1f77bcf86cd799439011")
+                        .principal(new UsernamePasswordAuthenticationToken("alice", null)))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$[0].code", is("DISCOUNT10")));
+
+        verify(discountCodeService, times(1)).getUsableDiscountCodes("alice");
+    }
+}
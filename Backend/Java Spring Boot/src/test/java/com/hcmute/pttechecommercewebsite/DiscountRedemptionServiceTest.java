@@ -0,0 +1,100 @@
+package com.hcmute.pttechecommercewebsite;
+
+import com.hcmute.pttechecommercewebsite.model.DiscountCode;
+import com.hcmute.pttechecommercewebsite.model.DiscountRedemption;
+import com.hcmute.pttechecommercewebsite.service.DiscountCodeCache;
+import com.hcmute.pttechecommercewebsite.service.DiscountRedemptionService;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class DiscountRedemptionServiceTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private DiscountCodeCache discountCodeCache;
+
+    private DiscountRedemptionService discountRedemptionService;
+
+    private final DiscountCode discount = DiscountCode.builder().id(new ObjectId().toHexString()).code("SALE10").build();
+    private final ObjectId userId = new ObjectId();
+
+    @BeforeEach
+    void setUp() {
+        discountRedemptionService = new DiscountRedemptionService(mongoTemplate, discountCodeCache);
+    }
+
+    @Test
+    @DisplayName("Mã còn lượt: ghi nhận người dùng và tăng usageCount")
+    void redeemWithinLimit() {
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(DiscountCode.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+        discountRedemptionService.redeem(discount, userId);
+
+        verify(mongoTemplate).insert(any(DiscountRedemption.class));
+        verify(discountCodeCache).adjustUsage(discount.getId(), 1);
+        verify(mongoTemplate, never()).remove(any(Query.class), eq(DiscountRedemption.class));
+    }
+
+    @Test
+    @DisplayName("Mã hết lượt: xóa lượt vừa ghi và báo lỗi, usageCount không đổi")
+    void redeemOverLimitRollsBackLedgerEntry() {
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(DiscountCode.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+        when(mongoTemplate.remove(any(Query.class), eq(DiscountRedemption.class))).thenReturn(DeleteResult.acknowledged(1));
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> discountRedemptionService.redeem(discount, userId));
+
+        assertEquals("Mã giảm giá đã hết lượt sử dụng.", e.getMessage());
+        verify(mongoTemplate).remove(any(Query.class), eq(DiscountRedemption.class));
+        verifyNoInteractions(discountCodeCache);
+    }
+
+    @Test
+    @DisplayName("Người dùng đã dùng mã: báo lỗi, không tăng usageCount")
+    void redeemTwiceIsRejected() {
+        when(mongoTemplate.insert(any(DiscountRedemption.class))).thenThrow(new DuplicateKeyException("E11000"));
+
+        RuntimeException e = assertThrows(RuntimeException.class, () -> discountRedemptionService.redeem(discount, userId));
+
+        assertEquals("Mã giảm giá này đã được sử dụng bởi bạn trước đó.", e.getMessage());
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(UpdateDefinition.class), eq(DiscountCode.class));
+        verifyNoInteractions(discountCodeCache);
+    }
+
+    @Test
+    @DisplayName("Hoàn lại lượt: chỉ giảm usageCount khi người dùng có lượt ghi nhận")
+    void cancelOnlyDecrementsRecordedRedemption() {
+        when(mongoTemplate.find(any(Query.class), eq(DiscountCode.class))).thenReturn(List.of(discount));
+        when(mongoTemplate.remove(any(Query.class), eq(DiscountRedemption.class)))
+                .thenReturn(DeleteResult.acknowledged(1), DeleteResult.acknowledged(0));
+
+        discountRedemptionService.cancel("SALE10", userId);
+        discountRedemptionService.cancel("SALE10", userId);
+
+        verify(mongoTemplate, times(1)).updateFirst(any(Query.class), any(UpdateDefinition.class), eq(DiscountCode.class));
+        verify(discountCodeCache, times(1)).adjustUsage(discount.getId(), -1);
+    }
+}
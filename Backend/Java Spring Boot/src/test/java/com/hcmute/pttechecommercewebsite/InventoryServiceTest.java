@@ -0,0 +1,129 @@
+package com.hcmute.pttechecommercewebsite;
+
+import com.hcmute.pttechecommercewebsite.dto.InventoryDTO;
+import com.hcmute.pttechecommercewebsite.model.Inventory;
+import com.hcmute.pttechecommercewebsite.model.Product;
+import com.hcmute.pttechecommercewebsite.repository.InventoryRepository;
+import com.hcmute.pttechecommercewebsite.repository.ProductRepository;
+import com.hcmute.pttechecommercewebsite.service.InventoryService;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.event.AfterSaveEvent;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class InventoryServiceTest {
+
+    @Mock
+    private InventoryRepository inventoryRepository;
+
+    @Mock
+    private ProductRepository productRepository;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @InjectMocks
+    private InventoryService inventoryService;
+
+    private final ObjectId productId = new ObjectId();
+    private final ObjectId variantId = new ObjectId();
+
+    @Test
+    @DisplayName("Nhập kho: cộng tồn kho bằng $inc, tồn kho trước / sau lấy từ kết quả lệnh cập nhật")
+    void createInventoryIncrementsStock() {
+        // Tồn kho đọc lúc đầu là 10, một đơn đặt đồng thời đã trừ còn 7 trước lệnh cộng 5
+        when(productRepository.findByIdAndIsDeletedFalse(productId.toHexString())).thenReturn(Optional.of(product(10)));
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+                eq(Product.class))).thenReturn(product(12));
+        when(inventoryRepository.save(any(Inventory.class))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        InventoryDTO.ProductEntryDTO.ProductVariantEntryDTO entry = InventoryDTO.ProductEntryDTO.ProductVariantEntryDTO.builder()
+                .productVariantId(variantId.toHexString())
+                .quantity(5)
+                .build();
+        inventoryService.createInventory(InventoryDTO.builder()
+                .supplier(InventoryDTO.SupplierDTO.builder().name("NCC").build())
+                .products(List.of(InventoryDTO.ProductEntryDTO.builder()
+                        .productId(productId.toHexString())
+                        .productVariants(new ArrayList<>(List.of(entry)))
+                        .build()))
+                .build());
+
+        assertEquals(5, incrementOf(lastUpdate()));
+        assertEquals(7, entry.getStockBeforeUpdate());
+        assertEquals(12, entry.getStockAfterUpdate());
+        verify(productRepository, never()).save(any());
+        verify(eventPublisher).publishEvent(any(AfterSaveEvent.class));
+    }
+
+    @Test
+    @DisplayName("Xóa phiếu nhập: trừ lại số lượng đã nhập, tồn kho không xuống dưới 0")
+    void deleteInventoryDecrementsWithFloor() {
+        when(inventoryRepository.findById("inv")).thenReturn(Optional.of(inventory(5)));
+        // Không đủ 5 để trừ (đã bán bớt): lệnh $inc có điều kiện không khớp, đưa tồn kho về 0
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+                eq(Product.class))).thenReturn(null, product(0));
+
+        assertTrue(inventoryService.deleteInventory("inv"));
+
+        ArgumentCaptor<UpdateDefinition> updates = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate, times(2)).findAndModify(any(Query.class), updates.capture(),
+                any(FindAndModifyOptions.class), eq(Product.class));
+        assertEquals(-5, incrementOf(updates.getAllValues().get(0)));
+        assertEquals(0, ((Document) updates.getAllValues().get(1).getUpdateObject().get("$set")).get("variants.$[v].stock"));
+        verify(productRepository, never()).save(any());
+        verify(inventoryRepository).save(argThat(Inventory::isDeleted));
+    }
+
+    private UpdateDefinition lastUpdate() {
+        ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate).findAndModify(any(Query.class), update.capture(), any(FindAndModifyOptions.class), eq(Product.class));
+        return update.getValue();
+    }
+
+    private static Object incrementOf(UpdateDefinition update) {
+        return ((Document) update.getUpdateObject().get("$inc")).get("variants.$[v].stock");
+    }
+
+    private Product product(int stock) {
+        return Product.builder()
+                .id(productId.toHexString())
+                .name("Điện thoại")
+                .variants(List.of(Product.Variant.builder().variantId(variantId).stock(stock).build()))
+                .build();
+    }
+
+    private Inventory inventory(int quantity) {
+        Inventory.ProductEntry.ProductVariantEntry variant = new Inventory.ProductEntry.ProductVariantEntry(
+                variantId, null, null, null, null, quantity, 0, 0, 10, 10 + quantity);
+        Inventory inventory = new Inventory();
+        inventory.setId("inv");
+        inventory.setProducts(List.of(new Inventory.ProductEntry(productId, "Điện thoại", List.of(variant))));
+        return inventory;
+    }
+}
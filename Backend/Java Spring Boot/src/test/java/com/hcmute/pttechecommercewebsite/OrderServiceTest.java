@@ -0,0 +1,351 @@
+package com.hcmute.pttechecommercewebsite;
+
+import com.hcmute.pttechecommercewebsite.dto.OrderDTO;
+import com.hcmute.pttechecommercewebsite.model.DiscountCode;
+import com.hcmute.pttechecommercewebsite.model.Order;
+import com.hcmute.pttechecommercewebsite.repository.OrderRepository;
+import com.hcmute.pttechecommercewebsite.repository.ProductRepository;
+import com.hcmute.pttechecommercewebsite.service.*;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class OrderServiceTest {
+
+    @Mock
+    private OrderRepository orderRepository;
+
+    @Mock
+    private ProductRepository productRepository;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private DiscountCodeCache discountCodeCache;
+
+    @Mock
+    private StockReservationService stockReservationService;
+
+    @Mock
+    private StockHoldService stockHoldService;
+
+    @Mock
+    private UserSpendingService userSpendingService;
+
+    @Mock
+    private DiscountRedemptionService discountRedemptionService;
+
+    @Mock
+    private DiscountEvaluator discountEvaluator;
+
+    @Mock
+    private StatisticsAggregator statisticsAggregator;
+
+    @InjectMocks
+    private OrderService orderService;
+
+    @BeforeEach
+    void setUp() {
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+        converter.afterPropertiesSet();
+        lenient().when(mongoTemplate.getConverter()).thenReturn(converter);
+    }
+
+    @Test
+    @DisplayName("Sửa đơn không ghi lại các cờ do dịch vụ khác cập nhật")
+    void updateOrderDoesNotOverwriteSeparatelyUpdatedFlags() {
+        Order order = order("COD", "Chưa thanh toán", 2);
+        when(orderRepository.findByIdAndIsDeletedFalse(order.getId())).thenReturn(Optional.of(order));
+
+        OrderDTO changes = changes(order, 2);
+        changes.setReceiverName("Người nhận mới");
+        orderService.updateOrder(order.getId(), changes);
+
+        Document update = savedUpdate();
+        Document set = (Document) update.get("$set");
+        assertEquals("Người nhận mới", set.get("receiverName"));
+        for (String flag : List.of("stockReleased", "spendingRecorded", "transitionId")) {
+            assertFalse(set.containsKey(flag), flag);
+            assertFalse(update.get("$unset", new Document()).containsKey(flag), flag);
+        }
+        verify(orderRepository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("Sửa số lượng đơn VNPay đang giữ hàng: trừ phần tăng và ghi lại lượt giữ theo số lượng mới")
+    void updateQuantityRewritesStockHold() {
+        Order order = order("VNPay", "Chưa thanh toán", 2);
+        when(orderRepository.findByIdAndIsDeletedFalse(order.getId())).thenReturn(Optional.of(order));
+        when(stockHoldService.exists(order.getOrderId())).thenReturn(true);
+        when(stockHoldService.replaceItems(any())).thenReturn(true);
+
+        orderService.updateOrder(order.getId(), changes(order, 3));
+
+        verify(stockReservationService).reserve(argThat(lines -> lines.size() == 1 && lines.get(0).getQuantity() == 1), eq(false));
+        ArgumentCaptor<Order> held = ArgumentCaptor.forClass(Order.class);
+        verify(stockHoldService).replaceItems(held.capture());
+        assertEquals(3, held.getValue().getItems().get(0).getQuantity());
+        verify(stockReservationService, never()).release(argThat(lines -> !lines.isEmpty()));
+    }
+
+    @Test
+    @DisplayName("Lượt giữ hết hạn trong lúc sửa đơn: hoàn tác phần chênh lệch tồn kho")
+    void holdExpiredDuringUpdateRevertsStockChange() {
+        Order order = order("VNPay", "Chưa thanh toán", 2);
+        when(orderRepository.findByIdAndIsDeletedFalse(order.getId())).thenReturn(Optional.of(order));
+        when(stockHoldService.exists(order.getOrderId())).thenReturn(true);
+        when(stockHoldService.replaceItems(any())).thenReturn(false);
+
+        orderService.updateOrder(order.getId(), changes(order, 3));
+
+        verify(stockReservationService).release(argThat(lines -> lines.size() == 1 && lines.get(0).getQuantity() == 1));
+    }
+
+    @Test
+    @DisplayName("Lượt giữ đã hết hạn trước khi sửa: không trừ / trả phần chênh lệch")
+    void releasedOrderSkipsStockChange() {
+        Order order = order("VNPay", "Chưa thanh toán", 2);
+        when(orderRepository.findByIdAndIsDeletedFalse(order.getId())).thenReturn(Optional.of(order));
+        when(stockHoldService.exists(order.getOrderId())).thenReturn(false);
+        when(mongoTemplate.exists(any(Query.class), eq(Order.class))).thenReturn(true);
+
+        orderService.updateOrder(order.getId(), changes(order, 1));
+
+        verifyNoInteractions(stockReservationService);
+        verify(stockHoldService, never()).replaceItems(any());
+    }
+
+    @Test
+    @DisplayName("Chuyển đơn VNPay chưa thanh toán sang 'Đã giao': xóa lượt giữ, phần trừ thành chính thức")
+    void deliveredOrderCommitsStockHold() {
+        Order order = order("VNPay", "Chưa thanh toán", 2);
+        when(orderRepository.findByIdAndIsDeletedFalse(order.getId())).thenReturn(Optional.of(order));
+        when(stockHoldService.remove(order.getOrderId())).thenReturn(true);
+
+        OrderDTO changes = changes(order, 2);
+        changes.setOrderStatus("Đã giao");
+        orderService.updateOrder(order.getId(), changes);
+
+        assertEquals("Đã thanh toán", order.getPaymentStatus());
+        verify(stockHoldService).remove(order.getOrderId());
+        verify(stockReservationService, never()).reserve(any(), anyBoolean());
+    }
+
+    @Test
+    @DisplayName("Thanh toán đến sau khi lượt giữ hết hạn: trừ lại phần còn hàng và bỏ cờ stockReleased")
+    void latePaymentReservesReleasedStock() {
+        Order order = order("VNPay", "Chưa thanh toán", 2);
+        when(orderRepository.findByOrderIdAndIsDeletedFalse(order.getOrderId())).thenReturn(Optional.of(order));
+        when(stockHoldService.remove(order.getOrderId())).thenReturn(false);
+        when(mongoTemplate.exists(any(Query.class), eq(Order.class))).thenReturn(true);
+
+        orderService.updateOrderPaymentStatus(order.getOrderId(), "Đã thanh toán");
+
+        verify(stockReservationService).reserve(argThat(lines -> lines.size() == 1 && lines.get(0).getQuantity() == 2), eq(true));
+        assertFalse(order.isStockReleased());
+        assertEquals("Đã thanh toán", order.getPaymentStatus());
+    }
+
+    @Test
+    @DisplayName("Thanh toán trong thời hạn giữ: xóa lượt giữ, không trừ thêm")
+    void paymentWithinHoldCommitsHold() {
+        Order order = order("VNPay", "Chưa thanh toán", 2);
+        when(orderRepository.findByOrderIdAndIsDeletedFalse(order.getOrderId())).thenReturn(Optional.of(order));
+        when(stockHoldService.remove(order.getOrderId())).thenReturn(true);
+
+        orderService.updateOrderPaymentStatus(order.getOrderId(), "Đã thanh toán");
+
+        verify(stockReservationService, never()).reserve(any(), anyBoolean());
+    }
+
+    @Test
+    @DisplayName("Mã giảm giá mới không dùng được: chưa trừ tồn kho hay chi tiêu")
+    void failedRedemptionLeavesStockAndSpendingUntouched() {
+        Order order = order("COD", "Đã thanh toán", 2);
+        when(orderRepository.findByIdAndIsDeletedFalse(order.getId())).thenReturn(Optional.of(order));
+        DiscountCode discount = discount("SALE10");
+        doThrow(new RuntimeException("Mã giảm giá đã hết lượt sử dụng."))
+                .when(discountRedemptionService).redeem(discount, order.getUserId());
+
+        OrderDTO changes = changes(order, 3);
+        changes.setDiscountCode("SALE10");
+        assertThrows(RuntimeException.class, () -> orderService.updateOrder(order.getId(), changes));
+
+        verifyNoInteractions(stockReservationService, userSpendingService);
+    }
+
+    @Test
+    @DisplayName("Không đủ hàng cho phần tăng: hoàn lại lượt sử dụng mã vừa ghi nhận")
+    void stockShortageCancelsNewRedemption() {
+        Order order = order("COD", "Đã thanh toán", 2);
+        when(orderRepository.findByIdAndIsDeletedFalse(order.getId())).thenReturn(Optional.of(order));
+        discount("SALE10");
+        when(stockReservationService.reserve(any(), eq(false))).thenAnswer(invocation -> invocation.getArgument(0));
+
+        OrderDTO changes = changes(order, 3);
+        changes.setDiscountCode("SALE10");
+        assertThrows(IllegalStateException.class, () -> orderService.updateOrder(order.getId(), changes));
+
+        verify(discountRedemptionService).cancel("SALE10", order.getUserId());
+        verifyNoInteractions(userSpendingService);
+    }
+
+    @Test
+    @DisplayName("Lưu đơn thất bại: hoàn tác tồn kho, lượt sử dụng mã và chi tiêu")
+    void failedSaveCompensatesEarlierChanges() {
+        Order order = order("COD", "Đã thanh toán", 2);
+        Order stored = order("COD", "Đã thanh toán", 2);
+        when(orderRepository.findByIdAndIsDeletedFalse(order.getId())).thenReturn(Optional.of(order));
+        when(orderRepository.findById(order.getId())).thenReturn(Optional.of(stored));
+        discount("SALE10");
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(Order.class)))
+                .thenThrow(new RuntimeException("write failed"));
+
+        OrderDTO changes = changes(order, 3);
+        changes.setDiscountCode("SALE10");
+        assertThrows(RuntimeException.class, () -> orderService.updateOrder(order.getId(), changes));
+
+        verify(stockReservationService).release(argThat(lines -> lines.size() == 1 && lines.get(0).getQuantity() == 1));
+        verify(discountRedemptionService).cancel("SALE10", order.getUserId());
+        verify(userSpendingService).revert(order);
+        verify(userSpendingService).sync(stored);
+    }
+
+    @Test
+    @DisplayName("Đổi sang mã khác: ghi nhận mã mới và hoàn lại lượt sử dụng của mã cũ")
+    void switchingCodeCancelsPreviousRedemption() {
+        Order order = order("COD", "Chưa thanh toán", 2);
+        order.setDiscountCode("OLD");
+        when(orderRepository.findByIdAndIsDeletedFalse(order.getId())).thenReturn(Optional.of(order));
+        DiscountCode discount = discount("NEW");
+
+        OrderDTO changes = changes(order, 2);
+        changes.setDiscountCode("NEW");
+        orderService.updateOrder(order.getId(), changes);
+
+        verify(discountRedemptionService).redeem(discount, order.getUserId());
+        verify(discountRedemptionService).cancel("OLD", order.getUserId());
+    }
+
+    @Test
+    @DisplayName("Bỏ mã giảm giá: hoàn lại lượt sử dụng của mã cũ")
+    void clearingCodeCancelsPreviousRedemption() {
+        Order order = order("COD", "Chưa thanh toán", 2);
+        order.setDiscountCode("OLD");
+        when(orderRepository.findByIdAndIsDeletedFalse(order.getId())).thenReturn(Optional.of(order));
+
+        OrderDTO changes = changes(order, 2);
+        changes.setDiscountCode(null);
+        orderService.updateOrder(order.getId(), changes);
+
+        verify(discountRedemptionService).cancel("OLD", order.getUserId());
+        verify(discountRedemptionService, never()).redeem(any(), any());
+    }
+
+    @Test
+    @DisplayName("Giữ nguyên mã: không ghi nhận hay hoàn lại lượt sử dụng")
+    void keepingCodeDoesNotTouchRedemptions() {
+        Order order = order("COD", "Chưa thanh toán", 2);
+        order.setDiscountCode("SALE10");
+        when(orderRepository.findByIdAndIsDeletedFalse(order.getId())).thenReturn(Optional.of(order));
+        discount("SALE10");
+
+        orderService.updateOrder(order.getId(), changes(order, 2));
+
+        verifyNoInteractions(discountRedemptionService);
+        assertEquals(10.0, order.getDiscountAmount());
+    }
+
+    // Mã giảm giá hợp lệ, giảm 10
+    private DiscountCode discount(String code) {
+        DiscountCode discount = DiscountCode.builder().id(new ObjectId().toHexString()).code(code).build();
+        when(discountCodeCache.findValid(eq(code), any())).thenReturn(Optional.of(discount));
+        when(discountEvaluator.calculate(eq(discount), any(), anyDouble())).thenReturn(10.0);
+        return discount;
+    }
+
+    // Lệnh cập nhật cuối cùng ghi vào đơn hàng (saveOrder)
+    private Document savedUpdate() {
+        ArgumentCaptor<UpdateDefinition> captor = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate, atLeastOnce()).updateFirst(any(Query.class), captor.capture(), eq(Order.class));
+        return captor.getValue().getUpdateObject();
+    }
+
+    static Order order(String paymentMethod, String paymentStatus, int quantity) {
+        Date createdAt = new Date();
+        return Order.builder()
+                .id(new ObjectId().toHexString())
+                .orderId("ORD-test")
+                .userId(new ObjectId())
+                .items(List.of(Order.Item.builder()
+                        .productId(new ObjectId())
+                        .variantId(new ObjectId())
+                        .brandId(new ObjectId())
+                        .categoryId(new ObjectId())
+                        .discountPrice(100.0)
+                        .originalPrice(120.0)
+                        .quantity(quantity)
+                        .totalPrice(100.0 * quantity)
+                        .build()))
+                .totalItems(1)
+                .totalPrice(100.0 * quantity)
+                .finalPrice(100.0 * quantity)
+                .receiverName("Người nhận")
+                .shippingAddress(Order.ShippingAddress.builder().street("1 Võ Văn Ngân").city("Thủ Đức").build())
+                .paymentMethod(paymentMethod)
+                .paymentStatus(paymentStatus)
+                .orderStatus("Chờ xác nhận")
+                .stockReleased(true)
+                .spendingRecorded(true)
+                .transitionId("transition")
+                .createdAt(createdAt)
+                .updatedAt(createdAt)
+                .build();
+    }
+
+    // Nội dung sửa đơn giữ nguyên mọi thứ trừ số lượng của dòng đầu tiên
+    static OrderDTO changes(Order order, int quantity) {
+        Order.Item item = order.getItems().get(0);
+        return OrderDTO.builder()
+                .userId(order.getUserId().toHexString())
+                .items(List.of(OrderDTO.ItemDTO.builder()
+                        .productId(item.getProductId().toHexString())
+                        .variantId(item.getVariantId().toHexString())
+                        .brandId(item.getBrandId().toHexString())
+                        .categoryId(item.getCategoryId().toHexString())
+                        .discountPrice(item.getDiscountPrice())
+                        .originalPrice(item.getOriginalPrice())
+                        .quantity(quantity)
+                        .totalPrice(item.getDiscountPrice() * quantity)
+                        .build()))
+                .discountCode(order.getDiscountCode())
+                .build();
+    }
+}
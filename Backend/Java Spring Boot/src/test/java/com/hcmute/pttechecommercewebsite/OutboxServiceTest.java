@@ -0,0 +1,144 @@
+package com.hcmute.pttechecommercewebsite;
+
+import com.hcmute.pttechecommercewebsite.model.OutboxMessage;
+import com.hcmute.pttechecommercewebsite.service.OutboxHandler;
+import com.hcmute.pttechecommercewebsite.service.OutboxService;
+import com.hcmute.pttechecommercewebsite.service.OutboxTransport;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class OutboxServiceTest {
+
+    private static final String TYPE = "email.test";
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private OutboxTransport transport;
+
+    @Mock
+    private OutboxHandler handler;
+
+    private OutboxService outboxService;
+
+    @BeforeEach
+    void setUp() {
+        when(handler.getTypes()).thenReturn(Set.of(TYPE));
+        outboxService = new OutboxService(mongoTemplate, transport, List.of(handler));
+        ReflectionTestUtils.setField(outboxService, "maxAttempts", 3);
+        ReflectionTestUtils.setField(outboxService, "backoffInitialMs", 10_000L);
+        ReflectionTestUtils.setField(outboxService, "backoffMaxMs", 3_600_000L);
+        ReflectionTestUtils.setField(outboxService, "redeliveryMs", 300_000L);
+        ReflectionTestUtils.setField(outboxService, "pollBatchSize", 100);
+    }
+
+    @Test
+    @DisplayName("Thông điệp đã được worker khác giành: không xử lý lại")
+    void processSkipsMessageClaimedElsewhere() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+                eq(OutboxMessage.class))).thenReturn(null);
+
+        outboxService.process("m1");
+
+        verify(handler, never()).handle(any());
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(UpdateDefinition.class), eq(OutboxMessage.class));
+    }
+
+    @Test
+    @DisplayName("Xử lý thành công: chuyển sang SENT")
+    void processMarksSent() {
+        OutboxMessage message = claim(1);
+
+        outboxService.process(message.getId());
+
+        verify(handler).handle(message);
+        assertEquals(OutboxMessage.SENT, lastUpdate().get("status"));
+    }
+
+    @Test
+    @DisplayName("Xử lý lỗi khi còn lượt thử: chờ thử lại với thời gian tăng gấp đôi")
+    void processFailureSchedulesRetryWithBackoff() {
+        OutboxMessage message = claim(2);
+        doThrow(new IllegalStateException("smtp down")).when(handler).handle(message);
+
+        long before = System.currentTimeMillis();
+        outboxService.process(message.getId());
+
+        Document set = lastUpdate();
+        assertEquals(OutboxMessage.PENDING, set.get("status"));
+        assertEquals("IllegalStateException: smtp down", set.get("lastError"));
+        long delay = ((Date) set.get("nextAttemptAt")).getTime() - before;
+        assertTrue(delay >= 20_000 && delay < 25_000, "delay " + delay);
+    }
+
+    @Test
+    @DisplayName("Xử lý lỗi ở lần thử cuối: chuyển sang DEAD")
+    void processFailureAtMaxAttemptsMarksDead() {
+        OutboxMessage message = claim(3);
+        doThrow(new IllegalStateException("smtp down")).when(handler).handle(message);
+
+        outboxService.process(message.getId());
+
+        assertEquals(OutboxMessage.DEAD, lastUpdate().get("status"));
+    }
+
+    @Test
+    @DisplayName("Phát lại: chỉ phát các thông điệp gia hạn được")
+    void redeliverPublishesOnlyLeasedMessages() {
+        OutboxMessage leased = OutboxMessage.builder().id(new ObjectId().toHexString()).build();
+        OutboxMessage taken = OutboxMessage.builder().id(new ObjectId().toHexString()).build();
+        when(mongoTemplate.find(any(Query.class), eq(OutboxMessage.class))).thenReturn(List.of(leased, taken));
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), eq(OutboxMessage.class)))
+                .thenReturn(leased, (OutboxMessage) null);
+
+        outboxService.redeliver();
+
+        verify(transport).publish(leased.getId());
+        verify(transport, never()).publish(taken.getId());
+    }
+
+    // Thông điệp được giành thành công ở lần thử thứ attempts
+    private OutboxMessage claim(int attempts) {
+        OutboxMessage message = OutboxMessage.builder()
+                .id(new ObjectId().toHexString())
+                .type(TYPE)
+                .payload(Map.of("orderId", "o1"))
+                .status(OutboxMessage.PROCESSING)
+                .attempts(attempts)
+                .build();
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class), any(FindAndModifyOptions.class),
+                eq(OutboxMessage.class))).thenReturn(message);
+        return message;
+    }
+
+    // Phần $set của lệnh cập nhật trạng thái cuối cùng
+    private Document lastUpdate() {
+        ArgumentCaptor<UpdateDefinition> captor = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate).updateFirst(any(Query.class), captor.capture(), eq(OutboxMessage.class));
+        return (Document) captor.getValue().getUpdateObject().get("$set");
+    }
+}
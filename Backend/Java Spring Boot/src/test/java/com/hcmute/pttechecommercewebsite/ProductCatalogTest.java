@@ -0,0 +1,146 @@
+package com.hcmute.pttechecommercewebsite;
+
+import com.hcmute.pttechecommercewebsite.dto.ProductDTO;
+import com.hcmute.pttechecommercewebsite.model.Product;
+import com.hcmute.pttechecommercewebsite.service.ProductCatalog;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class ProductCatalogTest {
+
+    private static final ObjectId APPLE = new ObjectId();
+    private static final ObjectId SAMSUNG = new ObjectId();
+
+    private ProductCatalog catalog;
+    private Map<String, Product> products;
+
+    @BeforeEach
+    void setUp() {
+        catalog = new ProductCatalog();
+        products = new LinkedHashMap<>();
+        for (int i = 0; i < 5; i++) {
+            Product product = product(String.format("p%02d", i), i % 2 == 0 ? APPLE : SAMSUNG, 100.0 * (i + 1), "Mới");
+            products.put(product.getId(), product);
+        }
+        catalog.replaceAll(entries(), List.of());
+        // Dựng snapshot ban đầu để các cập nhật sau đi theo đường thay từng dòng
+        assertEquals(5, catalog.size());
+    }
+
+    @Test
+    @DisplayName("Đổi giá của sản phẩm đã có cập nhật lọc và sắp xếp theo giá")
+    void priceChangeMovesProductInPriceOrder() {
+        update(product("p00", APPLE, 450.0, "Mới"));
+
+        assertEquals(List.of("p00", "p03"), ids(ProductCatalog.Filter.builder().minPrice(400.0).maxPrice(450.0).build()));
+        assertEquals(List.of("p01", "p02", "p03", "p00", "p04"),
+                ids(ProductCatalog.Filter.builder().sortBy("pricing.current").sortOrder("asc").build()));
+    }
+
+    @Test
+    @DisplayName("Đổi thương hiệu và tình trạng cập nhật bộ lọc và facet")
+    void brandAndConditionChangeUpdatesIndexes() {
+        update(product("p00", SAMSUNG, 100.0, "Cũ"));
+
+        assertEquals(List.of("p00", "p01", "p03"),
+                ids(ProductCatalog.Filter.builder().brandIds(List.of(SAMSUNG.toString())).build()));
+        assertEquals(List.of("p00"), ids(ProductCatalog.Filter.builder().conditions(List.of("Cũ")).build()));
+
+        ProductCatalog.FacetCounts facets = catalog.countFacets(ProductCatalog.Filter.builder().build(), new double[]{250.0});
+        assertEquals(2, facets.getBrands().get(APPLE.toString()));
+        assertEquals(3, facets.getBrands().get(SAMSUNG.toString()));
+        assertEquals(4, facets.getConditions().get("Mới"));
+    }
+
+    @Test
+    @DisplayName("Thêm và gỡ sản phẩm vẫn cho kết quả đúng")
+    void addAndRemoveProducts() {
+        update(product("p09", APPLE, 50.0, "Mới"));
+        Product removed = products.remove("p01");
+        removed.setStatus("inactive");
+        catalog.upsert(removed, dto(removed));
+
+        assertEquals(List.of("p00", "p02", "p03", "p04", "p09"), ids(ProductCatalog.Filter.builder().build()));
+        assertEquals(List.of("p09"), ids(ProductCatalog.Filter.builder().maxPrice(60.0).build()));
+    }
+
+    @Test
+    @DisplayName("Chuỗi cập nhật từng dòng cho cùng kết quả với dựng lại toàn bộ")
+    void incrementalUpdatesMatchFullRebuild() {
+        Random random = new Random(42);
+        List<String> conditions = List.of("Mới", "Cũ", "Like new");
+        for (int i = 0; i < 300; i++) {
+            String id = String.format("p%02d", random.nextInt(5));
+            double price = 50.0 * random.nextInt(12);
+            update(product(id, random.nextBoolean() ? APPLE : SAMSUNG, price, conditions.get(random.nextInt(3))));
+        }
+
+        ProductCatalog rebuilt = new ProductCatalog();
+        rebuilt.replaceAll(entries(), List.of());
+
+        List<ProductCatalog.Filter> filters = List.of(
+                ProductCatalog.Filter.builder().build(),
+                ProductCatalog.Filter.builder().minPrice(100.0).maxPrice(300.0).build(),
+                ProductCatalog.Filter.builder().brandIds(List.of(APPLE.toString())).sortBy("pricing.current").sortOrder("desc").build(),
+                ProductCatalog.Filter.builder().conditions(List.of("Cũ", "Like new")).sortBy("name").sortOrder("asc").build());
+        for (ProductCatalog.Filter filter : filters) {
+            assertEquals(ids(rebuilt, filter), ids(filter));
+        }
+        double[] bounds = {100.0, 250.0, 400.0};
+        assertEquals(rebuilt.countFacets(ProductCatalog.Filter.builder().build(), bounds).getBrands(),
+                catalog.countFacets(ProductCatalog.Filter.builder().build(), bounds).getBrands());
+        assertEquals(Arrays.toString(rebuilt.countFacets(ProductCatalog.Filter.builder().build(), bounds).getPriceBuckets()),
+                Arrays.toString(catalog.countFacets(ProductCatalog.Filter.builder().build(), bounds).getPriceBuckets()));
+    }
+
+    private void update(Product product) {
+        products.put(product.getId(), product);
+        catalog.upsert(product, dto(product));
+    }
+
+    private List<String> ids(ProductCatalog.Filter filter) {
+        return ids(catalog, filter);
+    }
+
+    private static List<String> ids(ProductCatalog catalog, ProductCatalog.Filter filter) {
+        return catalog.find(filter).stream().map(ProductDTO::getId).toList();
+    }
+
+    private List<ProductCatalog.Entry> entries() {
+        List<ProductCatalog.Entry> entries = new ArrayList<>();
+        for (Product product : products.values()) {
+            entries.add(ProductCatalog.Entry.of(product, dto(product)));
+        }
+        return entries;
+    }
+
+    private static Product product(String id, ObjectId brandId, double price, String condition) {
+        return Product.builder()
+                .id(id)
+                .name("Sản phẩm " + id)
+                .brandId(brandId)
+                .pricing(Product.Pricing.builder().original(price).current(price).build())
+                .variants(List.of(Product.Variant.builder().variantId(new ObjectId()).condition(condition).build()))
+                .status("active")
+                .build();
+    }
+
+    private static ProductDTO dto(Product product) {
+        return ProductDTO.builder()
+                .id(product.getId())
+                .name(product.getName())
+                .brandId(product.getBrandId().toString())
+                .pricing(ProductDTO.PricingDTO.builder()
+                        .original(product.getPricing().getOriginal())
+                        .current(product.getPricing().getCurrent())
+                        .build())
+                .status(product.getStatus())
+                .build();
+    }
+}
@@ -0,0 +1,215 @@
+package com.hcmute.pttechecommercewebsite;
+
+import com.hcmute.pttechecommercewebsite.model.Order;
+import com.hcmute.pttechecommercewebsite.model.Statistics;
+import com.hcmute.pttechecommercewebsite.repository.ProductRepository;
+import com.hcmute.pttechecommercewebsite.service.StatisticsAggregator;
+import com.hcmute.pttechecommercewebsite.service.StatisticsRollupService;
+import com.hcmute.pttechecommercewebsite.service.UserOrderIndexService;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class StatisticsAggregatorTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private ProductRepository productRepository;
+
+    @Mock
+    private UserOrderIndexService userOrderIndexService;
+
+    @Mock
+    private BulkOperations daily;
+
+    @Mock
+    private BulkOperations rollups;
+
+    private StatisticsAggregator statisticsAggregator;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Statistics.class)).thenReturn(daily);
+        lenient().when(mongoTemplate.bulkOps(BulkOperations.BulkMode.ORDERED, Statistics.class,
+                StatisticsRollupService.ROLLUP_COLLECTION)).thenReturn(rollups);
+        statisticsAggregator = new StatisticsAggregator(mongoTemplate, productRepository, userOrderIndexService);
+    }
+
+    @Test
+    @DisplayName("Ghi thành công: mỗi lệnh bulk chạy một lần và lô không bị ghi lại")
+    void flushWritesBatchOnce() {
+        statisticsAggregator.recordOrderCreated(order(new Date()));
+
+        statisticsAggregator.flush();
+        statisticsAggregator.flush();
+
+        verify(daily, times(1)).execute();
+        verify(rollups, times(1)).execute();
+        assertTrue(statisticsAggregator.takeStaleDays().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Ghi thất bại giữa chừng: không cộng lại lô, ngày của lô được đánh dấu để tính lại")
+    void failedFlushMarksDayStaleInsteadOfRetrying() {
+        Date createdAt = new Date();
+        statisticsAggregator.recordOrderCreated(order(createdAt));
+        // Bản theo ngày đã ghi xong, bản tổng hợp lỗi
+        when(rollups.execute()).thenThrow(new RuntimeException("rollups failed"));
+
+        statisticsAggregator.flush();
+        statisticsAggregator.flush();
+
+        verify(daily, times(1)).execute();
+        verify(rollups, times(1)).execute();
+        verify(mongoTemplate, times(1)).bulkOps(eq(BulkOperations.BulkMode.ORDERED), eq(Statistics.class));
+
+        Set<Date> staleDays = statisticsAggregator.takeStaleDays();
+        assertEquals(Set.of(StatisticsRollupService.periodStart(StatisticsRollupService.DAY, createdAt)), staleDays);
+        assertTrue(statisticsAggregator.takeStaleDays().isEmpty());
+    }
+
+    @Test
+    @DisplayName("Thay đổi mới sau lần ghi lỗi vẫn được ghi bình thường")
+    void laterChangesAreStillWritten() {
+        when(rollups.execute()).thenThrow(new RuntimeException("rollups failed")).thenReturn(null);
+        statisticsAggregator.recordOrderCreated(order(new Date()));
+        statisticsAggregator.flush();
+
+        statisticsAggregator.recordOrderCreated(order(new Date()));
+        statisticsAggregator.flush();
+
+        verify(daily, times(2)).execute();
+        verify(rollups, times(2)).execute();
+    }
+
+    @Test
+    @DisplayName("Tính lại một ngày: bỏ các thay đổi chưa ghi của ngày đó, giữ các ngày khác")
+    void recomputeDropsPendingChangesOfDay() {
+        Date today = new Date();
+        Date yesterday = daysAgo(1);
+        statisticsAggregator.recordOrderCreated(order(today));
+        statisticsAggregator.recordOrderCreated(order(yesterday));
+
+        statisticsAggregator.recompute(today, () -> { });
+        statisticsAggregator.flush();
+
+        ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+        verify(daily, times(1)).upsert(query.capture(), any(Update.class));
+        Document range = (Document) query.getValue().getQueryObject().get("date");
+        assertEquals(StatisticsRollupService.periodStart(StatisticsRollupService.DAY, yesterday), range.get("$gte"));
+    }
+
+    @Test
+    @DisplayName("Lệnh ghi đơn của ngày đang được tính lại phải chờ tính lại xong")
+    void writerWaitsForRecompute() throws InterruptedException {
+        Date today = new Date();
+        AtomicBoolean written = new AtomicBoolean();
+        Thread writer = new Thread(() -> {
+            try (StatisticsAggregator.Fence ignored = statisticsAggregator.enterDay(today)) {
+                written.set(true);
+                statisticsAggregator.recordOrderCreated(order(today));
+            }
+        });
+
+        statisticsAggregator.recompute(today, () -> {
+            writer.start();
+            sleep(200);
+            assertFalse(written.get());
+        });
+        writer.join(5_000);
+
+        assertTrue(written.get());
+        // Thay đổi ghi sau lần tính lại không bị bỏ
+        statisticsAggregator.flush();
+        verify(daily, times(1)).execute();
+    }
+
+    @Test
+    @DisplayName("Tính lại chờ các lệnh ghi đơn đang chạy của ngày xong rồi mới đọc lại")
+    void recomputeWaitsForRunningWriter() throws InterruptedException {
+        Date today = new Date();
+        AtomicBoolean recomputed = new AtomicBoolean();
+        Thread recompute;
+        try (StatisticsAggregator.Fence ignored = statisticsAggregator.enterDay(today)) {
+            recompute = new Thread(() -> statisticsAggregator.recompute(today, () -> recomputed.set(true)));
+            recompute.start();
+            sleep(200);
+            assertFalse(recomputed.get());
+            statisticsAggregator.recordOrderCreated(order(today));
+        }
+        recompute.join(5_000);
+
+        assertTrue(recomputed.get());
+        // Thay đổi của lệnh ghi đã nằm trong lần đọc lại
+        statisticsAggregator.flush();
+        verify(daily, never()).execute();
+    }
+
+    @Test
+    @DisplayName("flush chờ tính lại xong, không ghi $inc giữa lần đọc lại và lần ghi kết quả")
+    void flushWaitsForRecompute() throws InterruptedException {
+        statisticsAggregator.recordOrderCreated(order(daysAgo(1)));
+        Thread flush = new Thread(statisticsAggregator::flush);
+
+        statisticsAggregator.recompute(new Date(), () -> {
+            flush.start();
+            sleep(200);
+            verify(daily, never()).execute();
+        });
+        flush.join(5_000);
+
+        verify(daily, times(1)).execute();
+    }
+
+    private static Date daysAgo(int days) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.add(Calendar.DAY_OF_MONTH, -days);
+        return calendar.getTime();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static Order order(Date createdAt) {
+        return Order.builder()
+                .userId(new ObjectId())
+                .items(List.of(Order.Item.builder().productId(new ObjectId()).productName("Điện thoại")
+                        .quantity(1).totalPrice(1000.0).build()))
+                .totalItems(1)
+                .finalPrice(1000.0)
+                .paymentMethod("COD")
+                .orderStatus("Chờ xác nhận")
+                .shippingMethod("GHN")
+                .createdAt(createdAt)
+                .build();
+    }
+}
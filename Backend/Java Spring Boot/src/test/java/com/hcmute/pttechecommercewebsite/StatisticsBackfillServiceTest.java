@@ -0,0 +1,153 @@
+package com.hcmute.pttechecommercewebsite;
+
+import com.hcmute.pttechecommercewebsite.model.StatisticsBackfillJob;
+import com.hcmute.pttechecommercewebsite.repository.StatisticsBackfillJobRepository;
+import com.hcmute.pttechecommercewebsite.service.StatisticsBackfillService;
+import com.hcmute.pttechecommercewebsite.service.StatisticsRollupService;
+import com.hcmute.pttechecommercewebsite.service.StatisticsService;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class StatisticsBackfillServiceTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private StatisticsBackfillJobRepository statisticsBackfillJobRepository;
+
+    @Mock
+    private StatisticsService statisticsService;
+
+    @Mock
+    private StatisticsRollupService statisticsRollupService;
+
+    private StatisticsBackfillService statisticsBackfillService;
+
+    private final Date first = day(2024, Calendar.MARCH, 11);
+    private final Date second = day(2024, Calendar.MARCH, 12);
+    private final Date third = day(2024, Calendar.MARCH, 13);
+
+    @BeforeEach
+    void setUp() {
+        statisticsBackfillService = new StatisticsBackfillService(mongoTemplate, statisticsBackfillJobRepository,
+                statisticsService, statisticsRollupService);
+        ReflectionTestUtils.setField(statisticsBackfillService, "concurrency", 2);
+    }
+
+    @Test
+    @DisplayName("Chạy tiếp: chỉ tính các ngày chưa xong, dựng lại tuần / tháng một lần")
+    void resumeSkipsCompletedDays() {
+        StatisticsBackfillJob job = job(StatisticsBackfillService.INTERRUPTED, new ArrayList<>(List.of(first)));
+
+        statisticsBackfillService.resume(job.getId());
+
+        verify(statisticsService, timeout(5_000)).generateDailyStatistics(second, false);
+        verify(statisticsService, timeout(5_000)).generateDailyStatistics(third, false);
+        assertEquals(StatisticsBackfillService.COMPLETED, finalStatus());
+        verify(statisticsService, never()).generateDailyStatistics(first, false);
+        verify(statisticsRollupService, times(1)).rebuild(StatisticsRollupService.WEEK, first);
+        verify(statisticsRollupService, times(1)).rebuild(StatisticsRollupService.MONTH, day(2024, Calendar.MARCH, 1));
+    }
+
+    @Test
+    @DisplayName("Một ngày lỗi: ghi vào failedDates, các ngày khác vẫn được tính")
+    void failedDayIsRecorded() {
+        StatisticsBackfillJob job = job(StatisticsBackfillService.FAILED, new ArrayList<>());
+        lenient().doThrow(new IllegalStateException("timeout")).when(statisticsService).generateDailyStatistics(second, false);
+
+        statisticsBackfillService.resume(job.getId());
+
+        finalStatus();
+        verify(statisticsService).generateDailyStatistics(first, false);
+        verify(statisticsService).generateDailyStatistics(third, false);
+        ArgumentCaptor<UpdateDefinition> updates = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate, atLeastOnce()).updateFirst(any(Query.class), updates.capture(), eq(StatisticsBackfillJob.class));
+        List<Object> failed = updates.getAllValues().stream()
+                .map(update -> (Document) update.getUpdateObject().get("$addToSet"))
+                .filter(addToSet -> addToSet != null && addToSet.containsKey("failedDates"))
+                .map(addToSet -> addToSet.get("failedDates"))
+                .toList();
+        assertEquals(List.of(second), failed);
+    }
+
+    @Test
+    @DisplayName("Tiến trình đã hoàn tất hoặc khoảng ngày sai: báo lỗi, không chạy")
+    void invalidRequestsAreRejected() {
+        StatisticsBackfillJob job = job(StatisticsBackfillService.COMPLETED, new ArrayList<>(List.of(first, second, third)));
+
+        assertThrows(IllegalStateException.class, () -> statisticsBackfillService.resume(job.getId()));
+        assertThrows(IllegalArgumentException.class, () -> statisticsBackfillService.start(third, first));
+        verifyNoInteractions(statisticsService);
+        verify(statisticsBackfillJobRepository, never()).save(any());
+    }
+
+    @Test
+    @DisplayName("Hủy tiến trình RUNNING không còn chạy trên ứng dụng: đánh dấu INTERRUPTED")
+    void cancelOrphanedJobMarksInterrupted() {
+        StatisticsBackfillJob job = job(StatisticsBackfillService.RUNNING, new ArrayList<>());
+
+        statisticsBackfillService.cancel(job.getId());
+
+        assertEquals(StatisticsBackfillService.INTERRUPTED, finalStatus());
+        verifyNoInteractions(statisticsService);
+    }
+
+    private StatisticsBackfillJob job(String status, List<Date> completedDates) {
+        StatisticsBackfillJob job = StatisticsBackfillJob.builder()
+                .id(new ObjectId().toHexString())
+                .fromDate(first)
+                .toDate(third)
+                .status(status)
+                .totalDays(3)
+                .completedDates(completedDates)
+                .failedDates(new ArrayList<>())
+                .build();
+        lenient().when(statisticsBackfillJobRepository.findById(job.getId())).thenReturn(Optional.of(job));
+        return job;
+    }
+
+    // Trạng thái được ghi khi tiến trình kết thúc (lệnh cập nhật có finishedAt)
+    private Object finalStatus() {
+        ArgumentCaptor<UpdateDefinition> updates = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate, timeout(5_000).atLeastOnce()).updateFirst(any(Query.class),
+                argThat(update -> {
+                    Document set = (Document) update.getUpdateObject().get("$set");
+                    return set != null && set.containsKey("finishedAt");
+                }), eq(StatisticsBackfillJob.class));
+        verify(mongoTemplate, atLeastOnce()).updateFirst(any(Query.class), updates.capture(), eq(StatisticsBackfillJob.class));
+        return updates.getAllValues().stream()
+                .map(update -> (Document) update.getUpdateObject().get("$set"))
+                .filter(set -> set != null && set.containsKey("finishedAt"))
+                .map(set -> set.get("status"))
+                .reduce((a, b) -> b)
+                .orElse(null);
+    }
+
+    private static Date day(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, day);
+        return calendar.getTime();
+    }
+}
@@ -0,0 +1,60 @@
+package com.hcmute.pttechecommercewebsite;
+
+import com.hcmute.pttechecommercewebsite.service.StatisticsRollupService;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import java.util.Calendar;
+import java.util.Date;
+
+import static com.hcmute.pttechecommercewebsite.service.StatisticsRollupService.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class StatisticsRollupServiceTest {
+
+    // Thứ Năm 14/03/2024 15:42:10
+    private static final Date THURSDAY = date(2024, Calendar.MARCH, 14, 15, 42, 10);
+
+    @Test
+    @DisplayName("Đầu khoảng theo giờ / ngày / tuần (thứ Hai) / tháng")
+    void periodStartForEachResolution() {
+        assertEquals(date(2024, Calendar.MARCH, 14, 15, 0, 0), StatisticsRollupService.periodStart(HOUR, THURSDAY));
+        assertEquals(date(2024, Calendar.MARCH, 14, 0, 0, 0), StatisticsRollupService.periodStart(DAY, THURSDAY));
+        assertEquals(date(2024, Calendar.MARCH, 11, 0, 0, 0), StatisticsRollupService.periodStart(WEEK, THURSDAY));
+        assertEquals(date(2024, Calendar.MARCH, 1, 0, 0, 0), StatisticsRollupService.periodStart(MONTH, THURSDAY));
+    }
+
+    @Test
+    @DisplayName("Chủ nhật thuộc tuần bắt đầu từ thứ Hai trước đó")
+    void sundayBelongsToPreviousMonday() {
+        Date sunday = date(2024, Calendar.MARCH, 17, 23, 59, 59);
+        assertEquals(date(2024, Calendar.MARCH, 11, 0, 0, 0), StatisticsRollupService.periodStart(WEEK, sunday));
+    }
+
+    @Test
+    @DisplayName("Cuối khoảng là đầu khoảng kế tiếp")
+    void periodEndIsNextPeriodStart() {
+        assertEquals(date(2024, Calendar.MARCH, 14, 16, 0, 0),
+                StatisticsRollupService.periodEnd(HOUR, StatisticsRollupService.periodStart(HOUR, THURSDAY)));
+        assertEquals(date(2024, Calendar.MARCH, 18, 0, 0, 0),
+                StatisticsRollupService.periodEnd(WEEK, StatisticsRollupService.periodStart(WEEK, THURSDAY)));
+        assertEquals(date(2024, Calendar.APRIL, 1, 0, 0, 0),
+                StatisticsRollupService.periodEnd(MONTH, StatisticsRollupService.periodStart(MONTH, THURSDAY)));
+    }
+
+    @Test
+    @DisplayName("Độ phân giải theo độ dài khoảng truy vấn")
+    void resolutionForRange() {
+        assertEquals(HOUR, StatisticsRollupService.resolutionFor(THURSDAY, date(2024, Calendar.MARCH, 15, 15, 42, 10)));
+        assertEquals(DAY, StatisticsRollupService.resolutionFor(THURSDAY, date(2024, Calendar.APRIL, 10, 0, 0, 0)));
+        assertEquals(WEEK, StatisticsRollupService.resolutionFor(THURSDAY, date(2024, Calendar.JULY, 1, 0, 0, 0)));
+        assertEquals(MONTH, StatisticsRollupService.resolutionFor(THURSDAY, date(2025, Calendar.MARCH, 14, 0, 0, 0)));
+    }
+
+    private static Date date(int year, int month, int day, int hour, int minute, int second) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, day, hour, minute, second);
+        return calendar.getTime();
+    }
+}
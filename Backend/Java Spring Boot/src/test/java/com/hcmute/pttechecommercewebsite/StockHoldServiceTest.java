@@ -0,0 +1,106 @@
+package com.hcmute.pttechecommercewebsite;
+
+import com.hcmute.pttechecommercewebsite.model.Order;
+import com.hcmute.pttechecommercewebsite.model.StockHold;
+import com.hcmute.pttechecommercewebsite.repository.StockHoldRepository;
+import com.hcmute.pttechecommercewebsite.service.StockHoldService;
+import com.hcmute.pttechecommercewebsite.service.StockReservationService;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class StockHoldServiceTest {
+
+    @Mock
+    private StockHoldRepository stockHoldRepository;
+
+    @Mock
+    private StockReservationService stockReservationService;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private StockHoldService stockHoldService;
+
+    @BeforeEach
+    void setUp() {
+        stockHoldService = new StockHoldService(stockHoldRepository, stockReservationService, mongoTemplate);
+    }
+
+    @Test
+    @DisplayName("Lượt giữ quá hạn chưa thanh toán: đánh dấu đơn và trả lại tồn kho đã giữ")
+    void expiredHoldReleasesStock() {
+        StockHold hold = hold(3);
+        when(mongoTemplate.find(any(Query.class), eq(StockHold.class))).thenReturn(List.of(hold));
+        when(mongoTemplate.findAndRemove(any(Query.class), eq(StockHold.class))).thenReturn(hold);
+
+        stockHoldService.expireHolds();
+
+        assertEquals(List.of(true), stockReleasedWrites());
+        verify(stockReservationService).release(argThat(lines -> lines.size() == 1 && lines.get(0).getQuantity() == 3));
+    }
+
+    @Test
+    @DisplayName("Thanh toán giành được lượt giữ trước: bỏ đánh dấu, không trả tồn kho")
+    void paymentWinsOverExpiry() {
+        StockHold hold = hold(3);
+        when(mongoTemplate.find(any(Query.class), eq(StockHold.class))).thenReturn(List.of(hold));
+        // IPN đã xóa lượt giữ giữa lần đọc và lần giành
+        when(mongoTemplate.findAndRemove(any(Query.class), eq(StockHold.class))).thenReturn(null);
+
+        stockHoldService.expireHolds();
+
+        assertEquals(List.of(true, false), stockReleasedWrites());
+        verifyNoInteractions(stockReservationService);
+    }
+
+    @Test
+    @DisplayName("Thanh toán sau khi lượt giữ đã bị giành: remove báo không còn lượt giữ")
+    void removeAfterExpiryReportsMissingHold() {
+        when(mongoTemplate.findAndRemove(any(Query.class), eq(StockHold.class))).thenReturn(null);
+        assertFalse(stockHoldService.remove("ORD-test"));
+
+        when(mongoTemplate.findAndRemove(any(Query.class), eq(StockHold.class))).thenReturn(hold(1));
+        assertTrue(stockHoldService.remove("ORD-test"));
+    }
+
+    // Các giá trị stockReleased được ghi vào đơn hàng, theo thứ tự
+    private List<Object> stockReleasedWrites() {
+        ArgumentCaptor<UpdateDefinition> updates = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate, atLeastOnce()).updateFirst(any(Query.class), updates.capture(), eq(Order.class));
+        return updates.getAllValues().stream()
+                .map(update -> ((Document) update.getUpdateObject().get("$set")).get("stockReleased"))
+                .toList();
+    }
+
+    private static StockHold hold(int quantity) {
+        return StockHold.builder()
+                .id(new ObjectId().toHexString())
+                .orderId("ORD-test")
+                .items(List.of(StockHold.Item.builder()
+                        .productId(new ObjectId())
+                        .variantId(new ObjectId())
+                        .quantity(quantity)
+                        .build()))
+                .expiresAt(new Date(System.currentTimeMillis() - 60_000))
+                .build();
+    }
+}
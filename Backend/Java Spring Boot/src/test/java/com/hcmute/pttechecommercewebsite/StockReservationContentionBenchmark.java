@@ -0,0 +1,116 @@
+package com.hcmute.pttechecommercewebsite;
+
+import com.hcmute.pttechecommercewebsite.model.Product;
+import com.hcmute.pttechecommercewebsite.service.StockReservationService;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Đo tranh chấp khi nhiều đơn cùng giữ hàng trên một biến thể, cần một MongoDB thật:
+// mvn test -Dtest=StockReservationContentionBenchmark -Dbenchmark.mongodb.uri=mongodb://localhost:27017
+// Dữ liệu được ghi vào database tạm "stock_benchmark_<ngẫu nhiên>" và bị xóa sau khi chạy.
+@EnabledIfSystemProperty(named = "benchmark.mongodb.uri", matches = ".+")
+public class StockReservationContentionBenchmark {
+
+    private static final int INITIAL_STOCK = 500;
+    private static final int THREADS = 32;
+    private static final int ORDERS_PER_THREAD = 50;
+
+    private MongoClient client;
+    private MongoTemplate mongoTemplate;
+    private StockReservationService stockReservationService;
+
+    @BeforeEach
+    void setUp() {
+        client = MongoClients.create(System.getProperty("benchmark.mongodb.uri"));
+        mongoTemplate = new MongoTemplate(client, "stock_benchmark_" + new ObjectId().toHexString());
+        stockReservationService = new StockReservationService(mongoTemplate, event -> { });
+    }
+
+    @AfterEach
+    void tearDown() {
+        mongoTemplate.getDb().drop();
+        client.close();
+    }
+
+    // Các đơn đặt song song không được bán vượt tồn kho và không làm mất cập nhật
+    @Test
+    @DisplayName("Giữ hàng song song không bán vượt tồn kho")
+    void parallelOrdersNeverOversell() throws Exception {
+        ObjectId first = new ObjectId();
+        ObjectId second = new ObjectId();
+        Product product = mongoTemplate.insert(Product.builder()
+                .name("Benchmark")
+                .variants(List.of(
+                        Product.Variant.builder().variantId(first).stock(INITIAL_STOCK).build(),
+                        Product.Variant.builder().variantId(second).stock(INITIAL_STOCK).build()))
+                .totalSold(0)
+                .isDeleted(false)
+                .build());
+
+        AtomicInteger reservedFirst = new AtomicInteger();
+        AtomicInteger reservedSecond = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < ORDERS_PER_THREAD; i++) {
+                    int quantityFirst = ThreadLocalRandom.current().nextInt(1, 4);
+                    int quantitySecond = ThreadLocalRandom.current().nextInt(1, 4);
+                    List<StockReservationService.Line> lines = List.of(
+                            new StockReservationService.Line(product.getId(), first.toHexString(), quantityFirst),
+                            new StockReservationService.Line(product.getId(), second.toHexString(), quantitySecond));
+
+                    // Cả đơn hoặc không gì cả: đơn bị từ chối phải hoàn lại phần đã trừ
+                    if (stockReservationService.reserve(lines, false).isEmpty()) {
+                        reservedFirst.addAndGet(quantityFirst);
+                        reservedSecond.addAndGet(quantitySecond);
+                    } else {
+                        rejected.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+
+        long startedAt = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
+        executor.shutdown();
+
+        Product result = mongoTemplate.findById(product.getId(), Product.class);
+        int stockFirst = result.getVariants().get(0).getStock();
+        int stockSecond = result.getVariants().get(1).getStock();
+
+        int orders = THREADS * ORDERS_PER_THREAD;
+        System.out.println("Đơn: " + orders + ", bị từ chối: " + rejected.get() + ", thời gian: " + elapsedMs
+                + " ms (" + (orders * 1000L / Math.max(1, elapsedMs)) + " đơn/giây)");
+        System.out.println("Tồn kho còn lại: " + stockFirst + " / " + stockSecond);
+
+        assertTrue(stockFirst >= 0 && stockSecond >= 0);
+        assertEquals(INITIAL_STOCK - reservedFirst.get(), stockFirst);
+        assertEquals(INITIAL_STOCK - reservedSecond.get(), stockSecond);
+        assertEquals(reservedFirst.get() + reservedSecond.get(), result.getTotalSold());
+    }
+}
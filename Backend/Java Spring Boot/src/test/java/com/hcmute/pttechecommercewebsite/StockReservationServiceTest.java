@@ -0,0 +1,142 @@
+package com.hcmute.pttechecommercewebsite;
+
+import com.hcmute.pttechecommercewebsite.model.Product;
+import com.hcmute.pttechecommercewebsite.service.StockReservationService;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class StockReservationServiceTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @Mock
+    private ApplicationEventPublisher eventPublisher;
+
+    @Mock
+    private BulkOperations restoreBulk;
+
+    // Các lệnh update giữ hàng, theo thứ tự dòng
+    private final List<UpdateDefinition> reserveUpdates = new ArrayList<>();
+
+    private StockReservationService stockReservationService;
+
+    @BeforeEach
+    void setUp() {
+        stockReservationService = new StockReservationService(mongoTemplate, eventPublisher);
+    }
+
+    @Test
+    @DisplayName("Tất cả các dòng đủ hàng: mỗi dòng một lệnh $inc có điều kiện, không hoàn lại")
+    void reserveAllLinesApplied() {
+        StockReservationService.Line first = line(2);
+        StockReservationService.Line second = line(1);
+        stubReserve(1, 1);
+
+        List<StockReservationService.Line> failed = stockReservationService.reserve(List.of(first, second), false);
+
+        assertTrue(failed.isEmpty());
+        assertEquals(2, reserveUpdates.size());
+        Document inc = (Document) reserveUpdates.get(0).getUpdateObject().get("$inc");
+        assertEquals(-2, inc.get("variants.$[v].stock"));
+        assertEquals(2, inc.get("totalSold"));
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(Product.class));
+    }
+
+    @Test
+    @DisplayName("Một dòng hết hàng, không cho đặt một phần: hoàn lại đúng các dòng đã trừ")
+    void reserveRestoresAppliedLinesWhenOneFails() {
+        StockReservationService.Line first = line(2);
+        StockReservationService.Line second = line(1);
+        stubReserve(1, 0);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class)).thenReturn(restoreBulk);
+
+        List<StockReservationService.Line> failed = stockReservationService.reserve(List.of(first, second), false);
+
+        assertEquals(List.of(second), failed);
+        ArgumentCaptor<Update> restored = ArgumentCaptor.forClass(Update.class);
+        verify(restoreBulk).updateOne(any(Query.class), restored.capture());
+        Document inc = (Document) restored.getValue().getUpdateObject().get("$inc");
+        assertEquals(2, inc.get("variants.$[v].stock"));
+        assertEquals(-2, inc.get("totalSold"));
+        verify(restoreBulk).execute();
+    }
+
+    @Test
+    @DisplayName("Một dòng hết hàng, cho đặt một phần: giữ các dòng đã trừ")
+    void reservePartialKeepsAppliedLines() {
+        StockReservationService.Line first = line(2);
+        StockReservationService.Line second = line(1);
+        stubReserve(0, 1);
+
+        List<StockReservationService.Line> failed = stockReservationService.reserve(List.of(first, second), true);
+
+        assertEquals(List.of(first), failed);
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(Product.class));
+    }
+
+    @Test
+    @DisplayName("Dòng không hợp lệ bị trả về mà không gửi lệnh nào")
+    void reserveRejectsInvalidLines() {
+        StockReservationService.Line invalid = new StockReservationService.Line("abc", new ObjectId().toHexString(), 1);
+        StockReservationService.Line empty = line(0);
+
+        assertEquals(List.of(invalid, empty), stockReservationService.reserve(List.of(invalid, empty), false));
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    @DisplayName("Hoàn lại: các dòng cùng biến thể được gộp thành một lệnh $inc")
+    void releaseMergesLinesOfSameVariant() {
+        String productId = new ObjectId().toHexString();
+        String variantId = new ObjectId().toHexString();
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Product.class)).thenReturn(restoreBulk);
+
+        stockReservationService.release(List.of(
+                new StockReservationService.Line(productId, variantId, 2),
+                new StockReservationService.Line(productId, variantId, 3),
+                line(0)));
+
+        ArgumentCaptor<Update> restored = ArgumentCaptor.forClass(Update.class);
+        verify(restoreBulk, times(1)).updateOne(any(Query.class), restored.capture());
+        assertEquals(5, ((Document) restored.getValue().getUpdateObject().get("$inc")).get("variants.$[v].stock"));
+        verify(restoreBulk).execute();
+    }
+
+    // Lệnh giữ hàng của dòng thứ i sửa modified[i] bản ghi
+    private void stubReserve(int... modified) {
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(Product.class))).thenAnswer(invocation -> {
+            reserveUpdates.add(invocation.getArgument(1));
+            int count = modified[reserveUpdates.size() - 1];
+            return UpdateResult.acknowledged(count, (long) count, null);
+        });
+    }
+
+    private static StockReservationService.Line line(int quantity) {
+        return new StockReservationService.Line(new ObjectId().toHexString(), new ObjectId().toHexString(), quantity);
+    }
+}
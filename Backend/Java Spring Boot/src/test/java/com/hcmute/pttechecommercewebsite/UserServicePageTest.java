@@ -0,0 +1,55 @@
+package com.hcmute.pttechecommercewebsite;
+
+import com.hcmute.pttechecommercewebsite.dto.CursorPageDTO;
+import com.hcmute.pttechecommercewebsite.model.User;
+import com.hcmute.pttechecommercewebsite.service.UserService;
+import com.hcmute.pttechecommercewebsite.util.CursorPaginationUtil;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class UserServicePageTest {
+
+    @Mock
+    private CursorPaginationUtil cursorPaginationUtil;
+
+    @InjectMocks
+    private UserService userService;
+
+    @Test
+    @DisplayName("Trường sắp xếp ngoài danh sách cho phép bị từ chối trước khi truy vấn")
+    void rejectsSortFieldOutsideWhitelist() {
+        assertThrows(IllegalArgumentException.class,
+                () -> userService.getUsersPage("password", "asc", null, 10, false));
+
+        verifyNoInteractions(cursorPaginationUtil);
+    }
+
+    @Test
+    @DisplayName("Trường sắp xếp hợp lệ được chuyển cho phân trang cursor")
+    void acceptsWhitelistedSortField() {
+        when(cursorPaginationUtil.find(any(Query.class), eq(User.class), eq("email"), eq(Sort.Direction.DESC),
+                isNull(), eq(10), anyBoolean()))
+                .thenReturn(CursorPageDTO.<User>builder().items(List.of()).hasMore(false).pageSize(10).build());
+
+        CursorPageDTO<?> page = userService.getUsersPage("email", "desc", null, 10, false);
+
+        assertEquals(0, page.getItems().size());
+    }
+}
@@ -0,0 +1,104 @@
+package com.hcmute.pttechecommercewebsite;
+
+import com.hcmute.pttechecommercewebsite.model.Order;
+import com.hcmute.pttechecommercewebsite.model.UserMonthlySpending;
+import com.hcmute.pttechecommercewebsite.service.UserSpendingService;
+import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class UserSpendingServiceTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    private UserSpendingService userSpendingService;
+
+    @BeforeEach
+    void setUp() {
+        userSpendingService = new UserSpendingService(mongoTemplate);
+    }
+
+    @Test
+    @DisplayName("Đơn đã thanh toán: cộng một lần vào tháng của đơn")
+    void syncRecordsPaidOrderOnce() {
+        Order order = order("Đã thanh toán", "Đã giao");
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(Order.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null), UpdateResult.acknowledged(0, 0L, null));
+
+        userSpendingService.sync(order);
+        userSpendingService.sync(order);
+
+        ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate, times(1)).upsert(any(Query.class), update.capture(), eq(UserMonthlySpending.class));
+        Document inc = (Document) update.getValue().getUpdateObject().get("$inc");
+        assertEquals(250.0, inc.get("totalSpending"));
+        assertEquals(1, inc.get("orderCount"));
+        assertTrue(order.isSpendingRecorded());
+    }
+
+    @Test
+    @DisplayName("Đơn bị hủy sau khi đã cộng: trừ lại đúng phần đã cộng")
+    void syncRevertsCancelledOrder() {
+        Order order = order("Đã thanh toán", "Đã hủy");
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(Order.class)))
+                .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+        when(mongoTemplate.remove(any(Query.class), eq(UserMonthlySpending.class))).thenReturn(DeleteResult.acknowledged(0));
+
+        userSpendingService.sync(order);
+
+        ArgumentCaptor<UpdateDefinition> update = ArgumentCaptor.forClass(UpdateDefinition.class);
+        verify(mongoTemplate).updateFirst(any(Query.class), update.capture(), eq(UserMonthlySpending.class));
+        Document inc = (Document) update.getValue().getUpdateObject().get("$inc");
+        assertEquals(-250.0, inc.get("totalSpending"));
+        assertEquals(-1, inc.get("orderCount"));
+        verify(mongoTemplate, never()).upsert(any(Query.class), any(UpdateDefinition.class), eq(UserMonthlySpending.class));
+    }
+
+    @Test
+    @DisplayName("Đơn chưa được cộng: trừ lại không làm gì")
+    void revertWithoutRecordIsNoOp() {
+        Order order = order("Chưa thanh toán", "Chờ xác nhận");
+        when(mongoTemplate.updateFirst(any(Query.class), any(UpdateDefinition.class), eq(Order.class)))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        userSpendingService.revert(order);
+
+        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(UpdateDefinition.class), eq(UserMonthlySpending.class));
+    }
+
+    private static Order order(String paymentStatus, String orderStatus) {
+        return Order.builder()
+                .id(new ObjectId().toHexString())
+                .userId(new ObjectId())
+                .items(List.of(Order.Item.builder().categoryId(new ObjectId()).discountPrice(100.0).quantity(2).build()))
+                .totalPrice(200.0)
+                .shippingPrice(50.0)
+                .finalPrice(250.0)
+                .paymentStatus(paymentStatus)
+                .orderStatus(orderStatus)
+                .createdAt(new Date())
+                .build();
+    }
+}
@@ -1,5 +1,6 @@
 import { useState, useEffect } from "react";
 import axios from "axios";
+import Cookies from "js-cookie";
 
 const useDiscountCodes = () => {
   const [discountCodes, setDiscountCodes] = useState([]);
@@ -8,9 +9,16 @@ const useDiscountCodes = () => {
 
   useEffect(() => {
     const fetchDiscountCodes = async () => {
+      // API yêu cầu đăng nhập: mã đã sử dụng được xác định theo người dùng trong token
+      const token = Cookies.get("accessToken");
+      if (!token) {
+        setLoading(false);
+        return;
+      }
       try {
         const response = await axios.get(
-          "http://localhost:8081/api/discount-codes/usable"
+          "http://localhost:8081/api/discount-codes/usable",
+          { headers: { Authorization: `Bearer ${token}` } }
         );
         setDiscountCodes(response.data);
       } catch (err) {